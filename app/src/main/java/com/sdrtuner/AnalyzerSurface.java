@@ -17,7 +17,8 @@ import android.view.SurfaceView;
 
 public class AnalyzerSurface extends SurfaceView implements SurfaceHolder.Callback,
 															ScaleGestureDetector.OnScaleGestureListener,
-															GestureDetector.OnGestureListener {
+															GestureDetector.OnGestureListener,
+															SpectrumView {
 
 	// Gesture detectors to detect scaling, scrolling ...
 	private ScaleGestureDetector scaleGestureDetector = null;
@@ -30,12 +31,12 @@ public class AnalyzerSurface extends SurfaceView implements SurfaceHolder.Callba
 	private Paint backgroundPaint = null;		// Paint object to draw black (erase)
 	private Paint fftPaint = null;			// Paint object to draw the fft lines
 	private Paint peakHoldPaint = null;		// Paint object to draw the fft peak hold points
-	private Paint waterfallLinePaint = null;// Paint object to draw one waterfall pixel
 	private Paint textPaint = null;			// Paint object to draw text on the canvas
 	private Paint textSmallPaint = null;	// Paint object to draw small text on the canvas
 	private Paint channelSelectorPaint = null;// Paint object to draw the area of the channel
 	private Paint channelWidthSelectorPaint = null;// Paint object to draw the borders of the channel
 	private Paint squelchPaint = null;		// Paint object to draw the squelch selector
+	private Paint signalPaint = null;		// Paint object to draw the markers of detected signals
 	private int width;						// current width (in pixels) of the SurfaceView
 	private int height;						// current height (in pixels) of the SurfaceView
 	private boolean doAutoscaleInNextDraw = false;	// will cause draw() to adjust minDB and maxDB according to the samples
@@ -51,8 +52,10 @@ public class AnalyzerSurface extends SurfaceView implements SurfaceHolder.Callba
 
 	private int[] waterfallColorMap = null;		// Colors used to draw the waterfall plot.
 												// idx 0 -> weak signal   idx max -> strong signal
-	private Bitmap[] waterfallLines = null;		// Each array element holds one line in the waterfall plot
-	private int waterfallLinesTopIndex = 0;		// Indicates which array index in waterfallLines is the most recent (circular array)
+	private WaterfallRenderer waterfallRenderer = null;	// Generates the waterfall lines into a circular pixel buffer
+	private Bitmap waterfallBitmap = null;		// Holds all lines of the waterfall plot (same layout as the pixel buffer)
+	private Rect waterfallSrcRect = new Rect();	// source rectangle for blitting the waterfall bitmap
+	private Rect waterfallDstRect = new Rect();	// destination rectangle for blitting the waterfall bitmap
 	private int waterfallColorMapType = COLORMAP_GQRX;
 	public static final int COLORMAP_JET = 1;		// BLUE(0,0,1) - LIGHT_BLUE(0,1,1) - GREEN(0,1,0) - YELLOW(1,1,0) - RED(1,0,0)
 	public static final int COLORMAP_HOT = 2;		// BLACK (0,0,0) - RED (1,0,0) - YELLOW (1,1,0) - WHITE (1,1,1)
@@ -63,12 +66,25 @@ public class AnalyzerSurface extends SurfaceView implements SurfaceHolder.Callba
 	public static final int FFT_DRAWING_TYPE_BAR = 1;	// draw as bars
 	public static final int FFT_DRAWING_TYPE_LINE = 2;	// draw as line
 
-	private int averageLength = 0;				// indicates whether or not peak hold points should be drawn
-	private float[][] historySamples;			// array that holds the last averageLength fft sample packets
-	private int oldesthistoryIndex;				// index in historySamples which holds the oldest samples
 	private boolean peakHoldEnabled = false;	// indicates whether peak hold should be enabled or disabled
 	private float[] peaks;						// peak hold points
 
+	// Pyramids (mean and max per power-of-two bin group) of the spectra. Built once per frame:
+	private int spectrumReduction = SpectrumPyramid.REDUCTION_MEAN;	// how bins that fall on one pixel are combined
+	private SpectrumPyramid magPyramid = new SpectrumPyramid();			// pyramid of the (time averaged) fft
+	private SpectrumPyramid peakPyramid = new SpectrumPyramid();		// pyramid of the peak hold points
+	private SpectrumPyramid waterfallPyramid = new SpectrumPyramid();	// pyramid of the not averaged fft (waterfall)
+
+	private SignalDetector signalDetector = null;	// delivers the active signals; null if detection is off
+	private SignalDetector.Signal[] activeSignals = new SignalDetector.Signal[SignalDetector.MAX_SIGNALS];
+	private int activeSignalCount = 0;				// number of valid entries in activeSignals
+
+	private volatile ZoomFFT zoomFFT = null;		// delivers the zoomed spectrum around the channel; null if zoom is off
+	private float[] zoomMag = null;					// snapshot of the zoomed spectrum
+	private int zoomBins = 0;						// number of valid entries in zoomMag
+	private static final float ZOOM_INSET_WIDTH = 0.4f;		// width of the zoom inset (relative to the width)
+	private static final float ZOOM_INSET_HEIGHT = 0.4f;	// height of the zoom inset (relative to the fft height)
+
 	// virtual frequency and sample rate indicate the current visible viewport of the fft. they vary from
 	// the actual values when the user does scrolling and zooming
 	private long virtualFrequency = -1;		// Center frequency of the fft (baseband) AS SHOWN ON SCREEN
@@ -87,7 +103,8 @@ public class AnalyzerSurface extends SurfaceView implements SurfaceHolder.Callba
 	private long channelFrequency = -1;				// center frequency of the demodulator
 	private int channelWidth = -1;					// (half) width of the channel filter of the demodulator
 	private float squelch = Float.NaN;				// squelch threshold in dB
-	private boolean squelchSatisfied = false;		// indicates whether the current signal is strong enough to cross the squelch threshold
+	private final SquelchThreshold squelchThreshold = new SquelchThreshold();	// manual or adaptive threshold of the squelch
+	private volatile Squelch demodulatorSquelch = null;	// squelch of the demodulator (gets the threshold; its state is shown)
 	private boolean showLowerBand = true;			// indicates whether the lower side band of the channel selector is visible
 	private boolean showUpperBand = true;			// indicates whether the upper side band of the channel selector is visible
 
@@ -108,6 +125,7 @@ public class AnalyzerSurface extends SurfaceView implements SurfaceHolder.Callba
 	public static final int FONT_SIZE_LARGE = 3;
 	private int fontSize = FONT_SIZE_MEDIUM;		// Indicates the font size of the grid labels
 	private boolean showDebugInformation = false;
+	private volatile AudioSink audioSink = null;		// audio output (its latency is shown in the debug information)
 
     private String fftColor = "#ffcccc";
 	private String backgrColor = "#1a001a";
@@ -134,13 +152,14 @@ public class AnalyzerSurface extends SurfaceView implements SurfaceHolder.Callba
 		this.textSmallPaint = new Paint();
 		this.textSmallPaint.setColor(Color.WHITE);
 		this.textSmallPaint.setAntiAlias(true);
-		this.waterfallLinePaint = new Paint();
 		this.channelSelectorPaint = new Paint();
 		this.channelSelectorPaint.setColor(Color.WHITE);
 		this.channelWidthSelectorPaint = new Paint();
 		this.channelWidthSelectorPaint.setColor(Color.WHITE);
 		this.squelchPaint = new Paint();
 		this.squelchPaint.setColor(Color.RED);
+		this.signalPaint = new Paint();
+		this.signalPaint.setColor(Color.CYAN);
 
 		// Add a Callback to get informed when the dimensions of the SurfaceView changes:
 		this.getHolder().addCallback(this);
@@ -293,11 +312,35 @@ public class AnalyzerSurface extends SurfaceView implements SurfaceHolder.Callba
 	}
 
 	/**
-	 * Will change the number of history packets used to calculate the average.
-	 * @param length	number of history packets; 0 for no averaging
+	 * Will change how multiple fft bins that fall on the same pixel are combined
+	 * @param spectrumReduction	SpectrumPyramid.REDUCTION_MEAN, SpectrumPyramid.REDUCTION_MAX
+	 */
+	public void setSpectrumReduction(int spectrumReduction) {
+		this.spectrumReduction = spectrumReduction;
+	}
+
+	/**
+	 * @return SpectrumPyramid.REDUCTION_MEAN or SpectrumPyramid.REDUCTION_MAX
+	 */
+	public int getSpectrumReduction() {
+		return spectrumReduction;
+	}
+
+	/**
+	 * Will set the signal detector whose active signals are marked in the fft
+	 * @param signalDetector	detector instance or null to turn off the markers
+	 */
+	public void setSignalDetector(SignalDetector signalDetector) {
+		this.signalDetector = signalDetector;
+	}
+
+	/**
+	 * Will set the zoom fft whose spectrum is drawn as inset. It is moved to the channel frequency
+	 * (or to the center of the view if demodulation is off) on every frame.
+	 * @param zoomFFT	zoom fft instance or null to turn off the inset
 	 */
-	public void setAverageLength(int length) {
-		this.averageLength = length;
+	public void setZoomFFT(ZoomFFT zoomFFT) {
+		this.zoomFFT = zoomFFT;
 	}
 
 	/**
@@ -333,6 +376,27 @@ public class AnalyzerSurface extends SurfaceView implements SurfaceHolder.Callba
 	 */
 	public void setSquelch(float squelch) {
 		this.squelch = squelch;
+		squelchThreshold.setThreshold(squelch);
+	}
+
+	/**
+	 * Will turn the adaptive squelch on or off. The adaptive threshold follows the noise floor
+	 * around the channel; dragging the squelch selector changes its distance to the noise floor.
+	 *
+	 * @param noiseFloorEstimator	estimator that tracks the noise floor (fed by the processing loop)
+	 *                              or null for the manual squelch
+	 * @param offset				threshold in dB above the noise floor
+	 */
+	public void setAdaptiveSquelch(NoiseFloorEstimator noiseFloorEstimator, float offset) {
+		squelchThreshold.setNoiseFloorEstimator(noiseFloorEstimator);
+		squelchThreshold.setOffset(offset);
+	}
+
+	/**
+	 * @return current threshold of the adaptive squelch in dB above the noise floor
+	 */
+	public float getSquelchOffset() {
+		return squelchThreshold.getOffset();
 	}
 
 	/**
@@ -432,6 +496,22 @@ public class AnalyzerSurface extends SurfaceView implements SurfaceHolder.Callba
 		this.showDebugInformation = showDebugInformation;
 	}
 
+	/**
+	 * @param audioSink		audio output whose latency is shown in the debug information (or null)
+	 */
+	public void setAudioSink(AudioSink audioSink) {
+		this.audioSink = audioSink;
+	}
+
+	/**
+	 * @param squelch	squelch of the demodulator (or null). The surface passes the threshold of the
+	 *                  squelch selector to it and shows its state; the squelch itself is evaluated
+	 *                  by the demodulator on every packet.
+	 */
+	public void setDemodulatorSquelch(Squelch squelch) {
+		this.demodulatorSquelch = squelch;
+	}
+
 	/**
 	 * @param enabled true: will prevent the analyzerSurface from re-tune the frequency or change the sample rate.
 	 */
@@ -474,7 +554,6 @@ public class AnalyzerSurface extends SurfaceView implements SurfaceHolder.Callba
 				if(Float.isNaN(squelch) || squelch < minDB || squelch > maxDB) {
 					this.squelch = minDB + (maxDB - minDB) / 4;
 				}
-				rfControlInterface.updateSquelchSatisfied(squelchSatisfied);	// just to make sure the scheduler is still in sync with the gui
 			}
 			this.demodulationEnabled = demodulationEnabled;
 		}
@@ -488,29 +567,37 @@ public class AnalyzerSurface extends SurfaceView implements SurfaceHolder.Callba
 	public void setFftRatio(float fftRatio) {
 		if(fftRatio != this.fftRatio) {
 			this.fftRatio = fftRatio;
-			createWaterfallLineBitmaps();	// recreate the waterfall bitmaps
+			createWaterfallBitmap();	// recreate the waterfall bitmap
 			// Recreate the shaders:
 			this.fftPaint.setShader(new LinearGradient(0, 0, 0, getFftHeight(), Color.WHITE, Color.parseColor(fftColor), Shader.TileMode.MIRROR));
 		}
 	}
 
 	/**
-	 * Will initialize the waterfallLines array for the given width and height of the waterfall plot.
-	 * If the array is not null, it will be recycled first.
+	 * Will initialize the waterfall renderer and bitmap for the given width and height of the
+	 * waterfall plot. The bitmap holds one pixel row per waterfall line. If the old bitmap is
+	 * not null, it will be recycled first.
 	 */
-	private void createWaterfallLineBitmaps() {
+	private void createWaterfallBitmap() {
 		synchronized (this.getHolder()) {
-			// Recycle bitmaps if not null:
-			if (this.waterfallLines != null) {
-				for (Bitmap b : this.waterfallLines)
-					b.recycle();
+			// Recycle bitmap if not null:
+			if (this.waterfallBitmap != null) {
+				this.waterfallBitmap.recycle();
+				this.waterfallBitmap = null;
 			}
 
-			// Create new array:
-			this.waterfallLinesTopIndex = 0;
-			this.waterfallLines = new Bitmap[getWaterfallHeight() / getPixelPerWaterfallLine()];
-			for (int i = 0; i < waterfallLines.length; i++)
-				waterfallLines[i] = Bitmap.createBitmap(width, getPixelPerWaterfallLine(), Bitmap.Config.ARGB_8888);
+			int rows = getWaterfallHeight() / getPixelPerWaterfallLine();
+			if(width <= 0 || rows <= 0)
+				return;
+
+			// Create the pixel buffer and the bitmap:
+			if(this.waterfallRenderer == null)
+				this.waterfallRenderer = new WaterfallRenderer(width, rows);
+			else
+				this.waterfallRenderer.resize(width, rows);
+			this.waterfallRenderer.setColorMap(waterfallColorMap);
+			this.waterfallBitmap = Bitmap.createBitmap(width, rows, Bitmap.Config.ARGB_8888);
+			this.waterfallBitmap.setPixels(waterfallRenderer.getPixels(), 0, width, 0, 0, width, rows);
 		}
 	}
 
@@ -555,6 +642,8 @@ public class AnalyzerSurface extends SurfaceView implements SurfaceHolder.Callba
 				default:
 					Log.e(LOGTAG,"createWaterfallColorMap: Unknown color map type: " + waterfallColorMapType);
 			}
+			if(this.waterfallRenderer != null)
+				this.waterfallRenderer.setColorMap(waterfallColorMap);
 		}
 	}
 
@@ -589,7 +678,7 @@ public class AnalyzerSurface extends SurfaceView implements SurfaceHolder.Callba
 			this.fftPaint.setShader(new LinearGradient(0, 0, 0, getFftHeight(), Color.WHITE, Color.parseColor(fftColor), Shader.TileMode.MIRROR));
 
 			// Recreate the waterfall bitmaps:
-			this.createWaterfallLineBitmaps();
+			this.createWaterfallBitmap();
 
 			// Fix the text size of the text paint objects:
 			this.setFontSize(fontSize);
@@ -795,6 +884,7 @@ public class AnalyzerSurface extends SurfaceView implements SurfaceHolder.Callba
 					squelch = squelch + distanceY * dbPerPx;
 					if(squelch < minDB)
 						squelch = minDB;
+					squelchThreshold.setThreshold(squelch);
 					break;
 				default:
 					Log.e(LOGTAG,"onScroll: invalid scroll type: " + scrollType);
@@ -900,13 +990,16 @@ public class AnalyzerSurface extends SurfaceView implements SurfaceHolder.Callba
 	 * Will (re-)draw the given data set on the surface. Note that it actually only draws
 	 * a sub set of the fft data depending on the current settings of virtual frequency and sample rate.
 	 *
-	 * @param mag			array of magnitude values that represent the fft
+	 * @param mag			array of magnitude values that represent the fft (time averaged)
+	 * @param waterfallMag	array of magnitude values of the latest fft (not averaged) for the waterfall
 	 * @param frequency		center frequency
 	 * @param sampleRate	sample rate
 	 * @param frameRate 	current frame rate (FPS)
-	 * @param load			current load (percentage [0..1])
+	 * @param load			current load of the processing thread (percentage [0..1])
+	 * @param renderLoad	current load of the render thread (percentage [0..1])
 	 */
-	public void draw(float[] mag, long frequency, int sampleRate, int frameRate, double load) {
+	@Override
+	public void draw(float[] mag, float[] waterfallMag, long frequency, int sampleRate, int frameRate, double load, double renderLoad) {
 
 		if(virtualFrequency < 0)
 			virtualFrequency = frequency;
@@ -921,38 +1014,6 @@ public class AnalyzerSurface extends SurfaceView implements SurfaceHolder.Callba
 		int start = (int)((frequencyDiff - sampleRateDiff/2.0) * samplesPerHz);
 		int end = mag.length + (int)((frequencyDiff + sampleRateDiff/2.0) * samplesPerHz);
 
-		// Averaging
-		if(averageLength > 0) {
-			// verify that the history samples array is correctly initialized:
-			if(historySamples == null || historySamples.length != averageLength || historySamples[0].length != mag.length) {
-				historySamples = new float[averageLength][mag.length];
-				for (int i = 0; i < averageLength; i++) {
-					for (int j = 0; j < mag.length; j++) {
-						historySamples[i][j] = mag[j];
-					}
-				}
-				oldesthistoryIndex = 0;
-			}
-			// Check if the frequency or sample rate of the incoming signals is different from the ones before:
-			if(frequency != lastFrequency || sampleRate != lastSampleRate) {
-				for (int i = 0; i < averageLength; i++) {
-					for (int j = 0; j < mag.length; j++) {
-						historySamples[i][j] = mag[j];    // reset history. We could also shift and scale. But for now they are simply reset.
-					}
-				}
-			}
-			// calculate the averages (store them into mag). copy mag to oldest history index
-			float tmp;
-			for (int i = 0; i < mag.length; i++) {
-				tmp = mag[i];
-				for (int j = 0; j < historySamples.length; j++)
-					tmp += historySamples[j][i];
-				historySamples[oldesthistoryIndex][i] = mag[i];
-				mag[i] = tmp / (historySamples.length+1);
-			}
-			oldesthistoryIndex = (oldesthistoryIndex + 1) % historySamples.length;
-		}
-
 		// Autoscale
 		if(doAutoscaleInNextDraw) {
 			doAutoscaleInNextDraw = false;
@@ -995,29 +1056,45 @@ public class AnalyzerSurface extends SurfaceView implements SurfaceHolder.Callba
 			peaks = null;
 		}
 
-		// Update squelchSatisfied:
-		float averageSignalStrengh = -9999;		// avg magnitude of the signal in the center of the selected channel
+		// Build the pyramids for drawing (O(N), independent of the zoom level):
+		magPyramid.build(mag);
+		waterfallPyramid.build(waterfallMag);
+		if(peaks != null)
+			peakPyramid.build(peaks);
+
+		// Update the squelch threshold of the demodulator (the squelch is evaluated by the demodulator
+		// on every packet; the surface only shows its state):
+		float averageSignalStrengh = -9999;		// signal level of the selected channel (measured by the squelch)
 		if(demodulationEnabled) {
-			float sum = 0;
-			int chanStart = (int) ((channelFrequency - (frequency-sampleRate/2) - channelWidth/2) * samplesPerHz);
-			int chanEnd = (int)(chanStart + channelWidth * samplesPerHz);
-			if(chanStart > 0 && chanEnd <= mag.length) {
-				for (int i = chanStart; i < chanEnd; i++)
-					sum += mag[i];
-				averageSignalStrengh = sum / (chanEnd - chanStart);
-				if(averageSignalStrengh >= squelch && squelchSatisfied==false) {
-					squelchSatisfied = true;
-					this.squelchPaint.setColor(Color.GREEN);
-					rfControlInterface.updateSquelchSatisfied(squelchSatisfied);
-				} else if (averageSignalStrengh < squelch && squelchSatisfied==true) {
-					squelchSatisfied = false;
-					this.squelchPaint.setColor(Color.RED);
-					rfControlInterface.updateSquelchSatisfied(squelchSatisfied);
-				}
-				// else the squelchSatisfied flag is still valid. no actions needed...
+			if(!squelchThreshold.isAdaptive())
+				squelchThreshold.setLevel(squelch);		// (the manual threshold is kept in the viewport by the gestures)
+			squelchThreshold.update(channelFrequency, channelWidth);
+			if(squelchThreshold.isAdaptive() && !Float.isNaN(squelchThreshold.getNoiseFloor()))
+				squelch = squelchThreshold.getThreshold();	// follow the noise floor
+			Squelch demodSquelch = demodulatorSquelch;
+			if(demodSquelch != null) {
+				demodSquelch.setSpectrumScale(mag.length, sampleRate);
+				demodSquelch.setThreshold(squelch);
+				this.squelchPaint.setColor(demodSquelch.isOpen() ? Color.GREEN : Color.RED);
+				if(!Float.isNaN(demodSquelch.getLevel()))
+					averageSignalStrengh = demodSquelch.getLevel();
 			}
 		}
 
+		// Get a snapshot of the active signals:
+		SignalDetector detector = signalDetector;
+		activeSignalCount = detector != null ? detector.getActiveSignals(activeSignals) : 0;
+
+		// Move the zoom fft to the region of interest and get a snapshot of its spectrum:
+		ZoomFFT zoom = zoomFFT;
+		if(zoom != null) {
+			zoom.setFrequency(demodulationEnabled ? channelFrequency : virtualFrequency);
+			if(zoomMag == null || zoomMag.length != zoom.getFftSize() / 2)
+				zoomMag = new float[zoom.getFftSize() / 2];
+			zoomBins = zoom.getSpectrum(zoomMag);
+		} else
+			zoomBins = 0;
+
 		// Draw:
 		Canvas c = null;
 		try {
@@ -1026,11 +1103,13 @@ public class AnalyzerSurface extends SurfaceView implements SurfaceHolder.Callba
 			synchronized (this.getHolder()) {
 				if(c != null) {
 					// Draw all the components
-					drawFFT(c, mag, start, end);
-					drawWaterfall(c);
+					drawFFT(c, start, end);
+					drawWaterfall(c, start, end);
 					drawFrequencyGrid(c);
+					drawSignalMarkers(c);
 					drawPowerGrid(c);
-					drawPerformanceInfo(c, frameRate, load, averageSignalStrengh);
+					drawZoomFFT(c, zoom);
+					drawPerformanceInfo(c, frameRate, load, renderLoad, averageSignalStrengh);
 				} else
 					Log.d(LOGTAG, "draw: Canvas is null.");
 			}
@@ -1050,37 +1129,23 @@ public class AnalyzerSurface extends SurfaceView implements SurfaceHolder.Callba
 	}
 
 	/**
-	 * This method will draw the fft onto the canvas. It will also update the bitmap in
-	 * waterfallLines[waterfallLinesTopIndex] with the data from mag.
-	 * Important: start and end may be out of bounds of the mag array. This will cause black
+	 * This method will draw the fft (magPyramid) onto the canvas.
+	 * Important: start and end may be out of bounds of the fft. This will cause black
 	 * padding.
 	 *
-	 * @param c			canvas of the surface view
-	 * @param mag		array of magnitude values that represent the fft
-	 * @param start		first index to draw from mag (may be negative)
-	 * @param end		last index to draw from mag (may be > mag.length)
+	 * @param c				canvas of the surface view
+	 * @param start			first index to draw from the fft (may be negative)
+	 * @param end			last index to draw from the fft (may be > fft size)
 	 */
-	private void drawFFT(Canvas c, float[] mag, int start, int end) {
+	private void drawFFT(Canvas c, int start, int end) {
 		float previousY		 = getFftHeight();	// y coordinate of the previously processed pixel (only used with drawing type line)
 		float currentY;							// y coordinate of the currently processed pixel
 		float samplesPerPx 	= (float) (end-start) / (float) width;		// number of fft samples per one pixel
 		float dbDiff 		= maxDB - minDB;
 		float dbWidth 		= getFftHeight() / dbDiff; 	// Size (in pixel) per 1dB in the fft
-		float scale 		= this.waterfallColorMap.length / dbDiff;	// scale for the color mapping of the waterfall
-		float avg;				// Used to calculate the average of multiple values in mag (horizontal average)
-		float peakAvg;			// Used to calculate the average of multiple values in peaks
-		float waterfallAvg;		// Used to calculate the average of multiple values in historySamples[oldestHistoryIndex-1].
-								// This is used to ignore the time averaging in the waterfall plot
-		int counter;			// Used to calculate the average of multiple values in mag and peaks
-		int latestHistoryIndex = 0;
-
-		// latestHistoryIndex points to the current fft values inside the historySamples array and is used to calc waterfallAvg
-		if(historySamples != null)
-			latestHistoryIndex = oldesthistoryIndex==0 ? historySamples.length-1 : oldesthistoryIndex -1;
-
-		// Get a canvas from the bitmap of the current waterfall line and clear it:
-		Canvas newline = new Canvas(waterfallLines[waterfallLinesTopIndex]);
-		newline.drawColor(Color.BLACK);
+		float avg;				// reduced value (mean or max) of all bins on the current pixel
+		float peakAvg;			// reduced value (mean or max) of all peaks on the current pixel
+		int size = magPyramid.getSize();
 
 		// Clear the fft area in the canvas:
 		c.drawRect(0, 0, width, getFftHeight(), backgroundPaint);
@@ -1089,31 +1154,16 @@ public class AnalyzerSurface extends SurfaceView implements SurfaceHolder.Callba
 		int firstPixel = start>=0 ? 0 : (int)((start * -1) / samplesPerPx);
 
 		// We will only draw to the end of mag, not beyond:
-		int lastPixel = end>=mag.length ? (int) ((mag.length-start) / samplesPerPx) : (int) ((end-start) / samplesPerPx);
+		int lastPixel = end>=size ? (int) ((size-start) / samplesPerPx) : (int) ((end-start) / samplesPerPx);
 
 		// Draw pixel by pixel:
 		// We start at firstPixel+1 because of integer round off error
 		for (int i = firstPixel + 1; i < lastPixel; i++) {
-			// Calculate the average value for this pixel (horizontal average - not the time domain average):
-			avg = 0;
-			peakAvg = 0;
-			waterfallAvg = 0;
-			counter = 0;
-			for (int j = (int)(i*samplesPerPx); j < (i+1)*samplesPerPx; j++) {
-				avg += mag[j + start];
-				if(peaks != null)
-					peakAvg += peaks[j + start];
-				if(this.averageLength > 0)
-					waterfallAvg += historySamples[latestHistoryIndex][j + start];
-				counter++;
-			}
-			avg = avg / counter;
-			if(peaks != null)
-				peakAvg = peakAvg / counter;
-			if(this.averageLength > 0)
-				waterfallAvg = waterfallAvg / counter;
-			else
-				waterfallAvg = avg;	// no difference between avg and waterfallAvg
+			// Calculate the value for this pixel (horizontal reduction - not the time domain average):
+			int from = (int)(i*samplesPerPx) + start;
+			int to = (int)Math.ceil((i+1)*samplesPerPx) + start;
+			avg = magPyramid.getValue(spectrumReduction, from, to);
+			peakAvg = peaks != null ? peakPyramid.getValue(spectrumReduction, from, to) : 0;
 
 			// FFT:
 			if(avg > minDB) {
@@ -1145,42 +1195,43 @@ public class AnalyzerSurface extends SurfaceView implements SurfaceHolder.Callba
 						c.drawPoint(i,peakAvg,peakHoldPaint);
 				}
 			}
-
-			// Waterfall:
-			if(waterfallAvg <= minDB)
-				waterfallLinePaint.setColor(waterfallColorMap[0]);
-			else if(waterfallAvg >= maxDB)
-				waterfallLinePaint.setColor(waterfallColorMap[waterfallColorMap.length-1]);
-			else
-				waterfallLinePaint.setColor(waterfallColorMap[(int)((waterfallAvg-minDB)*scale)]);
-
-			if(getPixelPerWaterfallLine() > 1)
-				newline.drawLine(i, 0, i, getPixelPerWaterfallLine(), waterfallLinePaint);
-			else
-				newline.drawPoint(i, 0, waterfallLinePaint);
 		}
 	}
 
 	/**
-	 * This method will draw the waterfall plot onto the canvas.
+	 * This method will add a new line (generated from waterfallPyramid) to the waterfall and draw
+	 * the waterfall plot onto the canvas. Only the new line is copied into the waterfall bitmap.
+	 * The bitmap is a circular buffer, so it is drawn with two blits: from the newest line to the
+	 * end of the bitmap and then the wrapped part from the start of the bitmap.
 	 *
-	 * @param c			canvas of the surface view
+	 * @param c				canvas of the surface view
+	 * @param start			first index to draw from the fft (may be negative)
+	 * @param end			last index to draw from the fft (may be > fft size)
 	 */
-	private void drawWaterfall(Canvas c) {
+	private void drawWaterfall(Canvas c, int start, int end) {
+		if(waterfallBitmap == null)
+			return;
+
+		// generate the new line and copy it into the bitmap:
+		int topRow = waterfallRenderer.addRow(waterfallPyramid, spectrumReduction, start, end, minDB, maxDB);
+		waterfallBitmap.setPixels(waterfallRenderer.getRow(), 0, width, 0, topRow, width, 1);
+
+		int rows = waterfallRenderer.getRows();
 		int yPos = getFftHeight();
 		int yDiff = getPixelPerWaterfallLine();
 
-		// draw the bitmaps on the canvas:
-		for (int i = 0; i < waterfallLines.length; i++) {
-			int idx = (waterfallLinesTopIndex + i) % waterfallLines.length;
-			c.drawBitmap(waterfallLines[idx], 0, yPos, defaultPaint);
-			yPos += yDiff;
+		// newest line (topRow) to the end of the bitmap:
+		waterfallSrcRect.set(0, topRow, width, rows);
+		waterfallDstRect.set(0, yPos, width, yPos + (rows - topRow) * yDiff);
+		c.drawBitmap(waterfallBitmap, waterfallSrcRect, waterfallDstRect, defaultPaint);
+
+		// wrapped part (start of the bitmap up to the newest line):
+		if(topRow > 0) {
+			yPos = waterfallDstRect.bottom;
+			waterfallSrcRect.set(0, 0, width, topRow);
+			waterfallDstRect.set(0, yPos, width, yPos + topRow * yDiff);
+			c.drawBitmap(waterfallBitmap, waterfallSrcRect, waterfallDstRect, defaultPaint);
 		}
-
-		// move the array index (note that we have to decrement in order to do it correctly)
-		waterfallLinesTopIndex--;
-		if(waterfallLinesTopIndex < 0)
-			waterfallLinesTopIndex += waterfallLines.length;
 	}
 
 	/**
@@ -1305,7 +1356,10 @@ public class AnalyzerSurface extends SurfaceView implements SurfaceHolder.Callba
 			}
 
 			// draw squelch text above the squelch selector:
-			textStr = String.format("%2.1f dB", squelch);
+			if(squelchThreshold.isAdaptive())
+				textStr = String.format("%2.1f dB (%+2.1f dB)", squelch, squelchThreshold.getOffset());
+			else
+				textStr = String.format("%2.1f dB", squelch);
 			textSmallPaint.getTextBounds(textStr, 0, textStr.length(), bounds);
 			c.drawText(textStr, channelPosition - bounds.width()/2f, squelchPosition - bounds.height() * 0.1f, textSmallPaint);
 
@@ -1356,15 +1410,94 @@ public class AnalyzerSurface extends SurfaceView implements SurfaceHolder.Callba
 		}
 	}
 
+	/**
+	 * This method will mark the active signals of the signal detector in the fft: a bar that spans
+	 * the bandwidth of the signal at the top of the fft and the SNR above it.
+	 *
+	 * @param c				canvas of the surface view
+	 */
+	private void drawSignalMarkers(Canvas c) {
+		if(activeSignalCount == 0)
+			return;
+
+		float pxPerHz = width / (float) virtualSampleRate;
+		Rect bounds = new Rect();
+		textSmallPaint.getTextBounds("0", 0, 1, bounds);
+		float barHeight = bounds.height() * 0.5f;
+		float yPos = bounds.height() * 1.5f;
+		for (int i = 0; i < activeSignalCount; i++) {
+			SignalDetector.Signal signal = activeSignals[i];
+			float center = width/2 + pxPerHz * (signal.frequency - virtualFrequency);
+			float halfWidth = Math.max(pxPerHz * signal.bandwidth / 2, 1);
+			if(center + halfWidth < 0 || center - halfWidth > width)
+				continue;	// not visible
+			c.drawRect(center - halfWidth, yPos, center + halfWidth, yPos + barHeight, signalPaint);
+			String text = String.format("%2.0f", signal.snr);
+			c.drawText(text, center - textSmallPaint.measureText(text) / 2, yPos - barHeight * 0.5f, textSmallPaint);
+		}
+	}
+
+	/**
+	 * This method will draw the spectrum of the zoom fft (zoomMag) as inset into the upper left
+	 * corner of the fft. It uses the dB scale of the fft; bins that fall on one pixel are reduced
+	 * to their maximum so that narrow carriers stay visible.
+	 *
+	 * @param c				canvas of the surface view
+	 * @param zoom			zoom fft that delivered zoomMag (null if zoom is off)
+	 */
+	private void drawZoomFFT(Canvas c, ZoomFFT zoom) {
+		if(zoom == null || zoomBins == 0)
+			return;
+
+		float left = getGridSize();
+		float top = getFftHeight() * 0.1f;
+		float insetWidth = width * ZOOM_INSET_WIDTH;
+		float insetHeight = getFftHeight() * ZOOM_INSET_HEIGHT;
+		float bottom = top + insetHeight;
+		float dbWidth = insetHeight / (maxDB - minDB);	// Size (in pixel) per 1dB in the inset
+		float binsPerPx = zoomBins / insetWidth;
+
+		// background and border:
+		c.drawRect(left, top, left + insetWidth, bottom, backgroundPaint);
+		c.drawLine(left, top, left + insetWidth, top, textPaint);
+		c.drawLine(left, bottom, left + insetWidth, bottom, textPaint);
+		c.drawLine(left, top, left, bottom, textPaint);
+		c.drawLine(left + insetWidth, top, left + insetWidth, bottom, textPaint);
+
+		// spectrum (as line):
+		float previousY = bottom;
+		for (int i = 0; i < (int) insetWidth; i++) {
+			int from = (int) (i * binsPerPx);
+			int to = Math.min(zoomBins, Math.max(from + 1, (int) Math.ceil((i + 1) * binsPerPx)));
+			float max = zoomMag[from];
+			for (int j = from + 1; j < to; j++)
+				max = Math.max(max, zoomMag[j]);
+			float currentY = bottom - (max - minDB) * dbWidth;
+			currentY = Math.max(top, Math.min(bottom, currentY));
+			if(i > 0)
+				c.drawLine(left + i - 1, previousY, left + i, currentY, fftPaint);
+			previousY = currentY;
+		}
+
+		// center mark and label (span and resolution):
+		c.drawLine(left + insetWidth / 2, bottom, left + insetWidth / 2, bottom - insetHeight * 0.05f, textPaint);
+		Rect bounds = new Rect();
+		String text = String.format("Zoom %4.3f MHz  \u00b1%.2f kHz  %.1f Hz/bin", zoom.getSpectrumFrequency() / 1000000f,
+				zoom.getSpectrumSpan() / 2000f, zoom.getResolution());
+		textSmallPaint.getTextBounds(text, 0, text.length(), bounds);
+		c.drawText(text, left + insetWidth * 0.02f, top + bounds.height() * 1.2f, textSmallPaint);
+	}
+
 	/**
 	 * This method will draw the performance information into the canvas
 	 *
 	 * @param c				canvas of the surface view
 	 * @param frameRate 	current frame rate (FPS)
-	 * @param load			current load (percentage [0..1])
+	 * @param load			current load of the processing thread (percentage [0..1])
+	 * @param renderLoad	current load of the render thread (percentage [0..1])
 	 * @param averageSignalStrength		average magnitude of the signal in the selected channel
 	 */
-	private void drawPerformanceInfo(Canvas c, int frameRate, double load, float averageSignalStrength) {
+	private void drawPerformanceInfo(Canvas c, int frameRate, double load, double renderLoad, float averageSignalStrength) {
 		Rect bounds = new Rect();
 		String text;
 		float yPos = height * 0.01f;
@@ -1478,6 +1611,25 @@ public class AnalyzerSurface extends SurfaceView implements SurfaceHolder.Callba
 			textSmallPaint.getTextBounds(text, 0, text.length(), bounds);
 			c.drawText(text, rightBorder - bounds.width(), yPos + bounds.height(), textSmallPaint);
 			yPos += bounds.height() * 1.1f;
+
+			// Draw the render load
+			text = String.format("Render load: %3.1f %%", renderLoad * 100);
+			textSmallPaint.getTextBounds(text, 0, text.length(), bounds);
+			c.drawText(text, rightBorder - bounds.width(), yPos + bounds.height(), textSmallPaint);
+			yPos += bounds.height() * 1.1f;
+
+			// Draw the audio latency (and the clock correction of the adaptive audio output)
+			AudioSink sink = audioSink;
+			if(sink != null) {
+				if(sink.isAdaptive())
+					text = String.format("Audio: %3.0f ms  %+4.0f ppm  %d underruns", sink.getLatency(),
+							sink.getClockCorrection(), sink.getUnderruns());
+				else
+					text = String.format("Audio: %3.0f ms", sink.getLatency());
+				textSmallPaint.getTextBounds(text, 0, text.length(), bounds);
+				c.drawText(text, rightBorder - bounds.width(), yPos + bounds.height(), textSmallPaint);
+				yPos += bounds.height() * 1.1f;
+			}
 		}
 	}
 }
@@ -0,0 +1,13 @@
+package com.sdrtuner;
+
+import android.util.Log;
+
+/**
+ * Forwards the messages of the signal processing classes (DspLog) to the Android log
+ */
+public class AndroidLogOutput implements DspLog.Output {
+	@Override
+	public void log(int level, String tag, String message) {
+		Log.println(level, tag, message);	// DspLog levels use the same values as the Android priorities
+	}
+}
@@ -0,0 +1,219 @@
+package com.sdrtuner;
+
+import android.content.Context;
+import android.media.AudioAttributes;
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTimestamp;
+import android.media.AudioTrack;
+import android.util.Log;
+
+/**
+ * Audio sink that plays the demodulated audio with an Android AudioTrack
+ *
+ * The samples are written as float PCM (no conversion to 16 bit). In low latency mode the track
+ * is opened with PERFORMANCE_MODE_LOW_LATENCY and written in bursts of the native size; the
+ * device buffer starts at two bursts and grows by one burst for every underrun of the track.
+ * The latency from the write call to the speaker is measured with the timestamps (or the playback
+ * head position) of the track.
+ */
+public class AudioTrackSink extends AudioSink {
+	private static final String LOGTAG = "AudioTrackSink";
+	private static final int LOW_LATENCY_MAX_BURSTS = 8;			// capacity of the low latency track (bursts)
+	private static final long LATENCY_MEASURE_INTERVAL = 50000000;	// interval of the latency measurement (ns)
+	private static final float LATENCY_AVERAGE_ALPHA = 0.1f;		// smoothing of the measured latency
+	private AudioTrack audioTrack = null;		// AudioTrack object that is used to pass audio samples to the Android system
+	private volatile int bufferSize = 0;		// size of the AudioTrack buffer (frames)
+	private int framesPerBurst = 0;				// burst size of the device in low latency mode (0 = normal mode)
+	private int underrunCount = 0;				// last underrun count of the track (low latency mode)
+	private long framesWritten = 0;				// number of frames written to the track since startOutput()
+	private long nextMeasurement = 0;			// System.nanoTime() of the next latency measurement
+	private volatile float measuredLatency = -1;	// smoothed sample-to-speaker latency in ms (-1 = not measured yet)
+	private AudioTimestamp timestamp = new AudioTimestamp();
+	private float[] floatSamples = new float[0];	// tmp buffer for writeSamples()
+
+	/**
+	 * Constructor. Will create a new AudioTrackSink.
+	 *
+	 * @param packetSize	size of the incoming packets
+	 * @param sampleRate	sample rate of the audio signal
+	 */
+	public AudioTrackSink(int packetSize, int sampleRate) {
+		super(packetSize, sampleRate);
+	}
+
+	/**
+	 * Constructor for the adaptive mode: the audio is resampled to the native rate of the device
+	 * and buffered in a jitter buffer (see AudioSink).
+	 *
+	 * @param packetSize		size of the incoming packets
+	 * @param audioRate			sample rate of the demodulated audio
+	 * @param targetLatency		target fill level of the jitter buffer (ms)
+	 */
+	public AudioTrackSink(int packetSize, int audioRate, int targetLatency) {
+		super(packetSize, audioRate, AudioTrack.getNativeOutputSampleRate(AudioManager.STREAM_MUSIC), targetLatency);
+	}
+
+	/**
+	 * Will return the native burst size of the audio output. Low latency tracks should be written
+	 * in blocks of this size.
+	 *
+	 * @param context	context to get the AudioManager
+	 * @return frames per burst of the primary output (or 0 if unknown)
+	 */
+	public static int getFramesPerBurst(Context context) {
+		AudioManager audioManager = (AudioManager) context.getSystemService(Context.AUDIO_SERVICE);
+		String framesPerBuffer = audioManager == null ? null : audioManager.getProperty(AudioManager.PROPERTY_OUTPUT_FRAMES_PER_BUFFER);
+		try {
+			return framesPerBuffer == null ? 0 : Integer.parseInt(framesPerBuffer);
+		} catch (NumberFormatException e) {
+			Log.e(LOGTAG, "getFramesPerBurst: Invalid value: " + framesPerBuffer);
+			return 0;
+		}
+	}
+
+	/**
+	 * Will enable the low latency mode. Only works in adaptive mode (the track must run at the
+	 * native rate of the device) and must be called before start().
+	 *
+	 * @param framesPerBurst	burst size of the device (see getFramesPerBurst()); 0 disables the low latency mode
+	 */
+	public void setLowLatency(int framesPerBurst) {
+		if(!isAdaptive() && framesPerBurst > 0) {
+			Log.e(LOGTAG, "setLowLatency: Low latency mode requires the adaptive mode. Ignore.");
+			return;
+		}
+		this.framesPerBurst = framesPerBurst;
+	}
+
+	/**
+	 * @return true if the track is opened in low latency mode
+	 */
+	public boolean isLowLatency() {
+		return framesPerBurst > 0;
+	}
+
+	/**
+	 * Will create an instance of the AudioTrack class with the output rate of the sink
+	 */
+	private void createAudioTrack() {
+		int minBufferSize = AudioTrack.getMinBufferSize(getSampleRate(), AudioFormat.CHANNEL_OUT_MONO, AudioFormat.ENCODING_PCM_FLOAT);
+		AudioTrack.Builder builder = new AudioTrack.Builder()
+				.setAudioAttributes(new AudioAttributes.Builder()
+						.setUsage(AudioAttributes.USAGE_MEDIA)
+						.setContentType(AudioAttributes.CONTENT_TYPE_MUSIC)
+						.build())
+				.setAudioFormat(new AudioFormat.Builder()
+						.setSampleRate(getSampleRate())
+						.setEncoding(AudioFormat.ENCODING_PCM_FLOAT)
+						.setChannelMask(AudioFormat.CHANNEL_OUT_MONO)
+						.build())
+				.setTransferMode(AudioTrack.MODE_STREAM);
+		if(isLowLatency()) {
+			builder.setPerformanceMode(AudioTrack.PERFORMANCE_MODE_LOW_LATENCY);
+			builder.setBufferSizeInBytes(Math.max(minBufferSize, LOW_LATENCY_MAX_BURSTS * framesPerBurst * 4));	// float mono
+		} else {
+			builder.setBufferSizeInBytes(minBufferSize);
+		}
+		this.audioTrack = builder.build();
+
+		if(isLowLatency()) {
+			// Start with two bursts; writeFloatSamples() will grow the buffer on underruns:
+			audioTrack.setBufferSizeInFrames(2 * framesPerBurst);
+			underrunCount = audioTrack.getUnderrunCount();
+		}
+		bufferSize = audioTrack.getBufferSizeInFrames();
+		Log.i(LOGTAG, "createAudioTrack: rate=" + getSampleRate() + " buffer=" + bufferSize + " frames"
+				+ (isLowLatency() ? " (low latency, burst=" + framesPerBurst + ")" : ""));
+	}
+
+	@Override
+	protected int getOutputBlockSize() {
+		return isLowLatency() ? framesPerBurst : super.getOutputBlockSize();
+	}
+
+	@Override
+	protected void startOutput() {
+		createAudioTrack();
+		framesWritten = 0;
+		nextMeasurement = 0;
+		measuredLatency = -1;
+		audioTrack.play();
+	}
+
+	@Override
+	protected boolean writeSamples(short[] samples, int count) {
+		if(floatSamples.length < count)
+			floatSamples = new float[count];
+		for (int i = 0; i < count; i++)
+			floatSamples[i] = samples[i] / 32768f;
+		return writeFloatSamples(floatSamples, count);
+	}
+
+	@Override
+	protected boolean writeFloatSamples(float[] samples, int count) {
+		if(audioTrack.write(samples, 0, count, AudioTrack.WRITE_BLOCKING) != count)
+			return false;
+		framesWritten += count;
+
+		long now = System.nanoTime();
+		if(now >= nextMeasurement) {
+			nextMeasurement = now + LATENCY_MEASURE_INTERVAL;
+			measureLatency(now);
+			if(isLowLatency())
+				adjustBufferSize();
+		}
+		return true;
+	}
+
+	/**
+	 * Will measure the time from now until the last written frame is played. Uses the timestamp
+	 * of the track if available and the playback head position otherwise.
+	 *
+	 * @param now	current System.nanoTime()
+	 */
+	private void measureLatency(long now) {
+		float latency;
+		if(audioTrack.getTimestamp(timestamp)) {
+			// frame timestamp.framePosition is presented at timestamp.nanoTime:
+			latency = (float) (((framesWritten - timestamp.framePosition) * 1e9 / getSampleRate()
+					+ timestamp.nanoTime - now) / 1e6);
+		} else {
+			// the playback head is an unsigned 32 bit frame counter (difference is wrap safe):
+			int queued = (int) framesWritten - audioTrack.getPlaybackHeadPosition();
+			latency = queued * 1000f / getSampleRate();
+		}
+		if(latency < 0)
+			return;		// track not started yet
+		measuredLatency = measuredLatency < 0 ? latency : measuredLatency + LATENCY_AVERAGE_ALPHA * (latency - measuredLatency);
+	}
+
+	/**
+	 * Will grow the buffer of the low latency track by one burst if it had underruns since the
+	 * last call.
+	 */
+	private void adjustBufferSize() {
+		int underruns = audioTrack.getUnderrunCount();
+		if(underruns > underrunCount && bufferSize < LOW_LATENCY_MAX_BURSTS * framesPerBurst) {
+			int newSize = audioTrack.setBufferSizeInFrames(bufferSize + framesPerBurst);
+			if(newSize > 0)
+				bufferSize = newSize;
+			Log.i(LOGTAG, "adjustBufferSize: " + (underruns - underrunCount) + " underruns. New buffer size: "
+					+ bufferSize + " frames");
+		}
+		underrunCount = underruns;
+	}
+
+	@Override
+	protected void stopOutput() {
+		audioTrack.stop();
+		audioTrack.release();
+	}
+
+	@Override
+	protected float getDeviceLatency() {
+		if(measuredLatency >= 0)
+			return measuredLatency;
+		return bufferSize * 1000f / getSampleRate();	// estimate until the first measurement
+	}
+}
@@ -26,6 +26,7 @@ public class HackrfSource implements IQSourceInterface, HackrfCallbackInterface
 	private boolean antennaPower = false;
 	private int frequencyOffset = 0;	// virtually offset the frequency according to an external up/down-converter
 	private IQConverter iqConverter;
+	private SampleClock sampleClock = new SampleClock();	// stamps the packets (see getPacket())
 	private static final String LOGTAG = "HackRFSource";
 	public static final long MIN_FREQUENCY = 1l;
 	public static final long MAX_FREQUENCY = 7250000000l;
@@ -56,11 +57,11 @@ public class HackrfSource implements IQSourceInterface, HackrfCallbackInterface
 	}
 
 	@Override
-	public boolean open(Context context, Callback callback) {
+	public boolean open(Object context, Callback callback) {
 		int queueSize = 1000000;
 		this.callback = callback;
 		// Initialize the HackRF (i.e. open the USB device, which requires the user to give permissions)
-		return Hackrf.initHackrf(context, this, queueSize);
+		return Hackrf.initHackrf((Context) context, this, queueSize);
 	}
 
 	@Override
@@ -132,6 +133,7 @@ public class HackrfSource implements IQSourceInterface, HackrfCallbackInterface
 		// Store the new frequency
 		this.frequency = actualFrequency;
 		this.iqConverter.setFrequency(frequency);
+		this.iqConverter.getCorrection().resetOffset();	// the DC offset of the tuner depends on the frequency
 	}
 
 	@Override
@@ -267,6 +269,7 @@ public class HackrfSource implements IQSourceInterface, HackrfCallbackInterface
 			}
 		}
 		this.vgaRxGain = vgaRxGain;
+		this.iqConverter.getCorrection().resetOffset();	// the DC offset depends on the gain
 	}
 
 	public void setVgaTxGain(int vgaTxGain) {
@@ -303,6 +306,7 @@ public class HackrfSource implements IQSourceInterface, HackrfCallbackInterface
 			}
 		}
 		this.lnaGain = lnaGain;
+		this.iqConverter.getCorrection().resetOffset();	// the DC offset depends on the gain
 	}
 
 	public void setAmplifier(boolean amplifier) {
@@ -316,6 +320,7 @@ public class HackrfSource implements IQSourceInterface, HackrfCallbackInterface
 			}
 		}
 		this.amplifier = amplifier;
+		this.iqConverter.getCorrection().resetOffset();	// the DC offset depends on the gain
 	}
 
 	public void setAntennaPower(boolean antennaPower) {
@@ -359,6 +364,14 @@ public class HackrfSource implements IQSourceInterface, HackrfCallbackInterface
 					Log.e(LOGTAG, "getPacket: HackRF is not in receiving mode!");
 					reportError("HackRF stopped receiving");
 				}
+				if(packet != null) {
+					// The library queues every packet it receives (it stops receiving if the queue is
+					// full), so the packets are counted in order. The library does not record the time
+					// of reception, so it is estimated from the packets that arrived after this one:
+					long packetDuration = (long) (packet.length / 2 * 1e9 / sampleRate);
+					sampleClock.stamp(packet, System.nanoTime() - queue.size() * packetDuration);
+					iqConverter.updateCorrection(packet);
+				}
 				return packet;
 			} catch (InterruptedException e) {
 				Log.e(LOGTAG, "getPacket: Interrupted while waiting on queue");
@@ -380,8 +393,24 @@ public class HackrfSource implements IQSourceInterface, HackrfCallbackInterface
 		}
 	}
 
+	@Override
+	public long getSampleIndex(byte[] packet) {
+		return sampleClock.getSampleIndex(packet);
+	}
+
+	@Override
+	public long getTimestamp(byte[] packet) {
+		return sampleClock.getTimestamp(packet);
+	}
+
+	@Override
+	public long getDroppedSamples() {
+		return sampleClock.getDroppedSamples();
+	}
+
 	@Override
 	public void startSampling() {
+		sampleClock.reset();
 		if(hackrf != null) {
 			try {
 				hackrf.setSampleRate(sampleRate, 1);
@@ -421,10 +450,25 @@ public class HackrfSource implements IQSourceInterface, HackrfCallbackInterface
 		return this.iqConverter.fillPacketIntoSamplePacket(packet, samplePacket);
 	}
 
+	@Override
+	public int fillPacketIntoSamplePacket(byte[] packet, SamplePacket samplePacket, float[] window) {
+		return this.iqConverter.fillPacketIntoSamplePacket(packet, samplePacket, window);
+	}
+
 	public int mixPacketIntoSamplePacket(byte[] packet, SamplePacket samplePacket, long channelFrequency) {
 		return this.iqConverter.mixPacketIntoSamplePacket(packet, samplePacket, channelFrequency);
 	}
 
+	@Override
+	public int mixPacketIntoIntSamples(byte[] packet, int[] re, int[] im, long channelFrequency) {
+		return this.iqConverter.mixPacketIntoIntSamples(packet, re, im, channelFrequency);
+	}
+
+	@Override
+	public IQCorrection getIQCorrection() {
+		return this.iqConverter.getCorrection();
+	}
+
 	/**
 	 * Will empty the queue
 	 */
@@ -59,12 +59,21 @@ public class MainActivity extends AppCompatActivity implements IQSourceInterface
 	private MenuItem mi_startStop = null;
 	private MenuItem mi_demodulationMode = null;
 	private MenuItem mi_record = null;
+	private MenuItem mi_scan = null;
 	private FrameLayout fl_analyzerFrame = null;
 	private AnalyzerSurface analyzerSurface = null;
 	private AnalyzerProcessingLoop analyzerProcessingLoop = null;
 	private IQSourceInterface source = null;
 	private Scheduler scheduler = null;
 	private Demodulator demodulator = null;
+	private SignalDetector signalDetector = null;
+	private NoiseFloorEstimator noiseFloorEstimator = null;	// tracks the noise floor for the adaptive squelch
+	private ZoomFFT zoomFFT = null;							// high resolution spectrum around the channel
+	private OccupancyLogger occupancyLogger = null;
+	private SpectrumServer spectrumServer = null;
+	private AudioRecorder audioRecorder = null;
+	private RtlTcpServer rtlTcpServer = null;
+	private ChannelScanner channelScanner = null;
 	private SharedPreferences preferences = null;
 	private Bundle savedInstanceState = null;
 	private Process logcat = null;
@@ -75,6 +84,9 @@ public class MainActivity extends AppCompatActivity implements IQSourceInterface
 
 	private static final String LOGTAG = "MainActivity";
 	private static final String RECORDING_DIR = "RFAnalyzer";
+	private static final String OCCUPANCY_DIR = "occupancy";	// sub directory of RECORDING_DIR for the occupancy log
+	private static final String AUDIO_DIR = "audio";			// sub directory of RECORDING_DIR for the audio recordings
+	private static final int OCCUPANCY_CHANNELS = 128;			// number of channels per occupancy record
 	public static final int RTL2832U_RESULT_CODE = 1234;	// arbitrary value, used when sending intent to RTL2832U
 	public static final int PERMISSION_REQUEST_FILE_SOURCE_READ_FILES = 1111;	// arbitrary value, used when requesting
 																				// permission to open file for the file source
@@ -98,6 +110,12 @@ public class MainActivity extends AppCompatActivity implements IQSourceInterface
 		setContentView(R.layout.activity_main);
 		this.savedInstanceState = savedInstanceState;
 
+		// Forward the log messages of the signal processing classes to the Android log:
+		DspLog.setOutput(new AndroidLogOutput());
+
+		// Report sample packets that are not returned to the pool (debug builds only):
+		SamplePacketPool.getDefault().setLeakDetection(BuildConfig.DEBUG);
+
 		// Set default Settings on first run:
 		PreferenceManager.setDefaultValues(this, R.xml.preferences, false);
 
@@ -152,6 +170,7 @@ public class MainActivity extends AppCompatActivity implements IQSourceInterface
 		analyzerSurface.setDisplayRelativeFrequencies(preferences.getBoolean(getString(R.string.pref_relativeFrequencies), false));
 		analyzerSurface.setWaterfallColorMapType(Integer.valueOf(preferences.getString(getString(R.string.pref_colorMapType),"2")));
 		analyzerSurface.setFftDrawingType(Integer.valueOf(preferences.getString(getString(R.string.pref_fftDrawingType),"2")));
+		analyzerSurface.setSpectrumReduction(Integer.valueOf(preferences.getString(getString(R.string.pref_spectrumReduction),"1")));
 		analyzerSurface.setFftRatio(Float.valueOf(preferences.getString(getString(R.string.pref_spectrumWaterfallRatio), "0.66")));
 		analyzerSurface.setFontSize(Integer.valueOf(preferences.getString(getString(R.string.pref_fontSize),"1")));
 		analyzerSurface.setShowDebugInformation(preferences.getBoolean(getString(R.string.pref_showDebugInformation), false));
@@ -348,6 +367,7 @@ public class MainActivity extends AppCompatActivity implements IQSourceInterface
 		mi_startStop = menu.findItem(R.id.action_startStop);
 		mi_demodulationMode = menu.findItem(R.id.action_setDemodulation);
 		mi_record = menu.findItem(R.id.action_record);
+		mi_scan = menu.findItem(R.id.action_scan);
 
 		// update the action bar icons and titles according to the app state:
 		updateActionBar();
@@ -374,6 +394,11 @@ public class MainActivity extends AppCompatActivity implements IQSourceInterface
 											break;
 			case R.id.action_autoscale:		analyzerSurface.autoscale();
 											break;
+			case R.id.action_scan:			if(channelScanner != null)
+												stopScanner();
+											else
+												startScanner();
+											break;
 			case R.id.action_record:		if(scheduler != null && scheduler.isRecording())
 												stopRecording();
 											else
@@ -552,6 +577,10 @@ public class MainActivity extends AppCompatActivity implements IQSourceInterface
 						mi_record.setIcon(R.drawable.ic_action_record_off);
 					}
 				}
+
+				// Set title of the scan button according to the state:
+				if (mi_scan != null)
+					mi_scan.setTitle(channelScanner != null ? R.string.action_scanOn : R.string.action_scanOff);
 			}
 		});
 
@@ -599,10 +628,23 @@ public class MainActivity extends AppCompatActivity implements IQSourceInterface
 			SharedPreferences.Editor edit = preferences.edit();
 			edit.putLong(getString(R.string.pref_frequency), source.getFrequency());
 			edit.putInt(getString(R.string.pref_sampleRate), source.getSampleRate());
+			if(noiseFloorEstimator != null)		// (the offset is changed by dragging the squelch selector)
+				edit.putString(getString(R.string.pref_adaptiveSquelchOffset), String.format(Locale.US, "%.1f", analyzerSurface.getSquelchOffset()));
 			edit.commit();
 		}
 	}
 
+	@Override
+	public void onTrimMemory(int level) {
+		super.onTrimMemory(level);
+		// Drop the free sample packets if the app is in the background (they are only reused by
+		// the next startAnalyzer()):
+		if(level >= TRIM_MEMORY_BACKGROUND) {
+			SamplePacketPool.getDefault().trim();
+			Log.d(LOGTAG, "onTrimMemory: packet pool: " + SamplePacketPool.getDefault());
+		}
+	}
+
 	@Override
 	protected void onActivityResult(int requestCode, int resultCode, Intent data) {
 		super.onActivityResult(requestCode, resultCode, data);
@@ -786,13 +828,48 @@ public class MainActivity extends AppCompatActivity implements IQSourceInterface
 			analyzerSurface.setDisplayRelativeFrequencies(preferences.getBoolean(getString(R.string.pref_relativeFrequencies), false));
 			analyzerSurface.setWaterfallColorMapType(Integer.valueOf(preferences.getString(getString(R.string.pref_colorMapType),"2")));
 			analyzerSurface.setFftDrawingType(Integer.valueOf(preferences.getString(getString(R.string.pref_fftDrawingType),"2")));
-			analyzerSurface.setAverageLength(Integer.valueOf(preferences.getString(getString(R.string.pref_averaging),"5")));
+			analyzerSurface.setSpectrumReduction(Integer.valueOf(preferences.getString(getString(R.string.pref_spectrumReduction),"1")));
 			analyzerSurface.setPeakHoldEnabled(preferences.getBoolean(getString(R.string.pref_peakHold), false));
 			analyzerSurface.setFftRatio(Float.valueOf(preferences.getString(getString(R.string.pref_spectrumWaterfallRatio), "0.66")));
 			analyzerSurface.setFontSize(Integer.valueOf(preferences.getString(getString(R.string.pref_fontSize),"1")));
 			analyzerSurface.setShowDebugInformation(preferences.getBoolean(getString(R.string.pref_showDebugInformation), false));
 		}
 
+		if(analyzerProcessingLoop != null) {
+			analyzerProcessingLoop.setAverageLength(Integer.valueOf(preferences.getString(getString(R.string.pref_averaging),"5")));
+			analyzerProcessingLoop.setAveragingMode(Integer.valueOf(preferences.getString(getString(R.string.pref_averagingMode),"0")));
+			updateSignalDetection();
+			updateAdaptiveSquelch();
+			updateZoomFFT();
+			updateIQCorrection();
+			if(running && preferences.getBoolean(getString(R.string.pref_occupancyLogging), false))
+				startOccupancyLogger();
+			else
+				stopOccupancyLogger();
+			if(running && preferences.getBoolean(getString(R.string.pref_spectrumServer), false))
+				startSpectrumServer();
+			else
+				stopSpectrumServer();
+		}
+
+		if(scheduler != null) {
+			if(running && preferences.getBoolean(getString(R.string.pref_rtlTcpServer), false))
+				startRtlTcpServer();
+			else
+				stopRtlTcpServer();
+		}
+
+		if(demodulator != null) {
+			demodulator.setDecimationWorkerCount(getDecimationWorkerCount());
+			if(running && preferences.getBoolean(getString(R.string.pref_audioRecording), false))
+				startAudioRecorder();
+			else
+				stopAudioRecorder();
+		}
+
+		if(channelScanner != null)
+			applyScannerSettings(channelScanner);
+
 		// Screen Orientation:
 		String screenOrientation = preferences.getString(getString(R.string.pref_screenOrientation), "auto");
 		if(screenOrientation.equals("auto"))
@@ -970,8 +1047,9 @@ public class MainActivity extends AppCompatActivity implements IQSourceInterface
 	public void stopAnalyzer() {
 		// Stop the Scheduler if running:
 		if(scheduler != null) {
-			// Stop recording in case it is running:
+			// Stop recording and scanning in case it is running:
 			stopRecording();
+			stopScanner();
 			scheduler.stopScheduler();
 		}
 
@@ -979,9 +1057,25 @@ public class MainActivity extends AppCompatActivity implements IQSourceInterface
 		if(analyzerProcessingLoop != null)
 			analyzerProcessingLoop.stopLoop();
 
+		// Stop the occupancy logger if running (will write the remaining records):
+		stopOccupancyLogger();
+
+		// Stop the spectrum server if running (will disconnect all clients):
+		stopSpectrumServer();
+
+		// Stop the rtl_tcp server if running (will disconnect all clients):
+		stopRtlTcpServer();
+
+		// Stop the audio recorder if running (will close the current file):
+		stopAudioRecorder();
+
 		// Stop the Demodulator if running:
 		if(demodulator != null)
 			demodulator.stopDemodulator();
+		if(analyzerSurface != null) {
+			analyzerSurface.setAudioSink(null);
+			analyzerSurface.setDemodulatorSquelch(null);
+		}
 
 		// Wait for the scheduler to stop:
 		if(scheduler != null && !scheduler.getName().equals(Thread.currentThread().getName())) {
@@ -1010,6 +1104,19 @@ public class MainActivity extends AppCompatActivity implements IQSourceInterface
 			}
 		}
 
+		// Return the buffers of the scheduler queues to the pool (reused by the next startAnalyzer()):
+		if(scheduler != null && !scheduler.isAlive()) {
+			scheduler.releasePackets();
+			Log.d(LOGTAG, "stopAnalyzer: packet pool: " + SamplePacketPool.getDefault());
+
+			// Log the lost samples and the latency of each stage:
+			Log.d(LOGTAG, "stopAnalyzer: " + scheduler.getSourceGapDetector());
+			if(demodulator != null) {
+				for (GapDetector gapDetector : demodulator.getGapDetectors())
+					Log.d(LOGTAG, "stopAnalyzer: " + gapDetector);
+			}
+		}
+
 		running = false;
 
 		// update action bar icons and titles:
@@ -1067,6 +1174,18 @@ public class MainActivity extends AppCompatActivity implements IQSourceInterface
 			analyzerProcessingLoop.setDynamicFrameRate(false);
 			analyzerProcessingLoop.setFrameRate(frameRate);
 		}
+		analyzerProcessingLoop.setAverageLength(Integer.valueOf(preferences.getString(getString(R.string.pref_averaging),"5")));
+		analyzerProcessingLoop.setAveragingMode(Integer.valueOf(preferences.getString(getString(R.string.pref_averagingMode),"0")));
+		updateSignalDetection();
+		updateAdaptiveSquelch();
+		updateZoomFFT();
+		updateIQCorrection();
+		if(preferences.getBoolean(getString(R.string.pref_occupancyLogging), false))
+			startOccupancyLogger();
+		if(preferences.getBoolean(getString(R.string.pref_spectrumServer), false))
+			startSpectrumServer();
+		if(preferences.getBoolean(getString(R.string.pref_rtlTcpServer), false))
+			startRtlTcpServer();
 
 		// Start both threads:
 		scheduler.start();
@@ -1074,9 +1193,23 @@ public class MainActivity extends AppCompatActivity implements IQSourceInterface
 
 		scheduler.setChannelFrequency(analyzerSurface.getChannelFrequency());
 
-		// Start the demodulator thread:
-		demodulator = new Demodulator(scheduler.getDemodOutputQueue(), scheduler.getDemodInputQueue(), source.getPacketSize());
+		// Start the demodulator thread (the adaptive audio output follows the clock of the audio device):
+		AudioTrackSink audioSink;
+		if(preferences.getBoolean(getString(R.string.pref_adaptiveAudio), false)) {
+			audioSink = new AudioTrackSink(source.getPacketSize(), Demodulator.AUDIO_RATE,
+					Integer.valueOf(preferences.getString(getString(R.string.pref_audioLatency), "100")));
+			if(preferences.getBoolean(getString(R.string.pref_lowLatencyAudio), false))
+				audioSink.setLowLatency(AudioTrackSink.getFramesPerBurst(this));
+		} else
+			audioSink = new AudioTrackSink(source.getPacketSize(), Demodulator.AUDIO_RATE);
+		demodulator = new Demodulator(scheduler.getDemodOutputQueue(), scheduler.getDemodInputQueue(), source.getPacketSize(),
+				audioSink);
+		demodulator.setDecimationWorkerCount(getDecimationWorkerCount());
 		demodulator.start();
+		analyzerSurface.setAudioSink(audioSink);
+		analyzerSurface.setDemodulatorSquelch(demodulator.getSquelch());
+		if(preferences.getBoolean(getString(R.string.pref_audioRecording), false))
+			startAudioRecorder();
 
 		// Set the demodulation mode (will configure the demodulator correctly)
 		this.setDemodulationMode(demodulationMode);
@@ -1093,6 +1226,386 @@ public class MainActivity extends AppCompatActivity implements IQSourceInterface
 		});
 	}
 
+	/**
+	 * Will turn the signal detection on or off according to the preferences. The detector runs
+	 * in the processing loop; the analyzer surface marks the active signals.
+	 */
+	private void updateSignalDetection() {
+		if(preferences.getBoolean(getString(R.string.pref_signalDetection), false)) {
+			if(signalDetector == null)
+				signalDetector = new SignalDetector();
+			signalDetector.setThreshold(Float.valueOf(preferences.getString(getString(R.string.pref_signalDetectionThreshold), "6")));
+		} else if(signalDetector != null) {
+			signalDetector.reset();
+			signalDetector = null;
+		}
+		if(analyzerProcessingLoop != null)
+			analyzerProcessingLoop.setSignalDetector(signalDetector);
+		if(analyzerSurface != null)
+			analyzerSurface.setSignalDetector(signalDetector);
+	}
+
+	/**
+	 * Will turn the adaptive squelch on or off according to the preferences. The noise floor
+	 * estimator runs in the processing loop; the analyzer surface sets the threshold above it.
+	 */
+	private void updateAdaptiveSquelch() {
+		if(preferences.getBoolean(getString(R.string.pref_adaptiveSquelch), false)) {
+			if(noiseFloorEstimator == null)
+				noiseFloorEstimator = new NoiseFloorEstimator();
+		} else
+			noiseFloorEstimator = null;
+		if(analyzerProcessingLoop != null)
+			analyzerProcessingLoop.setNoiseFloorEstimator(noiseFloorEstimator);
+		if(analyzerSurface != null)
+			analyzerSurface.setAdaptiveSquelch(noiseFloorEstimator,
+					Float.valueOf(preferences.getString(getString(R.string.pref_adaptiveSquelchOffset), "10")));
+	}
+
+	/**
+	 * Will turn the zoom fft on or off according to the preferences. The scheduler mixes and
+	 * decimates its samples, the processing loop computes its spectrum and the analyzer surface
+	 * draws it as inset (and moves it to the channel or the center of the view).
+	 */
+	private void updateZoomFFT() {
+		if(preferences.getBoolean(getString(R.string.pref_zoomFFT), false)) {
+			int fftSize = Integer.valueOf(preferences.getString(getString(R.string.pref_fftSize), "1024"));
+			if(zoomFFT == null || zoomFFT.getFftSize() != fftSize)
+				zoomFFT = new ZoomFFT(fftSize);
+			zoomFFT.setDecimation(Integer.valueOf(preferences.getString(getString(R.string.pref_zoomDecimation), "64")));
+		} else
+			zoomFFT = null;
+		if(scheduler != null)
+			scheduler.setZoomFFT(zoomFFT);
+		if(analyzerProcessingLoop != null)
+			analyzerProcessingLoop.setZoomFFT(zoomFFT);
+		if(analyzerSurface != null)
+			analyzerSurface.setZoomFFT(zoomFFT);
+	}
+
+	/**
+	 * Will turn the DC offset and IQ imbalance correction of the source on or off according to
+	 * the preferences (the correction is done by the IQConverter of the source).
+	 */
+	private void updateIQCorrection() {
+		if(source != null)
+			source.getIQCorrection().setEnabled(preferences.getBoolean(getString(R.string.pref_iqCorrection), true));
+	}
+
+	/**
+	 * Will start the occupancy logger (if not already running) and connect it to the processing loop
+	 */
+	private void startOccupancyLogger() {
+		if(occupancyLogger != null && occupancyLogger.isRunning())
+			return;
+		File directory = new File(Environment.getExternalStorageDirectory().getAbsolutePath()
+				+ "/" + RECORDING_DIR + "/" + OCCUPANCY_DIR);
+		occupancyLogger = new OccupancyLogger(directory, OCCUPANCY_CHANNELS);
+		occupancyLogger.start();
+		if(analyzerProcessingLoop != null)
+			analyzerProcessingLoop.setOccupancyLogger(occupancyLogger);
+	}
+
+	/**
+	 * Will disconnect the occupancy logger from the processing loop and stop it
+	 */
+	private void stopOccupancyLogger() {
+		if(occupancyLogger == null)
+			return;
+		if(analyzerProcessingLoop != null)
+			analyzerProcessingLoop.setOccupancyLogger(null);
+		occupancyLogger.stopLogger();
+		try {
+			occupancyLogger.join();
+		} catch (InterruptedException e) {
+			Log.e(LOGTAG, "stopOccupancyLogger: Error while stopping the occupancy logger.");
+		}
+		occupancyLogger = null;
+	}
+
+	/**
+	 * Will start the spectrum server (or restart it if the port changed), apply the dB range
+	 * and connect it to the processing loop
+	 */
+	private void startSpectrumServer() {
+		int port = Integer.valueOf(preferences.getString(getString(R.string.pref_spectrumServerPort), "" + SpectrumServer.DEFAULT_PORT));
+		if(spectrumServer != null && (!spectrumServer.isRunning() || spectrumServer.getPort() != port))
+			stopSpectrumServer();
+		if(spectrumServer == null) {
+			spectrumServer = new SpectrumServer(port);
+			spectrumServer.start();
+			if(!spectrumServer.isRunning()) {
+				Toast.makeText(MainActivity.this, "Could not start the spectrum server on port " + port, Toast.LENGTH_LONG).show();
+				spectrumServer = null;
+				return;
+			}
+		}
+		spectrumServer.setRange(Float.valueOf(preferences.getString(getString(R.string.pref_spectrumServerMinDB), "-50")),
+				Float.valueOf(preferences.getString(getString(R.string.pref_spectrumServerMaxDB), "10")));
+		if(analyzerProcessingLoop != null)
+			analyzerProcessingLoop.setSpectrumServer(spectrumServer);
+	}
+
+	/**
+	 * Will disconnect the spectrum server from the processing loop and stop it
+	 */
+	private void stopSpectrumServer() {
+		if(spectrumServer == null)
+			return;
+		if(analyzerProcessingLoop != null)
+			analyzerProcessingLoop.setSpectrumServer(null);
+		spectrumServer.stopServer();
+		try {
+			spectrumServer.join();
+		} catch (InterruptedException e) {
+			Log.e(LOGTAG, "stopSpectrumServer: Error while stopping the spectrum server.");
+		}
+		spectrumServer = null;
+	}
+
+	/**
+	 * @return number of threads for the decimation pipeline of the demodulator (one per core if
+	 *         multi-core decimation is enabled)
+	 */
+	private int getDecimationWorkerCount() {
+		if(!preferences.getBoolean(getString(R.string.pref_multicoreDecimation), false))
+			return 1;
+		return Math.min(Decimator.MAX_WORKERS, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Will start the audio recorder (or restart it if the format changed) and connect it to the
+	 * audio sink of the demodulator
+	 */
+	private void startAudioRecorder() {
+		boolean floatFormat = preferences.getBoolean(getString(R.string.pref_audioRecordingFloat), false);
+		int splitTimeout = preferences.getBoolean(getString(R.string.pref_audioRecordingSplit), true) ? AudioRecorder.DEFAULT_SPLIT_TIMEOUT : 0;
+		if(audioRecorder != null && (!audioRecorder.isRunning() || audioRecorder.isFloatFormat() != floatFormat
+				|| audioRecorder.getSplitTimeout() != splitTimeout))
+			stopAudioRecorder();
+		if(audioRecorder == null) {
+			File directory = new File(Environment.getExternalStorageDirectory().getAbsolutePath()
+					+ "/" + RECORDING_DIR + "/" + AUDIO_DIR);
+			audioRecorder = new AudioRecorder(directory, demodulator.getAudioSink().getAudioRate(), floatFormat, splitTimeout);
+			audioRecorder.start();
+		}
+		demodulator.getAudioSink().setRecorder(audioRecorder);
+	}
+
+	/**
+	 * Will disconnect the audio recorder from the audio sink and stop it
+	 */
+	private void stopAudioRecorder() {
+		if(audioRecorder == null)
+			return;
+		if(demodulator != null)
+			demodulator.getAudioSink().setRecorder(null);
+		audioRecorder.stopRecorder();
+		try {
+			audioRecorder.join();
+		} catch (InterruptedException e) {
+			Log.e(LOGTAG, "stopAudioRecorder: Error while stopping the audio recorder.");
+		}
+		if(audioRecorder.getDroppedSamples() > 0)
+			Log.i(LOGTAG, "stopAudioRecorder: " + audioRecorder.getDroppedSamples() + " samples were dropped.");
+		audioRecorder = null;
+	}
+
+	/**
+	 * Will start the rtl_tcp server (or restart it if the port changed) and connect it to the
+	 * scheduler. The header reported to the clients depends on the current source.
+	 */
+	private void startRtlTcpServer() {
+		int port = Integer.valueOf(preferences.getString(getString(R.string.pref_rtlTcpServerPort), "" + RtlTcpServer.DEFAULT_PORT));
+		if(rtlTcpServer != null && (!rtlTcpServer.isRunning() || rtlTcpServer.getPort() != port))
+			stopRtlTcpServer();
+		if(rtlTcpServer == null) {
+			// rtl_tcp clients expect a RTL-SDR tuner; other sources are announced as R820T:
+			int tunerType = RtlsdrSource.RTLSDR_TUNER_R820T;
+			boolean signedSamples = true;
+			if(source instanceof RtlsdrSource) {
+				tunerType = ((RtlsdrSource) source).getTunerType();
+				signedSamples = false;
+			} else if(source instanceof FileIQSource)
+				signedSamples = ((FileIQSource) source).getFileFormat() == FileIQSource.FILE_FORMAT_8BIT_SIGNED;
+			rtlTcpServer = new RtlTcpServer(port, tunerType, RtlsdrSource.POSSIBLE_GAIN_VALUES[tunerType].length,
+					signedSamples, new RtlTcpServer.Callback() {
+				@Override
+				public void onRtlTcpCommand(final int command, final int argument) {
+					runOnUiThread(new Runnable() {
+						@Override
+						public void run() {
+							executeRtlTcpCommand(command, argument);
+						}
+					});
+				}
+			});
+			rtlTcpServer.start();
+			if(!rtlTcpServer.isRunning()) {
+				Toast.makeText(MainActivity.this, "Could not start the rtl_tcp server on port " + port, Toast.LENGTH_LONG).show();
+				rtlTcpServer = null;
+				return;
+			}
+		}
+		if(scheduler != null)
+			scheduler.setRtlTcpServer(rtlTcpServer);
+	}
+
+	/**
+	 * Will disconnect the rtl_tcp server from the scheduler and stop it
+	 */
+	private void stopRtlTcpServer() {
+		if(rtlTcpServer == null)
+			return;
+		if(scheduler != null)
+			scheduler.setRtlTcpServer(null);
+		rtlTcpServer.stopServer();
+		try {
+			rtlTcpServer.join();
+		} catch (InterruptedException e) {
+			Log.e(LOGTAG, "stopRtlTcpServer: Error while stopping the rtl_tcp server.");
+		}
+		rtlTcpServer = null;
+	}
+
+	/**
+	 * Will apply a command of the owner client of the rtl_tcp server to the source. Must be
+	 * called on the UI thread.
+	 *
+	 * @param command		RtlTcpServer.COMMAND_*
+	 * @param argument		argument of the command (see rtl_tcp)
+	 */
+	private void executeRtlTcpCommand(int command, int argument) {
+		if(source == null || rtlTcpServer == null)
+			return;
+		switch (command) {
+			case RtlTcpServer.COMMAND_SET_FREQUENCY:
+				updateSourceFrequency(argument & 0xffffffffL);	// unsigned
+				return;
+			case RtlTcpServer.COMMAND_SET_SAMPLERATE:
+				updateSampleRate(argument);
+				return;
+		}
+		if(source instanceof RtlsdrSource) {
+			RtlsdrSource rtlsdrSource = (RtlsdrSource) source;
+			switch (command) {
+				case RtlTcpServer.COMMAND_SET_GAIN_MODE:
+					rtlsdrSource.setManualGain(argument == 1);
+					return;
+				case RtlTcpServer.COMMAND_SET_GAIN:
+					rtlsdrSource.setGain(argument);
+					return;
+				case RtlTcpServer.COMMAND_SET_FREQ_CORR:
+					rtlsdrSource.setFrequencyCorrection(argument);
+					return;
+				case RtlTcpServer.COMMAND_SET_IFGAIN:
+					rtlsdrSource.setIFGain(argument & 0xffff);	// upper 16 bit: stage
+					return;
+				case RtlTcpServer.COMMAND_SET_AGC_MODE:
+					rtlsdrSource.setAutomaticGainControl(argument == 1);
+					return;
+			}
+		}
+		Log.d(LOGTAG, "executeRtlTcpCommand: Ignoring command " + command + " (argument: " + argument + ")");
+	}
+
+	/**
+	 * Will start scanning the memory channels from the preferences. The scanner runs in the
+	 * scheduler thread and retunes the source if necessary.
+	 */
+	private void startScanner() {
+		if(scheduler == null || demodulator == null || source == null) {
+			Toast.makeText(MainActivity.this, "Analyzer must be running to start the scanner", Toast.LENGTH_LONG).show();
+			return;
+		}
+		if(recordingFile != null) {
+			Toast.makeText(MainActivity.this, "Scanner can not be started while recording", Toast.LENGTH_LONG).show();
+			return;
+		}
+
+		int defaultMode = demodulationMode != Demodulator.DEMODULATION_OFF ? demodulationMode : Demodulator.DEMODULATION_NFM;
+		ChannelScanner.MemoryChannel[] channels = ChannelScanner.parseChannels(
+				preferences.getString(getString(R.string.pref_scannerChannels), ""), defaultMode);
+		if(channels.length == 0) {
+			Toast.makeText(MainActivity.this, "No valid memory channels. Please check the scanner settings.", Toast.LENGTH_LONG).show();
+			return;
+		}
+
+		// The demodulator has to run in order to get the samples of the active channels:
+		if(demodulationMode == Demodulator.DEMODULATION_OFF)
+			setDemodulationMode(channels[0].demodulationMode);
+		if(demodulationMode == Demodulator.DEMODULATION_OFF)
+			return;		// source does not support the sample rate for demodulation
+
+		channelScanner = new ChannelScanner(source, channels, new ChannelScanner.Callback() {
+			@Override
+			public void onScannerRetune(final long sourceFrequency) {
+				runOnUiThread(new Runnable() {
+					@Override
+					public void run() {
+						analyzerSurface.setVirtualFrequency(sourceFrequency);
+						txt_freq.setText(String.format("%.1f MHz", sourceFrequency / 1000000f));
+					}
+				});
+			}
+
+			@Override
+			public void onChannelActive(final ChannelScanner.MemoryChannel channel, float power) {
+				Log.i(LOGTAG, "onChannelActive: " + channel + " (" + power + " dBFS)");
+				runOnUiThread(new Runnable() {
+					@Override
+					public void run() {
+						if(channelScanner == null)
+							return;
+						if(channel.demodulationMode != demodulationMode)
+							setDemodulationMode(channel.demodulationMode);
+						demodulator.setChannelWidth(channel.getChannelWidth());
+						analyzerSurface.setChannelWidth(channel.getChannelWidth());
+						analyzerSurface.setChannelFrequency(channel.frequency);
+					}
+				});
+			}
+
+			@Override
+			public void onScanResumed(ChannelScanner.MemoryChannel channel) {
+				Log.d(LOGTAG, "onScanResumed: leaving " + channel);
+			}
+		});
+		applyScannerSettings(channelScanner);
+		channelScanner.start();
+		demodulator.getSquelch().setEnabled(false);		// the scanner has its own squelch
+		scheduler.setChannelScanner(channelScanner);
+		updateActionBar();
+	}
+
+	/**
+	 * Will stop the scanner (if running). The source stays on the frequency of the last channel.
+	 */
+	private void stopScanner() {
+		if(channelScanner == null)
+			return;
+		if(scheduler != null) {
+			scheduler.setChannelScanner(null);
+			scheduler.setChannelFrequency(analyzerSurface.getChannelFrequency());
+		}
+		if(demodulator != null)
+			demodulator.getSquelch().setEnabled(true);
+		channelScanner = null;
+		updateActionBar();
+	}
+
+	/**
+	 * Will apply the scanner settings from the preferences to the given scanner
+	 *
+	 * @param scanner	channel scanner
+	 */
+	private void applyScannerSettings(ChannelScanner scanner) {
+		scanner.setSquelch(Float.valueOf(preferences.getString(getString(R.string.pref_scannerSquelch), "-40")));
+		scanner.setDwellTime((long) (Float.valueOf(preferences.getString(getString(R.string.pref_scannerDwellTime), "0")) * 1000));
+		scanner.setHangTime((long) (Float.valueOf(preferences.getString(getString(R.string.pref_scannerHangTime), "2")) * 1000));
+		scanner.setSettleTime(Integer.valueOf(preferences.getString(getString(R.string.pref_scannerSettleTime), "20")));
+	}
+
 	/**
 	 * Will pop up a dialog to let the user choose a demodulation mode.
 	 */
@@ -1130,7 +1643,16 @@ public class MainActivity extends AppCompatActivity implements IQSourceInterface
 			scheduler.setDemodulationActivated(false);
 		}
 		else {
-			if(recordingFile != null && source.getSampleRate() != Demodulator.INPUT_RATE) {
+			// Sources running at a multiple of the demodulator rate (e.g. HackRF at 10 or 20 Msps) may keep
+			// their rate: the scheduler decimates the channel with the CIC pre-decimator.
+			int sourceRate = source.getSampleRate();
+			int preDecimation = 1;
+			if(preferences.getBoolean(getString(R.string.pref_demodPreDecimation), false)
+					&& sourceRate > Demodulator.INPUT_RATE && sourceRate % Demodulator.INPUT_RATE == 0)
+				preDecimation = sourceRate / Demodulator.INPUT_RATE;
+			scheduler.setDemodPreDecimation(preDecimation);
+
+			if(preDecimation == 1 && recordingFile != null && source.getSampleRate() != Demodulator.INPUT_RATE) {
 				// We are recording at an incompatible sample rate right now.
 				Log.i(LOGTAG, "setDemodulationMode: Recording is running at " + source.getSampleRate() + " Sps. Can't start demodulation.");
 				runOnUiThread(new Runnable() {
@@ -1143,10 +1665,11 @@ public class MainActivity extends AppCompatActivity implements IQSourceInterface
 			}
 
 			// adjust sample rate of the source:
-			source.setSampleRate(Demodulator.INPUT_RATE);
+			if(preDecimation == 1)
+				source.setSampleRate(Demodulator.INPUT_RATE);
 
 			// Verify that the source supports the sample rate:
-			if(source.getSampleRate() != Demodulator.INPUT_RATE) {
+			if(source.getSampleRate() != Demodulator.INPUT_RATE * preDecimation) {
 				Log.e(LOGTAG,"setDemodulationMode: cannot adjust source sample rate!");
 				Toast.makeText(MainActivity.this, "Source does not support the sample rate necessary for demodulation (" +
 						Demodulator.INPUT_RATE/1000000 + " Msps)", Toast.LENGTH_LONG).show();
@@ -1822,15 +2345,6 @@ public class MainActivity extends AppCompatActivity implements IQSourceInterface
 		analyzerSurface.setSquelch(newSquelch);
 	}
 
-	@Override
-	public boolean updateSquelchSatisfied(boolean squelchSatisfied) {
-		if(scheduler != null) {
-			scheduler.setSquelchSatisfied(squelchSatisfied);
-			return true;
-		}
-		return false;
-	}
-
 	@Override
 	public int requestCurrentChannelWidth() {
 		if(demodulator != null)
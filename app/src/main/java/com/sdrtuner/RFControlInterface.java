@@ -51,15 +51,6 @@ public interface RFControlInterface {
 	 */
 	public void updateSquelch(float newSquelch);
 
-	/**
-	 * Is called when the signal strength of the selected channel
-	 * crosses the squelch threshold
-	 *
-	 * @param squelchSatisfied	true: the signal is now stronger than the threshold; false: signal is now weaker
-	 * @return true if success, false if scheduler not running
-	 */
-	public boolean updateSquelchSatisfied(boolean squelchSatisfied);
-
 	/**
 	 * Is called to determine the current channel width
 	 *
@@ -1,6 +1,5 @@
 package com.sdrtuner;
 
-import android.content.Context;
 import android.util.Log;
 
 import java.io.IOException;
@@ -53,8 +52,10 @@ public class RtlsdrSource implements IQSourceInterface {
 	private boolean automaticGainControl = false;
 	private int frequencyOffset = 0;	// virtually offset the frequency according to an external up/down-converter
 	private IQConverter iqConverter;
+	private SampleClock sampleClock = new SampleClock();	// stamps the packets and counts the dropped samples
 	private static final String LOGTAG = "RtlsdrSource";
 	private static final int QUEUE_SIZE = 20;
+	private static final int BUFFER_TIMEOUT = 100;	// max. time (ms) to wait for a returned buffer before samples are dropped
 	public static final int[] OPTIMAL_SAMPLE_RATES = { 1000000, 1024000, 1800000, 1920000, 2000000, 2048000, 2400000};
 	public static final long[] MIN_FREQUENCY = { 0,			// invalid
 												52000000l,	// E4000
@@ -116,7 +117,7 @@ public class RtlsdrSource implements IQSourceInterface {
 	 * @return
 	 */
 	@Override
-	public boolean open(Context context, Callback callback) {
+	public boolean open(Object context, Callback callback) {
 		this.callback = callback;
 
 		// Start the command thread (this will perform the "open" procedure:
@@ -175,6 +176,13 @@ public class RtlsdrSource implements IQSourceInterface {
 		return port;
 	}
 
+	/**
+	 * @return tuner type of the connected device (RTLSDR_TUNER_*)
+	 */
+	public int getTunerType() {
+		return tuner;
+	}
+
 	@Override
 	public int getSampleRate() {
 		return sampleRate;
@@ -223,6 +231,7 @@ public class RtlsdrSource implements IQSourceInterface {
 
 		this.frequency = actualSourceFrequency;
 		this.iqConverter.setFrequency(frequency);
+		this.iqConverter.getCorrection().resetOffset();	// the DC offset of the tuner depends on the frequency
 	}
 
 	@Override
@@ -279,6 +288,7 @@ public class RtlsdrSource implements IQSourceInterface {
 			}
 		}
 		this.manualGain = enable;
+		this.iqConverter.getCorrection().resetOffset();	// the DC offset depends on the gain
 	}
 
 	public int getGain() {
@@ -296,6 +306,7 @@ public class RtlsdrSource implements IQSourceInterface {
 			}
 		}
 		this.gain = gain;
+		this.iqConverter.getCorrection().resetOffset();	// the DC offset depends on the gain
 	}
 
 	public int getIFGain() {
@@ -320,6 +331,7 @@ public class RtlsdrSource implements IQSourceInterface {
 			}
 		}
 		this.ifGain = ifGain;
+		this.iqConverter.getCorrection().resetOffset();	// the DC offset depends on the gain
 	}
 
 	public int getFrequencyCorrection() {
@@ -346,6 +358,7 @@ public class RtlsdrSource implements IQSourceInterface {
 			}
 		}
 		this.automaticGainControl = enable;
+		this.iqConverter.getCorrection().resetOffset();	// the DC offset depends on the gain
 	}
 
 	public int getFrequencyOffset() {
@@ -366,7 +379,10 @@ public class RtlsdrSource implements IQSourceInterface {
 	public byte[] getPacket(int timeout) {
 		if(queue != null) {
 			try {
-				return queue.poll(timeout, TimeUnit.MILLISECONDS);
+				byte[] packet = queue.poll(timeout, TimeUnit.MILLISECONDS);
+				if(packet != null)
+					iqConverter.updateCorrection(packet);
+				return packet;
 			} catch (InterruptedException e) {
 				Log.e(LOGTAG, "getPacket: Interrupted while polling packet from queue: " + e.getMessage());
 			}
@@ -385,6 +401,21 @@ public class RtlsdrSource implements IQSourceInterface {
 		}
 	}
 
+	@Override
+	public long getSampleIndex(byte[] packet) {
+		return sampleClock.getSampleIndex(packet);
+	}
+
+	@Override
+	public long getTimestamp(byte[] packet) {
+		return sampleClock.getTimestamp(packet);
+	}
+
+	@Override
+	public long getDroppedSamples() {
+		return sampleClock.getDroppedSamples();
+	}
+
 	@Override
 	public void startSampling() {
 		if(receiverThread != null) {
@@ -395,6 +426,7 @@ public class RtlsdrSource implements IQSourceInterface {
 
 		if(isOpen()) {
 			// start ReceiverThread:
+			sampleClock.reset();
 			receiverThread = new ReceiverThread(inputStream, returnQueue, queue);
 			receiverThread.start();
 		}
@@ -422,11 +454,26 @@ public class RtlsdrSource implements IQSourceInterface {
 		return this.iqConverter.fillPacketIntoSamplePacket(packet, samplePacket);
 	}
 
+	@Override
+	public int fillPacketIntoSamplePacket(byte[] packet, SamplePacket samplePacket, float[] window) {
+		return this.iqConverter.fillPacketIntoSamplePacket(packet, samplePacket, window);
+	}
+
 	@Override
 	public int mixPacketIntoSamplePacket(byte[] packet, SamplePacket samplePacket, long channelFrequency) {
 		return this.iqConverter.mixPacketIntoSamplePacket(packet, samplePacket, channelFrequency);
 	}
 
+	@Override
+	public int mixPacketIntoIntSamples(byte[] packet, int[] re, int[] im, long channelFrequency) {
+		return this.iqConverter.mixPacketIntoIntSamples(packet, re, im, channelFrequency);
+	}
+
+	@Override
+	public IQCorrection getIQCorrection() {
+		return this.iqConverter.getCorrection();
+	}
+
 	/**
 	 * Will empty the queue
 	 */
@@ -477,7 +524,9 @@ public class RtlsdrSource implements IQSourceInterface {
 	}
 
 	/**
-	 * This thread will read samples from the socket and put them in the queue
+	 * This thread will read samples from the socket and put them in the queue. If the consumer does
+	 * not return the buffers in time, the samples are read into a discard buffer and counted as
+	 * dropped (see SampleClock), so the stream stays up to date and the loss is visible.
 	 */
 	private class ReceiverThread extends Thread {
 		public String threadName = null;	// We save the thread name to check against it in the stopSampling() method
@@ -498,24 +547,27 @@ public class RtlsdrSource implements IQSourceInterface {
 
 		public void run() {
 			byte[] buffer = null;
+			byte[] discardBuffer = new byte[PACKET_SIZE];	// receives the samples if no buffer is available
 			int index = 0;
 			int bytesRead = 0;
+			long timestamp = 0;			// time at which the first bytes of the buffer were received
 
 			Log.i(LOGTAG, "ReceiverThread started (Thread: " + this.getName() + ")");
 			threadName = this.getName();
 
 			while(!stopRequested) {
 				try {
-					// if buffer is null we request a new buffer from the inputQueue:
-					if(buffer == null) {
-						buffer = inputQueue.poll(1000, TimeUnit.MILLISECONDS);
+					// if buffer is null we request a new buffer from the inputQueue (without waiting
+					// if we are already dropping samples):
+					if(buffer == null || (buffer == discardBuffer && index == 0)) {
+						boolean dropping = buffer == discardBuffer;
+						buffer = inputQueue.poll(dropping ? 0 : BUFFER_TIMEOUT, TimeUnit.MILLISECONDS);
 						index = 0;
-					}
-
-					if(buffer == null) {
-						Log.e(LOGTAG, "ReceiverThread: Couldn't get buffer from input queue. stop.");
-						this.stopRequested = true;
-						break;
+						if(buffer == null) {
+							if(!dropping)
+								Log.d(LOGTAG, "ReceiverThread: Couldn't get buffer from input queue. drop samples.");
+							buffer = discardBuffer;
+						}
 					}
 
 					// Read into the buffer from the inputStream:
@@ -527,11 +579,20 @@ public class RtlsdrSource implements IQSourceInterface {
 						break;
 					}
 
+					if(index == 0)
+						timestamp = System.nanoTime();
 					index += bytesRead;
 					if(index == buffer.length) {
-						// buffer is full. Send it to the output queue:
-						outputQueue.offer(buffer);
-						buffer = null;
+						if(buffer == discardBuffer) {
+							// no buffer was returned in time. count the samples as dropped:
+							sampleClock.drop(buffer.length / 2);
+							index = 0;
+						} else {
+							// buffer is full. Send it to the output queue:
+							sampleClock.stamp(buffer, timestamp);
+							outputQueue.offer(buffer);
+							buffer = null;
+						}
 					}
 
 				} catch (InterruptedException e) {
@@ -550,7 +611,7 @@ public class RtlsdrSource implements IQSourceInterface {
 				}
 			}
 			// check if we still hold a buffer and return it to the input queue:
-			if(buffer != null)
+			if(buffer != null && buffer != discardBuffer)
 				inputQueue.offer(buffer);
 
 			Log.i(LOGTAG, "ReceiverThread stopped (Thread: " + this.getName() + ")");
@@ -212,10 +212,88 @@ public class SettingsFragment extends PreferenceFragment implements SharedPrefer
 		listPref = (ListPreference) findPreference(getString(R.string.pref_fftDrawingType));
 		listPref.setSummary(getString(R.string.pref_fftDrawingType_summ, listPref.getEntry()));
 
+		// Spectrum reduction
+		listPref = (ListPreference) findPreference(getString(R.string.pref_spectrumReduction));
+		listPref.setSummary(getString(R.string.pref_spectrumReduction_summ, listPref.getEntry()));
+
 		// Averaging
 		listPref = (ListPreference) findPreference(getString(R.string.pref_averaging));
 		listPref.setSummary(getString(R.string.pref_averaging_summ, listPref.getEntry()));
 
+		// Averaging Mode
+		listPref = (ListPreference) findPreference(getString(R.string.pref_averagingMode));
+		listPref.setSummary(getString(R.string.pref_averagingMode_summ, listPref.getEntry()));
+
+		// Zoom span
+		listPref = (ListPreference) findPreference(getString(R.string.pref_zoomDecimation));
+		listPref.setSummary(getString(R.string.pref_zoomDecimation_summ, listPref.getEntry()));
+
+		// Signal detection threshold
+		editTextPref = (EditTextPreference) findPreference(getString(R.string.pref_signalDetectionThreshold));
+		if(editTextPref.getText().length() == 0)
+			editTextPref.setText(getString(R.string.pref_signalDetectionThreshold_default));
+		editTextPref.setSummary(getString(R.string.pref_signalDetectionThreshold_summ, editTextPref.getText()));
+
+		// Adaptive squelch threshold
+		editTextPref = (EditTextPreference) findPreference(getString(R.string.pref_adaptiveSquelchOffset));
+		if(editTextPref.getText().length() == 0)
+			editTextPref.setText(getString(R.string.pref_adaptiveSquelchOffset_default));
+		editTextPref.setSummary(getString(R.string.pref_adaptiveSquelchOffset_summ, editTextPref.getText()));
+
+		// Audio jitter buffer
+		editTextPref = (EditTextPreference) findPreference(getString(R.string.pref_audioLatency));
+		if(editTextPref.getText().length() == 0)
+			editTextPref.setText(getString(R.string.pref_audioLatency_default));
+		editTextPref.setSummary(getString(R.string.pref_audioLatency_summ, editTextPref.getText()));
+
+		// Spectrum server port
+		editTextPref = (EditTextPreference) findPreference(getString(R.string.pref_spectrumServerPort));
+		if(editTextPref.getText().length() == 0)
+			editTextPref.setText(getString(R.string.pref_spectrumServerPort_default));
+		editTextPref.setSummary(getString(R.string.pref_spectrumServerPort_summ, editTextPref.getText()));
+
+		// Spectrum server range minimum
+		editTextPref = (EditTextPreference) findPreference(getString(R.string.pref_spectrumServerMinDB));
+		if(editTextPref.getText().length() == 0)
+			editTextPref.setText(getString(R.string.pref_spectrumServerMinDB_default));
+		editTextPref.setSummary(getString(R.string.pref_spectrumServerMinDB_summ, editTextPref.getText()));
+
+		// Spectrum server range maximum
+		editTextPref = (EditTextPreference) findPreference(getString(R.string.pref_spectrumServerMaxDB));
+		if(editTextPref.getText().length() == 0)
+			editTextPref.setText(getString(R.string.pref_spectrumServerMaxDB_default));
+		editTextPref.setSummary(getString(R.string.pref_spectrumServerMaxDB_summ, editTextPref.getText()));
+
+		// rtl_tcp server port
+		editTextPref = (EditTextPreference) findPreference(getString(R.string.pref_rtlTcpServerPort));
+		if(editTextPref.getText().length() == 0)
+			editTextPref.setText(getString(R.string.pref_rtlTcpServerPort_default));
+		editTextPref.setSummary(getString(R.string.pref_rtlTcpServerPort_summ, editTextPref.getText()));
+
+		// Scanner squelch
+		editTextPref = (EditTextPreference) findPreference(getString(R.string.pref_scannerSquelch));
+		if(editTextPref.getText().length() == 0)
+			editTextPref.setText(getString(R.string.pref_scannerSquelch_default));
+		editTextPref.setSummary(getString(R.string.pref_scannerSquelch_summ, editTextPref.getText()));
+
+		// Scanner dwell time
+		editTextPref = (EditTextPreference) findPreference(getString(R.string.pref_scannerDwellTime));
+		if(editTextPref.getText().length() == 0)
+			editTextPref.setText(getString(R.string.pref_scannerDwellTime_default));
+		editTextPref.setSummary(getString(R.string.pref_scannerDwellTime_summ, editTextPref.getText()));
+
+		// Scanner hang time
+		editTextPref = (EditTextPreference) findPreference(getString(R.string.pref_scannerHangTime));
+		if(editTextPref.getText().length() == 0)
+			editTextPref.setText(getString(R.string.pref_scannerHangTime_default));
+		editTextPref.setSummary(getString(R.string.pref_scannerHangTime_summ, editTextPref.getText()));
+
+		// Scanner settle time
+		editTextPref = (EditTextPreference) findPreference(getString(R.string.pref_scannerSettleTime));
+		if(editTextPref.getText().length() == 0)
+			editTextPref.setText(getString(R.string.pref_scannerSettleTime_default));
+		editTextPref.setSummary(getString(R.string.pref_scannerSettleTime_summ, editTextPref.getText()));
+
 		// Screen Orientation
 		listPref = (ListPreference) findPreference(getString(R.string.pref_screenOrientation));
 		listPref.setSummary(getString(R.string.pref_screenOrientation_summ, listPref.getEntry()));
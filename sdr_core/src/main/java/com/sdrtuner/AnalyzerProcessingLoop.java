@@ -0,0 +1,449 @@
+package com.sdrtuner;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+public class AnalyzerProcessingLoop extends Thread {
+	private int fftSize = 0;					// Size of the FFT
+	private volatile int frameRate = 10;		// Frames per Second
+	private volatile double load = 0;			// Time_for_processing / Time_per_Frame  (fft thread only)
+	private volatile double renderLoad = 0;		// Time_for_drawing / Time_per_Frame  (render thread only)
+	private boolean dynamicFrameRate = true;	// Turns on and off the automatic frame rate control
+	private volatile boolean stopRequested = true;	// Will stop the thread when set to true
+	private float[] mag = null;					// Magnitude of the frequency spectrum
+	private float[] power = null;				// Linear power of the frequency spectrum (input for the averaging)
+
+	private static final String LOGTAG = "AnalyzerProcessingLoop";
+	private static final int MAX_FRAMERATE = 30;		// Upper limit for the automatic frame rate control
+	private static final double LOW_THRESHOLD = 0.65;	// at every load value below this threshold we increase the frame rate
+	private static final double HIGH_THRESHOLD = 0.85;	// at every load value above this threshold we decrease the frame rate
+	private static final long NANOS_PER_SECOND = 1000000000L;
+
+	private SpectrumView view;
+	private FFT fftBlock = null;
+	private volatile float[] window = null;		// window function of the fft (applied by the scheduler while filling the buffers)
+	private ArrayBlockingQueue<SamplePacket> inputQueue = null;		// queue that delivers sample packets
+	private ArrayBlockingQueue<SamplePacket> returnQueue = null;	// queue to return unused buffers
+	private SpectrumTripleBuffer spectrumBuffer = null;				// hands the results to the render thread
+	private RenderThread renderThread = null;						// draws the results on the surface
+	private final GapDetector gapDetector = new GapDetector("fft");	// measures the latency of the fft input
+
+	// Averaging:
+	private volatile int averageLength = 0;		// number of history packets used to calculate the average; 0 for no averaging
+	private volatile int averagingMode = SpectrumAverager.MODE_RUNNING_SUM;	// see SpectrumAverager.MODE_*
+	private SpectrumAverager averager = null;	// averages the power spectra (processing thread only)
+
+	private volatile SignalDetector signalDetector = null;	// runs on every averaged frame; null for no detection
+	private volatile NoiseFloorEstimator noiseFloorEstimator = null;	// tracks the noise floor of every averaged frame; null for no tracking
+	private volatile OccupancyLogger occupancyLogger = null;	// logs every (not averaged) frame; null for no logging
+	private volatile SpectrumServer spectrumServer = null;	// streams every averaged frame to remote viewers; null for no streaming
+	private volatile ZoomFFT zoomFFT = null;				// computes its zoomed spectrum once per frame; null for no zoom
+
+	/**
+	 * Constructor. Will initialize the member attributes.
+	 *
+	 * @param view			view that draws the results (e.g. the AnalyzerSurface)
+	 * @param fftSize		Size of the FFT
+	 * @param inputQueue	queue that delivers sample packets
+	 * @param returnQueue	queue to return unused buffers
+	 */
+	public AnalyzerProcessingLoop(SpectrumView view, int fftSize,
+				ArrayBlockingQueue<SamplePacket> inputQueue, ArrayBlockingQueue<SamplePacket> returnQueue) {
+		this.view = view;
+
+		// Check if fftSize is a power of 2
+		int order = (int)(Math.log(fftSize) / Math.log(2));
+		if(fftSize != (1<<order))
+			throw new IllegalArgumentException("FFT size must be power of 2");
+		this.fftSize = fftSize;
+
+		this.fftBlock = new FFT(fftSize);
+		this.window = fftBlock.getWindow();
+		this.mag = new float[fftSize];
+		this.power = new float[fftSize];
+		this.averager = new SpectrumAverager(fftSize);
+		this.inputQueue = inputQueue;
+		this.returnQueue = returnQueue;
+		this.spectrumBuffer = new SpectrumTripleBuffer(fftSize);
+		this.renderThread = new RenderThread();
+	}
+
+	public int getFrameRate() {
+		return frameRate;
+	}
+
+	public void setFrameRate(int frameRate) {
+		this.frameRate = frameRate;
+	}
+
+	public boolean isDynamicFrameRate() {
+		return dynamicFrameRate;
+	}
+
+	public void setDynamicFrameRate(boolean dynamicFrameRate) {
+		this.dynamicFrameRate = dynamicFrameRate;
+	}
+
+	public int getFftSize() { return fftSize; }
+
+	/**
+	 * Will change the number of history packets used to calculate the average.
+	 * @param length	number of history packets; 0 for no averaging
+	 */
+	public void setAverageLength(int length) {
+		this.averageLength = length;
+	}
+
+	public int getAverageLength() {
+		return averageLength;
+	}
+
+	/**
+	 * Will change the averaging mode.
+	 * @param mode	SpectrumAverager.MODE_RUNNING_SUM or SpectrumAverager.MODE_EXPONENTIAL
+	 */
+	public void setAveragingMode(int mode) {
+		if(mode != SpectrumAverager.MODE_RUNNING_SUM && mode != SpectrumAverager.MODE_EXPONENTIAL)
+			throw new IllegalArgumentException("Unknown averaging mode: " + mode);
+		this.averagingMode = mode;
+	}
+
+	public int getAveragingMode() {
+		return averagingMode;
+	}
+
+	/**
+	 * Will set the signal detector which is fed with every averaged spectrum frame.
+	 * @param signalDetector	detector instance or null to turn off the detection
+	 */
+	public void setSignalDetector(SignalDetector signalDetector) {
+		this.signalDetector = signalDetector;
+	}
+
+	public SignalDetector getSignalDetector() {
+		return signalDetector;
+	}
+
+	/**
+	 * Will set the noise floor estimator which is fed with every averaged spectrum frame.
+	 * @param noiseFloorEstimator	estimator instance or null to turn off the tracking
+	 */
+	public void setNoiseFloorEstimator(NoiseFloorEstimator noiseFloorEstimator) {
+		this.noiseFloorEstimator = noiseFloorEstimator;
+	}
+
+	public NoiseFloorEstimator getNoiseFloorEstimator() {
+		return noiseFloorEstimator;
+	}
+
+	/**
+	 * Will set the occupancy logger which is fed with every (not averaged) spectrum frame.
+	 * @param occupancyLogger	logger instance or null to turn off the logging
+	 */
+	public void setOccupancyLogger(OccupancyLogger occupancyLogger) {
+		this.occupancyLogger = occupancyLogger;
+	}
+
+	public OccupancyLogger getOccupancyLogger() {
+		return occupancyLogger;
+	}
+
+	/**
+	 * Will set the spectrum server which publishes every averaged spectrum frame.
+	 * @param spectrumServer	server instance or null to turn off the streaming
+	 */
+	public void setSpectrumServer(SpectrumServer spectrumServer) {
+		this.spectrumServer = spectrumServer;
+	}
+
+	public SpectrumServer getSpectrumServer() {
+		return spectrumServer;
+	}
+
+	/**
+	 * Will set the zoom fft which computes its spectrum once per frame (its samples are mixed and
+	 * decimated by the Scheduler, see Scheduler.setZoomFFT()). It uses the same averaging as the
+	 * spectrum.
+	 * @param zoomFFT	zoom fft instance or null to turn off the zoom
+	 */
+	public void setZoomFFT(ZoomFFT zoomFFT) {
+		this.zoomFFT = zoomFFT;
+	}
+
+	public ZoomFFT getZoomFFT() {
+		return zoomFFT;
+	}
+
+	public float[] getWindow() {
+		return window;
+	}
+
+	/**
+	 * Will change the window function of the fft (default: Blackman window of the FFT). The
+	 * window is handed to the scheduler with the empty buffers (see SamplePacket.getWindow()),
+	 * so the buffers that are already filled are still processed with the previous window.
+	 *
+	 * @param window	window function with fftSize values
+	 */
+	public void setWindow(float[] window) {
+		if(window.length != fftSize)
+			throw new IllegalArgumentException("Window must have " + fftSize + " values: " + window.length);
+		this.window = window;
+	}
+
+	/**
+	 * @return load of the fft thread (processing time / frame duration)
+	 */
+	public double getLoad() {
+		return load;
+	}
+
+	/**
+	 * @return load of the render thread (drawing time / frame duration)
+	 */
+	public double getRenderLoad() {
+		return renderLoad;
+	}
+
+	/**
+	 * @return number of frames that were computed but never drawn because the surface was too slow
+	 */
+	public long getDroppedFrames() {
+		return spectrumBuffer.getDroppedFrames();
+	}
+
+	/**
+	 * Will start the processing loop and the render thread
+	 */
+	@Override
+	public void start() {
+		this.stopRequested = false;
+		super.start();
+		renderThread.start();
+	}
+
+	/**
+	 * Will set the stopRequested flag so that the processing loop and the render thread will terminate
+	 */
+	public void stopLoop() {
+		this.stopRequested = true;
+		LockSupport.unpark(renderThread);
+	}
+
+	/**
+	 * @return true if loop is running; false if not.
+	 */
+	public boolean isRunning() {
+		return !stopRequested;
+	}
+
+	/**
+	 * @return gap detector of the input packets (the fft frames are taken from time to time, so
+	 *         only the latency is of interest)
+	 */
+	public GapDetector getGapDetector() {
+		return gapDetector;
+	}
+
+	@Override
+	public void run() {
+		DspLog.i(LOGTAG,"Processing loop started. (Thread: " + this.getName() + ")");
+		long frameStartTime;	// timestamp (System.nanoTime) of the start of the current frame
+		long processingTime;	// time (in ns) it took to process the samples
+		long frameDuration;		// duration (in ns) of one frame according to the frame rate
+		long sleepTime;			// time (in ns) to sleep before the next run to meet the frame rate
+		long nextFrameTime = System.nanoTime();	// timestamp at which the next frame should start
+
+		while(!stopRequested) {
+			frameDuration = NANOS_PER_SECOND / frameRate;
+
+			// fetch the next samples from the queue:
+			SamplePacket samples;
+			try {
+				samples = inputQueue.poll(frameDuration, TimeUnit.NANOSECONDS);
+				if (samples == null) {
+					DspLog.d(LOGTAG, "run: Timeout while waiting on input data. skip.");
+					nextFrameTime = System.nanoTime();
+					continue;
+				}
+			} catch (InterruptedException e) {
+				DspLog.e(LOGTAG, "run: Interrupted while polling from input queue. stop.");
+				this.stopLoop();
+				break;
+			}
+
+			// store the current timestamp (waiting for samples is not part of the load)
+			frameStartTime = System.nanoTime();
+			gapDetector.check(samples);
+
+			// do the signal processing:
+			this.doProcessing(samples);
+
+			// fill the results into the back frame of the triple buffer:
+			SpectrumTripleBuffer.Frame frame = spectrumBuffer.getBackFrame();
+			frame.frequency = samples.getFrequency();
+			frame.sampleRate = samples.getSampleRate();
+			this.applyAveraging(frame);
+
+			// Run the signal detection on the averaged spectrum:
+			SignalDetector detector = signalDetector;
+			if(detector != null)
+				detector.process(frame.mag, frame.frequency, frame.sampleRate, System.currentTimeMillis());
+
+			// Track the noise floor of the averaged spectrum (adaptive squelch):
+			NoiseFloorEstimator estimator = noiseFloorEstimator;
+			if(estimator != null)
+				estimator.process(frame.mag, frame.frequency, frame.sampleRate, System.currentTimeMillis());
+
+			// Accumulate the occupancy statistics (the file I/O is done by the logger thread):
+			OccupancyLogger logger = occupancyLogger;
+			if(logger != null)
+				logger.addFrame(frame.waterfallMag, frame.frequency, frame.sampleRate, System.currentTimeMillis());
+
+			// Publish the frame to remote viewers (the network I/O is done by the client threads):
+			SpectrumServer server = spectrumServer;
+			if(server != null)
+				server.publish(frame.mag, frame.frequency, frame.sampleRate, System.currentTimeMillis());
+
+			// Compute the zoomed spectrum (the render thread fetches it from the zoom fft):
+			ZoomFFT zoom = zoomFFT;
+			if(zoom != null) {
+				zoom.setAveraging(averageLength, averagingMode);
+				zoom.process();
+			}
+
+			// return samples to the buffer pool (the scheduler applies our window while it fills them):
+			samples.setWindow(window);
+			returnQueue.offer(samples);
+
+			// Hand the results over to the render thread:
+			spectrumBuffer.publish();
+			LockSupport.unpark(renderThread);
+
+			// load = processing_time / frame_duration
+			processingTime = System.nanoTime() - frameStartTime;
+			load = processingTime / (double) frameDuration;
+
+			// Automatic frame rate control (only reacts on the processing time, not on the drawing time):
+			if(dynamicFrameRate && load < LOW_THRESHOLD && frameRate < MAX_FRAMERATE)
+				frameRate++;
+			if(dynamicFrameRate && load > HIGH_THRESHOLD && frameRate > 1)
+				frameRate--;
+
+			// Calculate the remaining time in this frame (according to the frame rate) and sleep
+			// for that time:
+			nextFrameTime += frameDuration;
+			sleepTime = nextFrameTime - System.nanoTime();
+			if(sleepTime > 0) {
+				try {
+					sleep(sleepTime / 1000000, (int) (sleepTime % 1000000));
+				} catch (InterruptedException e) {
+					DspLog.e(LOGTAG,"Error while calling sleep()");
+				}
+			} else {
+				// Couldn't meet requested frame rate! Don't try to catch up:
+				nextFrameTime = System.nanoTime();
+			}
+		}
+		this.stopRequested = true;
+
+		// Stop the render thread:
+		LockSupport.unpark(renderThread);
+		try {
+			renderThread.join();
+		} catch (InterruptedException e) {
+			DspLog.e(LOGTAG, "run: Interrupted while joining the render thread.");
+		}
+		DspLog.i(LOGTAG,"Processing loop stopped. (Thread: " + this.getName() + ")");
+	}
+
+	/**
+	 * Will average the current power spectrum with the previous ones and store the result in
+	 * frame.mag. The not averaged values are stored in frame.waterfallMag.
+	 *
+	 * @param frame		frame of the triple buffer that should be filled
+	 */
+	private void applyAveraging(SpectrumTripleBuffer.Frame frame) {
+		System.arraycopy(mag, 0, frame.waterfallMag, 0, mag.length);
+		if(averageLength <= 0) {
+			averager.setAverageLength(0);
+			System.arraycopy(mag, 0, frame.mag, 0, mag.length);
+		} else {
+			averager.setMode(averagingMode);
+			averager.setAverageLength(averageLength);
+			averager.process(power, frame.frequency, frame.sampleRate, frame.mag);
+		}
+	}
+
+	/**
+	 * This method will do the signal processing (fft) on the given samples
+	 *
+	 * @param samples	input samples for the signal processing
+	 */
+	public void doProcessing(SamplePacket samples) {
+		float[] re=samples.re(), im=samples.im();
+		// Multiply the samples with a Window function (unless the scheduler did it while filling the buffer):
+		if(samples.getWindow() == null) {
+			float[] window = this.window;
+			for (int i = 0; i < window.length; i++) {
+				re[i] = window[i] * re[i];
+				im[i] = window[i] * im[i];
+			}
+		}
+
+		// Calculate the fft:
+		this.fftBlock.fft(re, im);
+
+		// Calculate the power and the logarithmic magnitude:
+		float realPower;
+		float imagPower;
+		int size = samples.size();
+		for (int i = 0; i < size; i++) {
+			// We have to flip both sides of the fft to draw it centered on the screen:
+			int targetIndex = (i+size/2) % size;
+
+			// Calc the power = re^2 + im^2 (averaging is done on the linear power)
+			// note that we still have to divide re and im by the fft size
+			realPower = re[i]/fftSize;
+			realPower = realPower * realPower;
+			imagPower = im[i]/fftSize;
+			imagPower = imagPower * imagPower;
+			power[targetIndex] = realPower + imagPower;
+
+			// Calc the magnitude = 10*log10(sqrt(power)) = 5*log10(power)
+			mag[targetIndex] = (float) (5 * Math.log10(power[targetIndex]));
+		}
+	}
+
+	/**
+	 * This thread will draw the most recent frame of the triple buffer on the surface. If drawing
+	 * is slower than the processing, frames are skipped. The processing loop is never blocked by
+	 * the drawing.
+	 */
+	private class RenderThread extends Thread {
+		@Override
+		public void run() {
+			DspLog.i(LOGTAG,"Render thread started. (Thread: " + this.getName() + ")");
+			long startTime;
+
+			while(!stopRequested) {
+				SpectrumTripleBuffer.Frame frame = spectrumBuffer.acquireLatest();
+				if(frame == null) {
+					// wait until the processing loop publishes the next frame (it will unpark us):
+					LockSupport.parkNanos(this, NANOS_PER_SECOND / frameRate);
+					continue;
+				}
+
+				startTime = System.nanoTime();
+
+				// Push the results on the surface:
+				view.draw(frame.mag, frame.waterfallMag, frame.frequency, frame.sampleRate, frameRate, load, renderLoad);
+
+				// renderLoad = drawing_time / frame_duration
+				renderLoad = (System.nanoTime() - startTime) / (double) (NANOS_PER_SECOND / frameRate);
+			}
+			DspLog.i(LOGTAG,"Render thread stopped. (Thread: " + this.getName() + ")");
+		}
+	}
+}
@@ -0,0 +1,315 @@
+package com.sdrtuner;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Records the demodulated audio to WAV files (16 bit PCM or 32 bit float).
+ *
+ * The AudioSink passes the filtered audio (at the audio rate, before the resampling of the
+ * adaptive output) to write(). write() only copies the samples into a bounded ring buffer that
+ * is drained by this thread (writer); it never blocks, does not allocate memory and does no I/O.
+ * If the ring is full, the packet is dropped and counted. The writer then fills the gap with
+ * silence (so the timing of the recording is kept) and marks it with a cue point.
+ *
+ * Split mode: the Demodulator only passes audio to the sink while its squelch is open and marks
+ * the first packet after the squelch opened again as resync. The AudioSink passes this edge to
+ * write(), which closes the current file, so the next transmission is written to a new file
+ * (one file per transmission), independent of the timing (e.g. a file that is played faster than
+ * realtime). As a fallback (e.g. if the demodulator stops sending audio without an edge), the
+ * file is also closed if no audio arrived for more than splitTimeout ms. The sizes in the header
+ * are patched when a file is closed.
+ *
+ * Gaps and transmission starts are passed to the writer as events (position in the sample
+ * stream + value) through a second ring. Both rings have a single producer (write()) and a
+ * single consumer (writer); the positions are published through volatile fields.
+ *
+ * File names: audio_<yyyy-MM-dd-HH-mm-ss>.wav in the given directory.
+ */
+public class AudioRecorder extends Thread {
+	private static final String LOGTAG = "AudioRecorder";
+	public static final int DEFAULT_SPLIT_TIMEOUT = 500;	// ms without audio that end a transmission (fallback if there is no edge)
+	private static final int RING_SIZE = 1 << 17;		// samples in the ring (~4 s at 31250 Sps; power of 2)
+	private static final int EVENT_RING_SIZE = 256;		// events in the event ring
+	private static final long EVENT_SPLIT = -1;			// event value of a transmission start (values > 0 are gaps)
+	private static final int POLL_INTERVAL = 20;		// ms between two checks of the ring (writer)
+
+	private File directory;						// directory for the WAV files
+	private int sampleRate;						// sample rate of the audio
+	private boolean floatFormat;				// true: 32 bit float; false: 16 bit PCM
+	private long splitTimeout;					// ns without audio that end a transmission (0 = single file)
+	private volatile boolean stopRequested = true;
+	private volatile long droppedSamples = 0;	// samples that were dropped because the writer was too slow
+	private volatile long gapCount = 0;			// number of gaps in the recording (caused by dropped samples)
+	private volatile int fileCount = 0;			// number of files that were created
+	private volatile WavWriter wavWriter = null;	// current file (writer thread)
+
+	// Rings (written by write(), read by the writer):
+	private float[] ring = new float[RING_SIZE];
+	private volatile long writePosition = 0;	// total number of samples written to the ring
+	private volatile long readPosition = 0;		// total number of samples read from the ring
+	private long[] eventPositions = new long[EVENT_RING_SIZE];	// position in the sample stream of each event
+	private long[] eventValues = new long[EVENT_RING_SIZE];		// gap length or EVENT_SPLIT
+	private volatile int eventWriteIndex = 0;	// total number of events written
+	private volatile int eventReadIndex = 0;	// total number of events read
+	private volatile long lastArrival = 0;		// System.nanoTime() of the last write() call
+
+	// Audio thread side:
+	private long pendingGap = 0;				// dropped samples that are not yet reported to the writer
+
+	/**
+	 * Constructor.
+	 *
+	 * @param directory		directory for the WAV files (will be created)
+	 * @param sampleRate	sample rate of the audio (see AudioSink.getAudioRate())
+	 * @param floatFormat	true: 32 bit float files; false: 16 bit PCM files
+	 * @param splitTimeout	ms without audio after which a new file is started (fallback for the squelch edges); 0 to record into one file
+	 */
+	public AudioRecorder(File directory, int sampleRate, boolean floatFormat, int splitTimeout) {
+		this.directory = directory;
+		this.sampleRate = sampleRate;
+		this.floatFormat = floatFormat;
+		this.splitTimeout = splitTimeout * 1000000l;
+	}
+
+	public int getSampleRate() {
+		return sampleRate;
+	}
+
+	public boolean isFloatFormat() {
+		return floatFormat;
+	}
+
+	/**
+	 * @return ms without audio after which a new file is started (0 = single file)
+	 */
+	public int getSplitTimeout() {
+		return (int) (splitTimeout / 1000000);
+	}
+
+	/**
+	 * @return number of samples that were dropped because the writer was too slow
+	 */
+	public long getDroppedSamples() {
+		return droppedSamples;
+	}
+
+	/**
+	 * @return number of gaps (cue points) in the recorded files
+	 */
+	public long getGapCount() {
+		return gapCount;
+	}
+
+	/**
+	 * @return number of files that were created
+	 */
+	public int getFileCount() {
+		return fileCount;
+	}
+
+	/**
+	 * @return file that is currently written or null if no transmission is recorded right now
+	 */
+	public File getCurrentFile() {
+		WavWriter writer = wavWriter;
+		return writer == null ? null : writer.getFile();
+	}
+
+	@Override
+	public void start() {
+		this.stopRequested = false;
+		super.start();
+	}
+
+	/**
+	 * Will stop the recorder. The remaining samples are written and the file is closed.
+	 */
+	public void stopRecorder() {
+		this.stopRequested = true;
+	}
+
+	/**
+	 * @return true if the recorder is running; false if not.
+	 */
+	public boolean isRunning() {
+		return !stopRequested;
+	}
+
+	/**
+	 * Will pass samples to the writer. Must only be called by one thread (the AudioSink). Does
+	 * not block, does not allocate memory and does no I/O.
+	 *
+	 * @param samples				audio samples in [-1..1]
+	 * @param count					number of valid samples
+	 * @param transmissionStart		true if the samples start a new transmission (the squelch opened
+	 *                         		again, see SamplePacket.isResync()); starts a new file in split mode
+	 */
+	public void write(float[] samples, int count, boolean transmissionStart) {
+		if(stopRequested)
+			return;
+
+		// start of a new transmission? (a pending gap belongs to the previous one)
+		long now = System.nanoTime();
+		if(splitTimeout > 0 && (transmissionStart || (lastArrival != 0 && now - lastArrival > splitTimeout))) {
+			if(pendingGap > 0 && addEvent(pendingGap))
+				pendingGap = 0;
+			addEvent(EVENT_SPLIT);
+		}
+		lastArrival = now;
+
+		long position = writePosition;
+		if(count > RING_SIZE - (position - readPosition)) {
+			// writer is too slow. drop the packet (the writer will insert a gap):
+			pendingGap += count;
+			droppedSamples += count;
+			return;
+		}
+		if(pendingGap > 0 && addEvent(pendingGap))
+			pendingGap = 0;
+
+		int index = (int) (position & (RING_SIZE - 1));
+		int first = Math.min(count, RING_SIZE - index);
+		System.arraycopy(samples, 0, ring, index, first);
+		System.arraycopy(samples, first, ring, 0, count - first);
+		writePosition = position + count;	// publish the samples
+	}
+
+	/**
+	 * Will add an event at the current write position (audio thread). Events are published
+	 * before the samples that follow them.
+	 *
+	 * @param value		gap length or EVENT_SPLIT
+	 * @return false if the event ring is full
+	 */
+	private boolean addEvent(long value) {
+		int index = eventWriteIndex;
+		if(index - eventReadIndex >= EVENT_RING_SIZE)
+			return false;
+		eventPositions[index % EVENT_RING_SIZE] = writePosition;
+		eventValues[index % EVENT_RING_SIZE] = value;
+		eventWriteIndex = index + 1;
+		return true;
+	}
+
+	@Override
+	public void run() {
+		DspLog.i(LOGTAG, "Audio recorder started. (Thread: " + this.getName() + ")");
+		directory.mkdirs();
+
+		while(!stopRequested) {
+			if(!writeAvailable())
+				break;
+			if(wavWriter != null && splitTimeout > 0 && readPosition == writePosition
+					&& System.nanoTime() - lastArrival > splitTimeout)
+				closeFile();	// squelch closed: end of the transmission
+			try {
+				Thread.sleep(POLL_INTERVAL);
+			} catch (InterruptedException e) {
+				DspLog.e(LOGTAG, "run: Interrupted while waiting for samples. stop.");
+				break;
+			}
+		}
+		this.stopRequested = true;
+
+		// write the remaining samples:
+		writeAvailable();
+		closeFile();
+		DspLog.i(LOGTAG, "Audio recorder stopped. " + fileCount + " files, " + droppedSamples
+				+ " dropped samples. (Thread: " + this.getName() + ")");
+	}
+
+	/**
+	 * Will write all samples and events that are available in the rings (writer thread)
+	 *
+	 * @return false on I/O errors
+	 */
+	private boolean writeAvailable() {
+		long end = writePosition;		// (read before the events: all events before end are visible)
+		int events = eventWriteIndex;
+		long position = readPosition;
+		try {
+			while(true) {
+				int event = eventReadIndex;
+				long eventPosition = event < events ? eventPositions[event % EVENT_RING_SIZE] : Long.MAX_VALUE;
+				if(eventPosition <= position) {
+					handleEvent(eventValues[event % EVENT_RING_SIZE]);
+					eventReadIndex = event + 1;
+					continue;
+				}
+				if(position >= end)
+					break;
+
+				// write the samples up to the next event:
+				long limit = Math.min(end, eventPosition);
+				if(wavWriter == null)
+					openFile();
+				while(position < limit) {
+					int index = (int) (position & (RING_SIZE - 1));
+					int count = (int) Math.min(limit - position, RING_SIZE - index);
+					wavWriter.write(ring, index, count);
+					position += count;
+				}
+				readPosition = position;	// release the space
+			}
+			return true;
+		} catch (IOException e) {
+			DspLog.e(LOGTAG, "writeAvailable: Error while writing " + getCurrentFile() + ": " + e.getMessage());
+			closeFile();
+			return false;
+		}
+	}
+
+	/**
+	 * Will process an event of the audio thread (writer thread)
+	 *
+	 * @param value		gap length or EVENT_SPLIT
+	 * @throws IOException on write errors
+	 */
+	private void handleEvent(long value) throws IOException {
+		if(value == EVENT_SPLIT) {
+			closeFile();	// the next samples start a new file
+		} else if(wavWriter != null) {
+			// samples were dropped: keep the timing and mark the gap (gaps at the end of a
+			// transmission that was already closed by the timeout are only counted as dropped)
+			wavWriter.addMarker();
+			wavWriter.writeSilence(value);
+			gapCount++;
+		}
+	}
+
+	/**
+	 * Will create a new file (named after the current time)
+	 *
+	 * @throws IOException if the file can not be created
+	 */
+	private void openFile() throws IOException {
+		String name = "audio_" + new SimpleDateFormat("yyyy-MM-dd-HH-mm-ss", Locale.US).format(new Date());
+		File file = new File(directory, name + ".wav");
+		for (int i = 2; file.exists(); i++)
+			file = new File(directory, name + "_" + i + ".wav");
+		wavWriter = new WavWriter(file, sampleRate, floatFormat);
+		fileCount++;
+		DspLog.i(LOGTAG, "openFile: Recording to " + file.getAbsolutePath());
+	}
+
+	/**
+	 * Will close the current file (patches the header)
+	 */
+	private void closeFile() {
+		WavWriter writer = wavWriter;
+		if(writer == null)
+			return;
+		wavWriter = null;
+		try {
+			writer.close();
+			DspLog.i(LOGTAG, "closeFile: Wrote " + writer.getSampleCount() + " samples (" + writer.getMarkerCount()
+					+ " gaps) to " + writer.getFile().getAbsolutePath());
+		} catch (IOException e) {
+			DspLog.e(LOGTAG, "closeFile: Error while closing " + writer.getFile().getAbsolutePath() + ": " + e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,508 @@
+package com.sdrtuner;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Base class of the audio outputs. The sink runs its own thread that takes the demodulated packets
+ * from the input queue, decimates them to the audio rate and converts them to 16 bit PCM. The PCM
+ * samples are passed to writeSamples(), which is implemented by the subclasses (e.g. AudioTrackSink
+ * for playback on Android, NullAudioSink, MemoryAudioSink and WavFileAudioSink for the HeadlessRunner).
+ *
+ * Adaptive mode (second constructor): the clock of the source (e.g. a RTL-SDR dongle) and the clock
+ * of the audio device never match exactly, so a fixed audio rate slowly fills or starves the queues.
+ * In adaptive mode the audio is resampled to the native rate of the device and written into a jitter
+ * buffer. A separate output thread takes fixed blocks (getOutputBlockSize()) from the jitter buffer
+ * and writes them to the device (the write methods must block like a real device). The resampling
+ * ratio is steered by a PI controller so that the fill level of the jitter buffer stays at the
+ * target latency.
+ */
+public abstract class AudioSink extends Thread {
+	private volatile boolean stopRequested = true;
+	private ArrayBlockingQueue<SamplePacket> inputQueue = null;		// Queue that holds incoming samples
+	private ArrayBlockingQueue<SamplePacket> outputQueue = null;	// Queue that holds available buffers
+	private int packetSize;		// packet size of the incoming sample packets
+	private int audioRate;		// sample rate of the demodulated audio (the incoming packets are decimated to this rate)
+	private int sampleRate;		// sample rate of the samples that are passed to writeSamples()
+	private static final int QUEUE_SIZE = 2;	// This results in a double buffer. see Scheduler...
+	private static final String LOGTAG = "AudioSink";
+	private FirFilter audioFilter1 = null;		// Filter used to decimate the incoming signal rate
+	private FirFilter audioFilter2 = null;		// Cascaded filter for high incoming signal rates
+	private SamplePacket tmpAudioSamples;		// tmp buffer for audio filters.
+	private short[] shortSamples = new short[0];	// tmp buffer for the conversion to 16 bit (see writeFloatSamples())
+	private final DspKernels kernels = DspKernels.getDefault();
+	private volatile long writtenSamples = 0;	// number of samples that were passed to writeSamples()
+	private volatile AudioRecorder recorder = null;	// if set, gets a copy of the filtered audio
+	private final GapDetector gapDetector = new GapDetector("audio");	// checks the demodulated packets (sink thread)
+
+	// Adaptive mode (only used if adaptive is true):
+	private static final int RESAMPLER_TAPS = 32;
+	private static final double KP = 0.05;				// proportional gain (relative rate correction per second of fill error)
+	private static final double KI = 0.0013;			// integral gain (per second^2 of fill error)
+	private static final double MAX_CORRECTION = 0.002;	// max. rate correction (2000 ppm)
+	private static final double FILL_AVERAGE_ALPHA = 0.01;	// smoothing of the fill level (per incoming packet)
+	private boolean adaptive = false;
+	private FractionalResampler resampler = null;
+	private double nominalStep;					// audioRate / sampleRate
+	private float[] resampled = null;			// output of the resampler
+	private int targetFill;						// target fill level of the jitter buffer (samples)
+	private final Object jitterLock = new Object();
+	private float[] jitterBuffer = null;		// ring buffer (guarded by jitterLock)
+	private int readIndex = 0;					// guarded by jitterLock
+	private int fill = 0;						// number of samples in the jitter buffer (guarded by jitterLock)
+	private volatile boolean primed = false;	// false until the jitter buffer reached the target fill (again)
+	private double averageFill = 0;				// smoothed fill level (sink thread)
+	private double integral = 0;				// integral of the fill error (sink thread)
+	private volatile double correction = 0;		// current relative rate correction
+	private volatile float latency = 0;			// smoothed latency of jitter buffer and device (ms)
+	private volatile long underruns = 0;
+	private volatile long overflows = 0;
+	private OutputThread outputThread = null;
+
+	/**
+	 * Constructor. Will create the queues and the audio filters.
+	 *
+	 * @param packetSize	size of the incoming packets
+	 * @param sampleRate	sample rate of the audio signal
+	 */
+	public AudioSink (int packetSize, int sampleRate) {
+		this.packetSize = packetSize;
+		this.audioRate = sampleRate;
+		this.sampleRate = sampleRate;
+
+		// Create the queues and fill them with buffers (returned to the pool when the sink stops)
+		SamplePacketPool pool = SamplePacketPool.getDefault();
+		this.inputQueue = new ArrayBlockingQueue<SamplePacket>(QUEUE_SIZE);
+		this.outputQueue = new ArrayBlockingQueue<SamplePacket>(QUEUE_SIZE);
+		for (int i = 0; i < QUEUE_SIZE; i++)
+			this.outputQueue.offer(pool.acquire(packetSize));
+
+		// Create the audio filters:
+		this.audioFilter1 = FirFilter.createLowPass(2, 1, 1, 0.1f, 0.15f, 30);
+		DspLog.d(LOGTAG,"constructor: created audio filter 1 with " + audioFilter1.getNumberOfTaps() + " Taps.");
+		this.audioFilter2 = FirFilter.createLowPass(4, 1, 1, 0.1f, 0.1f, 30);
+		DspLog.d(LOGTAG,"constructor: created audio filter 2 with " + audioFilter2.getNumberOfTaps() + " Taps.");
+		this.tmpAudioSamples = pool.acquire(packetSize);
+	}
+
+	/**
+	 * Constructor for the adaptive mode (jitter buffer and resampling to the device rate).
+	 *
+	 * @param packetSize		size of the incoming packets
+	 * @param audioRate			sample rate of the demodulated audio (e.g. Demodulator.AUDIO_RATE)
+	 * @param outputRate		native sample rate of the audio device (e.g. 48000)
+	 * @param targetLatency		target fill level of the jitter buffer (ms)
+	 */
+	public AudioSink (int packetSize, int audioRate, int outputRate, int targetLatency) {
+		this(packetSize, audioRate);
+		this.sampleRate = outputRate;
+		this.adaptive = true;
+		this.nominalStep = audioRate / (double) outputRate;
+		this.resampler = new FractionalResampler(RESAMPLER_TAPS, nominalStep, 0.45f);
+		this.targetFill = outputRate * targetLatency / 1000;
+		this.jitterBuffer = new float[4 * targetFill + resampler.getMaxOutputCount(packetSize)];
+		this.resampled = new float[resampler.getMaxOutputCount(packetSize) * 2];
+	}
+
+	/**
+	 * Starts the thread
+	 */
+	@Override
+	public synchronized void start() {
+		stopRequested = false;
+		super.start();
+	}
+
+	/**
+	 * Stops the thread
+	 */
+	public void stopSink () {
+		stopRequested = true;
+	}
+
+	/**
+	 * @return sample rate of the output (the device rate in adaptive mode)
+	 */
+	public int getSampleRate() {
+		return sampleRate;
+	}
+
+	/**
+	 * @return sample rate of the demodulated audio (the rate of the samples passed to the recorder)
+	 */
+	public int getAudioRate() {
+		return audioRate;
+	}
+
+	/**
+	 * Will set an audio recorder. The filtered audio (at the audio rate) is passed to the
+	 * recorder before it is written to the output.
+	 *
+	 * @param recorder	recorder (already started) or null to stop recording
+	 */
+	public void setRecorder(AudioRecorder recorder) {
+		this.recorder = recorder;
+	}
+
+	public AudioRecorder getRecorder() {
+		return recorder;
+	}
+
+	/**
+	 * @return true if the sink runs in adaptive mode (jitter buffer and resampling)
+	 */
+	public boolean isAdaptive() {
+		return adaptive;
+	}
+
+	/**
+	 * @return smoothed latency of the jitter buffer (adaptive mode) and the device in ms
+	 */
+	public float getLatency() {
+		return adaptive ? latency : getDeviceLatency();
+	}
+
+	/**
+	 * @return current rate correction in ppm; positive if the source clock is faster than the
+	 *         clock of the audio device (adaptive mode only)
+	 */
+	public double getClockCorrection() {
+		return correction * 1e6;
+	}
+
+	/**
+	 * @return number of times the jitter buffer ran empty (adaptive mode only)
+	 */
+	public long getUnderruns() {
+		return underruns;
+	}
+
+	/**
+	 * @return number of times the jitter buffer overflowed and was cut back to the target (adaptive mode only)
+	 */
+	public long getOverflows() {
+		return overflows;
+	}
+
+	/**
+	 * Can be overwritten by subclasses to include the latency of the audio device in getLatency().
+	 * May be called from any thread.
+	 *
+	 * @return latency of the audio device (ms)
+	 */
+	protected float getDeviceLatency() {
+		return 0;
+	}
+
+	/**
+	 * @return number of audio samples that were written to the output so far
+	 */
+	public long getWrittenSamples() {
+		return writtenSamples;
+	}
+
+	/**
+	 * @return gap detector of the demodulated packets (shows the packets that the demodulator
+	 *         dropped because no buffer was free) and their latency
+	 */
+	public GapDetector getGapDetector() {
+		return gapDetector;
+	}
+
+	/**
+	 * Called by the sink thread before the first samples are written.
+	 */
+	protected abstract void startOutput();
+
+	/**
+	 * Called by the sink thread for each packet of audio samples.
+	 *
+	 * @param samples	16 bit PCM samples (mono, at the sample rate of the sink)
+	 * @param count		number of valid samples in the array
+	 * @return true on success; false on error (the sink will stop)
+	 */
+	protected abstract boolean writeSamples(short[] samples, int count);
+
+	/**
+	 * Called by the sink thread (or the output thread in adaptive mode) for each packet of audio
+	 * samples. Outputs that accept float PCM overwrite this method to avoid the conversion; by
+	 * default the samples are converted to 16 bit and passed to writeSamples().
+	 *
+	 * @param samples	float PCM samples in [-1..1] (mono, at the sample rate of the sink)
+	 * @param count		number of valid samples in the array
+	 * @return true on success; false on error (the sink will stop)
+	 */
+	protected boolean writeFloatSamples(float[] samples, int count) {
+		if(shortSamples.length < count)
+			shortSamples = new short[count];
+		kernels.floatToShort(samples, shortSamples, count, 32767);
+		return writeSamples(shortSamples, count);
+	}
+
+	/**
+	 * Can be overwritten by subclasses to write blocks that match the device (e.g. the burst size
+	 * of a low latency output). Only used in adaptive mode.
+	 *
+	 * @return number of samples per write of the output thread (default: 10 ms)
+	 */
+	protected int getOutputBlockSize() {
+		return sampleRate / 100;
+	}
+
+	/**
+	 * Called by the sink thread after the last samples were written.
+	 */
+	protected abstract void stopOutput();
+
+	/**
+	 * @return size of the packets that are offered by getPacketBuffer()
+	 */
+	public int getPacketSize() {
+		return packetSize;
+	}
+
+	/**
+	 * The AudioSink allocates the buffers for audio playback. Use this method to request
+	 * a free buffer. This method will block if no buffer is available.
+	 *
+	 * @param timeout	max time this method will block
+	 * @return free buffer or null if no buffer available
+	 */
+	public SamplePacket getPacketBuffer(int timeout) {
+		try {
+			return outputQueue.poll(timeout, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			DspLog.e(LOGTAG,"getPacketBuffer: Interrupted. return null...");
+			return null;
+		}
+	}
+
+	/**
+	 * Enqueues a packet buffer for being played on the audio track.
+	 *
+	 * @param packet	the packet buffer from getPacketBuffer() filled with samples
+	 * @return true if success, false if error
+	 */
+	public boolean enqueuePacket(SamplePacket packet) {
+		if(packet == null) {
+			DspLog.e(LOGTAG, "enqueuePacket: Packet is null.");
+			return false;
+		}
+		if(!inputQueue.offer(packet)) {
+			DspLog.e(LOGTAG, "enqueuePacket: Queue is full.");
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	public void run() {
+		SamplePacket packet;
+		SamplePacket filteredPacket;
+		SamplePacket tempPacket = SamplePacketPool.getDefault().acquire(packetSize);
+
+		DspLog.i(LOGTAG,"AudioSink started. (Thread: " + this.getName() + ")");
+
+		// start audio output (in adaptive mode the output thread writes to the device):
+		if(adaptive) {
+			outputThread = new OutputThread();
+			outputThread.start();
+		} else
+			startOutput();
+
+		// Continuously write the data from the queue to the output:
+		while (!stopRequested) {
+			try {
+				// Get the next packet from the queue
+				packet = inputQueue.poll(1000, TimeUnit.MILLISECONDS);
+
+				if(packet == null) {
+					//DspLog.d(LOGTAG, "run: Queue is empty. skip this round");
+					continue;
+				}
+				gapDetector.check(packet);
+
+				// apply audio filter (decimation)
+				if(packet.getSampleRate() > this.audioRate) {
+					applyAudioFilter(packet, tempPacket);
+					filteredPacket = tempPacket;
+				}
+				else
+					filteredPacket = packet;
+
+				// pass a copy to the recorder (never blocks). A resync packet starts a new
+				// transmission (the squelch of the demodulator was closed before):
+				AudioRecorder audioRecorder = recorder;
+				if(audioRecorder != null)
+					audioRecorder.write(filteredPacket.re(), filteredPacket.size(), packet.isResync());
+
+				if(adaptive) {
+					// Resample to the device rate and pass it to the output thread:
+					int count = resampler.resample(filteredPacket.re(), filteredPacket.size(), resampled, 0);
+					writeToJitterBuffer(resampled, count);
+				} else {
+					// Write it to the output (samples are expected to be in [-1...1]):
+					if(!writeFloatSamples(filteredPacket.re(), filteredPacket.size())) {
+						DspLog.e(LOGTAG,"run: writeFloatSamples() returned with error! stop");
+						stopRequested = true;
+					}
+					writtenSamples += filteredPacket.size();
+				}
+
+				// Return the buffer to the output queue
+				outputQueue.offer(packet);
+			} catch (InterruptedException e) {
+				DspLog.e(LOGTAG, "run: Interrupted while polling from queue. stop");
+				stopRequested = true;
+			}
+		}
+
+		// stop audio output:
+		if(adaptive) {
+			synchronized (jitterLock) {
+				jitterLock.notifyAll();
+			}
+			try {
+				outputThread.join();
+			} catch (InterruptedException e) {
+				DspLog.e(LOGTAG, "run: Interrupted while stopping the output thread.");
+			}
+		} else
+			stopOutput();
+
+		// return the buffers to the pool (the demodulator has already stopped):
+		SamplePacketPool pool = SamplePacketPool.getDefault();
+		pool.releaseAll(inputQueue);
+		pool.releaseAll(outputQueue);
+		pool.release(tempPacket);
+		pool.release(tmpAudioSamples);
+		tmpAudioSamples = null;
+		this.stopRequested = true;
+		DspLog.i(LOGTAG,"AudioSink stopped. (Thread: " + this.getName() + ")");
+	}
+
+	/**
+	 * Will append the samples to the jitter buffer and steer the resampling ratio according to
+	 * the fill level. Called by the sink thread (adaptive mode).
+	 *
+	 * @param samples	samples at the device rate
+	 * @param count		number of samples
+	 */
+	private void writeToJitterBuffer(float[] samples, int count) {
+		int fillBefore;
+		int fillAfter;
+		synchronized (jitterLock) {
+			if(fill + count > jitterBuffer.length) {
+				// the output doesn't keep up (e.g. the device was blocked). cut back to the target:
+				int drop = fill + count - targetFill;
+				drop = Math.min(drop, fill);
+				readIndex = (readIndex + drop) % jitterBuffer.length;
+				fill -= drop;
+				overflows++;
+				DspLog.d(LOGTAG, "writeToJitterBuffer: Overflow. Dropped " + drop + " samples.");
+			}
+			fillBefore = fill;
+			int writeIndex = (readIndex + fill) % jitterBuffer.length;
+			int first = Math.min(count, jitterBuffer.length - writeIndex);
+			System.arraycopy(samples, 0, jitterBuffer, writeIndex, first);
+			System.arraycopy(samples, first, jitterBuffer, 0, count - first);
+			fill += count;
+			fillAfter = fill;
+			jitterLock.notifyAll();
+		}
+
+		// PI controller: the fill level is a sawtooth (packets in, blocks out); use the mean of
+		// the fill before and after this packet and smooth it.
+		if(!primed) {
+			averageFill = fillAfter;
+			integral = 0;
+			return;
+		}
+		averageFill += FILL_AVERAGE_ALPHA * ((fillBefore + fillAfter) / 2.0 - averageFill);
+		double error = (averageFill - targetFill) / sampleRate;		// seconds
+		integral += error * count / sampleRate;
+		integral = Math.max(-MAX_CORRECTION / KI, Math.min(MAX_CORRECTION / KI, integral));
+		double c = KP * error + KI * integral;
+		correction = Math.max(-MAX_CORRECTION, Math.min(MAX_CORRECTION, c));
+		resampler.setStep(nominalStep * (1 + correction));
+		latency = (float) (averageFill * 1000 / sampleRate) + getDeviceLatency();
+	}
+
+	/**
+	 * Takes blocks from the jitter buffer and writes them to the device (adaptive mode). The
+	 * writes block according to the clock of the device.
+	 */
+	private class OutputThread extends Thread {
+		@Override
+		public void run() {
+			DspLog.i(LOGTAG, "OutputThread started. (Thread: " + this.getName() + ")");
+			startOutput();
+			int blockSize = getOutputBlockSize();
+			float[] block = new float[blockSize];
+			while(!stopRequested) {
+				synchronized (jitterLock) {
+					// (re-)fill the jitter buffer up to the target before playing:
+					if(!primed) {
+						if(fill < targetFill) {
+							try {
+								jitterLock.wait(100);
+							} catch (InterruptedException e) {
+								break;
+							}
+							continue;
+						}
+						primed = true;
+					}
+					if(fill < blockSize) {
+						underruns++;
+						primed = false;
+						DspLog.d(LOGTAG, "OutputThread: Jitter buffer underrun.");
+						continue;
+					}
+					int first = Math.min(blockSize, jitterBuffer.length - readIndex);
+					System.arraycopy(jitterBuffer, readIndex, block, 0, first);
+					System.arraycopy(jitterBuffer, 0, block, first, blockSize - first);
+					readIndex = (readIndex + blockSize) % jitterBuffer.length;
+					fill -= blockSize;
+				}
+				if(!writeFloatSamples(block, blockSize)) {
+					DspLog.e(LOGTAG, "OutputThread: writeFloatSamples() returned with error! stop");
+					stopRequested = true;
+				}
+				writtenSamples += blockSize;
+			}
+			stopOutput();
+			DspLog.i(LOGTAG, "OutputThread stopped. (Thread: " + this.getName() + ")");
+		}
+	}
+
+	/**
+	 * Will filter the real array contained in input and decimate them to the audio rate.
+	 *
+	 * @param input		incoming (unfiltered) samples at the incoming rate (quadrature rate)
+	 * @param output	outgoing (filtered, decimated) samples at audio rate
+	 */
+	public void applyAudioFilter(SamplePacket input, SamplePacket output) {
+		// if we need a decimation of 8: apply first and second filter (decimate to input_rate/8)
+		if(input.getSampleRate()/audioRate == 8) {
+			// apply first filter (decimate to input_rate/2)
+			tmpAudioSamples.setSize(0);	// mark buffer as empty
+			if (audioFilter1.filterReal(input, tmpAudioSamples, 0, input.size()) < input.size()) {
+				DspLog.e(LOGTAG, "applyAudioFilter: [audioFilter1] could not filter all samples from input packet.");
+			}
+
+			// apply second filter (decimate to input_rate/8)
+			output.setSize(0);
+			if (audioFilter2.filterReal(tmpAudioSamples, output, 0, tmpAudioSamples.size()) < tmpAudioSamples.size()) {
+				DspLog.e(LOGTAG, "applyAudioFilter: [audioFilter2] could not filter all samples from input packet.");
+			}
+		} else if (input.getSampleRate()/audioRate == 2){
+			// apply first filter (decimate to input_rate/2 )
+			output.setSize(0);
+			if (audioFilter1.filterReal(input, output, 0, input.size()) < input.size()) {
+				DspLog.e(LOGTAG, "applyAudioFilter: [audioFilter1] could not filter all samples from input packet.");
+			}
+		} else
+			DspLog.e(LOGTAG,"applyAudioFilter: incoming sample rate is not supported!");
+	}
+}
@@ -0,0 +1,426 @@
+package com.sdrtuner;
+
+import java.util.ArrayList;
+import java.util.Locale;
+
+/**
+ * Scans a list of memory channels and stops on channels with an open squelch.
+ *
+ * The scanner is driven by the Scheduler: every packet of the source is passed to processPacket()
+ * on the scheduler thread. The packet is mixed down to the current channel and the channel power
+ * is measured with a boxcar integrate-and-dump filter (length = sample rate / channel bandwidth).
+ * Because the decision is made directly on the mixed samples (and not on the next fft frame), a
+ * channel can be checked within a few milliseconds. The scan rate is only limited by the settle
+ * time of the tuner.
+ *
+ * Channels that lie inside the band that is currently captured by the source are checked without
+ * retuning (only the mix frequency changes). If the next channel is outside, the source is retuned
+ * so that the channel lies a quarter of the sample rate below the center (away from the DC peak)
+ * and the samples of the next settleTime ms are discarded.
+ *
+ * If the channel power exceeds the squelch threshold the scanner stops on the channel (squelch
+ * open). It resumes hangTime ms after the signal dropped below the threshold or after dwellTime ms
+ * on the channel (dwellTime = 0: stay as long as the signal is present).
+ */
+public class ChannelScanner {
+	private static final String LOGTAG = "ChannelScanner";
+	public static final int STATE_SETTLING = 0;		// samples are discarded after a retune
+	public static final int STATE_MEASURING = 1;	// channel power is measured (squelch closed)
+	public static final int STATE_ACTIVE = 2;		// signal on the channel (squelch open)
+	public static final int STATE_HANG = 3;			// signal dropped; waiting hangTime before resuming
+	private static final int MIN_DC_DISTANCE = 10000;	// channels closer than this to the source frequency are retuned (Hz)
+
+	private IQSourceInterface source = null;		// source of the IQ samples (will be retuned)
+	private Callback callback = null;				// receives state changes (called on the scheduler thread)
+	private MemoryChannel[] channels = null;		// list of memory channels
+	private int channelIndex = 0;					// index of the current channel
+	private int state = STATE_SETTLING;				// current state of the scanner
+	private float squelch = -40;					// squelch threshold (channel power in dBFS)
+	private long dwellTime = 0;						// max. time on an active channel in ms (0 = unlimited)
+	private long hangTime = 2000;					// time (ms) after the signal dropped before the scan resumes
+	private int settleTime = 20;					// time (ms) that is discarded after a retune
+	private int measureTime = 5;					// time (ms) over which the channel power is measured
+	private volatile boolean squelchOpen = false;	// true if the demodulator should get the samples
+	private volatile boolean skipRequested = false;	// set by skipChannel(); handled on the scheduler thread
+	private volatile float channelPower = -999;		// last measured channel power (dBFS)
+
+	// Measurement state:
+	private SamplePacket mixBuffer = null;			// scratch buffer for the mixed samples
+	private int remainingSettleSamples = 0;			// samples to discard before measuring
+	private int boxcarLength = 1;					// length of the integrate-and-dump filter
+	private int boxcarCount = 0;					// samples in the current boxcar
+	private float boxcarRe = 0;						// sum of the real parts of the current boxcar
+	private float boxcarIm = 0;						// sum of the imaginary parts of the current boxcar
+	private double powerSum = 0;					// sum of the boxcar output powers of the measurement
+	private int powerCount = 0;						// number of boxcar outputs in powerSum
+	private int measureLength = 0;					// number of boxcar outputs per measurement
+	private long activeSince = 0;					// timestamp (ms) when the squelch opened on this channel
+	private long signalLost = 0;					// timestamp (ms) when the signal dropped below the squelch
+
+	/**
+	 * One memory channel
+	 */
+	public static class MemoryChannel {
+		public long frequency;			// channel frequency in Hz
+		public int demodulationMode;	// Demodulator.DEMODULATION_*
+
+		public MemoryChannel(long frequency, int demodulationMode) {
+			this.frequency = frequency;
+			this.demodulationMode = demodulationMode;
+		}
+
+		/**
+		 * @return channel width (one sided) of the demodulator for this mode in Hz
+		 */
+		public int getChannelWidth() {
+			return (Demodulator.MIN_USER_FILTER_WIDTH[demodulationMode] + Demodulator.MAX_USER_FILTER_WIDTH[demodulationMode]) / 2;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(Locale.US, "%.4f %s", frequency / 1000000f, MODE_NAMES[demodulationMode]);
+		}
+	}
+
+	/**
+	 * Names of the demodulation modes (index = Demodulator.DEMODULATION_*) as used in channel lists
+	 */
+	public static final String[] MODE_NAMES = {"OFF", "AM", "NFM", "WFM", "LSB", "USB"};
+
+	/**
+	 * Callback interface for state changes. All methods are called on the scheduler thread.
+	 */
+	public interface Callback {
+		/**
+		 * Called when the scanner retuned the source.
+		 *
+		 * @param sourceFrequency	new frequency of the source
+		 */
+		void onScannerRetune(long sourceFrequency);
+
+		/**
+		 * Called when the squelch opened on a channel (the scanner stops on this channel).
+		 *
+		 * @param channel		the active channel
+		 * @param power			measured channel power (dBFS)
+		 */
+		void onChannelActive(MemoryChannel channel, float power);
+
+		/**
+		 * Called when the scan resumes after a channel was active
+		 *
+		 * @param channel		the channel that was active
+		 */
+		void onScanResumed(MemoryChannel channel);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param source		IQ source (will be retuned by the scanner)
+	 * @param channels		memory channels (at least one)
+	 * @param callback		callback for state changes (may be null)
+	 */
+	public ChannelScanner(IQSourceInterface source, MemoryChannel[] channels, Callback callback) {
+		this.source = source;
+		this.channels = channels;
+		this.callback = callback;
+		this.mixBuffer = new SamplePacket(source.getPacketSize());
+	}
+
+	/**
+	 * Will parse a list of memory channels. Channels are separated by ',', ';' or new lines. Each
+	 * channel consists of a frequency and an optional mode (AM, NFM, WFM, LSB, USB), e.g.
+	 * "145.500 NFM, 433.920 AM". Frequencies below 100000 are interpreted as MHz, otherwise as Hz.
+	 *
+	 * @param list			channel list
+	 * @param defaultMode	mode for channels without a mode
+	 * @return parsed channels (invalid entries are skipped)
+	 */
+	public static MemoryChannel[] parseChannels(String list, int defaultMode) {
+		ArrayList<MemoryChannel> channels = new ArrayList<MemoryChannel>();
+		if(list == null)
+			return new MemoryChannel[0];
+		for (String entry : list.split("[,;\\n]")) {
+			String[] parts = entry.trim().split("\\s+");
+			if(parts.length == 0 || parts[0].length() == 0)
+				continue;
+			try {
+				double value = Double.valueOf(parts[0]);
+				long frequency = (long) (value < 100000 ? value * 1000000 : value);
+				int mode = defaultMode;
+				if(parts.length > 1) {
+					mode = -1;
+					for (int i = 1; i < MODE_NAMES.length; i++) {
+						if (MODE_NAMES[i].equalsIgnoreCase(parts[1]))
+							mode = i;
+					}
+				}
+				if(mode <= Demodulator.DEMODULATION_OFF || mode >= MODE_NAMES.length) {
+					DspLog.w(LOGTAG, "parseChannels: invalid mode in entry: " + entry);
+					continue;
+				}
+				channels.add(new MemoryChannel(frequency, mode));
+			} catch (NumberFormatException e) {
+				DspLog.w(LOGTAG, "parseChannels: invalid frequency in entry: " + entry);
+			}
+		}
+		return channels.toArray(new MemoryChannel[channels.size()]);
+	}
+
+	public float getSquelch() {
+		return squelch;
+	}
+
+	/**
+	 * @param squelch	squelch threshold (channel power in dBFS)
+	 */
+	public void setSquelch(float squelch) {
+		this.squelch = squelch;
+	}
+
+	public long getDwellTime() {
+		return dwellTime;
+	}
+
+	/**
+	 * @param dwellTime	max. time (ms) on an active channel before the scan resumes (0 = unlimited)
+	 */
+	public void setDwellTime(long dwellTime) {
+		this.dwellTime = dwellTime;
+	}
+
+	public long getHangTime() {
+		return hangTime;
+	}
+
+	/**
+	 * @param hangTime	time (ms) after the signal dropped before the scan resumes
+	 */
+	public void setHangTime(long hangTime) {
+		this.hangTime = hangTime;
+	}
+
+	public int getSettleTime() {
+		return settleTime;
+	}
+
+	/**
+	 * @param settleTime	time (ms) that is discarded after the source was retuned
+	 */
+	public void setSettleTime(int settleTime) {
+		this.settleTime = settleTime;
+	}
+
+	public int getMeasureTime() {
+		return measureTime;
+	}
+
+	/**
+	 * @param measureTime	time (ms) over which the channel power is measured before a decision
+	 */
+	public void setMeasureTime(int measureTime) {
+		this.measureTime = measureTime;
+	}
+
+	/**
+	 * @return the current channel
+	 */
+	public MemoryChannel getCurrentChannel() {
+		return channels[channelIndex];
+	}
+
+	/**
+	 * @return true if the squelch is open on the current channel (samples should be demodulated)
+	 */
+	public boolean isSquelchOpen() {
+		return squelchOpen;
+	}
+
+	/**
+	 * @return last measured channel power (dBFS)
+	 */
+	public float getChannelPower() {
+		return channelPower;
+	}
+
+	/**
+	 * @return current state (STATE_*)
+	 */
+	public int getState() {
+		return state;
+	}
+
+	/**
+	 * Will start the scan on the first channel. Must be called before the first packet.
+	 */
+	public void start() {
+		channelIndex = 0;
+		squelchOpen = false;
+		tuneToChannel(true);
+	}
+
+	/**
+	 * Will skip the current channel (e.g. if the user is not interested in an active channel).
+	 * The channel is skipped with the next packet.
+	 */
+	public void skipChannel() {
+		this.skipRequested = true;
+	}
+
+	/**
+	 * Will copy the samples of the last packet (mixed to the current channel) into the given
+	 * packet. This avoids mixing the packet a second time for the demodulator.
+	 *
+	 * @param samplePacket	destination (samples are appended)
+	 * @return number of samples that were copied
+	 */
+	public int copyMixedSamples(SamplePacket samplePacket) {
+		int count = Math.min(mixBuffer.size(), samplePacket.capacity() - samplePacket.size());
+		System.arraycopy(mixBuffer.re(), 0, samplePacket.re(), samplePacket.size(), count);
+		System.arraycopy(mixBuffer.im(), 0, samplePacket.im(), samplePacket.size(), count);
+		samplePacket.setSize(samplePacket.size() + count);
+		samplePacket.setFrequency(mixBuffer.getFrequency());
+		samplePacket.setSampleRate(mixBuffer.getSampleRate());
+		return count;
+	}
+
+	/**
+	 * Processes one packet of the source. Must be called by the scheduler for every packet
+	 * (before the packet is passed to the demodulator).
+	 *
+	 * @param packet	packet from the source
+	 */
+	public void processPacket(byte[] packet) {
+		if(skipRequested) {
+			skipRequested = false;
+			resume();
+		}
+		MemoryChannel channel = channels[channelIndex];
+		int samples = packet.length / 2;
+		long now = System.currentTimeMillis();
+
+		if(state == STATE_SETTLING) {
+			if(samples <= remainingSettleSamples) {
+				remainingSettleSamples -= samples;
+				mixBuffer.setSize(0);
+				return;
+			}
+			state = STATE_MEASURING;
+		}
+
+		// Mix the packet to the channel and measure the power:
+		mixBuffer.setSize(0);
+		int count = source.mixPacketIntoSamplePacket(packet, mixBuffer, channel.frequency);
+		float[] re = mixBuffer.re();
+		float[] im = mixBuffer.im();
+		boolean measurementDone = false;
+		for (int i = remainingSettleSamples; i < count; i++) {
+			boxcarRe += re[i];
+			boxcarIm += im[i];
+			if(++boxcarCount >= boxcarLength) {
+				powerSum += boxcarRe * boxcarRe + boxcarIm * boxcarIm;
+				powerCount++;
+				boxcarRe = 0;
+				boxcarIm = 0;
+				boxcarCount = 0;
+			}
+		}
+		remainingSettleSamples = 0;
+		if(powerCount >= measureLength) {
+			channelPower = (float) (10 * Math.log10(powerSum / powerCount / ((double) boxcarLength * boxcarLength) + 1e-20));
+			powerSum = 0;
+			powerCount = 0;
+			measurementDone = true;
+		}
+
+		switch (state) {
+			case STATE_MEASURING:
+				if(!measurementDone)
+					break;
+				if(channelPower >= squelch) {
+					state = STATE_ACTIVE;
+					activeSince = now;
+					squelchOpen = true;
+					if(callback != null)
+						callback.onChannelActive(channel, channelPower);
+				} else {
+					nextChannel();
+				}
+				break;
+			case STATE_ACTIVE:
+				if(dwellTime > 0 && now - activeSince > dwellTime) {
+					resume();
+				} else if(measurementDone && channelPower < squelch) {
+					state = STATE_HANG;
+					signalLost = now;
+				}
+				break;
+			case STATE_HANG:
+				if(dwellTime > 0 && now - activeSince > dwellTime) {
+					resume();
+				} else if(measurementDone && channelPower >= squelch) {
+					state = STATE_ACTIVE;
+				} else if(now - signalLost > hangTime) {
+					resume();
+				}
+				break;
+			default:
+		}
+	}
+
+	/**
+	 * Will close the squelch and continue with the next channel
+	 */
+	private void resume() {
+		MemoryChannel channel = channels[channelIndex];
+		squelchOpen = false;
+		nextChannel();
+		if(callback != null)
+			callback.onScanResumed(channel);
+	}
+
+	/**
+	 * Will switch to the next channel in the list
+	 */
+	private void nextChannel() {
+		channelIndex = (channelIndex + 1) % channels.length;
+		tuneToChannel(false);
+	}
+
+	/**
+	 * Will prepare the measurement of the current channel and retune the source if the channel
+	 * lies outside of the band that is currently captured.
+	 *
+	 * @param forceRetune	true to always retune the source
+	 */
+	private void tuneToChannel(boolean forceRetune) {
+		MemoryChannel channel = channels[channelIndex];
+		int sampleRate = source.getSampleRate();
+		int channelWidth = channel.getChannelWidth();
+		long offset = Math.abs(channel.frequency - source.getFrequency());
+
+		if(forceRetune || offset + channelWidth > sampleRate / 2 || offset < MIN_DC_DISTANCE) {
+			long sourceFrequency = channel.frequency + sampleRate / 4;
+			if(sourceFrequency > source.getMaxFrequency() || sourceFrequency < source.getMinFrequency())
+				sourceFrequency = channel.frequency - sampleRate / 4;
+			source.setFrequency(sourceFrequency);
+			remainingSettleSamples = (int) ((long) settleTime * sampleRate / 1000);
+			state = STATE_SETTLING;
+			if(callback != null)
+				callback.onScannerRetune(sourceFrequency);
+		} else {
+			remainingSettleSamples = 0;
+			state = STATE_MEASURING;
+		}
+
+		// reset the measurement:
+		boxcarLength = Math.max(1, sampleRate / (2 * channelWidth));
+		measureLength = Math.max(1, (int) ((long) measureTime * sampleRate / 1000 / boxcarLength));
+		boxcarCount = 0;
+		boxcarRe = 0;
+		boxcarIm = 0;
+		powerSum = 0;
+		powerCount = 0;
+	}
+}
@@ -0,0 +1,208 @@
+package com.sdrtuner;
+
+import java.util.Arrays;
+
+/**
+ * Complex CIC (cascaded integrator-comb) decimator for integer samples followed by a short FIR
+ * that compensates the passband droop of the CIC.
+ *
+ * The CIC needs no multiplications: STAGES integrators run at the input rate, STAGES combs
+ * (differential delay 1) at the output rate. Integer overflow in the integrators is harmless
+ * (two's complement wrap-around cancels in the combs) as long as the output fits into 64 bit,
+ * which is true for 32 bit input and any reasonable ratio. This makes it the cheapest way to
+ * drop most of the samples of a high rate source (e.g. 20 Msps --> 1 Msps) directly after the
+ * conversion (see IQConverter.mixPacketIntoIntSamples()). The aliases of the CIC are attenuated
+ * by more than 60 dB within the band that the following half band filters keep (see Decimator).
+ *
+ * The compensation filter runs at the output rate. The overall response is flat (+-0.2 dB) up
+ * to 0.15 * output rate and falls to -0.8 dB at COMPENSATION_PASSBAND * output rate.
+ */
+public class CicDecimator {
+	private static final String LOGTAG = "CicDecimator";
+	public static final int STAGES = 4;							// number of integrator and comb stages
+	private static final int COMPENSATION_TAPS = 9;				// length of the compensation filter (odd)
+	private static final float COMPENSATION_PASSBAND = 0.2f;	// edge of the compensated band (relative to the output rate)
+	private int ratio;						// decimation factor
+	private int phase = 0;					// number of input samples since the last output sample
+	private float scale;					// converts the CIC output back to [-1..1]
+	// integrators (input rate) and comb delays (output rate):
+	private long integratorRe1, integratorRe2, integratorRe3, integratorRe4;
+	private long integratorIm1, integratorIm2, integratorIm3, integratorIm4;
+	private long combRe1, combRe2, combRe3, combRe4;
+	private long combIm1, combIm2, combIm3, combIm4;
+	// compensation filter:
+	private float[] taps;
+	private float[] delaysRe = new float[COMPENSATION_TAPS];
+	private float[] delaysIm = new float[COMPENSATION_TAPS];
+	private int delayIndex = 0;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param ratio			decimation factor
+	 * @param inputScale	integer value of the input samples that corresponds to 1.0 (e.g. IQConverter.INT_SAMPLE_SCALE)
+	 */
+	public CicDecimator(int ratio, int inputScale) {
+		if(ratio < 1)
+			throw new IllegalArgumentException("ratio must be at least 1");
+		this.ratio = ratio;
+		this.scale = (float) (1 / (Math.pow(ratio, STAGES) * inputScale));
+		this.taps = createCompensationFilter(ratio);
+		DspLog.d(LOGTAG, "constructor: ratio=" + ratio + " taps=" + Arrays.toString(taps));
+	}
+
+	public int getRatio() {
+		return ratio;
+	}
+
+	/**
+	 * Will decimate the input samples and append the (compensated) output samples to the output
+	 * packet. Stops if the output packet is full.
+	 *
+	 * @param re			real parts of the input samples
+	 * @param im			imaginary parts of the input samples
+	 * @param count			number of input samples
+	 * @param out			output packet (samples are appended; sample rate is not changed)
+	 * @return number of consumed input samples
+	 */
+	public int decimate(int[] re, int[] im, int count, SamplePacket out) {
+		int indexOut = out.size();
+		int outputCapacity = out.capacity();
+		float[] reOut = out.re();
+		float[] imOut = out.im();
+		long ir1 = integratorRe1, ir2 = integratorRe2, ir3 = integratorRe3, ir4 = integratorRe4;
+		long ii1 = integratorIm1, ii2 = integratorIm2, ii3 = integratorIm3, ii4 = integratorIm4;
+		int i = 0;
+		while(i < count) {
+			int end = i + ratio - phase;		// index of the input sample that completes the next output sample
+			if(end > count) {
+				end = count;
+			} else if(indexOut == outputCapacity) {
+				break;		// output is full. stop before the next output sample
+			}
+
+			// integrators:
+			phase += end - i;
+			for (; i < end; i++) {
+				ir1 += re[i];	ir2 += ir1;	ir3 += ir2;	ir4 += ir3;
+				ii1 += im[i];	ii2 += ii1;	ii3 += ii2;	ii4 += ii3;
+			}
+			if(phase < ratio)
+				break;		// end of the input
+			phase = 0;
+
+			// combs:
+			long cr1 = ir4 - combRe1;	combRe1 = ir4;
+			long cr2 = cr1 - combRe2;	combRe2 = cr1;
+			long cr3 = cr2 - combRe3;	combRe3 = cr2;
+			long cr4 = cr3 - combRe4;	combRe4 = cr3;
+			long ci1 = ii4 - combIm1;	combIm1 = ii4;
+			long ci2 = ci1 - combIm2;	combIm2 = ci1;
+			long ci3 = ci2 - combIm3;	combIm3 = ci2;
+			long ci4 = ci3 - combIm4;	combIm4 = ci3;
+
+			// compensation filter:
+			delaysRe[delayIndex] = cr4 * scale;
+			delaysIm[delayIndex] = ci4 * scale;
+			float sumRe = 0;
+			float sumIm = 0;
+			int index = delayIndex;
+			for (int k = 0; k < COMPENSATION_TAPS; k++) {
+				sumRe += taps[k] * delaysRe[index];
+				sumIm += taps[k] * delaysIm[index];
+				if(--index < 0)
+					index = COMPENSATION_TAPS - 1;
+			}
+			if(++delayIndex == COMPENSATION_TAPS)
+				delayIndex = 0;
+			reOut[indexOut] = sumRe;
+			imOut[indexOut] = sumIm;
+			indexOut++;
+		}
+		integratorRe1 = ir1; integratorRe2 = ir2; integratorRe3 = ir3; integratorRe4 = ir4;
+		integratorIm1 = ii1; integratorIm2 = ii2; integratorIm3 = ii3; integratorIm4 = ii4;
+		out.setSize(indexOut);
+		return i;
+	}
+
+	/**
+	 * @param ratio		decimation factor
+	 * @param f			frequency relative to the output rate
+	 * @return magnitude response of the CIC at f (normalized to 1 at DC)
+	 */
+	public static double getCicResponse(int ratio, double f) {
+		double x = Math.PI * f / ratio;		// (f / ratio = frequency relative to the input rate)
+		if(x == 0)
+			return 1;
+		return Math.abs(Math.pow(Math.sin(ratio * x) / (ratio * Math.sin(x)), STAGES));
+	}
+
+	/**
+	 * @param f			frequency relative to the output rate
+	 * @return magnitude response of this decimator (CIC and compensation filter) at f (1 at DC)
+	 */
+	public double getResponse(double f) {
+		int center = COMPENSATION_TAPS / 2;
+		double compensation = taps[center];
+		for (int k = 1; k <= center; k++)
+			compensation += 2 * taps[center + k] * Math.cos(2 * Math.PI * f * k);
+		return getCicResponse(ratio, f) * Math.abs(compensation);
+	}
+
+	/**
+	 * Will design the compensation filter (least squares fit of a symmetric FIR): the desired
+	 * response is the inverse of the CIC response up to COMPENSATION_PASSBAND. Above that the
+	 * response is only weakly constrained to 0 (the following filters remove this band).
+	 *
+	 * @param ratio		decimation factor of the CIC
+	 * @return taps (symmetric)
+	 */
+	private static float[] createCompensationFilter(int ratio) {
+		final int gridSize = 256;
+		final double stopBandWeight = 0.01;
+		int center = COMPENSATION_TAPS / 2;
+		int unknowns = center + 1;		// H(f) = a[0] + 2 * sum(a[k] * cos(2*pi*f*k))
+
+		// normal equations of the weighted least squares problem:
+		double[][] matrix = new double[unknowns][unknowns + 1];
+		double[] basis = new double[unknowns];
+		for (int g = 0; g <= gridSize; g++) {
+			double f = 0.5 * g / gridSize;
+			double weight = f <= COMPENSATION_PASSBAND ? 1 : stopBandWeight;
+			double desired = f <= COMPENSATION_PASSBAND ? 1 / getCicResponse(ratio, f) : 0;
+			for (int k = 0; k < unknowns; k++)
+				basis[k] = k == 0 ? 1 : 2 * Math.cos(2 * Math.PI * f * k);
+			for (int r = 0; r < unknowns; r++) {
+				for (int c = 0; c < unknowns; c++)
+					matrix[r][c] += weight * basis[r] * basis[c];
+				matrix[r][unknowns] += weight * basis[r] * desired;
+			}
+		}
+
+		// solve (Gauss-Jordan; the matrix is small and well conditioned):
+		for (int r = 0; r < unknowns; r++) {
+			int pivot = r;
+			for (int i = r + 1; i < unknowns; i++)
+				if(Math.abs(matrix[i][r]) > Math.abs(matrix[pivot][r]))
+					pivot = i;
+			double[] tmp = matrix[r];
+			matrix[r] = matrix[pivot];
+			matrix[pivot] = tmp;
+			for (int i = 0; i < unknowns; i++) {
+				if(i == r)
+					continue;
+				double factor = matrix[i][r] / matrix[r][r];
+				for (int c = r; c <= unknowns; c++)
+					matrix[i][c] -= factor * matrix[r][c];
+			}
+		}
+
+		float[] taps = new float[COMPENSATION_TAPS];
+		for (int k = 0; k < unknowns; k++) {
+			float a = (float) (matrix[k][unknowns] / matrix[k][k]);
+			taps[center + k] = a;
+			taps[center - k] = a;
+		}
+		return taps;
+	}
+}
@@ -1,7 +1,5 @@
 package com.sdrtuner;
 
-import android.util.Log;
-
 public class ComplexFirFilter {
 	private int tapCounter = 0;
 	private float[] tapsReal;
@@ -164,22 +162,22 @@ public class ComplexFirFilter {
 										  float attenuation_dB)   // attenuation dB
 	{
 		if (sampling_freq <= 0.0) {
-			Log.e(LOGTAG, "createBandPass: firdes check failed: sampling_freq > 0");
+			DspLog.e(LOGTAG, "createBandPass: firdes check failed: sampling_freq > 0");
 			return null;
 		}
 
 		if (low_cutoff_freq < sampling_freq * -0.5 || high_cutoff_freq > sampling_freq * 0.5) {
-			Log.e(LOGTAG, "createBandPass: firdes check failed: -sampling_freq / 2 < fa <= sampling_freq / 2");
+			DspLog.e(LOGTAG, "createBandPass: firdes check failed: -sampling_freq / 2 < fa <= sampling_freq / 2");
 			return null;
 		}
 
 		if (low_cutoff_freq >= high_cutoff_freq) {
-			Log.e(LOGTAG,"createBandPass: firdes check failed: low_cutoff_freq >= high_cutoff_freq");
+			DspLog.e(LOGTAG,"createBandPass: firdes check failed: low_cutoff_freq >= high_cutoff_freq");
 			return null;
 		}
 
 		if (transition_width <= 0) {
-			Log.e(LOGTAG,"createBandPass: firdes check failed: transition_width > 0");
+			DspLog.e(LOGTAG,"createBandPass: firdes check failed: transition_width > 0");
 			return null;
 		}
 
@@ -227,7 +225,7 @@ public class ComplexFirFilter {
 			tapsReal[i] = tapsLowPass[i] * (float)Math.cos(phase);
 			tapsImag[i] = tapsLowPass[i] * (float)Math.sin(phase);
 			phase += freq;
-			//Log.d(LOGTAG, "createBandPass: Filter Taps [i="+i+"]: " + tapsReal[i] + "   " + tapsImag[i]);
+			//DspLog.d(LOGTAG, "createBandPass: Filter Taps [i="+i+"]: " + tapsReal[i] + "   " + tapsImag[i]);
 		}
 
 		return new ComplexFirFilter(tapsReal, tapsImag, decimation, gain, sampling_freq, low_cutoff_freq, high_cutoff_freq, transition_width, attenuation_dB);
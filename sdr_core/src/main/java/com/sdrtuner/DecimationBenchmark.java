@@ -0,0 +1,105 @@
+package com.sdrtuner;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Compares the cost of the two ways to bring a high rate source down to the input rate of the
+ * demodulator (Demodulator.INPUT_RATE):
+ *
+ *   float:  IQConverter.mixPacketIntoSamplePacket() --> cascade of HalfBandLowPassFilter (N=8)
+ *           down to the first rate <= 1.25 Msps (the way the Decimator works)
+ *   cic:    IQConverter.mixPacketIntoIntSamples() --> CicDecimator (incl. compensation filter)
+ *           down to exactly 1 Msps
+ *
+ * Usage (after building the sdr_core module; arguments are source rates in Sps):
+ *     java -cp sdr_core/build/classes/java/main com.sdrtuner.DecimationBenchmark 10000000 20000000
+ */
+public class DecimationBenchmark {
+	private static final int PACKET_SIZE = 16384 * 8;		// bytes per packet (like the HackrfSource)
+	private static final int WARMUP_PACKETS = 2000;
+	private static final int MEASURED_PACKETS = 4000;
+	private static final long CHANNEL_OFFSET = 123456;		// mix frequency (Hz)
+
+	public static void main(String[] args) {
+		int[] rates = {10000000, 20000000};
+		if(args.length > 0) {
+			rates = new int[args.length];
+			for (int i = 0; i < args.length; i++)
+				rates[i] = Integer.valueOf(args[i]);
+		}
+
+		// random 8 bit samples (the content does not matter for the speed):
+		byte[] packet = new byte[PACKET_SIZE];
+		new Random(0).nextBytes(packet);
+
+		System.out.println("  rate [Msps]   path    ns/sample   Msps (1 core)   output rate");
+		for (int rate : rates) {
+			runFloat(packet, rate);
+			runCic(packet, rate);
+		}
+	}
+
+	/**
+	 * float conversion + half band cascade
+	 */
+	private static void runFloat(byte[] packet, int rate) {
+		IQConverter converter = new Signed8BitIQConverter();
+		converter.setSampleRate(rate);
+		converter.setFrequency(0);
+		int stages = 0;
+		while(rate >> stages > Demodulator.INPUT_RATE * 5 / 4)
+			stages++;
+		HalfBandLowPassFilter[] filters = new HalfBandLowPassFilter[stages];
+		SamplePacket[] buffers = new SamplePacket[stages + 1];
+		buffers[0] = new SamplePacket(PACKET_SIZE / 2);
+		for (int i = 0; i < stages; i++) {
+			filters[i] = new HalfBandLowPassFilter(8);
+			buffers[i + 1] = new SamplePacket(PACKET_SIZE / 2);
+		}
+
+		long start = 0;
+		for (int p = 0; p < WARMUP_PACKETS + MEASURED_PACKETS; p++) {
+			if(p == WARMUP_PACKETS)
+				start = System.nanoTime();
+			buffers[0].setSize(0);
+			converter.mixPacketIntoSamplePacket(packet, buffers[0], CHANNEL_OFFSET);
+			for (int i = 0; i < stages; i++) {
+				buffers[i + 1].setSize(0);
+				filters[i].filter(buffers[i], buffers[i + 1], 0, buffers[i].size());
+			}
+		}
+		report(rate, "float", System.nanoTime() - start, rate >> stages);
+	}
+
+	/**
+	 * integer conversion + CIC
+	 */
+	private static void runCic(byte[] packet, int rate) {
+		IQConverter converter = new Signed8BitIQConverter();
+		converter.setSampleRate(rate);
+		converter.setFrequency(0);
+		int ratio = rate / Demodulator.INPUT_RATE;
+		CicDecimator cic = new CicDecimator(ratio, IQConverter.INT_SAMPLE_SCALE);
+		int[] re = new int[PACKET_SIZE / 2];
+		int[] im = new int[PACKET_SIZE / 2];
+		SamplePacket output = new SamplePacket(PACKET_SIZE / 2 / ratio + 1);
+
+		long start = 0;
+		for (int p = 0; p < WARMUP_PACKETS + MEASURED_PACKETS; p++) {
+			if(p == WARMUP_PACKETS)
+				start = System.nanoTime();
+			int count = converter.mixPacketIntoIntSamples(packet, re, im, CHANNEL_OFFSET);
+			output.setSize(0);
+			cic.decimate(re, im, count, output);
+		}
+		report(rate, "cic", System.nanoTime() - start, rate / ratio);
+	}
+
+	private static void report(int rate, String path, long time, int outputRate) {
+		double samples = (double) MEASURED_PACKETS * PACKET_SIZE / 2;
+		double nsPerSample = time / samples;
+		System.out.println(String.format(Locale.US, "  %11.1f   %-5s   %9.2f   %13.1f   %8.3f Msps",
+				rate / 1e6, path, nsPerSample, 1e3 / nsPerSample, outputRate / 1e6));
+	}
+}
@@ -0,0 +1,558 @@
+package com.sdrtuner;
+
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decimates the baseband samples (INPUT_RATE) to the quadrature rate of the demodulator with a
+ * cascade of half band filters followed by a FIR filter (decimation of 2).
+ *
+ * The filters (stages) can be split into a pipeline: the decimator thread runs the first group
+ * of stages and each additional worker thread runs the next group. The groups are connected by
+ * lock-free rings (SamplePacketRing). Every stage measures its processing time, and every
+ * REBALANCE_INTERVAL packets the stages are re-assigned so that the busiest worker gets as little
+ * work as possible (if this is clearly better than the current placement). Before the stages are
+ * moved, the pipeline is drained, so a filter is never used by two threads at the same time and
+ * the output is identical for any number of workers.
+ *
+ * Each stage runs on one thread, so the throughput scales with the number of workers only until
+ * the most expensive stage is alone on its worker.
+ */
+public class Decimator extends Thread {
+	private int outputSampleRate;	// sample rate at the output of the decimator block
+	private int packetSize;			// packet size of the incoming packets
+	private boolean stopRequested = true;
+	private static final String LOGTAG = "Decimator";
+
+	private static final int OUTPUT_QUEUE_SIZE = 2;		// Double Buffer
+	private ArrayBlockingQueue<SamplePacket> inputQueue;		// queue that holds the incoming sample packets
+	private ArrayBlockingQueue<SamplePacket> inputReturnQueue;	// queue to return used buffers from the input queue
+	private ArrayBlockingQueue<SamplePacket> outputQueue;		// queue that will hold the decimated sample packets
+	private ArrayBlockingQueue<SamplePacket> outputReturnQueue;	// queue to return used buffers from the output queue
+
+	// DOWNSAMPLING:
+	private static final int INPUT_RATE = 1000000;	// For now, this decimator only works with a fixed input rate of 1Msps
+	public static final double DEFAULT_ALIAS_REJECTION = 50;	// dB (N=8 for the last half band filter, like the former fixed cascade)
+	private static final float OUTPUT_FILTER_CUT_OFF = 0.15f;		// pass band of the last filter (relative to its input rate)
+	private static final float OUTPUT_FILTER_TRANSITION = 0.2f;	// transition width of the last filter (relative to its input rate)
+	private volatile double aliasRejection = DEFAULT_ALIAS_REJECTION;	// required attenuation of aliases in the pass band
+	private Stage[] stages = null;				// half band filters (decimate by 2 each) and the FIR filter
+	private int stagesDecimation = 0;			// decimation the stages were designed for
+	private double stagesAliasRejection = 0;	// alias rejection the stages were designed for
+
+	// PIPELINE:
+	public static final int MAX_WORKERS = 4;			// max number of threads (incl. the decimator thread)
+	private static final int LINK_SIZE = 4;				// packets in flight between two workers
+	private static final int REBALANCE_INTERVAL = 128;	// packets between two checks of the placement
+	private static final double REBALANCE_GAIN = 0.8;	// a new placement must reduce the cost of the busiest worker to this fraction
+	private static final int DRAIN_TIMEOUT = 1000;		// max time (ms) to wait for the workers when the pipeline is drained
+	private volatile int workerCount = 1;			// requested number of threads
+	private volatile int[] stageEnds = null;		// worker i runs the stages stageEnds[i-1] (0 for i=0) .. stageEnds[i]-1
+	private WorkerThread[] workers = new WorkerThread[0];	// workers 1..n-1 (worker 0 is the decimator thread)
+	private SamplePacketRing[] links = new SamplePacketRing[0];			// filled packets from worker i to worker i+1
+	private SamplePacketRing[] linkReturns = new SamplePacketRing[0];	// used packets from worker i+1 back to worker i
+	private SamplePacket[] scratch;					// intermediate buffers of the decimator thread (2)
+	private int packetCounter = 0;					// packets since the last check of the placement
+	private long[] lastStageTime = new long[0];		// processing time of each stage at the last check
+	private final GapDetector gapDetector = new GapDetector("decimator");	// checks the input packets (decimator thread)
+
+	/**
+	 * One filter of the cascade. Only the worker that currently owns the stage calls filter().
+	 */
+	private static class Stage {
+		private HalfBandLowPassFilter halfBand;		// either a half band filter...
+		private FirFilter fir;						// ...or the FIR filter
+		private volatile long time = 0;				// total processing time (ns)
+
+		private int filter(SamplePacket in, SamplePacket out) {
+			long startTime = System.nanoTime();
+			int consumed = halfBand != null ? halfBand.filter(in, out, 0, in.size()) : fir.filter(in, out, 0, in.size());
+			time += System.nanoTime() - startTime;	// (single writer)
+			return consumed;
+		}
+	}
+
+	/**
+	 * Constructor. Will create a new Decimator block.
+	 *
+	 * @param outputSampleRate		// sample rate to which the incoming samples should be decimated
+	 * @param packetSize			// packet size of the incoming sample packets
+	 * @param inputQueue			// queue that delivers incoming sample packets
+	 * @param inputReturnQueue		// queue to return used input sample packets
+	 */
+	public Decimator (int outputSampleRate, int packetSize, ArrayBlockingQueue<SamplePacket> inputQueue,
+					  ArrayBlockingQueue<SamplePacket> inputReturnQueue) {
+		this.outputSampleRate = outputSampleRate;
+		this.packetSize = packetSize;
+		this.inputQueue = inputQueue;
+		this.inputReturnQueue = inputReturnQueue;
+
+		// Create output queues (the packets are returned to the pool when the decimator stops):
+		SamplePacketPool pool = SamplePacketPool.getDefault();
+		this.outputQueue = new ArrayBlockingQueue<SamplePacket>(OUTPUT_QUEUE_SIZE);
+		this.outputReturnQueue = new ArrayBlockingQueue<SamplePacket>(OUTPUT_QUEUE_SIZE);
+		for (int i = 0; i < OUTPUT_QUEUE_SIZE; i++)
+			outputReturnQueue.offer(pool.acquire(packetSize));
+
+		// Create local buffers:
+		this.scratch = new SamplePacket[] {pool.acquire(packetSize), pool.acquire(packetSize)};
+	}
+
+	public int getOutputSampleRate() {
+		return outputSampleRate;
+	}
+
+	public void setOutputSampleRate(int outputSampleRate) {
+		this.outputSampleRate = outputSampleRate;
+	}
+
+	public double getAliasRejection() {
+		return aliasRejection;
+	}
+
+	/**
+	 * Will set the attenuation that the half band cascade must reach for all signals that alias
+	 * into the pass band. The decimator uses the shortest half band filters that reach it (the
+	 * cascade is re-designed with the next packet).
+	 *
+	 * @param aliasRejection	attenuation in dB
+	 */
+	public void setAliasRejection(double aliasRejection) {
+		this.aliasRejection = aliasRejection;
+	}
+
+	public int getWorkerCount() {
+		return workerCount;
+	}
+
+	/**
+	 * Will set the number of threads that run the filter stages (applied with the next packet).
+	 * The number of threads that are actually used is limited by the number of stages.
+	 *
+	 * @param workerCount	1 (no pipeline) .. MAX_WORKERS
+	 */
+	public void setWorkerCount(int workerCount) {
+		this.workerCount = Math.max(1, Math.min(MAX_WORKERS, workerCount));
+	}
+
+	/**
+	 * @return current placement: index of the first stage of each worker (empty if not running)
+	 */
+	public int[] getPlacement() {
+		int[] ends = stageEnds;
+		if(ends == null)
+			return new int[0];
+		int[] placement = new int[ends.length];
+		for (int i = 1; i < ends.length; i++)
+			placement[i] = ends[i - 1];
+		return placement;
+	}
+
+	public SamplePacket getDecimatedPacket(int timeout) {
+		try {
+			return outputQueue.poll(timeout, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			DspLog.e(LOGTAG, "getPacket: Interrupted while waiting on queue");
+			return null;
+		}
+	}
+
+	public void returnDecimatedPacket(SamplePacket packet) {
+		outputReturnQueue.offer(packet);
+	}
+
+	/**
+	 * @return gap detector of the input packets (shows the packets that were flushed by the scheduler)
+	 */
+	public GapDetector getGapDetector() {
+		return gapDetector;
+	}
+
+	@Override
+	public synchronized void start() {
+		this.stopRequested = false;
+		super.start();
+	}
+
+	public void stopDecimator() {
+		this.stopRequested = true;
+	}
+
+	@Override
+	public void run() {
+		SamplePacket inputSamples;
+		SamplePacket outputSamples;
+
+		DspLog.i(LOGTAG,"Decimator started. (Thread: " + this.getName() + ")");
+
+		while (!stopRequested) {
+			// Get a packet from the input queue:
+			try {
+				inputSamples = inputQueue.poll(1000, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				DspLog.e(LOGTAG, "run: Interrupted while waiting on input queue! stop.");
+				this.stopRequested = true;
+				break;
+			}
+
+			// Verify the input sample packet is not null:
+			if (inputSamples == null) {
+				//DspLog.d(LOGTAG, "run: Input sample is null. skip this round...");
+				continue;
+			}
+
+			// Verify the input sample rate: 	(For now, this decimator only works with a fixed input rate of 1Msps)
+			if (inputSamples.getSampleRate() != INPUT_RATE) {
+				DspLog.d(LOGTAG, "run: Input sample rate is " + inputSamples.getSampleRate() + " but should be" + INPUT_RATE + ". skip.");
+				inputReturnQueue.offer(inputSamples);
+				continue;
+			}
+			gapDetector.check(inputSamples);
+
+			// Verify that the stages and the pipeline are still correct configured:
+			int decimation = inputSamples.getSampleRate() / outputSampleRate;
+			double rejection = aliasRejection;
+			if(stages == null || stagesDecimation != decimation || stagesAliasRejection != rejection) {
+				drainPipeline();
+				createStages(decimation, rejection);
+				configurePipeline(placeStagesEvenly(Math.min(workerCount, stages.length)));
+			} else if(Math.min(workerCount, stages.length) != stageEnds.length) {
+				drainPipeline();
+				configurePipeline(placeStagesEvenly(Math.min(workerCount, stages.length)));
+			} else if(++packetCounter >= REBALANCE_INTERVAL) {
+				rebalance();
+			}
+
+			// Get a packet for the output of the decimator thread (the first stage group):
+			if(workers.length == 0) {
+				try {
+					outputSamples = outputReturnQueue.poll(1000, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e) {
+					DspLog.e(LOGTAG, "run: Interrupted while waiting on output return queue! stop.");
+					this.stopRequested = true;
+					break;
+				}
+			} else
+				outputSamples = linkReturns[0].poll(1000);
+
+			// Verify the output sample packet is not null:
+			if (outputSamples == null) {
+				DspLog.d(LOGTAG, "run: Output sample is null. skip this round...");
+				inputReturnQueue.offer(inputSamples);
+				continue;
+			}
+
+			// downsampling (all stages or the first group of the pipeline)
+			processStages(0, stageEnds[0], inputSamples, outputSamples, scratch);
+
+			// return inputSamples back to the input queue:
+			inputReturnQueue.offer(inputSamples);
+
+			// deliver the outputSamples to the output queue (or the next worker)
+			if(workers.length == 0)
+				outputQueue.offer(outputSamples);
+			else
+				links[0].offer(outputSamples);
+		}
+
+		drainPipeline();
+		configurePipeline(null);
+
+		// return all packets to the pool (the demodulator has already stopped):
+		SamplePacketPool pool = SamplePacketPool.getDefault();
+		pool.releaseAll(outputQueue);
+		pool.releaseAll(outputReturnQueue);
+		for (SamplePacket packet : scratch)
+			pool.release(packet);
+		this.stopRequested = true;
+		DspLog.i(LOGTAG,"Decimator stopped. (Thread: " + this.getName() + ")");
+	}
+
+	/**
+	 * Will run the given stages. The intermediate results alternate between the two scratch
+	 * buffers; the last stage writes into output.
+	 *
+	 * @param from		index of the first stage
+	 * @param to		index after the last stage
+	 * @param input		input samples
+	 * @param output	output samples (will be overwritten)
+	 * @param scratch	two intermediate buffers
+	 */
+	private void processStages(int from, int to, SamplePacket input, SamplePacket output, SamplePacket[] scratch) {
+		SamplePacket source = input;
+		for (int i = from; i < to; i++) {
+			SamplePacket destination = i == to - 1 ? output : scratch[i % 2];
+			destination.setSize(0);	// mark buffer as empty
+			if (stages[i].filter(source, destination) < source.size()) {
+				DspLog.e(LOGTAG, "processStages: [stage " + i + "] could not filter all samples from input packet.");
+			}
+			destination.copyStamp(source);
+			source = destination;
+		}
+	}
+
+	/**
+	 * Will create the cheapest cascade of half band filters that decimates by decimation/2 and
+	 * attenuates all signals that alias into the pass band of the last filter by aliasRejection,
+	 * followed by the FIR filter that decimates by 2.
+	 * Each half band stage only has to protect the pass band of the FIR filter, which is a smaller
+	 * fraction of its input rate the earlier the stage is. So the early stages (which run at the
+	 * highest rates) can be very short.
+	 *
+	 * @param decimation		overall decimation (power of 2; the FIR filter decimates by 2)
+	 * @param aliasRejection	required attenuation in dB
+	 */
+	private void createStages(int decimation, double aliasRejection) {
+		int halfBandStages = Integer.numberOfTrailingZeros(Math.max(2, decimation)) - 1;
+		if(Integer.bitCount(decimation) != 1)
+			DspLog.e(LOGTAG, "createStages: decimation " + decimation + " is not a power of 2");
+		stages = new Stage[halfBandStages + 1];
+		StringBuilder lengths = new StringBuilder();
+		float multiplications = 0;		// per input sample
+		for (int i = 0; i < halfBandStages; i++) {
+			// pass band of the FIR filter relative to the input rate of this stage:
+			float passband = OUTPUT_FILTER_CUT_OFF / (2 << (halfBandStages - 1 - i));
+			int n = HalfBandLowPassFilter.getMinimumLength(passband, aliasRejection);
+			stages[i] = new Stage();
+			stages[i].halfBand = new HalfBandLowPassFilter(n, passband);
+			multiplications += (n / 4f) / (2 << i);
+			lengths.append(i == 0 ? "" : ", ").append(n);
+		}
+		stages[halfBandStages] = new Stage();
+		stages[halfBandStages].fir = FirFilter.createLowPass(2, 2 * (outputSampleRate / (float) INPUT_RATE), 1,
+				OUTPUT_FILTER_CUT_OFF, OUTPUT_FILTER_TRANSITION, 20);
+		stagesDecimation = decimation;
+		stagesAliasRejection = aliasRejection;
+		lastStageTime = new long[stages.length];
+		packetCounter = 0;
+		DspLog.d(LOGTAG, "createStages: decimation=" + decimation + " rejection=" + aliasRejection
+				+ "dB half band lengths=[" + lengths + "] (" + multiplications + " multiplications per input sample)"
+				+ " FIR taps=" + stages[halfBandStages].fir.getNumberOfTaps());
+	}
+
+	/**
+	 * @param workerCount	number of workers
+	 * @return stage ends (see stageEnds) that give each worker the same number of stages
+	 */
+	private int[] placeStagesEvenly(int workerCount) {
+		int[] ends = new int[workerCount];
+		for (int i = 0; i < workerCount; i++)
+			ends[i] = (i + 1) * stages.length / workerCount;
+		return ends;
+	}
+
+	/**
+	 * Will compare the current placement with the best placement for the stage times that were
+	 * measured since the last check and apply the best one if it is clearly better.
+	 */
+	private void rebalance() {
+		packetCounter = 0;
+		long[] costs = new long[stages.length];
+		for (int i = 0; i < stages.length; i++) {
+			long time = stages[i].time;
+			costs[i] = time - lastStageTime[i];
+			lastStageTime[i] = time;
+		}
+		int[] current = stageEnds;
+		if(current.length < 2)
+			return;
+		int[] best = new int[current.length];
+		findBestPlacement(costs, 0, 0, new int[current.length], best, new long[] {Long.MAX_VALUE});
+		long currentCost = getMaxWorkerCost(costs, current);
+		long bestCost = getMaxWorkerCost(costs, best);
+		if(bestCost < currentCost * REBALANCE_GAIN) {
+			DspLog.d(LOGTAG, "rebalance: stage ends " + Arrays.toString(current) + " --> "
+					+ Arrays.toString(best) + " (busiest worker: " + currentCost / REBALANCE_INTERVAL
+					+ " --> " + bestCost / REBALANCE_INTERVAL + " ns per packet)");
+			drainPipeline();
+			stageEnds = best;
+		}
+	}
+
+	/**
+	 * Will search the placement (contiguous groups of at least one stage) that minimizes the cost
+	 * of the busiest worker (exhaustive search; there are only a few stages and workers).
+	 *
+	 * @param costs		cost of each stage
+	 * @param worker	worker to place
+	 * @param start		first stage of this worker
+	 * @param ends		placement of the workers before this worker
+	 * @param best		best placement found so far (output)
+	 * @param bestCost	cost of the best placement (in/out; single element)
+	 */
+	private static void findBestPlacement(long[] costs, int worker, int start, int[] ends, int[] best, long[] bestCost) {
+		int workers = ends.length;
+		if(worker == workers - 1) {
+			ends[worker] = costs.length;
+			long cost = getMaxWorkerCost(costs, ends);
+			if(cost < bestCost[0]) {
+				bestCost[0] = cost;
+				System.arraycopy(ends, 0, best, 0, workers);
+			}
+			return;
+		}
+		// leave at least one stage for each of the following workers:
+		for (int end = start + 1; end <= costs.length - (workers - 1 - worker); end++) {
+			ends[worker] = end;
+			findBestPlacement(costs, worker + 1, end, ends, best, bestCost);
+		}
+	}
+
+	/**
+	 * @param costs		cost of each stage
+	 * @param ends		placement
+	 * @return cost of the busiest worker
+	 */
+	private static long getMaxWorkerCost(long[] costs, int[] ends) {
+		long max = 0;
+		int start = 0;
+		for (int end : ends) {
+			long sum = 0;
+			for (int i = start; i < end; i++)
+				sum += costs[i];
+			max = Math.max(max, sum);
+			start = end;
+		}
+		return max;
+	}
+
+	/**
+	 * Will wait until all workers have processed their packets (decimator thread). Afterwards no
+	 * stage is in use and the placement can be changed.
+	 */
+	private void drainPipeline() {
+		long deadline = System.currentTimeMillis() + DRAIN_TIMEOUT;
+		// (each worker forwards its output before it returns its input, so a link is complete
+		// only if the previous links are complete)
+		for (SamplePacketRing linkReturn : linkReturns) {
+			while(linkReturn.size() < LINK_SIZE && System.currentTimeMillis() < deadline)
+				Thread.yield();
+			if(linkReturn.size() < LINK_SIZE)
+				DspLog.e(LOGTAG, "drainPipeline: Timeout while waiting for the workers.");
+		}
+	}
+
+	/**
+	 * Will stop the current workers and start the workers for the new placement (decimator thread;
+	 * the pipeline must be drained)
+	 *
+	 * @param ends		new stage ends (see stageEnds) or null to stop all workers
+	 */
+	private void configurePipeline(int[] ends) {
+		int count = ends == null ? 0 : ends.length - 1;
+		if(count != workers.length) {
+			for (WorkerThread worker : workers)
+				worker.stopWorker();
+			for (WorkerThread worker : workers) {
+				try {
+					worker.join(DRAIN_TIMEOUT);
+				} catch (InterruptedException e) {
+					DspLog.e(LOGTAG, "configurePipeline: Interrupted while waiting for the workers.");
+				}
+			}
+			SamplePacketPool pool = SamplePacketPool.getDefault();
+			for (int i = 0; i < links.length; i++)
+				releaseAll(pool, links[i], linkReturns[i]);
+			links = new SamplePacketRing[count];
+			linkReturns = new SamplePacketRing[count];
+			for (int i = 0; i < count; i++) {
+				links[i] = new SamplePacketRing(LINK_SIZE);
+				linkReturns[i] = new SamplePacketRing(LINK_SIZE);
+				for (int j = 0; j < LINK_SIZE; j++)
+					linkReturns[i].offer(pool.acquire(packetSize));
+			}
+			stageEnds = ends;
+			workers = new WorkerThread[count];
+			for (int i = 0; i < count; i++) {
+				workers[i] = new WorkerThread(i + 1);
+				workers[i].start();
+			}
+			if(ends != null)
+				DspLog.i(LOGTAG, "configurePipeline: " + (count + 1) + " threads for " + stages.length + " stages");
+		} else {
+			stageEnds = ends;
+		}
+	}
+
+	/**
+	 * Will return the packets of a link to the pool (decimator thread; the workers of the link must
+	 * be stopped)
+	 */
+	private static void releaseAll(SamplePacketPool pool, SamplePacketRing link, SamplePacketRing linkReturn) {
+		SamplePacket packet;
+		while((packet = link.poll()) != null)
+			pool.release(packet);
+		while((packet = linkReturn.poll()) != null)
+			pool.release(packet);
+	}
+
+	/**
+	 * Runs one group of stages of the pipeline (all workers except the first one)
+	 */
+	private class WorkerThread extends Thread {
+		private int index;			// position in the pipeline (1..)
+		private SamplePacket[] workerScratch = {SamplePacketPool.getDefault().acquire(packetSize),
+				SamplePacketPool.getDefault().acquire(packetSize)};
+		private volatile boolean workerStopRequested = true;
+
+		WorkerThread(int index) {
+			this.index = index;
+		}
+
+		@Override
+		public synchronized void start() {
+			this.workerStopRequested = false;
+			super.start();
+		}
+
+		void stopWorker() {
+			this.workerStopRequested = true;
+		}
+
+		@Override
+		public void run() {
+			DspLog.d(LOGTAG, "Worker " + index + " started. (Thread: " + this.getName() + ")");
+			SamplePacketRing input = links[index - 1];
+			SamplePacketRing inputReturn = linkReturns[index - 1];
+			boolean last = index == links.length;
+			SamplePacketRing output = last ? null : links[index];
+			SamplePacketRing outputReturn = last ? null : linkReturns[index];
+			while(!workerStopRequested) {
+				SamplePacket inputSamples = input.poll(100);
+				if(inputSamples == null)
+					continue;
+				SamplePacket outputSamples;
+				if(last) {
+					try {
+						outputSamples = outputReturnQueue.poll(1000, TimeUnit.MILLISECONDS);
+					} catch (InterruptedException e) {
+						DspLog.e(LOGTAG, "Worker " + index + ": Interrupted while waiting on output return queue! stop.");
+						inputReturn.offer(inputSamples);
+						break;
+					}
+				} else
+					outputSamples = outputReturn.poll(1000);
+				if(outputSamples == null) {
+					DspLog.d(LOGTAG, "Worker " + index + ": Output sample is null. skip this round...");
+					inputReturn.offer(inputSamples);
+					continue;
+				}
+
+				// the stage ends are read after the packet arrived (they only change while the pipeline is empty):
+				int[] ends = stageEnds;
+				processStages(ends[index - 1], ends[index], inputSamples, outputSamples, workerScratch);
+
+				// forward the output before the input is returned (see drainPipeline()):
+				if(last)
+					outputQueue.offer(outputSamples);
+				else
+					output.offer(outputSamples);
+				inputReturn.offer(inputSamples);
+			}
+			for (SamplePacket packet : workerScratch)
+				SamplePacketPool.getDefault().release(packet);
+			DspLog.d(LOGTAG, "Worker " + index + " stopped. (Thread: " + this.getName() + ")");
+		}
+	}
+}
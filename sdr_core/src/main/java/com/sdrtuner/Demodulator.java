@@ -1,13 +1,11 @@
 package com.sdrtuner;
 
-import android.util.Log;
-
 import java.util.concurrent.ArrayBlockingQueue;
 
 public class Demodulator extends Thread {
 	private boolean stopRequested = true;
 	private static final String LOGTAG = "Demodulator";
-	private static final int AUDIO_RATE = 31250;	// Even though this is not a proper audio rate, the Android system can
+	public static final int AUDIO_RATE = 31250;		// Even though this is not a proper audio rate, the Android system can
 													// handle it properly and it is a integer fraction of the input rate (1MHz).
 	// The quadrature rate is the sample rate that is used for the demodulation:
 	private static final int[] QUADRATURE_RATE = {	1,				// off; this value is not 0 to avoid divide by zero errors!
@@ -55,6 +53,9 @@ public class Demodulator extends Thread {
 	// AUDIO OUTPUT
 	private AudioSink audioSink = null;		// Will do QUADRATURE_RATE --> AUDIO_RATE and audio output
 
+	private final GapDetector gapDetector = new GapDetector("demodulator");	// checks the decimated packets
+	private final Squelch squelch = new Squelch();	// evaluated on every filtered packet
+
 	/**
 	 * Constructor. Creates a new demodulator block reading its samples from the given input queue and
 	 * returning the buffers to the given output queue. Expects input samples to be at baseband (mixing
@@ -63,16 +64,19 @@ public class Demodulator extends Thread {
 	 * @param inputQueue	Queue that delivers received baseband signals
 	 * @param outputQueue	Queue to return used buffers from the inputQueue
 	 * @param packetSize	Size of the packets in the input queue
+	 * @param audioSink		Audio output (created with packetSize and AUDIO_RATE; will be started and
+	 *						stopped by the demodulator)
 	 */
-	public Demodulator (ArrayBlockingQueue<SamplePacket> inputQueue, ArrayBlockingQueue<SamplePacket> outputQueue, int packetSize) {
+	public Demodulator (ArrayBlockingQueue<SamplePacket> inputQueue, ArrayBlockingQueue<SamplePacket> outputQueue, int packetSize,
+						AudioSink audioSink) {
 		// Create internal sample buffers:
 		// Note that we create the buffers for the case that there is no downsampling necessary
 		// All other cases with input decimation > 1 are also possible because they only need
 		// smaller buffers.
-		this.quadratureSamples = new SamplePacket(packetSize);
+		this.quadratureSamples = SamplePacketPool.getDefault().acquire(packetSize);
 
-		// Create Audio Sink
-		this.audioSink = new AudioSink(packetSize, AUDIO_RATE);
+		// Audio Sink
+		this.audioSink = audioSink;
 
 		// Create Decimator block
 		// Note that the decimator directly reads from the inputQueue and also returns processed packets to the
@@ -83,10 +87,28 @@ public class Demodulator extends Thread {
 	/**
 	 * @return	Demodulation Mode (DEMODULATION_OFF, *_AM, *_NFM, *_WFM, ...)
 	 */
+	public AudioSink getAudioSink() {
+		return audioSink;
+	}
+
 	public int getDemodulationMode() {
 		return demodulationMode;
 	}
 
+	/**
+	 * @return squelch of the demodulator (its threshold is set by the user; see SquelchThreshold)
+	 */
+	public Squelch getSquelch() {
+		return squelch;
+	}
+
+	/**
+	 * @return gap detectors of the decimator, the demodulator and the audio sink (in this order)
+	 */
+	public GapDetector[] getGapDetectors() {
+		return new GapDetector[] {decimator.getGapDetector(), gapDetector, audioSink.getGapDetector()};
+	}
+
 	/**
 	 * Sets a new demodulation mode. This can be done while the demodulator is running!
 	 * Will automatically adjust internal sample rate conversions and the user filter
@@ -96,7 +118,7 @@ public class Demodulator extends Thread {
 	 */
 	public void setDemodulationMode(int demodulationMode) {
 		if(demodulationMode > 5 || demodulationMode < 0) {
-			Log.e(LOGTAG,"setDemodulationMode: invalid mode: " + demodulationMode);
+			DspLog.e(LOGTAG,"setDemodulationMode: invalid mode: " + demodulationMode);
 			return;
 		}
 		this.decimator.setOutputSampleRate(QUADRATURE_RATE[demodulationMode]);
@@ -104,6 +126,16 @@ public class Demodulator extends Thread {
 		this.userFilterCutOff = (MAX_USER_FILTER_WIDTH[demodulationMode] + MIN_USER_FILTER_WIDTH[demodulationMode])/2;
 	}
 
+	/**
+	 * Will set the number of threads that decimate the input samples (see Decimator). This can be
+	 * done while the demodulator is running.
+	 *
+	 * @param workerCount	1 (decimator thread only) .. Decimator.MAX_WORKERS
+	 */
+	public void setDecimationWorkerCount(int workerCount) {
+		this.decimator.setWorkerCount(workerCount);
+	}
+
 	/**
 	 * Will set the cut off frequency of the user filter
 	 * @param channelWidth	channel width (single side) in Hz
@@ -126,7 +158,8 @@ public class Demodulator extends Thread {
 	/**
 	 * Starts the thread. This thread will start 2 more threads for decimation and audio output.
 	 * These threads are managed by the Demodulator and terminated, when the Demodulator thread
-	 * terminates.
+	 * terminates (the demodulator waits for them, so the packets of the input queue can be
+	 * released after the demodulator was joined).
 	 */
 	@Override
 	public synchronized void start() {
@@ -145,8 +178,9 @@ public class Demodulator extends Thread {
 	public void run() {
 		SamplePacket inputSamples = null;
 		SamplePacket audioBuffer = null;
+		boolean audioPaused = false;	// true if packets were not passed to the audio sink (squelch closed)
 
-		Log.i(LOGTAG,"Demodulator started. (Thread: " + this.getName() + ")");
+		DspLog.i(LOGTAG,"Demodulator started. (Thread: " + this.getName() + ")");
 
 		// Start the audio sink thread:
 		audioSink.start();
@@ -161,21 +195,30 @@ public class Demodulator extends Thread {
 
 			// Verify the input sample packet is not null:
 			if (inputSamples == null) {
-				//Log.d(LOGTAG, "run: Decimated sample is null. skip this round...");
+				//DspLog.d(LOGTAG, "run: Decimated sample is null. skip this round...");
 				continue;
 			}
 
+			gapDetector.check(inputSamples);
+
 			// filtering		[sample rate is QUADRATURE_RATE]
 			applyUserFilter(inputSamples, quadratureSamples);		// The result from filtering is stored in quadratureSamples
+			quadratureSamples.copyStamp(inputSamples);
 
 			// return input samples to the decimator block:
 			decimator.returnDecimatedPacket(inputSamples);
 
+			// squelch		[measured on the filtered samples, so it reacts within one packet]
+			if(!squelch.process(quadratureSamples, 2 * userFilterCutOff)) {
+				audioPaused = true;		// no audio while the squelch is closed
+				continue;
+			}
+
 			// get buffer from audio sink
 			audioBuffer = audioSink.getPacketBuffer(1000);
 
 			if(audioBuffer == null) {
-				Log.d(LOGTAG, "run: Audio buffer is null. skip this round...");
+				DspLog.d(LOGTAG, "run: Audio buffer is null. skip this round...");
 				continue;
 			}
 
@@ -205,10 +248,16 @@ public class Demodulator extends Thread {
 					break;
 
 				default:
-					Log.e(LOGTAG, "run: invalid demodulationMode: " + demodulationMode);
+					DspLog.e(LOGTAG, "run: invalid demodulationMode: " + demodulationMode);
 			}
 
 			// play audio		[sample rate is QUADRATURE_RATE]
+			audioBuffer.copyStamp(quadratureSamples);
+			if(audioPaused) {
+				// (the packets while the squelch was closed were skipped on purpose)
+				audioBuffer.setStamp(audioBuffer.getSampleIndex(), audioBuffer.getTimestamp(), audioBuffer.getSourceSamples(), true);
+				audioPaused = false;
+			}
 			audioSink.enqueuePacket(audioBuffer);
 		}
 
@@ -218,8 +267,19 @@ public class Demodulator extends Thread {
 		// Stop the decimator thread:
 		decimator.stopDecimator();
 
+		// Wait for both threads, so that all packets are back in the queues (or released to the pool)
+		// when the demodulator is joined:
+		try {
+			decimator.join();
+			audioSink.join();
+		} catch (InterruptedException e) {
+			DspLog.e(LOGTAG, "run: Interrupted while waiting for the decimator and the audio sink.");
+		}
+		SamplePacketPool.getDefault().release(quadratureSamples);
+		quadratureSamples = null;
+
 		this.stopRequested = true;
-		Log.i(LOGTAG,"Demodulator stopped. (Thread: " + this.getName() + ")");
+		DspLog.i(LOGTAG,"Demodulator stopped. (Thread: " + this.getName() + ")");
 	}
 
 	/**
@@ -242,13 +302,13 @@ public class Demodulator extends Thread {
 														USER_FILTER_ATTENUATION);
 			if(userFilter == null)
 				return;	// This may happen if input samples changed rate or demodulation was turned off. Just skip the filtering.
-			Log.d(LOGTAG,"applyUserFilter: created new user filter with " + userFilter.getNumberOfTaps()
+			DspLog.d(LOGTAG,"applyUserFilter: created new user filter with " + userFilter.getNumberOfTaps()
 					+ " taps. Decimation=" + userFilter.getDecimation() + " Cut-Off="+userFilter.getCutOffFrequency()
 					+ " transition="+userFilter.getTransitionWidth());
 		}
 		output.setSize(0);	// mark buffer as empty
 		if(userFilter.filter(input, output, 0, input.size()) < input.size()) {
-			Log.e(LOGTAG, "applyUserFilter: could not filter all samples from input packet.");
+			DspLog.e(LOGTAG, "applyUserFilter: could not filter all samples from input packet.");
 		}
 	}
 
@@ -349,13 +409,13 @@ public class Demodulator extends Thread {
 																	BAND_PASS_ATTENUATION);
 			if(bandPassFilter == null)
 				return;	// This may happen if input samples changed rate or demodulation was turned off. Just skip the filtering.
-			Log.d(LOGTAG,"demodulateSSB: created new band pass filter with " + bandPassFilter.getNumberOfTaps()
+			DspLog.d(LOGTAG,"demodulateSSB: created new band pass filter with " + bandPassFilter.getNumberOfTaps()
 					+ " taps. Decimation=" + bandPassFilter.getDecimation() + " Low-Cut-Off="+bandPassFilter.getLowCutOffFrequency()
 					+ " High-Cut-Off="+bandPassFilter.getHighCutOffFrequency() + " transition="+bandPassFilter.getTransitionWidth());
 		}
 		output.setSize(0);	// mark buffer as empty
 		if(bandPassFilter.filter(input, output, 0, input.size()) < input.size()) {
-			Log.e(LOGTAG, "demodulateSSB: could not filter all samples from input packet.");
+			DspLog.e(LOGTAG, "demodulateSSB: could not filter all samples from input packet.");
 		}
 
 		// gain control: searching for max:
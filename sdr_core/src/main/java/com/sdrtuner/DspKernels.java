@@ -0,0 +1,178 @@
+package com.sdrtuner;
+
+/**
+ * Inner loops of the signal processing that can be replaced by SIMD versions: byte to float
+ * conversion, complex mixing with a cosine table, the dot products of the FIR filters, the FFT
+ * passes and the float to 16 bit conversion of the audio.
+ *
+ * ScalarDspKernels is the plain Java implementation (used on Android). On a desktop JVM (16 or
+ * newer, started with --add-modules jdk.incubator.vector) getDefault() loads VectorDspKernels
+ * from the sdr_vector module if it is on the class path and the CPU has SIMD registers of at
+ * least 128 bit. The system property "sdrtuner.kernels=scalar" disables the check.
+ *
+ * All methods are stateless (the state stays in the calling block), so one instance can be used
+ * by all threads.
+ */
+public abstract class DspKernels {
+	private static final String LOGTAG = "DspKernels";
+	public static final String KERNELS_PROPERTY = "sdrtuner.kernels";	// "scalar" or "vector" (default: vector if available)
+	private static final String VECTOR_KERNELS_CLASS = "com.sdrtuner.VectorDspKernels";
+	private static DspKernels defaultKernels = null;
+
+	/**
+	 * @return the kernels used by newly created blocks (created on first use)
+	 */
+	public static synchronized DspKernels getDefault() {
+		if(defaultKernels == null) {
+			String mode = System.getProperty(KERNELS_PROPERTY, "vector");
+			if(!"scalar".equals(mode))
+				defaultKernels = loadVectorKernels();
+			if(defaultKernels == null)
+				defaultKernels = new ScalarDspKernels();
+			DspLog.i(LOGTAG, "getDefault: using " + defaultKernels.getName());
+		}
+		return defaultKernels;
+	}
+
+	/**
+	 * Will replace the default kernels. Only affects blocks that are created afterwards.
+	 *
+	 * @param kernels	new default kernels
+	 */
+	public static synchronized void setDefault(DspKernels kernels) {
+		defaultKernels = kernels;
+	}
+
+	/**
+	 * Runtime check for the vector kernels: the class is only there if the sdr_vector module is
+	 * on the class path and can only be loaded if the JVM has the jdk.incubator.vector module.
+	 *
+	 * @return instance of VectorDspKernels or null if not available (or not faster than scalar)
+	 */
+	public static DspKernels loadVectorKernels() {
+		try {
+			DspKernels kernels = (DspKernels) Class.forName(VECTOR_KERNELS_CLASS).newInstance();
+			if(kernels.isVectorized())
+				return kernels;
+			DspLog.i(LOGTAG, "loadVectorKernels: no SIMD support on this CPU");
+		} catch (ClassNotFoundException e) {
+			// sdr_vector module is not on the class path (e.g. on Android)
+		} catch (Throwable e) {
+			// e.g. NoClassDefFoundError if jdk.incubator.vector was not added to the JVM
+			DspLog.i(LOGTAG, "loadVectorKernels: vector kernels not available: " + e);
+		}
+		return null;
+	}
+
+	/**
+	 * @return name of the implementation (for logs and benchmarks)
+	 */
+	public abstract String getName();
+
+	/**
+	 * @return true if the kernels use SIMD instructions
+	 */
+	public abstract boolean isVectorized();
+
+	/**
+	 * Will convert interleaved 8 bit IQ samples into float samples:
+	 *     re = (byteI - biasI) * scaleI
+	 *     im = (byteQ - biasQ) * scaleQ + re * cross
+	 * (both multiplied with window[outOffset + i] if a window is given) where byte is the signed (-128..127) or unsigned (0..255) value of the input byte. The
+	 * separate coefficients of I and Q apply the DC offset and IQ imbalance correction (see
+	 * IQCorrection) as part of the conversion, the window saves the FFT a separate pass over its input.
+	 *
+	 * @param in			interleaved IQ bytes
+	 * @param inOffset		index of the I byte of the first sample
+	 * @param re			destination of the real parts
+	 * @param im			destination of the imaginary parts
+	 * @param outOffset		index of the first output sample
+	 * @param count			number of samples (pairs of bytes)
+	 * @param unsigned		true if the bytes are unsigned
+	 * @param biasI			subtracted from each I byte value
+	 * @param biasQ			subtracted from each Q byte value
+	 * @param scaleI		factor applied to I after the bias
+	 * @param scaleQ		factor applied to Q after the bias
+	 * @param cross			part of the (scaled) real part that is added to the imaginary part
+	 * @param window		window function (indexed like re and im) or null
+	 */
+	public abstract void convertBytes(byte[] in, int inOffset, float[] re, float[] im, int outOffset, int count,
+									  boolean unsigned, float biasI, float biasQ, float scaleI, float scaleQ, float cross,
+									  float[] window);
+
+	/**
+	 * Will multiply the samples (in place) with the complex oscillator cos + j*sin that is
+	 * given by the tables. The tables hold one or more full periods of the oscillator.
+	 *
+	 * @param re			real parts of the samples
+	 * @param im			imaginary parts of the samples
+	 * @param offset		index of the first sample
+	 * @param count			number of samples
+	 * @param cos			cosine table
+	 * @param sin			sine table (same length as cos)
+	 * @param phase			index into the tables for the first sample
+	 * @return index into the tables for the next sample
+	 */
+	public abstract int mix(float[] re, float[] im, int offset, int count, float[] cos, float[] sin, int phase);
+
+	/**
+	 * @param taps			filter taps
+	 * @param samples		samples
+	 * @param offset		index of the sample that is multiplied with taps[0]
+	 * @return sum of taps[k] * samples[offset + k]
+	 */
+	public abstract float dot(float[] taps, float[] samples, int offset);
+
+	/**
+	 * Dot product of real taps and complex samples.
+	 *
+	 * @param taps			filter taps
+	 * @param re			real parts of the samples
+	 * @param im			imaginary parts of the samples
+	 * @param offset		index of the sample that is multiplied with taps[0]
+	 * @param result		result[0] = real part; result[1] = imaginary part
+	 */
+	public abstract void dotComplex(float[] taps, float[] re, float[] im, int offset, float[] result);
+
+	/**
+	 * One radix-2 pass of a decimation in time FFT (in place; input in bit reversed order).
+	 * Combines the pairs (k, k + span) of all blocks of 2*span samples with the twiddle factors
+	 * of the pass.
+	 *
+	 * @param x				real parts
+	 * @param y				imaginary parts
+	 * @param n				length of the FFT
+	 * @param span			distance of the samples of a butterfly
+	 * @param cos			twiddle factors (real parts), span values
+	 * @param sin			twiddle factors (imaginary parts), span values
+	 */
+	public abstract void fftRadix2Pass(float[] x, float[] y, int n, int span, float[] cos, float[] sin);
+
+	/**
+	 * Two radix-2 passes (span and 2*span) of a decimation in time FFT combined into one pass of
+	 * radix-4 butterflies on the samples (k, k + span, k + 2*span, k + 3*span). Each sample is
+	 * loaded and stored once for both passes, and the twiddle factor of the second butterfly of
+	 * the second pass is -j * (cos2 + j*sin2), so it needs no table of its own.
+	 *
+	 * @param x				real parts
+	 * @param y				imaginary parts
+	 * @param n				length of the FFT
+	 * @param span			distance of the samples of a butterfly of the first pass
+	 * @param cos1			twiddle factors of the first pass (real parts), span values
+	 * @param sin1			twiddle factors of the first pass (imaginary parts)
+	 * @param cos2			twiddle factors of the second pass (real parts), span values
+	 * @param sin2			twiddle factors of the second pass (imaginary parts)
+	 */
+	public abstract void fftRadix4Pass(float[] x, float[] y, int n, int span, float[] cos1, float[] sin1, float[] cos2, float[] sin2);
+
+	/**
+	 * Will convert float samples to 16 bit: round towards zero of sample * scale, clipped to
+	 * -32768..32767.
+	 *
+	 * @param in			float samples
+	 * @param out			16 bit samples
+	 * @param count			number of samples (starting at index 0)
+	 * @param scale			factor applied to the samples (e.g. 32767)
+	 */
+	public abstract void floatToShort(float[] in, short[] out, int count, float scale);
+}
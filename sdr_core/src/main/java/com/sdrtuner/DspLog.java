@@ -0,0 +1,81 @@
+package com.sdrtuner;
+
+/**
+ * Logging facade for the signal processing classes.
+ *
+ * The classes of this module must not use android.util.Log, because they also run on a plain JVM
+ * (see HeadlessRunner). All messages are passed to an Output. By default they are printed to
+ * System.err; the app sets an Output that forwards them to the Android log.
+ */
+public class DspLog {
+	// Log levels (same values as the priorities of android.util.Log):
+	public static final int DEBUG = 3;
+	public static final int INFO = 4;
+	public static final int WARN = 5;
+	public static final int ERROR = 6;
+
+	private static volatile Output output = new ConsoleOutput();	// receives all messages
+	private static volatile int level = DEBUG;						// messages below this level are dropped
+
+	/**
+	 * Destination of the log messages
+	 */
+	public interface Output {
+		/**
+		 * Called for every message that is not filtered by the log level. May be called from any thread.
+		 *
+		 * @param level		DEBUG, INFO, WARN or ERROR
+		 * @param tag		tag of the message (usually the class name)
+		 * @param message	log message
+		 */
+		void log(int level, String tag, String message);
+	}
+
+	/**
+	 * Output that prints all messages to System.err
+	 */
+	public static class ConsoleOutput implements Output {
+		private static final char[] LEVEL_NAMES = {'V', 'V', 'V', 'D', 'I', 'W', 'E'};
+
+		@Override
+		public void log(int level, String tag, String message) {
+			System.err.println(LEVEL_NAMES[Math.min(level, LEVEL_NAMES.length - 1)] + "/" + tag + ": " + message);
+		}
+	}
+
+	/**
+	 * @param output	destination of all following log messages (null to drop all messages)
+	 */
+	public static void setOutput(Output output) {
+		DspLog.output = output;
+	}
+
+	/**
+	 * @param level		minimum level of the messages that are passed to the output
+	 */
+	public static void setLevel(int level) {
+		DspLog.level = level;
+	}
+
+	public static void d(String tag, String message) {
+		log(DEBUG, tag, message);
+	}
+
+	public static void i(String tag, String message) {
+		log(INFO, tag, message);
+	}
+
+	public static void w(String tag, String message) {
+		log(WARN, tag, message);
+	}
+
+	public static void e(String tag, String message) {
+		log(ERROR, tag, message);
+	}
+
+	private static void log(int messageLevel, String tag, String message) {
+		Output out = output;
+		if(out != null && messageLevel >= level)
+			out.log(messageLevel, tag, message);
+	}
+}
@@ -0,0 +1,332 @@
+package com.sdrtuner;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * IQ source that generates 8-bit signed IQ samples (like the HackRF) without any hardware.
+ * The generated signal consists of gaussian noise and a list of carriers at absolute
+ * frequencies. Only carriers inside the currently tuned band are visible. After each retune
+ * the first settleSamples samples are corrupted (random full scale values) to emulate the
+ * settling time of a real tuner.
+ *
+ * This source is meant for testing (e.g. the SweepEngine). If realtime is false, getPacket()
+ * returns immediately; otherwise the sample rate of real hardware is simulated.
+ */
+public class EmulatedIQSource implements IQSourceInterface {
+	private static final String LOGTAG = "EmulatedIQSource";
+	private static final int POOL_SIZE = 20;
+	public static final long MIN_FREQUENCY = 1000000l;
+	public static final long MAX_FREQUENCY = 7250000000l;
+	public static final int MAX_SAMPLERATE = 20000000;
+	public static final int MIN_SAMPLERATE = 4000000;
+	private static final int[] OPTIMAL_SAMPLE_RATES = { 4000000, 6000000, 8000000, 10000000, 12500000, 16000000, 20000000};
+
+	private Callback callback = null;
+	private boolean open = false;
+	private long frequency = 100000000;
+	private int sampleRate = 4000000;
+	private int packetSize = 0;
+	private boolean realtime = false;		// true: simulate the sample rate of real hardware
+	private int sleepTime = 0;				// min. time (in ms) between two getPacket() calls if realtime is set
+	private long lastAccessTime = 0;		// timestamp of the last getPacket() call
+	private float noiseLevel = 0.02f;		// standard deviation of the noise (full scale = 1)
+	private int settleSamples = 0;			// number of corrupted samples after each retune
+	private int remainingSettleSamples = 0;	// corrupted samples still to be delivered
+	private ArrayBlockingQueue<byte[]> bufferPool = null;	// packets are taken from this pool and returned by returnPacket()
+	private SampleClock sampleClock = new SampleClock();	// stamps the packets (the emulated source never drops samples)
+	private Random random = new Random();
+	private final ArrayList<Carrier> carriers = new ArrayList<Carrier>();
+	private IQConverter iqConverter = new Signed8BitIQConverter();
+
+	/**
+	 * One emulated carrier
+	 */
+	private static class Carrier {
+		long frequency;		// absolute frequency in Hz
+		float amplitude;	// amplitude (full scale = 1)
+		double phase;		// current phase of the carrier (rad)
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param packetSize		size of one packet in bytes (2 bytes per sample)
+	 * @param settleSamples		number of corrupted samples after each retune
+	 * @param realtime			true to simulate the sample rate of real hardware
+	 */
+	public EmulatedIQSource(int packetSize, int settleSamples, boolean realtime) {
+		this.packetSize = packetSize;
+		this.settleSamples = settleSamples;
+		this.realtime = realtime;
+		this.bufferPool = new ArrayBlockingQueue<byte[]>(POOL_SIZE);
+		for (int i = 0; i < POOL_SIZE; i++)
+			bufferPool.offer(new byte[packetSize]);
+		iqConverter.setFrequency(frequency);
+		iqConverter.setSampleRate(sampleRate);
+		updateSleepTime();
+	}
+
+	/**
+	 * Will add a carrier to the emulated spectrum
+	 *
+	 * @param frequency		absolute frequency of the carrier in Hz
+	 * @param amplitude		amplitude of the carrier (full scale = 1)
+	 */
+	public void addCarrier(long frequency, float amplitude) {
+		Carrier carrier = new Carrier();
+		carrier.frequency = frequency;
+		carrier.amplitude = amplitude;
+		synchronized (carriers) {
+			carriers.add(carrier);
+		}
+	}
+
+	/**
+	 * @param noiseLevel	standard deviation of the noise (full scale = 1)
+	 */
+	public void setNoiseLevel(float noiseLevel) {
+		this.noiseLevel = noiseLevel;
+	}
+
+	private void updateSleepTime() {
+		this.sleepTime = (int)((packetSize/2)/(float)sampleRate * 1000); // note: half packet size because of I and Q samples
+	}
+
+	@Override
+	public boolean open(Object context, Callback callback) {
+		this.callback = callback;
+		this.open = true;
+		if(callback != null)
+			callback.onIQSourceReady(this);
+		return true;
+	}
+
+	@Override
+	public boolean isOpen() {
+		return open;
+	}
+
+	@Override
+	public boolean close() {
+		this.open = false;
+		return true;
+	}
+
+	@Override
+	public String getName() {
+		return "Emulated Source";
+	}
+
+	@Override
+	public int getSampleRate() {
+		return sampleRate;
+	}
+
+	@Override
+	public void setSampleRate(int sampleRate) {
+		this.sampleRate = sampleRate;
+		this.iqConverter.setSampleRate(sampleRate);
+		this.remainingSettleSamples = settleSamples;
+		updateSleepTime();
+	}
+
+	@Override
+	public long getFrequency() {
+		return frequency;
+	}
+
+	@Override
+	public void setFrequency(long frequency) {
+		this.frequency = frequency;
+		this.iqConverter.setFrequency(frequency);
+		this.remainingSettleSamples = settleSamples;
+	}
+
+	@Override
+	public long getMaxFrequency() {
+		return MAX_FREQUENCY;
+	}
+
+	@Override
+	public long getMinFrequency() {
+		return MIN_FREQUENCY;
+	}
+
+	@Override
+	public int getMaxSampleRate() {
+		return MAX_SAMPLERATE;
+	}
+
+	@Override
+	public int getMinSampleRate() {
+		return MIN_SAMPLERATE;
+	}
+
+	@Override
+	public int getNextHigherOptimalSampleRate(int sampleRate) {
+		for (int opt : OPTIMAL_SAMPLE_RATES) {
+			if (sampleRate < opt)
+				return opt;
+		}
+		return OPTIMAL_SAMPLE_RATES[OPTIMAL_SAMPLE_RATES.length-1];
+	}
+
+	@Override
+	public int getNextLowerOptimalSampleRate(int sampleRate) {
+		for (int i = 1; i < OPTIMAL_SAMPLE_RATES.length; i++) {
+			if(sampleRate <= OPTIMAL_SAMPLE_RATES[i])
+				return OPTIMAL_SAMPLE_RATES[i-1];
+		}
+		return OPTIMAL_SAMPLE_RATES[OPTIMAL_SAMPLE_RATES.length-1];
+	}
+
+	@Override
+	public int[] getSupportedSampleRates() {
+		return OPTIMAL_SAMPLE_RATES;
+	}
+
+	@Override
+	public int getPacketSize() {
+		return packetSize;
+	}
+
+	@Override
+	public byte[] getPacket(int timeout) {
+		if(!open)
+			return null;
+
+		if(realtime) {
+			// Simulate sample rate of real hardware:
+			int sleep = Math.min(sleepTime - (int) (System.currentTimeMillis() - lastAccessTime), timeout);
+			if (sleep > 0) {
+				try {
+					Thread.sleep(sleep);
+				} catch (InterruptedException e) {
+					DspLog.w(LOGTAG, "getPacket: Interrupted while sleeping!");
+					return null;
+				}
+			}
+		}
+
+		byte[] buffer;
+		try {
+			// Get a free buffer from the pool (all buffers may be in use by slow consumers):
+			buffer = bufferPool.poll(timeout, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			DspLog.w(LOGTAG, "getPacket: Interrupted while waiting for a free buffer!");
+			return null;
+		}
+		if(buffer == null) {
+			DspLog.e(LOGTAG, "getPacket: No free buffer in the pool.");
+			return null;
+		}
+
+		synchronized (carriers) {
+			for (int i = 0; i < buffer.length; i += 2) {
+				float re;
+				float im;
+				if(remainingSettleSamples > 0) {
+					// tuner is still settling:
+					re = random.nextFloat() * 2 - 1;
+					im = random.nextFloat() * 2 - 1;
+					remainingSettleSamples--;
+				} else {
+					re = (float) random.nextGaussian() * noiseLevel;
+					im = (float) random.nextGaussian() * noiseLevel;
+					for (Carrier carrier : carriers) {
+						long offset = carrier.frequency - frequency;
+						if (Math.abs(offset) >= sampleRate / 2)
+							continue;	// not in the tuned band
+						carrier.phase += 2 * Math.PI * offset / sampleRate;
+						if(carrier.phase > Math.PI)
+							carrier.phase -= 2 * Math.PI;
+						else if(carrier.phase < -Math.PI)
+							carrier.phase += 2 * Math.PI;
+						re += carrier.amplitude * Math.cos(carrier.phase);
+						im += carrier.amplitude * Math.sin(carrier.phase);
+					}
+				}
+				buffer[i] = toByte(re);
+				buffer[i+1] = toByte(im);
+			}
+		}
+
+		lastAccessTime = System.currentTimeMillis();
+		sampleClock.stamp(buffer, System.nanoTime());
+		iqConverter.updateCorrection(buffer);
+		return buffer;
+	}
+
+	/**
+	 * Will convert a sample (full scale = 1) to a signed 8 bit value (with clipping)
+	 *
+	 * @param value		sample value
+	 * @return signed 8 bit representation
+	 */
+	private static byte toByte(float value) {
+		int v = Math.round(value * 127);
+		if(v > 127)
+			v = 127;
+		else if(v < -128)
+			v = -128;
+		return (byte) v;
+	}
+
+	@Override
+	public void returnPacket(byte[] buffer) {
+		bufferPool.offer(buffer);
+	}
+
+	@Override
+	public long getSampleIndex(byte[] packet) {
+		return sampleClock.getSampleIndex(packet);
+	}
+
+	@Override
+	public long getTimestamp(byte[] packet) {
+		return sampleClock.getTimestamp(packet);
+	}
+
+	@Override
+	public long getDroppedSamples() {
+		return sampleClock.getDroppedSamples();
+	}
+
+	@Override
+	public void startSampling() {
+		sampleClock.reset();
+	}
+
+	@Override
+	public void stopSampling() {
+		// nothing to do here...
+	}
+
+	@Override
+	public int fillPacketIntoSamplePacket(byte[] packet, SamplePacket samplePacket) {
+		return this.iqConverter.fillPacketIntoSamplePacket(packet, samplePacket);
+	}
+
+	@Override
+	public int fillPacketIntoSamplePacket(byte[] packet, SamplePacket samplePacket, float[] window) {
+		return this.iqConverter.fillPacketIntoSamplePacket(packet, samplePacket, window);
+	}
+
+	@Override
+	public int mixPacketIntoSamplePacket(byte[] packet, SamplePacket samplePacket, long channelFrequency) {
+		return this.iqConverter.mixPacketIntoSamplePacket(packet, samplePacket, channelFrequency);
+	}
+
+	@Override
+	public int mixPacketIntoIntSamples(byte[] packet, int[] re, int[] im, long channelFrequency) {
+		return this.iqConverter.mixPacketIntoIntSamples(packet, re, im, channelFrequency);
+	}
+
+	@Override
+	public IQCorrection getIQCorrection() {
+		return this.iqConverter.getCorrection();
+	}
+}
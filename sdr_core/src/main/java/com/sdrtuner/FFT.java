@@ -12,9 +12,28 @@ public class FFT {
 
 	float[] window;
 
+	// Twiddle factors of the passes (contiguous for each pass, see DspKernels.fftRadix4Pass()):
+	private DspKernels kernels;
+	private int firstSpan;						// span of the first radix-4 pass (2 if m is odd, else 1)
+	private float[][] passCos1, passSin1;		// [pass][j] first half of a radix-4 pass
+	private float[][] passCos2, passSin2;		// [pass][j] second half of a radix-4 pass
+	private static final float[] RADIX2_COS = {1};	// twiddle factors of the radix-2 pass (span 1)
+	private static final float[] RADIX2_SIN = {0};
+
 	public FFT(int n) {
+		this(n, DspKernels.getDefault());
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param n			length of the FFT (power of 2)
+	 * @param kernels	implementation of the butterflies
+	 */
+	public FFT(int n, DspKernels kernels) {
 		this.n = n;
 		this.m = (int)(Math.log(n) / Math.log(2));
+		this.kernels = kernels;
 
 		// Make sure n is a power of 2
 		if(n != (1<<m))
@@ -40,6 +59,28 @@ public class FFT {
 			sin[i] = (float) Math.sin(-2*Math.PI*i/n);
 		}
 
+		// radix-4 passes (an odd number of radix-2 passes starts with one radix-2 pass):
+		firstSpan = (m % 2 == 1) ? 2 : 1;
+		int passes = m / 2;
+		passCos1 = new float[passes][];
+		passSin1 = new float[passes][];
+		passCos2 = new float[passes][];
+		passSin2 = new float[passes][];
+		int span = firstSpan;
+		for (int p = 0; p < passes; p++) {
+			passCos1[p] = new float[span];
+			passSin1[p] = new float[span];
+			passCos2[p] = new float[span];
+			passSin2[p] = new float[span];
+			for (int j = 0; j < span; j++) {
+				passCos1[p][j] = cos[j * (n / (2 * span))];
+				passSin1[p][j] = sin[j * (n / (2 * span))];
+				passCos2[p][j] = cos[j * (n / (4 * span))];
+				passSin2[p][j] = sin[j * (n / (4 * span))];
+			}
+			span *= 4;
+		}
+
 		makeWindow();
 	}
 
@@ -72,6 +113,7 @@ public class FFT {
 	 * http://cnx.rice.edu/content/m12016/latest/
 	 *
 	 *   fft: in-place radix-2 DIT DFT of a complex input
+	 *   (the butterflies are computed in radix-4 passes by the DspKernels)
 	 *
 	 *   input:
 	 * n: length of FFT: must be a power of two
@@ -85,8 +127,8 @@ public class FFT {
 	 ****************************************************************/
 	public void fft(float[] x, float[] y)
 	{
-		int i,j,k,n1,n2,a;
-		float c,s,e,t1,t2;
+		int i,j,n1,n2;
+		float t1;
 
 
 		// Bit-reverse
@@ -111,28 +153,12 @@ public class FFT {
 		}
 
 		// FFT
-		n1 = 0;
-		n2 = 1;
-
-		for (i=0; i < m; i++) {
-			n1 = n2;
-			n2 = n2 + n2;
-			a = 0;
-
-			for (j=0; j < n1; j++) {
-				c = cos[a];
-				s = sin[a];
-				a +=  1 << (m-i-1);
-
-				for (k=j; k < n; k=k+n2) {
-					t1 = c*x[k+n1] - s*y[k+n1];
-					t2 = s*x[k+n1] + c*y[k+n1];
-					x[k+n1] = x[k] - t1;
-					y[k+n1] = y[k] - t2;
-					x[k] = x[k] + t1;
-					y[k] = y[k] + t2;
-				}
-			}
+		if(firstSpan == 2)
+			kernels.fftRadix2Pass(x, y, n, 1, RADIX2_COS, RADIX2_SIN);
+		int span = firstSpan;
+		for (int p = 0; p < passCos1.length; p++) {
+			kernels.fftRadix4Pass(x, y, n, span, passCos1[p], passSin1[p], passCos2[p], passSin2[p]);
+			span *= 4;
 		}
 	}
 }
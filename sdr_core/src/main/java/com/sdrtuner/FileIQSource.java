@@ -1,12 +1,11 @@
 package com.sdrtuner;
 
-import android.content.Context;
-import android.util.Log;
-
 import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 public class FileIQSource implements IQSourceInterface {
 	private Callback callback = null;
@@ -14,15 +13,18 @@ public class FileIQSource implements IQSourceInterface {
 	private int sampleRate = 0;
 	private long frequency = 0;
 	private int packetSize = 0;
-	private int sleepTime = 0;			// min. time (in ms) between two getPacket() calls to simulate the sample rate
-	private long lastAccessTime = 0;	// timestamp of the last getPacket() call
-	private byte[] buffer = null;
+	private long packetDuration = 0;	// duration of one packet at the sample rate (ns)
+	private long nextPacketTime = 0;	// System.nanoTime() at which the next packet is due (realtime)
+	private boolean realtime = true;	// false: deliver the packets as fast as possible (no simulated sample rate)
+	private ArrayBlockingQueue<byte[]> bufferPool = null;	// packets are taken from this pool and returned by returnPacket()
+	private SampleClock sampleClock = new SampleClock();	// stamps the packets (the file source never drops samples)
 	private File file = null;
 	private String filename = null;
 	private BufferedInputStream bufferedInputStream = null;
 	private IQConverter iqConverter;
 	private int fileFormat;
 	private static final String LOGTAG = "FileIQSource";
+	private static final int POOL_SIZE = 20;
 	public static final int FILE_FORMAT_8BIT_SIGNED = 0;
 	public static final int FILE_FORMAT_8BIT_UNSIGNED = 1;
 
@@ -34,8 +36,10 @@ public class FileIQSource implements IQSourceInterface {
 		this.sampleRate = sampleRate;
 		this.frequency = frequency;
 		this.packetSize = packetSize;
-		this.buffer = new byte[packetSize];
-		this.sleepTime = (int)((packetSize/2)/(float)sampleRate * 1000); // note: half packet size because of I and Q samples
+		this.bufferPool = new ArrayBlockingQueue<byte[]>(POOL_SIZE);
+		for (int i = 0; i < POOL_SIZE; i++)
+			bufferPool.offer(new byte[packetSize]);
+		this.packetDuration = (long)((packetSize/2)/(double)sampleRate * 1e9); // note: half packet size because of I and Q samples
 
 		switch (fileFormat) {
 			case FILE_FORMAT_8BIT_SIGNED:
@@ -45,7 +49,7 @@ public class FileIQSource implements IQSourceInterface {
 				iqConverter = new Unsigned8BitIQConverter();
 				break;
 			default:
-				Log.e(LOGTAG, "constructor: Invalid file format: " + fileFormat);
+				DspLog.e(LOGTAG, "constructor: Invalid file format: " + fileFormat);
 				break;
 		}
 		iqConverter.setFrequency(frequency);
@@ -56,11 +60,11 @@ public class FileIQSource implements IQSourceInterface {
 		if(callback != null)
 			callback.onIQSourceError(this,msg);
 		else
-			Log.e(LOGTAG,"Callback is null when reporting Error (" + msg + ")");
+			DspLog.e(LOGTAG,"Callback is null when reporting Error (" + msg + ")");
 	}
 
 	@Override
-	public boolean open(Context context, Callback callback) {
+	public boolean open(Object context, Callback callback) {
 		this.callback = callback;
 		// open the file
 		try {
@@ -68,7 +72,7 @@ public class FileIQSource implements IQSourceInterface {
 			callback.onIQSourceReady(this);
 			return true;
 		}catch (IOException e) {
-			Log.e(LOGTAG, "open: Error while opening file: " + e.getMessage());
+			DspLog.e(LOGTAG, "open: Error while opening file: " + e.getMessage());
 			reportError("Error while opening file: " + e.getMessage());
 			return false;
 		}
@@ -95,7 +99,7 @@ public class FileIQSource implements IQSourceInterface {
 				bufferedInputStream.close();
 			return true;
 		} catch (IOException e) {
-			Log.e(LOGTAG, "stopSampling: Error while closing file: " + e.getMessage());
+			DspLog.e(LOGTAG, "stopSampling: Error while closing file: " + e.getMessage());
 			reportError("Unexpected error while closing file: " + e.getMessage());
 			return false;
 		}
@@ -127,6 +131,21 @@ public class FileIQSource implements IQSourceInterface {
 		return fileFormat;
 	}
 
+	/**
+	 * @return true if the sample rate of real hardware is simulated
+	 */
+	public boolean isRealtime() {
+		return realtime;
+	}
+
+	/**
+	 * @param realtime	true to simulate the sample rate of real hardware (default); false to read
+	 *					the file as fast as possible (e.g. to measure the throughput of the pipeline)
+	 */
+	public void setRealtime(boolean realtime) {
+		this.realtime = realtime;
+	}
+
 	@Override
 	public int getSampleRate() {
 		return sampleRate;
@@ -134,7 +153,7 @@ public class FileIQSource implements IQSourceInterface {
 
 	@Override
 	public void setSampleRate(int sampleRate) {
-		Log.e(LOGTAG,"Setting the sample rate is not supported on a file source");
+		DspLog.e(LOGTAG,"Setting the sample rate is not supported on a file source");
 	}
 
 	@Override
@@ -144,7 +163,7 @@ public class FileIQSource implements IQSourceInterface {
 
 	@Override
 	public void setFrequency(long frequency) {
-		Log.e(LOGTAG,"Setting the frequency is not supported on a file source");
+		DspLog.e(LOGTAG,"Setting the frequency is not supported on a file source");
 	}
 
 	@Override
@@ -192,52 +211,85 @@ public class FileIQSource implements IQSourceInterface {
 		if(bufferedInputStream == null)
 			return null;
 
+		byte[] buffer = null;
 		try {
-			// Simulate sample rate of real hardware:
-			int sleep = Math.min(sleepTime-(int)(System.currentTimeMillis()-lastAccessTime), timeout);
-			if(sleep > 0)
-				Thread.sleep(sleep);
+			// Get a free buffer from the pool (all buffers may be in use by slow consumers):
+			buffer = bufferPool.poll(timeout, TimeUnit.MILLISECONDS);
+			if(buffer == null) {
+				DspLog.e(LOGTAG, "getPacket: No free buffer in the pool.");
+				return null;
+			}
+
+			// Simulate sample rate of real hardware (packets are due at a fixed schedule, so that
+			// the average rate is exact; restart the schedule if the consumer fell far behind):
+			if(realtime) {
+				long now = System.nanoTime();
+				if(nextPacketTime == 0 || now - nextPacketTime > 1000000000l)
+					nextPacketTime = now;
+				long sleep = Math.min(nextPacketTime - now, timeout * 1000000l);
+				if (sleep > 0)
+					Thread.sleep(sleep / 1000000, (int) (sleep % 1000000));
+				nextPacketTime += packetDuration;
+			}
 
 			// Read the samples.
 			if(bufferedInputStream.read(buffer, 0 , buffer.length) != buffer.length) {
 				if (repeat) {
 					// rewind and try again:
-					Log.i(LOGTAG,"getPacket: End of File. Rewind!");
+					DspLog.i(LOGTAG,"getPacket: End of File. Rewind!");
 					bufferedInputStream.close();
 					this.bufferedInputStream = new BufferedInputStream(new FileInputStream(file));
-					if (bufferedInputStream.read(buffer, 0, buffer.length) != buffer.length)
+					if (bufferedInputStream.read(buffer, 0, buffer.length) != buffer.length) {
+						bufferPool.offer(buffer);
 						return null;
-					else {
-						lastAccessTime = System.currentTimeMillis();
-						return buffer;
 					}
 				} else {
-					Log.i(LOGTAG, "getPacket: End of File");
+					DspLog.i(LOGTAG, "getPacket: End of File");
 					reportError("End of File");
+					bufferPool.offer(buffer);
 					return null;
 				}
 			}
 		} catch (IOException e) {
-			Log.e(LOGTAG, "getPacket: Error while reading from file: " + e.getMessage());
+			DspLog.e(LOGTAG, "getPacket: Error while reading from file: " + e.getMessage());
 			reportError("Unexpected error while reading file: " + e.getMessage());
+			bufferPool.offer(buffer);
 			return null;
 		} catch (InterruptedException e) {
-			Log.w(LOGTAG, "getPacket: Interrupted while sleeping!");
+			DspLog.w(LOGTAG, "getPacket: Interrupted while sleeping!");
+			if(buffer != null)
+				bufferPool.offer(buffer);
 			return null;
 		}
 
-		lastAccessTime = System.currentTimeMillis();
+		sampleClock.stamp(buffer, System.nanoTime());
+		iqConverter.updateCorrection(buffer);
 		return buffer;
 	}
 
 	@Override
 	public void returnPacket(byte[] buffer) {
-		// do nothing
+		bufferPool.offer(buffer);
+	}
+
+	@Override
+	public long getSampleIndex(byte[] packet) {
+		return sampleClock.getSampleIndex(packet);
+	}
+
+	@Override
+	public long getTimestamp(byte[] packet) {
+		return sampleClock.getTimestamp(packet);
+	}
+
+	@Override
+	public long getDroppedSamples() {
+		return sampleClock.getDroppedSamples();
 	}
 
 	@Override
 	public void startSampling() {
-		// nothing to do here...
+		sampleClock.reset();
 	}
 
 	@Override
@@ -250,7 +302,22 @@ public class FileIQSource implements IQSourceInterface {
 		return this.iqConverter.fillPacketIntoSamplePacket(packet, samplePacket);
 	}
 
+	@Override
+	public int fillPacketIntoSamplePacket(byte[] packet, SamplePacket samplePacket, float[] window) {
+		return this.iqConverter.fillPacketIntoSamplePacket(packet, samplePacket, window);
+	}
+
 	public int mixPacketIntoSamplePacket(byte[] packet, SamplePacket samplePacket, long channelFrequency) {
 		return this.iqConverter.mixPacketIntoSamplePacket(packet, samplePacket, channelFrequency);
 	}
+
+	@Override
+	public int mixPacketIntoIntSamples(byte[] packet, int[] re, int[] im, long channelFrequency) {
+		return this.iqConverter.mixPacketIntoIntSamples(packet, re, im, channelFrequency);
+	}
+
+	@Override
+	public IQCorrection getIQCorrection() {
+		return this.iqConverter.getCorrection();
+	}
 }
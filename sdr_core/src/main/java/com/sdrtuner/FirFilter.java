@@ -1,12 +1,15 @@
 package com.sdrtuner;
 
-import android.util.Log;
-
 public class FirFilter {
 	private int tapCounter = 0;
 	private float[] taps;
-	private float[] delaysReal;
+	private float[] reversedTaps;		// taps in reverse order (multiplied with the delay line from oldest to newest)
+	private float[] delaysReal;			// delay line (each sample is stored twice: at padding+tapCounter and padding+tapCounter+taps.length)
 	private float[] delaysImag;
+	private float[] dotResult = new float[2];
+	private DspKernels kernels;
+	private int padding;				// number of zero taps in front of reversedTaps
+	private static final int TAP_ALIGNMENT = 16;	// floats per vector (512 bit)
 	private int decimation;
 	private int decimationCounter = 1;
 	private float gain;
@@ -29,8 +32,15 @@ public class FirFilter {
 	 */
 	private FirFilter(float[] taps, int decimation, float gain, float sampleRate, float cutOffFrequency, float transitionWidth, float attenuation) {
 		this.taps = taps;
-		this.delaysReal = new float[taps.length];
-		this.delaysImag = new float[taps.length];
+		this.kernels = DspKernels.getDefault();
+		// vector kernels: leading zero taps make the length a multiple of the vector length:
+		this.padding = kernels.isVectorized() ? (TAP_ALIGNMENT - taps.length % TAP_ALIGNMENT) % TAP_ALIGNMENT : 0;
+		this.reversedTaps = new float[padding + taps.length];
+		for (int i = 0; i < taps.length; i++)
+			reversedTaps[padding + i] = taps[taps.length - 1 - i];
+		// the doubled delay line keeps the last taps.length samples contiguous for the dot product:
+		this.delaysReal = new float[padding + 2 * taps.length];
+		this.delaysImag = new float[padding + 2 * taps.length];
 		this.decimation = decimation;
 		this.gain = gain;
 		this.sampleRate = sampleRate;
@@ -80,15 +90,15 @@ public class FirFilter {
 	 * @return number of samples consumed from the input packet
 	 */
 	public int filter(SamplePacket in, SamplePacket out, int offset, int length) {
-		int index;
+		int numberOfTaps = taps.length;
 		int indexOut = out.size();
 		int outputCapacity = out.capacity();
 		float[] reIn = in.re(), imIn = in.im(), reOut = out.re(), imOut = out.im();
 
 		// insert each input sample into the delay line:
 		for (int i = 0; i < length; i++) {
-			delaysReal[tapCounter] = reIn[offset + i];
-			delaysImag[tapCounter] = imIn[offset + i];
+			delaysReal[padding + tapCounter] = delaysReal[padding + tapCounter + numberOfTaps] = reIn[offset + i];
+			delaysImag[padding + tapCounter] = delaysImag[padding + tapCounter + numberOfTaps] = imIn[offset + i];
 
 			// Calculate the filter output for every Mth element (were M = decimation)
 			if(decimationCounter == 0) {
@@ -99,17 +109,10 @@ public class FirFilter {
 					return i;    // We return the number of consumed samples from the input buffers
 				}
 
-				// Calculate the results:
-				reOut[indexOut] = 0;
-				imOut[indexOut] = 0;
-				index = tapCounter;
-				for (float tap : taps) {
-					reOut[indexOut] += tap * delaysReal[index];
-					imOut[indexOut] += tap * delaysImag[index];
-					index--;
-					if (index < 0)
-						index = taps.length - 1;
-				}
+				// Calculate the results (the padded window of reversedTaps starts at tapCounter + 1):
+				kernels.dotComplex(reversedTaps, delaysReal, delaysImag, tapCounter + 1, dotResult);
+				reOut[indexOut] = dotResult[0];
+				imOut[indexOut] = dotResult[1];
 
 				// increase indexOut:
 				indexOut++;
@@ -120,7 +123,7 @@ public class FirFilter {
 			if(decimationCounter >= decimation)
 				decimationCounter = 0;
 			tapCounter++;
-			if(tapCounter >= taps.length)
+			if(tapCounter >= numberOfTaps)
 				tapCounter = 0;
 		}
 		out.setSize(indexOut);	// update size of output sample packet
@@ -138,14 +141,14 @@ public class FirFilter {
 	 * @return number of samples consumed from the input packet
 	 */
 	public int filterReal(SamplePacket in, SamplePacket out, int offset, int length) {
-		int index;
+		int numberOfTaps = taps.length;
 		int indexOut = out.size();
 		int outputCapacity = out.capacity();
 		float[] reIn = in.re(), reOut = out.re();
 
 		// insert each input sample into the delay line:
 		for (int i = 0; i < length; i++) {
-			delaysReal[tapCounter] = reIn[offset + i];
+			delaysReal[padding + tapCounter] = delaysReal[padding + tapCounter + numberOfTaps] = reIn[offset + i];
 
 			// Calculate the filter output for every Mth element (were M = decimation)
 			if(decimationCounter == 0) {
@@ -156,15 +159,8 @@ public class FirFilter {
 					return i;    // We return the number of consumed samples from the input buffers
 				}
 
-				// Calculate the results:
-				reOut[indexOut] = 0;
-				index = tapCounter;
-				for (float tap : taps) {
-					reOut[indexOut] += tap * delaysReal[index];
-					index--;
-					if (index < 0)
-						index = taps.length - 1;
-				}
+				// Calculate the results (the padded window of reversedTaps starts at tapCounter + 1):
+				reOut[indexOut] = kernels.dot(reversedTaps, delaysReal, tapCounter + 1);
 
 				// increase indexOut:
 				indexOut++;
@@ -175,7 +171,7 @@ public class FirFilter {
 			if(decimationCounter >= decimation)
 				decimationCounter = 0;
 			tapCounter++;
-			if(tapCounter >= taps.length)
+			if(tapCounter >= numberOfTaps)
 				tapCounter = 0;
 		}
 		out.setSize(indexOut);	// update size of output sample packet
@@ -204,17 +200,17 @@ public class FirFilter {
 										  float attenuation_dB)   // attenuation dB
 	{
 		if (sampling_freq <= 0.0) {
-			Log.e(LOGTAG,"createLowPass: firdes check failed: sampling_freq > 0");
+			DspLog.e(LOGTAG,"createLowPass: firdes check failed: sampling_freq > 0");
 			return null;
 		}
 
 		if (cutoff_freq <= 0.0 || cutoff_freq > sampling_freq / 2) {
-			Log.e(LOGTAG, "createLowPass: firdes check failed: 0 < fa <= sampling_freq / 2");
+			DspLog.e(LOGTAG, "createLowPass: firdes check failed: 0 < fa <= sampling_freq / 2");
 			return null;
 		}
 
 		if (transition_width <= 0) {
-			Log.e(LOGTAG,"createLowPass: firdes check failed: transition_width > 0");
+			DspLog.e(LOGTAG,"createLowPass: firdes check failed: transition_width > 0");
 			return null;
 		}
 
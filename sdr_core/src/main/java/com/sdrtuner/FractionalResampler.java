@@ -0,0 +1,111 @@
+package com.sdrtuner;
+
+/**
+ * Resamples a real signal by an arbitrary (and slowly changing) ratio.
+ *
+ * Polyphase windowed-sinc interpolator: the kernel is tabulated for PHASES fractional delays and
+ * interpolated linearly between the two nearest phases. The ratio can be changed between two
+ * calls of resample() without discontinuities, which makes it suitable to steer the output rate
+ * (e.g. to follow the clock of an audio device, see AudioSink).
+ */
+public class FractionalResampler {
+	private static final int PHASES = 32;		// number of tabulated fractional delays
+	private int taps;							// length of the kernel
+	private float[][] kernel;					// [PHASES + 1][taps] kernel for the fractional delay phase/PHASES
+	private float[] buffer = new float[0];		// last (taps - 1) input samples followed by the new input
+	private double position = 0;				// position of the next output sample (in input samples, relative to buffer)
+	private double step;						// input samples per output sample
+
+	/**
+	 * Constructor
+	 *
+	 * @param taps			kernel length (even; more taps = steeper anti-imaging/anti-aliasing filter)
+	 * @param step			initial ratio: input rate / output rate
+	 * @param cutoff		cutoff frequency relative to the lower of both rates (e.g. 0.45)
+	 */
+	public FractionalResampler(int taps, double step, float cutoff) {
+		this.taps = taps;
+		this.step = step;
+		float fc = (float) (cutoff * Math.min(1, 1 / step));	// cutoff in cycles per input sample
+		this.kernel = new float[PHASES + 1][taps];
+		for (int p = 0; p <= PHASES; p++) {
+			float sum = 0;
+			for (int k = 0; k < taps; k++) {
+				double x = k - (taps / 2 - 1) - p / (double) PHASES;		// distance to the output sample
+				double sinc = x == 0 ? 1 : Math.sin(2 * Math.PI * fc * x) / (2 * Math.PI * fc * x);
+				double w = (x + taps / 2.0) / taps;						// position in the window (0..1)
+				double window = 0.42 - 0.5 * Math.cos(2 * Math.PI * w) + 0.08 * Math.cos(4 * Math.PI * w);	// Blackman
+				kernel[p][k] = (float) (sinc * window);
+				sum += kernel[p][k];
+			}
+			for (int k = 0; k < taps; k++)
+				kernel[p][k] /= sum;		// unity gain at DC for each phase
+		}
+	}
+
+	/**
+	 * @return input samples per output sample
+	 */
+	public double getStep() {
+		return step;
+	}
+
+	/**
+	 * @param step	input samples per output sample (input rate / output rate)
+	 */
+	public void setStep(double step) {
+		this.step = step;
+	}
+
+	/**
+	 * @param inputCount	number of input samples
+	 * @return max. number of output samples that resample() produces for this input (at the current step)
+	 */
+	public int getMaxOutputCount(int inputCount) {
+		return (int) Math.ceil(inputCount / step) + 1;
+	}
+
+	/**
+	 * Will resample the input samples. The output is delayed by about taps/2 input samples.
+	 *
+	 * @param input			input samples
+	 * @param inputCount	number of input samples
+	 * @param output		output array (must have room for getMaxOutputCount(inputCount) samples)
+	 * @param offset		index of the first output sample in output
+	 * @return number of output samples
+	 */
+	public int resample(float[] input, int inputCount, float[] output, int offset) {
+		// append the input to the history:
+		int history = taps - 1;
+		if(buffer.length < history + inputCount) {
+			float[] tmp = new float[history + inputCount];
+			System.arraycopy(buffer, 0, tmp, 0, Math.min(buffer.length, history));
+			buffer = tmp;
+		}
+		System.arraycopy(input, 0, buffer, history, inputCount);
+
+		int count = 0;
+		while(position < inputCount) {
+			int index = (int) position;
+			double phase = (position - index) * PHASES;	// (double: a float could round up to PHASES)
+			int p = (int) phase;
+			float a = (float) (phase - p);
+			float[] k0 = kernel[p];
+			float[] k1 = kernel[p + 1];
+			float sum0 = 0;
+			float sum1 = 0;
+			for (int k = 0; k < taps; k++) {
+				float x = buffer[index + k];
+				sum0 += k0[k] * x;
+				sum1 += k1[k] * x;
+			}
+			output[offset + count++] = sum0 + a * (sum1 - sum0);
+			position += step;
+		}
+
+		// keep the last samples as history for the next call:
+		position -= inputCount;
+		System.arraycopy(buffer, inputCount, buffer, 0, history);
+		return count;
+	}
+}
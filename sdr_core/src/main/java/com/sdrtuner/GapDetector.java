@@ -0,0 +1,135 @@
+package com.sdrtuner;
+
+import java.util.Locale;
+
+/**
+ * Checks the stream of packets that arrives at one stage of the pipeline for lost samples and
+ * measures the latency since the samples were received by the source.
+ *
+ * Every packet carries the index of its first source sample and the number of source samples
+ * it was made of (see SamplePacket.setStamp()). If a packet starts behind the end of the previous
+ * packet, the samples in between were lost on the way to this stage (source had no free buffer,
+ * demod queue was flushed, ...). Gaps before packets that are marked as resync were made on
+ * purpose (squelch closed, fft frames that are only taken from time to time) and are not counted.
+ *
+ * check() is called by the thread of the stage; the getters may be called from any thread.
+ */
+public class GapDetector {
+	private static final String LOGTAG = "GapDetector";
+	private final String name;					// name of the stage (for the report)
+	private long nextSampleIndex = -1;			// expected index of the next packet (-1: unknown)
+	private volatile long packetCount = 0;		// checked packets
+	private volatile long sampleCount = 0;		// source samples of the checked packets
+	private volatile long gapCount = 0;			// number of gaps
+	private volatile long lostSamples = 0;		// source samples in the gaps
+	private volatile long latencySum = 0;		// sum of the latencies of all packets (ns)
+	private volatile long maxLatency = 0;		// ns
+
+	/**
+	 * Constructor.
+	 *
+	 * @param name		name of the stage (e.g. "decimator")
+	 */
+	public GapDetector(String name) {
+		this.name = name;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Will check the stamp of a packet that arrived at the stage
+	 *
+	 * @param packet	packet with a stamp (packets without sample index are ignored)
+	 */
+	public void check(SamplePacket packet) {
+		check(packet.getSampleIndex(), packet.getSourceSamples(), packet.getTimestamp(), packet.isResync());
+	}
+
+	/**
+	 * Will check a packet that arrived at the stage
+	 *
+	 * @param sampleIndex		index of the first source sample of the packet (-1 if unknown)
+	 * @param sourceSamples		number of source samples in the packet
+	 * @param timestamp			System.nanoTime() at which the source received the first sample
+	 * @param resync			true if the samples before the packet were skipped on purpose
+	 */
+	public void check(long sampleIndex, long sourceSamples, long timestamp, boolean resync) {
+		if(sampleIndex < 0)
+			return;
+		if(nextSampleIndex >= 0 && sampleIndex > nextSampleIndex && !resync) {
+			gapCount++;
+			lostSamples += sampleIndex - nextSampleIndex;
+			DspLog.d(LOGTAG, name + ": lost " + (sampleIndex - nextSampleIndex) + " samples before sample " + sampleIndex);
+		}
+		nextSampleIndex = sampleIndex + sourceSamples;
+		packetCount++;
+		sampleCount += sourceSamples;
+		if(timestamp != 0) {
+			long latency = System.nanoTime() - timestamp;
+			latencySum += latency;
+			if(latency > maxLatency)
+				maxLatency = latency;
+		}
+	}
+
+	/**
+	 * Will clear all counters (e.g. when the source is restarted and counts from 0 again)
+	 */
+	public void reset() {
+		nextSampleIndex = -1;
+		packetCount = 0;
+		sampleCount = 0;
+		gapCount = 0;
+		lostSamples = 0;
+		latencySum = 0;
+		maxLatency = 0;
+	}
+
+	public long getPacketCount() {
+		return packetCount;
+	}
+
+	/**
+	 * @return number of source samples that arrived at the stage
+	 */
+	public long getSampleCount() {
+		return sampleCount;
+	}
+
+	public long getGapCount() {
+		return gapCount;
+	}
+
+	/**
+	 * @return number of source samples that were lost before the stage
+	 */
+	public long getLostSamples() {
+		return lostSamples;
+	}
+
+	/**
+	 * @return average time (ms) from the reception at the source to the arrival at the stage
+	 */
+	public float getAverageLatency() {
+		long count = packetCount;
+		return count > 0 ? latencySum / (count * 1e6f) : 0;
+	}
+
+	/**
+	 * @return max. time (ms) from the reception at the source to the arrival at the stage
+	 */
+	public float getMaxLatency() {
+		return maxLatency / 1e6f;
+	}
+
+	/**
+	 * @return one line report (for logs)
+	 */
+	@Override
+	public String toString() {
+		return String.format(Locale.US, "%-12s %9d packets  %6d gaps  %10d samples lost  latency %7.1f ms (max. %7.1f ms)",
+				name, packetCount, gapCount, lostSamples, getAverageLatency(), getMaxLatency());
+	}
+}
@@ -0,0 +1,420 @@
+package com.sdrtuner;
+
+import java.util.Arrays;
+
+/**
+ * Half band low pass filter that decimates by 2 (and amplifies the signal by 2).
+ *
+ * Every second tap of a half band filter is zero (except the middle tap, which is 0.5), so a
+ * filter of length N-1 needs only N/4 multiplications per output sample (the taps are
+ * symmetric). N must be a multiple of 4. The taps are designed at runtime:
+ *
+ *   designTaps()			equiripple (minimax) design for a given pass band
+ *   designWindowedTaps()	Kaiser windowed design for a given stop band attenuation
+ *
+ * Both designs are symmetric around a quarter of the input rate: the pass band [0..passband] is
+ * as flat as the stop band [0.5-passband..0.5] (relative to the input rate) is deep. The stop
+ * band folds onto the pass band when decimating, so its attenuation is the alias rejection of
+ * the filter (see getAttenuation()).
+ *
+ * filter() selects the kernel once per call: N = 8, 12 and 16 have unrolled kernels that keep
+ * the delay lines in local variables; all other lengths use a generic kernel with a delay line
+ * that is stored twice, so the window never wraps around.
+ */
+public class HalfBandLowPassFilter {
+	private static final String LOGTAG = "HalfBandLowPassFilter";
+	public static final float DEFAULT_PASSBAND = 0.075f;	// pass band of HalfBandLowPassFilter(N) (relative to the input rate)
+	public static final int MAX_N = 64;					// longest filter that getMinimumLength() considers
+	private static final int DESIGN_ITERATIONS = 100;	// iterations of the equiripple design
+	private static final int GRID_DENSITY = 32;			// grid points per tap of the equiripple design
+
+	private float[] taps;				// N/4 taps; taps[0] belongs to the oldest/newest sample, the last tap to the middle
+	private int length;					// N/2 (number of even samples in the delay line)
+	private float[] delaysReal;			// even samples (stored twice by the generic kernel)
+	private float[] delaysImag;
+	private float[] delaysMiddleTapReal;	// odd samples (the middle tap needs them N/4 steps later)
+	private float[] delaysMiddleTapImag;
+	private int delayIndex;				// position of the oldest sample in the delay line (generic kernel)
+	private int delayMiddleTapIndex;	// position of the oldest odd sample (generic kernel)
+
+	/**
+	 * Constructor. Will design an equiripple filter with DEFAULT_PASSBAND.
+	 *
+	 * @param N		number of taps (multiple of 4)
+	 */
+	public HalfBandLowPassFilter (int N) {
+		this(designTaps(N, DEFAULT_PASSBAND));
+	}
+
+	/**
+	 * Constructor. Will design an equiripple filter.
+	 *
+	 * @param N			number of taps (multiple of 4)
+	 * @param passband	end of the pass band relative to the input rate (< 0.25)
+	 */
+	public HalfBandLowPassFilter (int N, float passband) {
+		this(designTaps(N, passband));
+	}
+
+	/**
+	 * Constructor. Will allocate the delay arrays.
+	 *
+	 * @param taps	N/4 taps (see designTaps() and designWindowedTaps())
+	 */
+	public HalfBandLowPassFilter (float[] taps) {
+		if(taps.length < 1)
+			throw new IllegalArgumentException("at least one tap is needed");
+		this.taps = taps.clone();
+		this.length = 2 * taps.length;
+		this.delaysReal = new float[2 * length];
+		this.delaysImag = new float[2 * length];
+		this.delaysMiddleTapReal = new float[taps.length];
+		this.delaysMiddleTapImag = new float[taps.length];
+		this.delayIndex = 0;
+		this.delayMiddleTapIndex = 0;
+	}
+
+	/**
+	 * @return number of taps N (the filter has N-1 coefficients; N/4 multiplications per output sample)
+	 */
+	public int getN() {
+		return 4 * taps.length;
+	}
+
+	/**
+	 * @return a copy of the N/4 taps
+	 */
+	public float[] getTaps() {
+		return taps.clone();
+	}
+
+	/**
+	 * @param passband	end of the pass band relative to the input rate
+	 * @return attenuation (dB) of all signals that alias into the pass band when decimating
+	 */
+	public double getAttenuation(float passband) {
+		return getAttenuation(taps, passband);
+	}
+
+	/**
+	 * Filters the samples from the input sample packet and appends filter output to the output
+	 * sample packet. Stops automatically if output sample packet is full.
+	 *
+	 * This method will decimate by 2 and amplify the signal by 2.
+	 *
+	 * @param in		input sample packet
+	 * @param out		output sample packet
+	 * @param offset	offset to use as start index for the input packet
+	 * @param length	max number of samples processed from the input packet
+	 * @return number of samples consumed from the input packet
+	 */
+	public int filter(SamplePacket in, SamplePacket out, int offset, int length) {
+		int count = Math.min(length / 2, out.capacity() - out.size());	// number of output samples
+		switch (taps.length) {
+			case 2:		kernelN8(in, out, offset, count);		break;
+			case 3:		kernelN12(in, out, offset, count);		break;
+			case 4:		kernelN16(in, out, offset, count);		break;
+			default:	kernelGeneric(in, out, offset, count);	break;
+		}
+		out.setSize(out.size() + count);	// update size of output sample packet
+		out.setSampleRate(in.getSampleRate()/2);	// update the sample rate of the output sample packet
+		if(count < length / 2)
+			return 2 * count;		// output is full
+		return length;			// We return the number of consumed samples from the input buffers
+	}
+
+	// Unrolled kernels: the delay lines are kept in local variables inside the loop (r*/i*: the
+	// N/2-1 previous even samples, mr*/mi*: the N/4 previous odd samples; index 0 is the oldest)
+	// and stored in the delay arrays between two calls (oldest first). The middle tap is the odd
+	// sample of N/4 steps ago, which is the center of the window of even samples.
+
+	private void kernelN8(SamplePacket in, SamplePacket out, int offset, int count) {
+		float[] reIn = in.re(), imIn = in.im(), reOut = out.re(), imOut = out.im();
+		float[] dRe = delaysReal, dIm = delaysImag, mRe = delaysMiddleTapReal, mIm = delaysMiddleTapImag;
+		float t0 = taps[0], t1 = taps[1];
+		float r0 = dRe[0], r1 = dRe[1], r2 = dRe[2];
+		float i0 = dIm[0], i1 = dIm[1], i2 = dIm[2];
+		float mr0 = mRe[0], mr1 = mRe[1];
+		float mi0 = mIm[0], mi1 = mIm[1];
+		int indexOut = out.size();
+		for (int i = offset, end = offset + 2 * count; i < end; i += 2) {
+			float r3 = reIn[i], i3 = imIn[i];
+			reOut[indexOut] = (r0 + r3) * t0 + (r1 + r2) * t1 + mr0;
+			imOut[indexOut] = (i0 + i3) * t0 + (i1 + i2) * t1 + mi0;
+			indexOut++;
+			r0 = r1; r1 = r2; r2 = r3;
+			i0 = i1; i1 = i2; i2 = i3;
+			mr0 = mr1;
+			mi0 = mi1;
+			mr1 = reIn[i + 1]; mi1 = imIn[i + 1];
+		}
+		dRe[0] = r0; dRe[1] = r1; dRe[2] = r2;
+		dIm[0] = i0; dIm[1] = i1; dIm[2] = i2;
+		mRe[0] = mr0; mRe[1] = mr1;
+		mIm[0] = mi0; mIm[1] = mi1;
+	}
+
+	private void kernelN12(SamplePacket in, SamplePacket out, int offset, int count) {
+		float[] reIn = in.re(), imIn = in.im(), reOut = out.re(), imOut = out.im();
+		float[] dRe = delaysReal, dIm = delaysImag, mRe = delaysMiddleTapReal, mIm = delaysMiddleTapImag;
+		float t0 = taps[0], t1 = taps[1], t2 = taps[2];
+		float r0 = dRe[0], r1 = dRe[1], r2 = dRe[2], r3 = dRe[3], r4 = dRe[4];
+		float i0 = dIm[0], i1 = dIm[1], i2 = dIm[2], i3 = dIm[3], i4 = dIm[4];
+		float mr0 = mRe[0], mr1 = mRe[1], mr2 = mRe[2];
+		float mi0 = mIm[0], mi1 = mIm[1], mi2 = mIm[2];
+		int indexOut = out.size();
+		for (int i = offset, end = offset + 2 * count; i < end; i += 2) {
+			float r5 = reIn[i], i5 = imIn[i];
+			reOut[indexOut] = (r0 + r5) * t0 + (r1 + r4) * t1
+							+ (r2 + r3) * t2 + mr0;
+			imOut[indexOut] = (i0 + i5) * t0 + (i1 + i4) * t1
+							+ (i2 + i3) * t2 + mi0;
+			indexOut++;
+			r0 = r1; r1 = r2; r2 = r3; r3 = r4; r4 = r5;
+			i0 = i1; i1 = i2; i2 = i3; i3 = i4; i4 = i5;
+			mr0 = mr1; mr1 = mr2;
+			mi0 = mi1; mi1 = mi2;
+			mr2 = reIn[i + 1]; mi2 = imIn[i + 1];
+		}
+		dRe[0] = r0; dRe[1] = r1; dRe[2] = r2; dRe[3] = r3; dRe[4] = r4;
+		dIm[0] = i0; dIm[1] = i1; dIm[2] = i2; dIm[3] = i3; dIm[4] = i4;
+		mRe[0] = mr0; mRe[1] = mr1; mRe[2] = mr2;
+		mIm[0] = mi0; mIm[1] = mi1; mIm[2] = mi2;
+	}
+
+	private void kernelN16(SamplePacket in, SamplePacket out, int offset, int count) {
+		float[] reIn = in.re(), imIn = in.im(), reOut = out.re(), imOut = out.im();
+		float[] dRe = delaysReal, dIm = delaysImag, mRe = delaysMiddleTapReal, mIm = delaysMiddleTapImag;
+		float t0 = taps[0], t1 = taps[1], t2 = taps[2], t3 = taps[3];
+		float r0 = dRe[0], r1 = dRe[1], r2 = dRe[2], r3 = dRe[3], r4 = dRe[4], r5 = dRe[5], r6 = dRe[6];
+		float i0 = dIm[0], i1 = dIm[1], i2 = dIm[2], i3 = dIm[3], i4 = dIm[4], i5 = dIm[5], i6 = dIm[6];
+		float mr0 = mRe[0], mr1 = mRe[1], mr2 = mRe[2], mr3 = mRe[3];
+		float mi0 = mIm[0], mi1 = mIm[1], mi2 = mIm[2], mi3 = mIm[3];
+		int indexOut = out.size();
+		for (int i = offset, end = offset + 2 * count; i < end; i += 2) {
+			float r7 = reIn[i], i7 = imIn[i];
+			reOut[indexOut] = (r0 + r7) * t0 + (r1 + r6) * t1
+							+ (r2 + r5) * t2 + (r3 + r4) * t3 + mr0;
+			imOut[indexOut] = (i0 + i7) * t0 + (i1 + i6) * t1
+							+ (i2 + i5) * t2 + (i3 + i4) * t3 + mi0;
+			indexOut++;
+			r0 = r1; r1 = r2; r2 = r3; r3 = r4; r4 = r5; r5 = r6; r6 = r7;
+			i0 = i1; i1 = i2; i2 = i3; i3 = i4; i4 = i5; i5 = i6; i6 = i7;
+			mr0 = mr1; mr1 = mr2; mr2 = mr3;
+			mi0 = mi1; mi1 = mi2; mi2 = mi3;
+			mr3 = reIn[i + 1]; mi3 = imIn[i + 1];
+		}
+		dRe[0] = r0; dRe[1] = r1; dRe[2] = r2; dRe[3] = r3; dRe[4] = r4; dRe[5] = r5; dRe[6] = r6;
+		dIm[0] = i0; dIm[1] = i1; dIm[2] = i2; dIm[3] = i3; dIm[4] = i4; dIm[5] = i5; dIm[6] = i6;
+		mRe[0] = mr0; mRe[1] = mr1; mRe[2] = mr2; mRe[3] = mr3;
+		mIm[0] = mi0; mIm[1] = mi1; mIm[2] = mi2; mIm[3] = mi3;
+	}
+
+	// Generic kernel: the even samples are stored twice in the delay line, so the window of the
+	// last N/2 even samples is always delays[d .. d+N/2-1]. The middle tap delay line returns the
+	// odd sample of N/4 steps ago.
+
+	private void kernelGeneric(SamplePacket in, SamplePacket out, int offset, int count) {
+		float[] reIn = in.re(), imIn = in.im(), reOut = out.re(), imOut = out.im();
+		float[] dRe = delaysReal, dIm = delaysImag, mRe = delaysMiddleTapReal, mIm = delaysMiddleTapImag;
+		float[] t = taps;
+		int len = length;
+		int d = delayIndex, m = delayMiddleTapIndex;
+		int indexOut = out.size();
+		for (int i = offset, end = offset + 2 * count; i < end; i += 2) {
+			dRe[d] = dRe[d + len] = reIn[i];
+			dIm[d] = dIm[d + len] = imIn[i];
+			if(++d == len)
+				d = 0;
+			float sumRe = mRe[m], sumIm = mIm[m];
+			mRe[m] = reIn[i + 1];
+			mIm[m] = imIn[i + 1];
+			if(++m == t.length)
+				m = 0;
+			for (int k = 0; k < t.length; k++) {
+				sumRe += (dRe[d + k] + dRe[d + len - 1 - k]) * t[k];
+				sumIm += (dIm[d + k] + dIm[d + len - 1 - k]) * t[k];
+			}
+			reOut[indexOut] = sumRe;
+			imOut[indexOut] = sumIm;
+			indexOut++;
+		}
+		delayIndex = d;
+		delayMiddleTapIndex = m;
+	}
+
+	/**
+	 * Will design an equiripple half band filter (minimax error in the pass band; iteratively
+	 * reweighted least squares, Lawson's algorithm).
+	 *
+	 * @param N			number of taps (multiple of 4)
+	 * @param passband	end of the pass band relative to the input rate (< 0.25)
+	 * @return N/4 taps (gain 2)
+	 */
+	public static float[] designTaps(int N, float passband) {
+		if(N % 4 != 0 || N < 4)
+			throw new IllegalArgumentException("N must be multiple of 4");
+		if(passband <= 0 || passband >= 0.25f)
+			throw new IllegalArgumentException("passband must be in (0, 0.25)");
+		int unknowns = N / 4;
+		int gridSize = GRID_DENSITY * unknowns;
+
+		// A(f) = sum(a[k] * 2 * cos(2*pi*f*(2k+1))) must be 0.5 in the pass band (then H(f) = 0.5 + A(f)
+		// is 1 in the pass band and, due to the symmetry, 0 in the stop band):
+		double[][] basis = new double[gridSize + 1][unknowns];
+		for (int g = 0; g <= gridSize; g++)
+			for (int k = 0; k < unknowns; k++)
+				basis[g][k] = 2 * Math.cos(2 * Math.PI * passband * g / gridSize * (2 * k + 1));
+		double[] weights = new double[gridSize + 1];
+		Arrays.fill(weights, 1.0 / (gridSize + 1));
+		double[] best = null;
+		double bestError = Double.MAX_VALUE;
+		for (int iteration = 0; iteration < DESIGN_ITERATIONS; iteration++) {
+			// weighted least squares solution:
+			double[][] matrix = new double[unknowns][unknowns + 1];
+			for (int g = 0; g <= gridSize; g++) {
+				for (int r = 0; r < unknowns; r++) {
+					for (int c = 0; c < unknowns; c++)
+						matrix[r][c] += weights[g] * basis[g][r] * basis[g][c];
+					matrix[r][unknowns] += weights[g] * basis[g][r] * 0.5;
+				}
+			}
+			double[] a = solve(matrix);
+
+			// error on the grid; the weights grow where the error is large:
+			double maxError = 0;
+			double weightSum = 0;
+			for (int g = 0; g <= gridSize; g++) {
+				double value = 0;
+				for (int k = 0; k < unknowns; k++)
+					value += a[k] * basis[g][k];
+				double error = Math.abs(value - 0.5);
+				maxError = Math.max(maxError, error);
+				weights[g] *= error;
+				weightSum += weights[g];
+			}
+			if(maxError < bestError) {
+				bestError = maxError;
+				best = a;
+			}
+			if(weightSum == 0)
+				break;
+			for (int g = 0; g <= gridSize; g++)
+				weights[g] /= weightSum;
+		}
+
+		// taps[0] is the outermost tap; the gain of the filter is 2:
+		float[] taps = new float[unknowns];
+		for (int k = 0; k < unknowns; k++)
+			taps[unknowns - 1 - k] = (float) (2 * best[k]);
+		return taps;
+	}
+
+	/**
+	 * Will design a half band filter with a Kaiser window. The attenuation determines the window;
+	 * the pass band that is reached depends on N (see getAttenuation()).
+	 *
+	 * @param N				number of taps (multiple of 4)
+	 * @param attenuation	stop band attenuation in dB
+	 * @return N/4 taps (gain 2)
+	 */
+	public static float[] designWindowedTaps(int N, double attenuation) {
+		if(N % 4 != 0 || N < 4)
+			throw new IllegalArgumentException("N must be multiple of 4");
+		double beta;
+		if(attenuation > 50)
+			beta = 0.1102 * (attenuation - 8.7);
+		else if(attenuation >= 21)
+			beta = 0.5842 * Math.pow(attenuation - 21, 0.4) + 0.07886 * (attenuation - 21);
+		else
+			beta = 0;
+		int unknowns = N / 4;
+		int halfLength = N / 2 - 1;		// the outermost tap is at +-(N/2-1)
+		float[] taps = new float[unknowns];
+		for (int k = 0; k < unknowns; k++) {
+			int n = 2 * k + 1;			// distance to the middle tap
+			double sinc = Math.sin(Math.PI * n / 2) / (Math.PI * n);
+			double x = (double) n / (halfLength + 1);
+			double window = besselI0(beta * Math.sqrt(1 - x * x)) / besselI0(beta);
+			taps[unknowns - 1 - k] = (float) (2 * sinc * window);
+		}
+		return taps;
+	}
+
+	/**
+	 * @param taps		N/4 taps (gain 2)
+	 * @param passband	end of the pass band relative to the input rate
+	 * @return attenuation (dB) of all signals that alias into the pass band when decimating
+	 */
+	public static double getAttenuation(float[] taps, float passband) {
+		final int gridSize = 256;
+		double maxGain = 0;
+		for (int g = 0; g <= gridSize; g++) {
+			double f = 0.5 - passband * g / gridSize;	// stop band
+			double value = 0.5;
+			for (int k = 0; k < taps.length; k++)
+				value += taps[taps.length - 1 - k] * Math.cos(2 * Math.PI * f * (2 * k + 1));
+			maxGain = Math.max(maxGain, Math.abs(value));
+		}
+		return -20 * Math.log10(maxGain);
+	}
+
+	/**
+	 * @param passband		end of the pass band relative to the input rate (< 0.25)
+	 * @param attenuation	required alias rejection in dB
+	 * @return smallest N (multiple of 4) of an equiripple filter that reaches the attenuation; MAX_N if none does
+	 */
+	public static int getMinimumLength(float passband, double attenuation) {
+		for (int n = 4; n < MAX_N; n += 4) {
+			if(getAttenuation(designTaps(n, passband), passband) >= attenuation)
+				return n;
+		}
+		DspLog.d(LOGTAG, "getMinimumLength: " + attenuation + " dB at passband " + passband + " needs more than " + MAX_N + " taps");
+		return MAX_N;
+	}
+
+	/**
+	 * Solves the linear system (Gauss-Jordan; the matrices of the designs are small)
+	 *
+	 * @param matrix	n x (n+1) augmented matrix (will be modified)
+	 * @return solution
+	 */
+	private static double[] solve(double[][] matrix) {
+		int n = matrix.length;
+		for (int r = 0; r < n; r++) {
+			int pivot = r;
+			for (int i = r + 1; i < n; i++)
+				if(Math.abs(matrix[i][r]) > Math.abs(matrix[pivot][r]))
+					pivot = i;
+			double[] tmp = matrix[r];
+			matrix[r] = matrix[pivot];
+			matrix[pivot] = tmp;
+			for (int i = 0; i < n; i++) {
+				if(i == r || matrix[r][r] == 0)
+					continue;
+				double factor = matrix[i][r] / matrix[r][r];
+				for (int c = r; c <= n; c++)
+					matrix[i][c] -= factor * matrix[r][c];
+			}
+		}
+		double[] result = new double[n];
+		for (int i = 0; i < n; i++)
+			result[i] = matrix[i][i] == 0 ? 0 : matrix[i][n] / matrix[i][i];
+		return result;
+	}
+
+	/**
+	 * @return modified Bessel function of the first kind (order 0)
+	 */
+	private static double besselI0(double x) {
+		double sum = 1;
+		double term = 1;
+		for (int k = 1; k < 50; k++) {
+			term *= (x / (2 * k)) * (x / (2 * k));
+			sum += term;
+			if(term < sum * 1e-12)
+				break;
+		}
+		return sum;
+	}
+}
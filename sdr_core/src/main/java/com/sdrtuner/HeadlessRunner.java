@@ -0,0 +1,608 @@
+package com.sdrtuner;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Locale;
+
+/**
+ * Runs the signal processing pipeline on a plain JVM (without Android):
+ *
+ *     FileIQSource --> Scheduler --> AnalyzerProcessingLoop
+ *                                \-> Demodulator --> AudioSink (null, memory or WAV file)
+ *
+ * The throughput of all stages is reported once per second. By default the file is read as fast
+ * as possible, so the source rate shows how much faster than realtime the scheduler is. Use -R to
+ * simulate the sample rate of real hardware and look at the loads instead.
+ *
+ * This is meant for end-to-end tests and profiling (e.g. with JFR or async-profiler) on a desktop:
+ *
+ *     ./gradlew :sdr_core:run --args="-m wfm -r 1000000 -f 97000000 -c 97300000 -o out.wav samples.iq"
+ *
+ * The same with the SIMD kernels of the sdr_vector module (see DspKernels; -Dsdrtuner.kernels=scalar
+ * in JAVA_OPTS switches them off):
+ *
+ *     ./gradlew :sdr_vector:run --args="-m wfm -r 1000000 -f 97000000 -c 97300000 -o out.wav samples.iq"
+ *
+ * With -S the file is replaced by an EmulatedIQSource with the carriers given by -k, which is
+ * swept by the SweepEngine. Each panorama is rendered into a waterfall row (SpectrumPyramid,
+ * WaterfallRenderer) and the stitched positions of the carriers are reported at the end:
+ *
+ *     ./gradlew :sdr_core:run --args="-S 88000000:108000000 -k 94300000 -k 101700000 -r 8000000"
+ */
+public class HeadlessRunner {
+	private static final String LOGTAG = "HeadlessRunner";
+	private static final int RTLSDR_TUNER_R820T = 5;		// tuner type announced by the rtl_tcp server (see RtlsdrSource)
+	private static final int R820T_GAIN_COUNT = 29;
+	private static final int DEVICE_RATE = 48000;			// sample rate of the emulated audio device (-o device)
+	private static final float SWEEP_CARRIER_AMPLITUDE = 0.25f;	// amplitude of the emulated carriers (-k)
+	private static final double SWEEP_SOURCE_SETTLE_TIME = 0.002;	// seconds of corrupted samples after each retune of the emulated source
+	private static final int SWEEP_WATERFALL_WIDTH = 1024;	// width of the sweep waterfall in pixels
+	private static final int SWEEP_WATERFALL_ROWS = 64;		// height of the sweep waterfall in lines
+	private static final int SWEEP_PEAK_SEARCH = 16;		// bins around the expected position of a carrier that are searched for its peak
+	private static final int SWEEP_DEFAULT_COUNT = 10;		// number of sweeps if no duration is given
+	private static final String USAGE =
+			"Usage: HeadlessRunner [options] <file>\n" +
+			"       HeadlessRunner -S <start>:<end> [-k <frequency>]... [options]\n" +
+			"  -r <rate>       sample rate of the file in Sps (default: 1000000)\n" +
+			"  -f <frequency>  center frequency of the file in Hz (default: 100000000)\n" +
+			"  -u              file contains unsigned 8 bit samples (rtl_sdr); default: signed (hackrf_transfer)\n" +
+			"  -n <fftSize>    fft size (default: 4096)\n" +
+			"  -a <length>     averaging length (default: 0)\n" +
+			"  -F <fps>        frame rate of the processing loop (default: 1000)\n" +
+			"  -m <mode>       demodulation: off, am, nfm, wfm, lsb, usb (default: off)\n" +
+			"  -c <frequency>  channel frequency in Hz (default: center frequency)\n" +
+			"  -d              demodulate a multiple of 1 Msps (e.g. 10 or 20 Msps) with the CIC pre-decimator\n" +
+			"  -j <threads>    threads of the decimation pipeline (default: 1)\n" +
+			"  -q <dB>         adaptive squelch: demodulate only while the channel is this many dB above the\n" +
+			"                  noise floor (default: squelch always open)\n" +
+			"  -z <decimation> zoom fft: decimate the channel by this factor and report the strongest bin of\n" +
+			"                  its spectrum (span: rate / (2 * decimation))\n" +
+			"  -o <sink>       audio output: null, mem, device or a .wav file (default: null). 'device' emulates\n" +
+			"                  an audio device at 48 kHz and uses the adaptive output (jitter buffer, resampler)\n" +
+			"  -L <ms>         target latency of the jitter buffer for -o device (default: 100)\n" +
+			"  -P <ppm>        clock error of the emulated audio device for -o device (default: 0)\n" +
+			"  -w <directory>  record the demodulated audio to WAV files (AudioRecorder) in this directory\n" +
+			"  -W              record float WAV files (default: 16 bit PCM)\n" +
+			"  -t <seconds>    stop after this time (default: at the end of the file)\n" +
+			"  -s <port>       stream the spectrum to remote viewers (SpectrumServer) on this port\n" +
+			"  -T <port>       re-broadcast the IQ samples as rtl_tcp server (RtlTcpServer) on this port\n" +
+			"  -D              run the signal detection (SignalDetector) and print the active signals at the end\n" +
+			"  -C              disable the DC offset and IQ imbalance correction of the converter\n" +
+			"  -l              loop the file\n" +
+			"  -R              simulate the sample rate of real hardware\n" +
+			"  -S <start>:<end> sweep this range (Hz) of an emulated source instead of reading a file. Uses -r\n" +
+			"                  (4..20 Msps), -n, -a (ffts per hop), -t (default: 10 sweeps) and -R\n" +
+			"  -k <frequency>  add a carrier at this frequency (Hz) to the emulated source of -S (repeatable)\n" +
+			"  -v              print debug messages and report sample packets that are not returned to the pool\n";
+
+	private String filename = null;
+	private int sampleRate = 1000000;
+	private long frequency = 100000000;
+	private int fileFormat = FileIQSource.FILE_FORMAT_8BIT_SIGNED;
+	private int fftSize = 4096;
+	private int averageLength = 0;
+	private int frameRate = 1000;
+	private int demodulationMode = Demodulator.DEMODULATION_OFF;
+	private long channelFrequency = -1;
+	private String sinkName = "null";
+	private int audioLatency = 100;
+	private double deviceClockError = 0;
+	private double duration = -1;
+	private boolean repeat = false;
+	private boolean realtime = false;
+	private int serverPort = -1;
+	private int rtlTcpPort = -1;
+	private String recordingDirectory = null;
+	private boolean recordFloat = false;
+	private boolean preDecimation = false;
+	private int decimationWorkers = 1;
+	private float squelchOffset = Float.NaN;
+	private int zoomDecimation = 0;
+	private boolean iqCorrection = true;
+	private boolean signalDetection = false;
+	private long sweepStart = -1;
+	private long sweepEnd = -1;
+	private ArrayList<Long> sweepCarriers = new ArrayList<Long>();
+
+	private volatile long frameCount = 0;	// number of frames that arrived at the view
+	private SquelchThreshold squelchThreshold = null;	// adaptive squelch (-q); only used by the render thread
+	private volatile Squelch squelch = null;			// squelch of the demodulator (-q)
+	private volatile int squelchChannelWidth = 0;		// channel width of the demodulator
+
+	public static void main(String[] args) {
+		HeadlessRunner runner = new HeadlessRunner();
+		DspLog.setLevel(DspLog.INFO);
+		try {
+			runner.parseArguments(args);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.print(USAGE);
+			System.exit(1);
+		}
+		System.exit(runner.run() ? 0 : 1);
+	}
+
+	/**
+	 * Will parse the command line arguments
+	 *
+	 * @param args		command line arguments
+	 * @throws IllegalArgumentException if the arguments are invalid
+	 */
+	private void parseArguments(String[] args) {
+		try {
+			for (int i = 0; i < args.length; i++) {
+				String arg = args[i];
+				if(arg.equals("-u"))
+					fileFormat = FileIQSource.FILE_FORMAT_8BIT_UNSIGNED;
+				else if(arg.equals("-l"))
+					repeat = true;
+				else if(arg.equals("-R"))
+					realtime = true;
+				else if(arg.equals("-W"))
+					recordFloat = true;
+				else if(arg.equals("-d"))
+					preDecimation = true;
+				else if(arg.equals("-C"))
+					iqCorrection = false;
+				else if(arg.equals("-D"))
+					signalDetection = true;
+				else if(arg.equals("-v")) {
+					DspLog.setLevel(DspLog.DEBUG);
+					SamplePacketPool.getDefault().setLeakDetection(true);
+				}
+				else if(arg.startsWith("-") && arg.length() == 2) {
+					if(i + 1 >= args.length)
+						throw new IllegalArgumentException("Missing value for " + arg);
+					String value = args[++i];
+					switch (arg.charAt(1)) {
+						case 'r': sampleRate = Integer.valueOf(value);		break;
+						case 'f': frequency = Long.valueOf(value);			break;
+						case 'n': fftSize = Integer.valueOf(value);			break;
+						case 'a': averageLength = Integer.valueOf(value);	break;
+						case 'F': frameRate = Integer.valueOf(value);		break;
+						case 'm': demodulationMode = parseMode(value);		break;
+						case 'c': channelFrequency = Long.valueOf(value);	break;
+						case 'o': sinkName = value;							break;
+						case 'L': audioLatency = Integer.valueOf(value);	break;
+						case 'P': deviceClockError = Double.valueOf(value);	break;
+						case 't': duration = Double.valueOf(value);			break;
+						case 's': serverPort = Integer.valueOf(value);		break;
+						case 'T': rtlTcpPort = Integer.valueOf(value);		break;
+						case 'w': recordingDirectory = value;				break;
+						case 'j': decimationWorkers = Integer.valueOf(value);	break;
+						case 'q': squelchOffset = Float.valueOf(value);		break;
+						case 'z': zoomDecimation = Integer.valueOf(value);	break;
+						case 'S': parseSweepRange(value);					break;
+						case 'k': sweepCarriers.add(Long.valueOf(value));	break;
+						default:  throw new IllegalArgumentException("Unknown option: " + arg);
+					}
+				} else if(filename == null)
+					filename = arg;
+				else
+					throw new IllegalArgumentException("Unexpected argument: " + arg);
+			}
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid number: " + e.getMessage());
+		}
+		if(filename == null && sweepStart < 0)
+			throw new IllegalArgumentException("No file given");
+		if(channelFrequency < 0)
+			channelFrequency = frequency;
+	}
+
+	/**
+	 * @param value		sweep range in the form start:end (Hz)
+	 */
+	private void parseSweepRange(String value) {
+		int separator = value.indexOf(':');
+		if(separator < 0)
+			throw new IllegalArgumentException("Invalid sweep range (expected start:end): " + value);
+		sweepStart = Long.valueOf(value.substring(0, separator));
+		sweepEnd = Long.valueOf(value.substring(separator + 1));
+		if(sweepEnd <= sweepStart)
+			throw new IllegalArgumentException("Sweep end must be greater than sweep start: " + value);
+	}
+
+	/**
+	 * @param name	name of the demodulation mode (off, am, nfm, wfm, lsb, usb)
+	 * @return Demodulator.DEMODULATION_*
+	 */
+	private static int parseMode(String name) {
+		String[] names = {"off", "am", "nfm", "wfm", "lsb", "usb"};
+		for (int i = 0; i < names.length; i++) {
+			if(names[i].equalsIgnoreCase(name))
+				return i;
+		}
+		throw new IllegalArgumentException("Unknown demodulation mode: " + name);
+	}
+
+	/**
+	 * Will create the audio sink according to sinkName
+	 *
+	 * @param packetSize	packet size of the source
+	 * @return audio sink
+	 */
+	private AudioSink createAudioSink(int packetSize) {
+		if(sinkName.equals("null"))
+			return new NullAudioSink(packetSize, Demodulator.AUDIO_RATE);
+		if(sinkName.equals("device"))
+			return new NullAudioSink(packetSize, Demodulator.AUDIO_RATE, DEVICE_RATE, audioLatency, deviceClockError);
+		if(sinkName.equals("mem"))
+			return new MemoryAudioSink(packetSize, Demodulator.AUDIO_RATE, Demodulator.AUDIO_RATE * 60);
+		if(sinkName.toLowerCase(Locale.US).endsWith(".wav"))
+			return new WavFileAudioSink(packetSize, Demodulator.AUDIO_RATE, new File(sinkName));
+		throw new IllegalArgumentException("Unknown audio output: " + sinkName);
+	}
+
+	/**
+	 * Will run the pipeline until the end of the file (or the given duration) and report the throughput
+	 *
+	 * @return true on success
+	 */
+	private boolean run() {
+		if(sweepStart >= 0)
+			return runSweep();
+
+		FileIQSource source = new FileIQSource(filename, sampleRate, frequency, 16384, repeat, fileFormat);
+		source.setRealtime(realtime);
+		source.getIQCorrection().setEnabled(iqCorrection);
+		if(!source.open(null, new IQSourceInterface.Callback() {
+			@Override
+			public void onIQSourceReady(IQSourceInterface source) {
+				DspLog.i(LOGTAG, "Source ready: " + source.getName());
+			}
+
+			@Override
+			public void onIQSourceError(IQSourceInterface source, String message) {
+				DspLog.e(LOGTAG, "Source error: " + message);
+			}
+		}))
+			return false;
+
+		int preDecimationRatio = preDecimation ? sampleRate / Demodulator.INPUT_RATE : 1;
+		if(demodulationMode != Demodulator.DEMODULATION_OFF && sampleRate != Demodulator.INPUT_RATE * preDecimationRatio) {
+			DspLog.e(LOGTAG, "Demodulation needs a sample rate of " + Demodulator.INPUT_RATE + " Sps"
+					+ (preDecimation ? " (or a multiple of it)" : ""));
+			source.close();
+			return false;
+		}
+
+		// Create the pipeline:
+		Scheduler scheduler = new Scheduler(fftSize, source);
+		AnalyzerProcessingLoop processingLoop = new AnalyzerProcessingLoop(new SpectrumView() {
+			@Override
+			public void draw(float[] mag, float[] waterfallMag, long frequency, int sampleRate, int frameRate, double load, double renderLoad) {
+				frameCount++;	// only called by the render thread
+				// pass the adaptive threshold to the squelch of the demodulator:
+				Squelch demodulatorSquelch = squelch;
+				if(demodulatorSquelch != null) {
+					demodulatorSquelch.setSpectrumScale(mag.length, sampleRate);
+					demodulatorSquelch.setThreshold(squelchThreshold.update(channelFrequency, squelchChannelWidth));
+				}
+			}
+		}, fftSize, scheduler.getFftOutputQueue(), scheduler.getFftInputQueue());
+		processingLoop.setDynamicFrameRate(false);
+		processingLoop.setFrameRate(frameRate);
+		processingLoop.setAverageLength(averageLength);
+		if(!Float.isNaN(squelchOffset)) {
+			NoiseFloorEstimator noiseFloorEstimator = new NoiseFloorEstimator();
+			processingLoop.setNoiseFloorEstimator(noiseFloorEstimator);
+			squelchThreshold = new SquelchThreshold();
+			squelchThreshold.setNoiseFloorEstimator(noiseFloorEstimator);
+			squelchThreshold.setOffset(squelchOffset);
+		}
+
+		SignalDetector signalDetector = null;
+		if(signalDetection) {
+			signalDetector = new SignalDetector();
+			processingLoop.setSignalDetector(signalDetector);
+		}
+
+		ZoomFFT zoomFFT = null;
+		if(zoomDecimation > 0) {
+			zoomFFT = new ZoomFFT(fftSize);
+			zoomFFT.setDecimation(zoomDecimation);
+			zoomFFT.setFrequency(channelFrequency);
+			scheduler.setZoomFFT(zoomFFT);
+			processingLoop.setZoomFFT(zoomFFT);
+		}
+
+		SpectrumServer spectrumServer = null;
+		if(serverPort >= 0) {
+			spectrumServer = new SpectrumServer(serverPort);
+			spectrumServer.start();
+			processingLoop.setSpectrumServer(spectrumServer);
+		}
+
+		RtlTcpServer rtlTcpServer = null;
+		if(rtlTcpPort >= 0) {
+			// the file can't be retuned, so the commands of the clients are ignored:
+			rtlTcpServer = new RtlTcpServer(rtlTcpPort, RTLSDR_TUNER_R820T, R820T_GAIN_COUNT,
+					fileFormat == FileIQSource.FILE_FORMAT_8BIT_SIGNED, null);
+			rtlTcpServer.start();
+			scheduler.setRtlTcpServer(rtlTcpServer);
+		}
+
+		AudioSink audioSink = null;
+		AudioRecorder audioRecorder = null;
+		Demodulator demodulator = null;
+		if(demodulationMode != Demodulator.DEMODULATION_OFF) {
+			audioSink = createAudioSink(source.getPacketSize());
+			demodulator = new Demodulator(scheduler.getDemodOutputQueue(), scheduler.getDemodInputQueue(),
+					source.getPacketSize(), audioSink);
+			demodulator.setDemodulationMode(demodulationMode);
+			demodulator.setDecimationWorkerCount(decimationWorkers);
+			if(recordingDirectory != null) {
+				audioRecorder = new AudioRecorder(new File(recordingDirectory), audioSink.getAudioRate(), recordFloat,
+						AudioRecorder.DEFAULT_SPLIT_TIMEOUT);
+				audioRecorder.start();
+				audioSink.setRecorder(audioRecorder);
+			}
+			scheduler.setChannelFrequency(channelFrequency);
+			scheduler.setDemodPreDecimation(preDecimationRatio);
+			scheduler.setDemodulationActivated(true);
+			if(squelchThreshold != null) {
+				squelchChannelWidth = demodulator.getChannelWidth();
+				squelch = demodulator.getSquelch();
+			}
+		}
+
+		// Run it and report the throughput once per second:
+		long startTime = System.nanoTime();
+		scheduler.start();
+		processingLoop.start();
+		if(demodulator != null)
+			demodulator.start();
+		System.out.println("   time   source [MSps]   realtime   fft [fps]   load   audio [Sps]   demod flushes");
+		long lastTime = startTime;
+		long lastPackets = 0;
+		long lastFrames = 0;
+		long lastAudio = 0;
+		while(scheduler.isRunning()) {
+			try {
+				Thread.sleep(1000);
+			} catch (InterruptedException e) {
+				break;
+			}
+			long now = System.nanoTime();
+			long packets = scheduler.getPacketCount();
+			long frames = frameCount;
+			long audio = audioSink != null ? audioSink.getWrittenSamples() : 0;
+			printReport(now - startTime, now - lastTime, packets - lastPackets, source.getPacketSize(),
+					frames - lastFrames, processingLoop.getLoad(), audio - lastAudio, scheduler.getDemodFlushCount());
+			if(audioSink != null && audioSink.isAdaptive())
+				System.out.println(String.format(Locale.US, "          audio latency %5.1f ms   correction %+6.1f ppm   %d underruns   %d overflows",
+						audioSink.getLatency(), audioSink.getClockCorrection(), audioSink.getUnderruns(), audioSink.getOverflows()));
+			lastTime = now;
+			lastPackets = packets;
+			lastFrames = frames;
+			lastAudio = audio;
+			if(duration > 0 && now - startTime > duration * 1e9)
+				break;
+		}
+
+		// Stop the pipeline:
+		scheduler.stopScheduler();
+		processingLoop.stopLoop();
+		if(demodulator != null)
+			demodulator.stopDemodulator();
+		if(spectrumServer != null)
+			spectrumServer.stopServer();
+		if(rtlTcpServer != null)
+			rtlTcpServer.stopServer();
+		try {
+			scheduler.join();
+			processingLoop.join();
+			if(spectrumServer != null)
+				spectrumServer.join();
+			if(rtlTcpServer != null)
+				rtlTcpServer.join();
+			if(demodulator != null) {
+				demodulator.join();
+				audioSink.join();
+			}
+			if(audioRecorder != null) {
+				audioRecorder.stopRecorder();	// after the sink: writes the remaining samples
+				audioRecorder.join();
+			}
+		} catch (InterruptedException e) {
+			DspLog.e(LOGTAG, "run: Interrupted while stopping the pipeline.");
+		}
+		scheduler.releasePackets();
+		source.close();
+
+		// Total:
+		long now = System.nanoTime();
+		System.out.println("Total:");
+		printReport(now - startTime, now - startTime, scheduler.getPacketCount(), source.getPacketSize(), frameCount,
+				processingLoop.getLoad(), audioSink != null ? audioSink.getWrittenSamples() : 0, scheduler.getDemodFlushCount());
+		if(audioSink instanceof MemoryAudioSink)
+			System.out.println(((MemoryAudioSink) audioSink).getSize() + " audio samples in memory");
+		if(squelch != null)
+			System.out.println(String.format(Locale.US, "Squelch: opened %d times; last level %.1f dB, threshold %.1f dB (noise floor %.1f dB)",
+					squelch.getOpenCount(), squelch.getLevel(), squelch.getThreshold(), squelchThreshold.getNoiseFloor()));
+		if(zoomFFT != null)
+			printZoomReport(zoomFFT);
+		if(signalDetector != null)
+			printSignalReport(signalDetector);
+		System.out.println("IQ correction: " + (iqCorrection ? source.getIQCorrection() : "off"));
+		printGapReport(source, scheduler, processingLoop, demodulator);
+		System.out.println("Packet pool: " + SamplePacketPool.getDefault());
+		if(audioRecorder != null)
+			System.out.println(audioRecorder.getFileCount() + " audio files recorded, " + audioRecorder.getDroppedSamples()
+					+ " samples dropped (" + audioRecorder.getGapCount() + " gaps)");
+		return true;
+	}
+
+	/**
+	 * Will sweep the emulated source (-S) and render each panorama into a waterfall row. Reports
+	 * the sweep rate once per second and the stitched positions of the carriers at the end.
+	 *
+	 * @return true on success
+	 */
+	private boolean runSweep() {
+		int sweepSampleRate = Math.min(Math.max(sampleRate, EmulatedIQSource.MIN_SAMPLERATE), EmulatedIQSource.MAX_SAMPLERATE);
+		if(sweepSampleRate != sampleRate)
+			DspLog.i(LOGTAG, "Sample rate " + sampleRate + " Sps is not supported by the emulated source. Using " + sweepSampleRate + " Sps.");
+		EmulatedIQSource source = new EmulatedIQSource(16384, (int) (sweepSampleRate * SWEEP_SOURCE_SETTLE_TIME), realtime);
+		source.setSampleRate(sweepSampleRate);
+		source.getIQCorrection().setEnabled(iqCorrection);
+		for (long carrierFrequency : sweepCarriers)
+			source.addCarrier(carrierFrequency, SWEEP_CARRIER_AMPLITUDE);
+		source.open(null, null);
+
+		// the callback is called by the processing thread of the sweep; pyramid and waterfall are
+		// only used by this thread until the sweep is joined:
+		final SpectrumPyramid pyramid = new SpectrumPyramid();
+		final WaterfallRenderer waterfall = new WaterfallRenderer(SWEEP_WATERFALL_WIDTH, SWEEP_WATERFALL_ROWS);
+		int[] grayMap = new int[256];
+		for (int i = 0; i < grayMap.length; i++)
+			grayMap[i] = 0xff000000 | (i << 16) | (i << 8) | i;
+		waterfall.setColorMap(grayMap);
+		final float[][] lastPanorama = new float[1][];
+		SweepEngine sweepEngine = new SweepEngine(source, fftSize, sweepStart, sweepEnd, new SweepEngine.Callback() {
+			@Override
+			public void onSweepComplete(float[] spectrum, long startFrequency, long endFrequency, double sweepRate) {
+				pyramid.build(spectrum);
+				waterfall.addRow(pyramid, SpectrumPyramid.REDUCTION_MAX, 0, spectrum.length, -50, -5);
+				lastPanorama[0] = spectrum;
+			}
+		});
+		if(averageLength > 0)
+			sweepEngine.setAverages(averageLength);
+
+		long startTime = System.nanoTime();
+		sweepEngine.start();
+		System.out.println(String.format(Locale.US, "Sweeping %d - %d Hz: %d hops, panorama %d - %d Hz",
+				sweepStart, sweepEnd, sweepEngine.getHopCount(), sweepEngine.getPanoramaStart(), sweepEngine.getPanoramaEnd()));
+		System.out.println("   time   sweeps   rate [MHz/s]");
+		while(sweepEngine.isRunning()) {
+			try {
+				Thread.sleep(duration > 0 ? 1000 : 100);
+			} catch (InterruptedException e) {
+				break;
+			}
+			long now = System.nanoTime();
+			long sweeps = sweepEngine.getCompletedSweeps();
+			if(duration > 0)
+				System.out.println(String.format(Locale.US, "%6.1fs   %6d   %12.1f", (now - startTime) / 1e9, sweeps, sweepEngine.getSweepRate()));
+			if(duration > 0 ? now - startTime > duration * 1e9 : sweeps >= SWEEP_DEFAULT_COUNT)
+				break;
+		}
+		sweepEngine.stopSweep();
+		try {
+			sweepEngine.join();
+		} catch (InterruptedException e) {
+			DspLog.e(LOGTAG, "runSweep: Interrupted while stopping the sweep.");
+		}
+		source.close();
+
+		long now = System.nanoTime();
+		System.out.println("Total:");
+		System.out.println(String.format(Locale.US, "%6.1fs   %6d   %12.1f", (now - startTime) / 1e9,
+				sweepEngine.getCompletedSweeps(), sweepEngine.getSweepRate()));
+		if(lastPanorama[0] == null) {
+			System.out.println("No sweep completed.");
+			return false;
+		}
+		printSweepReport(lastPanorama[0], sweepEngine.getPanoramaStart(), sweepEngine.getPanoramaEnd(), waterfall);
+		return true;
+	}
+
+	/**
+	 * Will print the stitched position of each emulated carrier (strongest bin near the expected
+	 * position) and its brightness in the newest waterfall row
+	 */
+	private void printSweepReport(float[] panorama, long startFrequency, long endFrequency, WaterfallRenderer waterfall) {
+		double resolution = (endFrequency - startFrequency) / (double) panorama.length;
+		float median = SignalDetector.select(panorama.clone(), panorama.length, panorama.length / 2);
+		int[] row = waterfall.getRow();
+		System.out.println(String.format(Locale.US, "Panorama: %d bins, %.1f Hz/bin, median %.1f dB; waterfall %d x %d",
+				panorama.length, resolution, median, waterfall.getWidth(), waterfall.getRows()));
+		for (long carrierFrequency : sweepCarriers) {
+			int expected = (int) ((carrierFrequency - startFrequency) / resolution);
+			if(expected < 0 || expected >= panorama.length) {
+				System.out.println(String.format(Locale.US, "  carrier %d Hz: outside of the panorama", carrierFrequency));
+				continue;
+			}
+			int peak = expected;
+			for (int i = Math.max(0, expected - SWEEP_PEAK_SEARCH); i < Math.min(panorama.length, expected + SWEEP_PEAK_SEARCH + 1); i++) {
+				if(panorama[i] > panorama[peak])
+					peak = i;
+			}
+			long peakFrequency = startFrequency + Math.round((peak + 0.5) * resolution);
+			int pixel = (int) ((long) peak * row.length / panorama.length);
+			System.out.println(String.format(Locale.US, "  carrier %d Hz: peak at %d Hz (%+d Hz, %.1f dB above median), waterfall pixel %d gray %d",
+					carrierFrequency, peakFrequency, peakFrequency - carrierFrequency, panorama[peak] - median, pixel, row[pixel] & 0xff));
+		}
+	}
+
+	/**
+	 * Will print the strongest bin of the last zoomed spectrum
+	 */
+	private void printZoomReport(ZoomFFT zoomFFT) {
+		float[] mag = new float[zoomFFT.getFftSize() / 2];
+		int count = zoomFFT.getSpectrum(mag);
+		if(count == 0) {
+			System.out.println("Zoom: no spectrum (not enough samples)");
+			return;
+		}
+		int peak = 0;
+		float median = SignalDetector.select(mag.clone(), count, count / 2);
+		for (int i = 1; i < count; i++) {
+			if(mag[i] > mag[peak])
+				peak = i;
+		}
+		float resolution = zoomFFT.getResolution();
+		long peakFrequency = zoomFFT.getSpectrumFrequency() + Math.round((peak - count / 2) * resolution);
+		System.out.println(String.format(Locale.US, "Zoom: %d spectra, span %d Hz, %.2f Hz/bin; peak at %d Hz (%.1f dB, median %.1f dB)",
+				zoomFFT.getSpectrumCount(), zoomFFT.getSpectrumSpan(), resolution, peakFrequency, mag[peak], median));
+	}
+
+	/**
+	 * Will print the signals that were active at the end of the run
+	 */
+	private void printSignalReport(SignalDetector signalDetector) {
+		SignalDetector.Signal[] signals = new SignalDetector.Signal[SignalDetector.MAX_SIGNALS];
+		int count = signalDetector.getActiveSignals(signals);
+		System.out.println("Signals: " + count + " active");
+		for (int i = 0; i < count; i++)
+			System.out.println("  " + signals[i]);
+	}
+
+	/**
+	 * Will print the lost samples and the latency of each stage (see GapDetector)
+	 */
+	private void printGapReport(IQSourceInterface source, Scheduler scheduler, AnalyzerProcessingLoop processingLoop, Demodulator demodulator) {
+		System.out.println("Gaps and latency (source samples):");
+		System.out.println("  " + scheduler.getSourceGapDetector());
+		System.out.println("  " + processingLoop.getGapDetector());
+		if(demodulator != null) {
+			for (GapDetector gapDetector : demodulator.getGapDetectors())
+				System.out.println("  " + gapDetector);
+		}
+		System.out.println(String.format(Locale.US, "  %d samples dropped by the source, %d lost for the demodulator, %d not used for the fft",
+				source.getDroppedSamples(), scheduler.getDemodLostSamples(), scheduler.getFftSkippedSamples()));
+	}
+
+	/**
+	 * Will print one line of the throughput report
+	 *
+	 * @param time			time since start (ns)
+	 * @param interval		length of the interval (ns)
+	 * @param packets		packets received from the source in the interval
+	 * @param packetSize	size of one packet (bytes)
+	 * @param frames		frames that arrived at the view in the interval
+	 * @param load			current load of the processing loop
+	 * @param audioSamples	audio samples written in the interval
+	 * @param flushes		total number of demod queue flushes
+	 */
+	private void printReport(long time, long interval, long packets, int packetSize, long frames, double load,
+							 long audioSamples, long flushes) {
+		double seconds = interval / 1e9;
+		double samplesPerSecond = packets * (packetSize / 2) / seconds;
+		System.out.println(String.format(Locale.US, "%6.1fs   %13.2f   %7.1fx   %9.1f   %4.2f   %11.0f   %13d",
+				time / 1e9, samplesPerSecond / 1e6, samplesPerSecond / sampleRate, frames / seconds, load,
+				audioSamples / seconds, flushes));
+	}
+}
@@ -0,0 +1,294 @@
+package com.sdrtuner;
+
+/**
+ * Converts the 8 bit IQ packets of a source into float (or integer) samples, optionally mixed
+ * with a cosine (lookup tables or DspKernels).
+ *
+ * The DC offset and the IQ imbalance of the receiver are removed as part of the conversion:
+ * the coefficients of the IQCorrection are folded into the lookup tables (and into the bias and
+ * scale of DspKernels.convertBytes()), so the correction needs no extra pass over the samples.
+ * To make this possible the tables of I and Q are separate and hold interleaved pairs of values:
+ *
+ *     lookupTableI[2*i] = I'(i)    lookupTableI[2*i+1] = crossQ * I'(i)    lookupTableQ[q] = gainQ * Q'(q)
+ *     mixerLookupTableI[t][2*i]   = (cos - sin * crossQ) * I'(i)    mixerLookupTableQ[t][2*q]   = -sin * gainQ * Q'(q)
+ *     mixerLookupTableI[t][2*i+1] = (sin + cos * crossQ) * I'(i)    mixerLookupTableQ[t][2*q+1] =  cos * gainQ * Q'(q)
+ *
+ * with I'(i) = (i - bias - offsetI) / 128 and Q'(q) = (q - bias - offsetQ) / 128. A mixed sample
+ * is then re = rowI[2*i] + rowQ[2*q], im = rowI[2*i+1] + rowQ[2*q+1].
+ */
+public abstract class IQConverter {
+	protected long frequency = 0;						// Baseband frequency of the converted samples (is put into the SamplePacket)
+	protected int sampleRate = 0;						// Sample rate of the converted samples (is put into the SamplePacket)
+	protected final boolean unsigned;					// true if the bytes are unsigned
+	protected final float bias;							// byte value that corresponds to 0.0
+	protected float[] lookupTableI = null;				// Lookup table to transform I bytes into floats (see class comment)
+	protected float[] lookupTableQ = null;				// Lookup table to transform Q bytes into floats
+	protected float[][] mixerLookupTableI = null;		// Lookup table to transform I bytes into frequency shifted floats
+	protected float[][] mixerLookupTableQ = null;		// Lookup table to transform Q bytes into frequency shifted floats
+	protected int cosineFrequency;						// Frequency of the cosine that is mixed to the signal
+	protected int cosineIndex;							// current index within the cosine
+	protected static final int MAX_COSINE_LENGTH = 500;	// Max length of the cosine lookup table
+	public static final int INT_SAMPLE_SCALE = 1 << 15;	// integer value of 1.0 in the samples of mixPacketIntoIntSamples()
+	protected int[][] mixerIntLookupTableI = null;		// integer version of mixerLookupTableI (created on demand)
+	protected int[][] mixerIntLookupTableQ = null;		// integer version of mixerLookupTableQ (created on demand)
+	private int mixerTableVersion = 0;					// incremented whenever the content of the mixer tables changes
+	private int intTableVersion = -1;					// mixerTableVersion from which the integer tables were created
+	protected DspKernels kernels = DspKernels.getDefault();	// the lookup tables are only used by the scalar kernels
+	private float[] cosineTable = null;					// one dimensional mixer tables for the vector kernels (created on demand)
+	private float[] sineTable = null;
+	private int oscillatorVersion = 0;					// incremented whenever the frequency or length of the mixer tables changes
+	private int cosineTableVersion = -1;				// oscillatorVersion from which cosineTable and sineTable were created
+	private static final int MIN_MIXER_TABLE_LENGTH = 512;	// min length of cosineTable and sineTable
+
+	// IQ correction: the coefficients from which the tables were created. The mixer tables are
+	// only re-created if the coefficients moved by more than the tolerances (creating them costs
+	// about as much as converting a packet):
+	protected final IQCorrection correction = new IQCorrection();
+	protected float offsetI = 0, offsetQ = 0, gainQ = 1, crossQ = 0;	// of lookupTableI/Q and the kernels
+	private float mixerOffsetI = 0, mixerOffsetQ = 0, mixerGainQ = 1, mixerCrossQ = 0;	// of the mixer tables
+	private static final float OFFSET_TOLERANCE = 0.25f;		// in steps of the input bytes
+	private static final float COEFFICIENT_TOLERANCE = 0.002f;	// gainQ and crossQ (image at about -60 dB)
+
+	/**
+	 * Constructor.
+	 *
+	 * @param unsigned	true if the bytes are unsigned (0..255), false if they are signed (-128..127)
+	 * @param bias		byte value that corresponds to 0.0
+	 */
+	public IQConverter(boolean unsigned, float bias) {
+		this.unsigned = unsigned;
+		this.bias = bias;
+		generateLookupTable();
+	}
+
+	/**
+	 * @return the DC offset and IQ imbalance correction that is applied by this converter
+	 */
+	public IQCorrection getCorrection() {
+		return correction;
+	}
+
+	public long getFrequency() {
+		return frequency;
+	}
+
+	public void setFrequency(long frequency) {
+		this.frequency = frequency;
+	}
+
+	public int getSampleRate() {
+		return sampleRate;
+	}
+
+	public void setSampleRate(int sampleRate) {
+		if(this.sampleRate != sampleRate) {
+			this.sampleRate = sampleRate;
+			generateMixerLookupTable(cosineFrequency);
+		}
+	}
+
+	protected int calcOptimalCosineLength() {
+		// look for the best fitting array size to hold one or more full cosine cycles:
+		double cycleLength = sampleRate / Math.abs((double)cosineFrequency);
+		int bestLength = (int) cycleLength;
+		double bestLengthError = Math.abs(bestLength-cycleLength);
+		for (int i = 1; i*cycleLength < MAX_COSINE_LENGTH ; i++) {
+			if(Math.abs(i*cycleLength - (int)(i*cycleLength)) < bestLengthError) {
+				bestLength = (int)(i*cycleLength);
+				bestLengthError = Math.abs(bestLength - (i*cycleLength));
+			}
+		}
+		return bestLength;
+	}
+
+	public int fillPacketIntoSamplePacket(byte[] packet, SamplePacket samplePacket) {
+		return fillPacketIntoSamplePacket(packet, samplePacket, null);
+	}
+
+	/**
+	 * Same as fillPacketIntoSamplePacket() but multiplies each sample with the window function at
+	 * its position in the sample packet (window[samplePacket.size() + i]). This fuses the
+	 * windowing of an FFT into the conversion and saves the FFT a pass over its input.
+	 *
+	 * @param packet			packet that was returned by getPacket()
+	 * @param samplePacket		destination (samples are appended)
+	 * @param window			window function (at least samplePacket.capacity() values) or null
+	 * @return the number of samples appended to the sample packet
+	 */
+	public abstract int fillPacketIntoSamplePacket(byte[] packet, SamplePacket samplePacket, float[] window);
+
+	public abstract int mixPacketIntoSamplePacket(byte[] packet, SamplePacket samplePacket, long channelFrequency);
+
+	/**
+	 * Same as mixPacketIntoSamplePacket() but produces integer samples (scaled by INT_SAMPLE_SCALE)
+	 * for integer filters like the CicDecimator.
+	 *
+	 * @param packet			packet that was returned by getPacket()
+	 * @param re				destination array for the real parts (samples are written from index 0)
+	 * @param im				destination array for the imaginary parts
+	 * @param channelFrequency	frequency to which the spectrum of the signal should be shifted
+	 * @return the number of samples written to the arrays (limited by the length of the arrays)
+	 */
+	public abstract int mixPacketIntoIntSamples(byte[] packet, int[] re, int[] im, long channelFrequency);
+
+	/**
+	 * Will update the IQ correction with the packet and update the lookup tables if the
+	 * coefficients changed. Must be called once for every packet of the source (the sources do
+	 * it in getPacket(), on the thread that also converts the packets), not per conversion:
+	 * a packet is often converted more than once (fft, demodulation, zoom).
+	 *
+	 * @param packet	packet that was received from the device
+	 */
+	public void updateCorrection(byte[] packet) {
+		if(!correction.update(packet, unsigned, bias))
+			return;
+		offsetI = correction.getOffsetI();
+		offsetQ = correction.getOffsetQ();
+		gainQ = correction.getGainQ();
+		crossQ = correction.getCrossQ();
+		generateLookupTable();
+		if(mixerLookupTableI != null
+				&& (Math.abs(offsetI - mixerOffsetI) > OFFSET_TOLERANCE
+					|| Math.abs(offsetQ - mixerOffsetQ) > OFFSET_TOLERANCE
+					|| Math.abs(gainQ - mixerGainQ) > COEFFICIENT_TOLERANCE
+					|| Math.abs(crossQ - mixerCrossQ) > COEFFICIENT_TOLERANCE))
+			fillMixerLookupTable();		// (keeps the cosineIndex)
+	}
+
+	/**
+	 * @param index		index into the lookup tables
+	 * @return byte value that belongs to the index (0..255 for unsigned bytes, -128..127 for signed bytes)
+	 */
+	private int byteValue(int index) {
+		return unsigned ? index : index - 128;
+	}
+
+	/**
+	 * Will (re-)create lookupTableI and lookupTableQ with the current correction coefficients
+	 * (see class comment).
+	 */
+	protected void generateLookupTable() {
+		float[] tableI = new float[512];
+		float[] tableQ = new float[256];
+		for (int i = 0; i < 256; i++) {
+			float valueI = (byteValue(i) - bias - offsetI) / 128.0f;
+			tableI[2 * i] = valueI;
+			tableI[2 * i + 1] = crossQ * valueI;
+			tableQ[i] = gainQ * (byteValue(i) - bias - offsetQ) / 128.0f;
+		}
+		lookupTableI = tableI;
+		lookupTableQ = tableQ;
+	}
+
+	/**
+	 * Will create the mixer lookup tables for the given mix frequency (only if the frequency changed).
+	 *
+	 * @param mixFrequency	frequency of the cosine that is mixed to the signal
+	 */
+	protected void generateMixerLookupTable(int mixFrequency) {
+		// If mix frequency is too low, just add the sample rate (sampled spectrum is periodic):
+		if(mixFrequency == 0 || (sampleRate / Math.abs(mixFrequency) > MAX_COSINE_LENGTH))
+			mixFrequency += sampleRate;
+
+		// Only generate lookupTable if null or invalid:
+		if(mixerLookupTableI == null || mixFrequency != cosineFrequency) {
+			cosineFrequency = mixFrequency;
+			int bestLength = calcOptimalCosineLength();
+			mixerLookupTableI = new float[bestLength][512];
+			mixerLookupTableQ = new float[bestLength][512];
+			fillMixerLookupTable();
+			cosineIndex = 0;
+			oscillatorVersion++;
+		}
+	}
+
+	/**
+	 * Will fill the mixer lookup tables with the current cosine frequency and correction
+	 * coefficients (see class comment).
+	 */
+	private void fillMixerLookupTable() {
+		float cosineAtT;
+		float sineAtT;
+		for (int t = 0; t < mixerLookupTableI.length; t++) {
+			cosineAtT = (float) Math.cos(2 * Math.PI * cosineFrequency * t / (float) sampleRate);
+			sineAtT = (float) Math.sin(2 * Math.PI * cosineFrequency * t / (float) sampleRate);
+			float realI = cosineAtT - sineAtT * crossQ;
+			float imagI = sineAtT + cosineAtT * crossQ;
+			float[] rowI = mixerLookupTableI[t];
+			float[] rowQ = mixerLookupTableQ[t];
+			for (int i = 0; i < 256; i++) {
+				float valueI = (byteValue(i) - bias - offsetI) / 128.0f;
+				float valueQ = gainQ * (byteValue(i) - bias - offsetQ) / 128.0f;
+				rowI[2 * i] = realI * valueI;
+				rowI[2 * i + 1] = imagI * valueI;
+				rowQ[2 * i] = -sineAtT * valueQ;
+				rowQ[2 * i + 1] = cosineAtT * valueQ;
+			}
+		}
+		mixerOffsetI = offsetI;
+		mixerOffsetQ = offsetQ;
+		mixerGainQ = gainQ;
+		mixerCrossQ = crossQ;
+		mixerTableVersion++;
+	}
+
+	/**
+	 * Will (re-)create the integer mixer lookup tables from the float tables if necessary.
+	 * Must be called after generateMixerLookupTable().
+	 */
+	protected void generateIntMixerLookupTable() {
+		if(intTableVersion == mixerTableVersion)
+			return;		// float tables did not change
+		if(mixerIntLookupTableI == null || mixerIntLookupTableI.length != mixerLookupTableI.length) {
+			mixerIntLookupTableI = new int[mixerLookupTableI.length][512];
+			mixerIntLookupTableQ = new int[mixerLookupTableQ.length][512];
+		}
+		for (int t = 0; t < mixerLookupTableI.length; t++) {
+			for (int i = 0; i < 512; i++) {
+				mixerIntLookupTableI[t][i] = Math.round(mixerLookupTableI[t][i] * INT_SAMPLE_SCALE);
+				mixerIntLookupTableQ[t][i] = Math.round(mixerLookupTableQ[t][i] * INT_SAMPLE_SCALE);
+			}
+		}
+		intTableVersion = mixerTableVersion;
+	}
+
+	/**
+	 * Vector version of fillPacketIntoSamplePacket() and mixPacketIntoSamplePacket(): converts the
+	 * bytes (incl. the IQ correction) with DspKernels.convertBytes() and (if mix is true) mixes the
+	 * samples with the cosine of the current mixer lookup table. Must be called after
+	 * generateMixerLookupTable().
+	 *
+	 * @param packet			packet that was returned by getPacket()
+	 * @param samplePacket		destination (samples are appended)
+	 * @param mix				true to mix the samples (mixPacketIntoSamplePacket())
+	 * @param window			window function (indexed like the samples in the sample packet) or null
+	 * @return the number of samples appended to the sample packet
+	 */
+	protected int convertPacketWithKernels(byte[] packet, SamplePacket samplePacket, boolean mix, float[] window) {
+		int startIndex = samplePacket.size();
+		int count = Math.min(packet.length / 2, samplePacket.capacity() - startIndex);
+		float[] re = samplePacket.re();
+		float[] im = samplePacket.im();
+		kernels.convertBytes(packet, 0, re, im, startIndex, count, unsigned,
+				bias + offsetI, bias + offsetQ, 1 / 128.0f, gainQ / 128.0f, crossQ, window);
+		if(mix) {
+			if(cosineTableVersion != oscillatorVersion) {
+				// (re-)create the one dimensional tables with the period of the lookup tables. Short
+				// periods are repeated, so that the kernel can mix long segments with full vectors:
+				int period = mixerLookupTableI.length;
+				int length = period * ((MIN_MIXER_TABLE_LENGTH + period - 1) / period);
+				cosineTable = new float[length];
+				sineTable = new float[length];
+				for (int t = 0; t < length; t++) {
+					cosineTable[t] = (float) Math.cos(2 * Math.PI * cosineFrequency * (t % period) / (float) sampleRate);
+					sineTable[t] = (float) Math.sin(2 * Math.PI * cosineFrequency * (t % period) / (float) sampleRate);
+				}
+				cosineTableVersion = oscillatorVersion;
+			}
+			// (cosineIndex stays within the period, it is shared with the lookup tables)
+			cosineIndex = kernels.mix(re, im, startIndex, count, cosineTable, sineTable, cosineIndex) % mixerLookupTableI.length;
+		}
+		samplePacket.setSize(startIndex + count);
+		return count;
+	}
+}
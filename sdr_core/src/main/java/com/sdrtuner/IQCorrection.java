@@ -0,0 +1,255 @@
+package com.sdrtuner;
+
+import java.util.Locale;
+
+/**
+ * Estimates the DC offset and the gain and phase imbalance of the I and Q branches of a receiver
+ * (e.g. RTL-SDR). The DC offset shows up as a spike in the center of the spectrum and the
+ * imbalance as a mirror image of every signal (at -f for a signal at +f).
+ *
+ * The correction itself is done by the IQConverter as part of the conversion (the coefficients
+ * are folded into its lookup tables), so it adds no pass over the samples:
+ *
+ *     I' = I - offsetI
+ *     Q' = gainQ * (Q - offsetQ) + crossQ * I'
+ *
+ * The estimate is updated on one packet out of 'interval' (update()): the mean, the power and
+ * the cross power of I and Q of the packet are measured on the raw bytes and added to running
+ * estimates with a slow leakage. The DC offset is the mean. The imbalance is removed by making
+ * Q' uncorrelated with I' (phase) and giving it the same power (gain). This assumes that the
+ * band is circular on average (noise and many signals), which is true for a real receiver over
+ * seconds; a single strong signal biases the estimate until the leakage forgets it. A carrier
+ * that sits exactly at the center frequency for a long time is removed along with the DC offset.
+ *
+ * The DC offset of the tuner changes with the frequency and the gain, the imbalance hardly does.
+ * So the sources call resetOffset() on a retune or a gain change: only the DC offset is
+ * estimated from scratch and the imbalance estimate is kept. The first SETTLE_PACKETS packets
+ * after the reset are not measured (tuner settling and packets that were queued before the
+ * retune); the old offset stays in use until then.
+ *
+ * update() must only be called by one thread (the one that fetches and converts the packets);
+ * the getters may be called from any thread.
+ */
+public class IQCorrection {
+	public static final int DEFAULT_INTERVAL = 8;			// packets between two measurements
+	public static final float DEFAULT_LEAKAGE = 0.05f;		// weight of a new measurement in the running estimates
+	public static final int SETTLE_PACKETS = 4;				// packets after resetOffset() that are not measured
+
+	private volatile boolean enabled = true;
+	private volatile int interval = DEFAULT_INTERVAL;
+	private volatile float leakage = DEFAULT_LEAKAGE;
+	private volatile boolean offsetResetRequested = false;	// set by resetOffset(); handled by update()
+
+	// Running estimates (in units of the input bytes; converting thread only):
+	private int packetCount = 0;			// packets since the last measurement
+	private boolean initialized = false;	// false until the first measurement
+	private boolean offsetInitialized = false;	// false until the first measurement after resetOffset()
+	private double meanI = 0;				// DC offset of I
+	private double meanQ = 0;				// DC offset of Q
+	private double powerI = 0;				// power of I (without DC)
+	private double powerQ = 0;				// power of Q (without DC)
+	private double crossPower = 0;			// mean of I * Q (without DC)
+
+	// Current coefficients (see class comment):
+	private volatile float offsetI = 0;
+	private volatile float offsetQ = 0;
+	private volatile float gainQ = 1;
+	private volatile float crossQ = 0;
+	private volatile long updateCount = 0;	// number of times the coefficients changed
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * @param enabled	false to stop the correction (the coefficients are set to neutral values
+	 *                  with the next update())
+	 */
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public int getInterval() {
+		return interval;
+	}
+
+	/**
+	 * @param interval	measure one packet out of this many (the cost is 1 / interval of a pass over the bytes)
+	 */
+	public void setInterval(int interval) {
+		this.interval = Math.max(1, interval);
+	}
+
+	public float getLeakage() {
+		return leakage;
+	}
+
+	/**
+	 * @param leakage	weight (0..1) of a new measurement in the running estimates. The estimates
+	 *                  follow a change within about interval / leakage packets.
+	 */
+	public void setLeakage(float leakage) {
+		if(leakage <= 0 || leakage > 1)
+			throw new IllegalArgumentException("Leakage must be in (0..1]: " + leakage);
+		this.leakage = leakage;
+	}
+
+	/**
+	 * Will start the estimation of the DC offset from scratch (e.g. after a retune or a gain
+	 * change). The imbalance estimate is kept. The next SETTLE_PACKETS packets are skipped.
+	 */
+	public void resetOffset() {
+		offsetResetRequested = true;
+	}
+
+	/**
+	 * Will count the packet and measure it if it is the interval'th packet since the last
+	 * measurement. Called by the IQConverter once for every packet of the source (see
+	 * IQConverter.updateCorrection()).
+	 *
+	 * @param packet		interleaved 8 bit IQ samples
+	 * @param unsigned		true if the bytes are unsigned
+	 * @param bias			byte value that corresponds to 0.0
+	 * @return true if the coefficients changed (the lookup tables must be regenerated)
+	 */
+	public boolean update(byte[] packet, boolean unsigned, float bias) {
+		if(!enabled) {
+			initialized = false;
+			return setCoefficients(0, 0, 1, 0);
+		}
+		if(offsetResetRequested) {
+			offsetResetRequested = false;
+			offsetInitialized = false;
+			packetCount = interval - SETTLE_PACKETS - 1;	// measure the first packet after the settling
+		}
+		if(++packetCount < interval)
+			return false;
+		packetCount = 0;
+
+		// sums over the packet (integers are exact and fast):
+		int count = packet.length / 2;
+		if(count == 0)
+			return false;
+		long sumI = 0, sumQ = 0, sumII = 0, sumQQ = 0, sumIQ = 0;
+		int mask = unsigned ? 0xff : 0xffffffff;
+		for (int i = 0; i < packet.length - 1; i += 2) {
+			int valueI = packet[i] & mask;
+			int valueQ = packet[i + 1] & mask;
+			sumI += valueI;
+			sumQ += valueQ;
+			sumII += valueI * valueI;
+			sumQQ += valueQ * valueQ;
+			sumIQ += valueI * valueQ;
+		}
+		double packetMeanI = sumI / (double) count;
+		double packetMeanQ = sumQ / (double) count;
+		double packetPowerI = sumII / (double) count - packetMeanI * packetMeanI;
+		double packetPowerQ = sumQQ / (double) count - packetMeanQ * packetMeanQ;
+		double packetCrossPower = sumIQ / (double) count - packetMeanI * packetMeanQ;
+
+		double alpha = leakage;
+		if(!initialized || !offsetInitialized) {
+			meanI = packetMeanI;
+			meanQ = packetMeanQ;
+			offsetInitialized = true;
+		} else {
+			meanI += alpha * (packetMeanI - meanI);
+			meanQ += alpha * (packetMeanQ - meanQ);
+		}
+		// (the powers are measured around the mean of each packet, so they do not depend on the
+		// DC offset estimate):
+		if(!initialized) {
+			powerI = packetPowerI;
+			powerQ = packetPowerQ;
+			crossPower = packetCrossPower;
+			initialized = true;
+		} else {
+			powerI += alpha * (packetPowerI - powerI);
+			powerQ += alpha * (packetPowerQ - powerQ);
+			crossPower += alpha * (packetCrossPower - crossPower);
+		}
+
+		// Q + b * I is uncorrelated with I for b = -crossPower / powerI; its power is
+		// powerQ - crossPower^2 / powerI. gainQ scales it to the power of I:
+		float newGainQ = 1;
+		float newCrossQ = 0;
+		double orthogonalPowerQ = powerQ - crossPower * crossPower / powerI;
+		if(powerI > 0 && orthogonalPowerQ > 0) {
+			newGainQ = (float) Math.sqrt(powerI / orthogonalPowerQ);
+			newCrossQ = (float) (-newGainQ * crossPower / powerI);
+		}
+		return setCoefficients((float) meanI - bias, (float) meanQ - bias, newGainQ, newCrossQ);
+	}
+
+	/**
+	 * @return true if the coefficients changed
+	 */
+	private boolean setCoefficients(float offsetI, float offsetQ, float gainQ, float crossQ) {
+		if(offsetI == this.offsetI && offsetQ == this.offsetQ && gainQ == this.gainQ && crossQ == this.crossQ)
+			return false;
+		this.offsetI = offsetI;
+		this.offsetQ = offsetQ;
+		this.gainQ = gainQ;
+		this.crossQ = crossQ;
+		updateCount++;
+		return true;
+	}
+
+	/**
+	 * @return DC offset of I (in steps of the input bytes)
+	 */
+	public float getOffsetI() {
+		return offsetI;
+	}
+
+	/**
+	 * @return DC offset of Q (in steps of the input bytes)
+	 */
+	public float getOffsetQ() {
+		return offsetQ;
+	}
+
+	/**
+	 * @return gain that is applied to Q (1: no correction)
+	 */
+	public float getGainQ() {
+		return gainQ;
+	}
+
+	/**
+	 * @return part of I that is added to Q (0: no correction)
+	 */
+	public float getCrossQ() {
+		return crossQ;
+	}
+
+	/**
+	 * @return estimated gain imbalance of Q relative to I (dB)
+	 */
+	public float getGainImbalance() {
+		// Q = g * (Q0 * cos(phi) + I0 * sin(phi)) is corrected by gainQ = 1 / (g * cos(phi)) and
+		// crossQ = -tan(phi), so g = sqrt(1 + crossQ^2) / gainQ:
+		float crossQ = this.crossQ;
+		return (float) (20 * Math.log10(Math.sqrt(1 + crossQ * crossQ) / gainQ));
+	}
+
+	/**
+	 * @return estimated phase error of Q (degrees)
+	 */
+	public float getPhaseError() {
+		return (float) Math.toDegrees(Math.atan(-crossQ));
+	}
+
+	/**
+	 * @return number of times the coefficients changed
+	 */
+	public long getUpdateCount() {
+		return updateCount;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(Locale.US, "DC offset I %+.2f Q %+.2f, gain imbalance %+.2f dB, phase error %+.2f deg (%d updates)",
+				offsetI, offsetQ, getGainImbalance(), getPhaseError(), updateCount);
+	}
+}
@@ -1,7 +1,5 @@
 package com.sdrtuner;
 
-import android.content.Context;
-
 public interface IQSourceInterface {
 
 	/**
@@ -9,11 +7,12 @@ public interface IQSourceInterface {
 	 * callback function onIQSourceReady() from the Callback interface to notify the application
 	 * when the IQSource is ready to use.
 	 *
-	 * @param context		needed to open external devices
+	 * @param context		needed to open external devices (android.content.Context on Android; may be
+	 *						null for sources that don't access hardware)
 	 * @param callback		reference to a class that implements the Callback interface for notification
 	 * @return false if an error occurred.
 	 */
-	public boolean open(Context context, Callback callback);
+	public boolean open(Object context, Callback callback);
 
 	/**
 	 * Will return true if the source is opened and ready to use
@@ -101,6 +100,7 @@ public interface IQSourceInterface {
 	 * This method will grab the next packet from the source and return it. If no
 	 * packet is available after the timeout, null is returned. Make sure to return
 	 * the packet to the buffer pool by using returnPacket() after it is no longer used.
+	 * The IQ correction (getIQCorrection()) is updated once with every returned packet.
 	 *
 	 * @return packet containing received samples
 	 */
@@ -114,6 +114,27 @@ public interface IQSourceInterface {
 	 */
 	public void returnPacket(byte[] buffer);
 
+	/**
+	 * Returns the position of a packet in the sample stream. The samples are counted from
+	 * startSampling(); samples that the source had to drop (e.g. because no buffer was returned
+	 * in time) are counted as well, so a jump of the index between two packets is a loss.
+	 *
+	 * @param packet	A packet that was returned by getPacket()
+	 * @return index of the first sample of the packet or -1 if unknown
+	 */
+	public long getSampleIndex(byte[] packet);
+
+	/**
+	 * @param packet	A packet that was returned by getPacket()
+	 * @return System.nanoTime() at which the first sample of the packet was received (0 if unknown)
+	 */
+	public long getTimestamp(byte[] packet);
+
+	/**
+	 * @return number of samples that the source had to drop since startSampling()
+	 */
+	public long getDroppedSamples();
+
 	/**
 	 * Start receiving samples.
 	 */
@@ -137,6 +158,18 @@ public interface IQSourceInterface {
 	 */
 	public int fillPacketIntoSamplePacket(byte[] packet, SamplePacket samplePacket);
 
+	/**
+	 * Same as fillPacketIntoSamplePacket() but each sample is multiplied with the window function
+	 * at its position in the samplePacket (window[samplePacket.size() + i]) during the conversion.
+	 * Used to fill the input of an FFT without a separate windowing pass.
+	 *
+	 * @param packet		packet that was returned by getPacket()
+	 * @param samplePacket	SamplePacket that should be filled with samples from the packet.
+	 * @param window		window function (at least samplePacket.capacity() values) or null
+	 * @return the number of samples filled into the samplePacket.
+	 */
+	public int fillPacketIntoSamplePacket(byte[] packet, SamplePacket samplePacket, float[] window);
+
 	/**
 	 * Used to convert a packet from this source to the SamplePacket format while at the same
 	 * time mixing the signal with the specified frequency. That means the samples
@@ -152,6 +185,25 @@ public interface IQSourceInterface {
 	 */
 	public int mixPacketIntoSamplePacket(byte[] packet, SamplePacket samplePacket, long channelFrequency);
 
+	/**
+	 * Same as mixPacketIntoSamplePacket() but the samples are stored as integers (1.0 is
+	 * IQConverter.INT_SAMPLE_SCALE) starting at index 0. Used for the integer pre-decimation
+	 * (CicDecimator) of high sample rates.
+	 *
+	 * @param packet			packet that was returned by getPacket()
+	 * @param re				destination array for the real parts
+	 * @param im				destination array for the imaginary parts
+	 * @param channelFrequency	frequency to which the spectrum of the signal should be shifted
+	 * @return the number of samples written to the arrays
+	 */
+	public int mixPacketIntoIntSamples(byte[] packet, int[] re, int[] im, long channelFrequency);
+
+	/**
+	 * @return the DC offset and IQ imbalance correction that is applied by fillPacketIntoSamplePacket(),
+	 *         mixPacketIntoSamplePacket() and mixPacketIntoIntSamples() (it is estimated in getPacket())
+	 */
+	public IQCorrection getIQCorrection();
+
 	/**
 	 * Callback interface for asynchronous interactions with the source.
 	 */
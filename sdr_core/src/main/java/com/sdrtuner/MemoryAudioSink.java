@@ -0,0 +1,54 @@
+package com.sdrtuner;
+
+/**
+ * Audio sink that keeps the samples in memory (e.g. to compare the output of the demodulators).
+ * Samples that exceed the capacity are discarded.
+ */
+public class MemoryAudioSink extends AudioSink {
+	private final short[] buffer;	// stored samples
+	private int size = 0;			// number of valid samples in buffer (guarded by 'this')
+
+	/**
+	 * @param packetSize	size of the incoming packets
+	 * @param sampleRate	sample rate of the audio signal
+	 * @param capacity		max. number of samples that are stored
+	 */
+	public MemoryAudioSink(int packetSize, int sampleRate, int capacity) {
+		super(packetSize, sampleRate);
+		this.buffer = new short[capacity];
+	}
+
+	/**
+	 * @return copy of the samples that were stored so far
+	 */
+	public synchronized short[] getSamples() {
+		short[] samples = new short[size];
+		System.arraycopy(buffer, 0, samples, 0, size);
+		return samples;
+	}
+
+	/**
+	 * @return number of samples that were stored so far
+	 */
+	public synchronized int getSize() {
+		return size;
+	}
+
+	@Override
+	protected void startOutput() {
+		// nothing to do here...
+	}
+
+	@Override
+	protected synchronized boolean writeSamples(short[] samples, int count) {
+		int length = Math.min(count, buffer.length - size);
+		System.arraycopy(samples, 0, buffer, size, length);
+		size += length;
+		return true;
+	}
+
+	@Override
+	protected void stopOutput() {
+		// nothing to do here...
+	}
+}
@@ -0,0 +1,172 @@
+package com.sdrtuner;
+
+/**
+ * Tracks the noise floor of every bin of the (averaged) spectrum stream.
+ *
+ * Each bin keeps one value: a streaming estimate of a low percentile of its magnitude over time.
+ * On every frame the estimate moves towards the new magnitude, up by rate * percentile and down
+ * by rate * (1 - percentile) dB per second, but never beyond the magnitude itself. In steady
+ * state it rests where the magnitude is above it (1 - percentile) of the time, i.e. at the
+ * percentile. Signals that are present less than (1 - percentile) of the time (voice channels,
+ * bursts) therefore do not lift the noise floor of their bins, while a change of the gain, the
+ * fft size or the averaging (which shifts the whole dB scale) is followed within seconds.
+ *
+ * If almost all bins are above their estimate at once, the whole scale was shifted (e.g. the
+ * gain was raised) and the estimates are set to the current frame instead of rising slowly.
+ * A new frequency, sample rate or fft size starts the estimation from scratch.
+ *
+ * The cost per frame is a compare and an add per bin; process() does not allocate any memory
+ * after the first frame. process() must only be called by one thread (the processing loop); the
+ * getters may be called from any thread.
+ *
+ * Note: All dB values use the scale of AnalyzerProcessingLoop (10*log10(sqrt(power))).
+ */
+public class NoiseFloorEstimator {
+	private static final float SHIFT_RATIO = 0.98f;		// ratio of bins above their estimate that indicates a shift of the scale
+	private static final long MAX_FRAME_TIME = 1000;	// longer pauses between frames are limited to this time (ms)
+	private static final float RANGE_ORDER = 0.25f;		// percentile of the bins of a range that is taken as its noise floor
+
+	private float percentile = 0.2f;	// tracked percentile of the magnitude of each bin
+	private float rate = 20f;			// speed of the estimate (dB per second; up: rate * percentile)
+
+	// State of the estimation (guarded by 'this'):
+	private float[] floor = null;		// estimated noise floor for each bin (dB); null until the first frame
+	private long frequency = 0;			// center frequency of the estimated spectrum
+	private int sampleRate = 0;			// sample rate of the estimated spectrum
+	private long lastTimestamp = 0;		// timestamp (ms) of the last frame
+	private long resetCount = 0;		// number of times the estimation was started from scratch
+	private float[] scratch = null;		// copy of the bins of a range for quickselect
+
+	public float getPercentile() {
+		return percentile;
+	}
+
+	/**
+	 * @param percentile	percentile of the magnitude of each bin that is tracked as noise floor (0..1, default 0.2).
+	 *                      Signals that occupy a bin for more than (1 - percentile) of the time lift its noise floor.
+	 */
+	public void setPercentile(float percentile) {
+		if(percentile <= 0 || percentile >= 1)
+			throw new IllegalArgumentException("Percentile must be between 0 and 1: " + percentile);
+		this.percentile = percentile;
+	}
+
+	public float getRate() {
+		return rate;
+	}
+
+	/**
+	 * @param rate		speed (dB per second) of the estimate. It rises by rate * percentile and falls by
+	 *                  rate * (1 - percentile) dB per second.
+	 */
+	public void setRate(float rate) {
+		this.rate = rate;
+	}
+
+	/**
+	 * Will update the noise floor with the given spectrum.
+	 *
+	 * @param mag			magnitudes (in dB) of the spectrum (centered)
+	 * @param frequency		center frequency of the spectrum
+	 * @param sampleRate	sample rate of the spectrum
+	 * @param timestamp		current time (ms)
+	 */
+	public synchronized void process(float[] mag, long frequency, int sampleRate, long timestamp) {
+		int size = mag.length;
+		if(floor == null || floor.length != size || frequency != this.frequency || sampleRate != this.sampleRate) {
+			if(floor == null || floor.length != size)
+				floor = new float[size];
+			this.frequency = frequency;
+			this.sampleRate = sampleRate;
+			seed(mag, timestamp);
+			return;
+		}
+
+		float seconds = Math.max(0, Math.min(timestamp - lastTimestamp, MAX_FRAME_TIME)) / 1000f;
+		float up = rate * percentile * seconds;
+		float down = rate * (1 - percentile) * seconds;
+		int above = 0;
+		for (int i = 0; i < size; i++) {
+			float value = mag[i];
+			float estimate = floor[i];
+			if(value > estimate) {
+				// (a bin without power (e.g. zeros from a file) has an estimate of -Infinity)
+				floor[i] = estimate > Float.NEGATIVE_INFINITY ? Math.min(value, estimate + up) : value;
+				above++;
+			} else if(value < estimate)
+				floor[i] = Math.max(value, estimate - down);
+		}
+		lastTimestamp = timestamp;
+
+		// the whole scale moved up (e.g. gain or averaging changed): don't wait for the slow rise
+		if(above > size * SHIFT_RATIO)
+			seed(mag, timestamp);
+	}
+
+	/**
+	 * Will return the noise floor around a channel: the lower quartile of the estimates of all bins
+	 * in the given frequency range (the lowest estimate would be biased by the spread of the bins).
+	 * The range should be wider than the channel itself so that the bins of a signal that is present
+	 * all the time (and has lifted their estimate) do not hide the noise.
+	 *
+	 * @param startFrequency	lower end of the range (Hz)
+	 * @param endFrequency		upper end of the range (Hz)
+	 * @return noise floor (dB) or NaN if no spectrum of this range was processed yet
+	 */
+	public synchronized float getNoiseFloor(long startFrequency, long endFrequency) {
+		if(floor == null)
+			return Float.NaN;
+		double binsPerHz = floor.length / (double) sampleRate;
+		long spectrumStart = frequency - sampleRate / 2;
+		int start = Math.max(0, (int) Math.floor((startFrequency - spectrumStart) * binsPerHz));
+		int end = Math.min(floor.length, (int) Math.ceil((endFrequency - spectrumStart) * binsPerHz));
+		if(start >= end)
+			return Float.NaN;
+		int length = end - start;
+		if(scratch == null || scratch.length < length)
+			scratch = new float[length];
+		System.arraycopy(floor, start, scratch, 0, length);
+		return SignalDetector.select(scratch, length, (int) (length * RANGE_ORDER));
+	}
+
+	/**
+	 * Will copy the noise floor of all bins into the given array
+	 *
+	 * @param out	output array (should have the size of the spectrum)
+	 * @return number of bins copied into out (0 if no spectrum was processed yet)
+	 */
+	public synchronized int getNoiseFloor(float[] out) {
+		if(floor == null)
+			return 0;
+		int count = Math.min(floor.length, out.length);
+		System.arraycopy(floor, 0, out, 0, count);
+		return count;
+	}
+
+	/**
+	 * @return number of times the estimation was started from scratch (new frequency, sample
+	 *         rate or fft size, reset() or a shift of the whole scale)
+	 */
+	public synchronized long getResetCount() {
+		return resetCount;
+	}
+
+	/**
+	 * Will start the estimation from scratch with the next frame
+	 */
+	public synchronized void reset() {
+		floor = null;
+	}
+
+	/**
+	 * Will set the estimate of every bin to the given spectrum. Must be called with the lock held.
+	 *
+	 * @param mag			magnitudes (in dB) of the spectrum
+	 * @param timestamp		current time (ms)
+	 */
+	private void seed(float[] mag, long timestamp) {
+		System.arraycopy(mag, 0, floor, 0, floor.length);
+		lastTimestamp = timestamp;
+		resetCount++;
+	}
+}
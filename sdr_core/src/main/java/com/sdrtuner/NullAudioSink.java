@@ -0,0 +1,78 @@
+package com.sdrtuner;
+
+/**
+ * Audio sink that discards all samples. Used to measure the throughput of the demodulation chain.
+ *
+ * In adaptive mode the sink emulates an audio device: writeSamples() blocks according to a clock
+ * that runs at the output rate (plus a configurable error), so the jitter buffer and the rate
+ * control of the AudioSink can be tested without hardware.
+ */
+public class NullAudioSink extends AudioSink {
+	private static final int DEVICE_BUFFER = 20;	// emulated buffer of the device (ms)
+	private double deviceRate = 0;		// sample rate of the emulated device clock (0: don't emulate a device)
+	private long startTime = 0;			// System.nanoTime() at the start of the output
+	private long deviceSamples = 0;		// number of samples written to the emulated device
+
+	/**
+	 * @param packetSize	size of the incoming packets
+	 * @param sampleRate	sample rate of the audio signal
+	 */
+	public NullAudioSink(int packetSize, int sampleRate) {
+		super(packetSize, sampleRate);
+	}
+
+	/**
+	 * Constructor for the adaptive mode (emulates an audio device)
+	 *
+	 * @param packetSize		size of the incoming packets
+	 * @param audioRate			sample rate of the demodulated audio
+	 * @param outputRate		nominal sample rate of the emulated device
+	 * @param targetLatency		target fill level of the jitter buffer (ms)
+	 * @param clockError		error of the emulated device clock (ppm)
+	 */
+	public NullAudioSink(int packetSize, int audioRate, int outputRate, int targetLatency, double clockError) {
+		super(packetSize, audioRate, outputRate, targetLatency);
+		this.deviceRate = outputRate * (1 + clockError / 1e6);
+	}
+
+	@Override
+	protected void startOutput() {
+		startTime = System.nanoTime();
+		deviceSamples = 0;
+	}
+
+	@Override
+	protected boolean writeSamples(short[] samples, int count) {
+		if(deviceRate == 0)
+			return true;
+
+		// if the emulated device ran empty, it starts again with the new samples:
+		long now = System.nanoTime();
+		if(startTime + (long) (deviceSamples * 1e9 / deviceRate) < now) {
+			startTime = now;
+			deviceSamples = 0;
+		}
+
+		// block until the emulated device has room for the samples:
+		deviceSamples += count;
+		long sleep = startTime + (long) (deviceSamples * 1e9 / deviceRate) - DEVICE_BUFFER * 1000000l - now;
+		if(sleep > 0) {
+			try {
+				Thread.sleep(sleep / 1000000, (int) (sleep % 1000000));
+			} catch (InterruptedException e) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	protected void stopOutput() {
+		// nothing to do here...
+	}
+
+	@Override
+	protected float getDeviceLatency() {
+		return deviceRate == 0 ? 0 : DEVICE_BUFFER;
+	}
+}
@@ -0,0 +1,635 @@
+package com.sdrtuner;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Long-term band occupancy logger.
+ *
+ * Each spectrum frame is reduced to a fixed number of channels (maximum of the bins in each
+ * channel, so narrow carriers are not averaged away) and accumulated into 1 second buckets
+ * (min / mean / max per channel). The mean is taken in the linear power domain (like the
+ * SpectrumAverager) and converted back to dB when the record is written, so short bursts are
+ * not understated. This is the only work done on the calling (DSP) thread.
+ * Finished buckets are handed to this thread (writer) through a queue of preallocated buckets.
+ * The writer appends them to the 1 s tier and aggregates them into the 1 min and 1 h tiers.
+ *
+ * Storage format (per tier): append-only segment files named <tier>_<start timestamp>.occ.
+ * Each segment starts with a header (magic, version, channels, tier, bucket duration) followed
+ * by fixed size records:
+ *   long timestamp (start of the bucket, ms), long frequency, int sampleRate, int frame count,
+ *   channels x byte min, channels x byte mean, channels x byte max
+ * dB values are quantized to DB_STEP steps starting at DB_MIN (one unsigned byte each).
+ * A segment holds a fixed number of records; the oldest segments of a tier are deleted when the
+ * tier has more than its maximum number of segments. So the storage size is bounded.
+ *
+ * Because records are fixed size and sorted by time, range queries use a binary search in
+ * each segment. Writes are buffered and flushed every FLUSH_INTERVAL ms (or before a query).
+ */
+public class OccupancyLogger extends Thread {
+	private static final String LOGTAG = "OccupancyLogger";
+	public static final int TIER_SECOND = 0;
+	public static final int TIER_MINUTE = 1;
+	public static final int TIER_HOUR = 2;
+	public static final long[] TIER_DURATION = {1000l, 60000l, 3600000l};		// bucket duration of each tier (ms)
+	private static final String[] TIER_NAMES = {"1s", "1min", "1h"};
+	private static final int[] RECORDS_PER_SEGMENT = {3600, 1440, 720};		// 1 hour, 1 day, 30 days
+	private static final int[] MAX_SEGMENTS = {6, 31, 24};					// 6 hours, 1 month, 2 years
+	private static final int MAGIC = 0x4F434331;	// "OCC1"
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 20;
+	public static final float DB_MIN = -120f;		// dB value of the quantized value 0
+	public static final float DB_STEP = 0.5f;		// dB per quantization step
+	private static final long FLUSH_INTERVAL = 10000;	// ms between two flushes of the files
+	private static final int QUEUE_SIZE = 4;			// number of 1 s buckets between DSP thread and writer
+
+	private File directory;						// directory for the segment files
+	private int channels;						// number of channels per record
+	private volatile boolean stopRequested = true;
+	private volatile long droppedBuckets = 0;	// buckets that were dropped because the writer was too slow
+
+	// DSP thread side:
+	private float[] channelPower;				// scratch buffer for the reduced frame
+	private Bucket currentBucket = null;		// 1 s bucket that is currently filled
+	private ArrayBlockingQueue<Bucket> emptyQueue;	// pool of free 1 s buckets
+	private ArrayBlockingQueue<Bucket> fullQueue;	// finished 1 s buckets for the writer
+
+	// Writer side:
+	private TierWriter[] writers = new TierWriter[3];
+	private Bucket[] aggregates = new Bucket[3];	// buckets of the minute and hour tiers (index 0 unused)
+
+	/**
+	 * One record of the occupancy log (decoded)
+	 */
+	public static class Record {
+		public long timestamp;		// start of the bucket (ms)
+		public long duration;		// duration of the bucket (ms)
+		public long frequency;		// center frequency
+		public int sampleRate;		// sample rate (span of all channels)
+		public int count;			// number of spectrum frames in the bucket
+		public float[] min;			// minimum per channel (dB)
+		public float[] mean;		// mean of the linear power per channel (in dB)
+		public float[] max;			// maximum per channel (dB)
+	}
+
+	/**
+	 * Accumulates the statistics of one time bucket
+	 */
+	private static class Bucket {
+		long timestamp;
+		long frequency;
+		int sampleRate;
+		int count;
+		float[] min;
+		double[] sum;		// sum of the linear power (see toPower())
+		float[] max;
+
+		Bucket(int channels) {
+			min = new float[channels];
+			sum = new double[channels];
+			max = new float[channels];
+		}
+
+		void reset(long timestamp, long frequency, int sampleRate) {
+			this.timestamp = timestamp;
+			this.frequency = frequency;
+			this.sampleRate = sampleRate;
+			this.count = 0;
+			Arrays.fill(min, Float.MAX_VALUE);
+			Arrays.fill(sum, 0);
+			Arrays.fill(max, -Float.MAX_VALUE);
+		}
+
+		void add(float[] values) {
+			for (int i = 0; i < values.length; i++) {
+				float v = values[i];
+				if(v < min[i]) min[i] = v;
+				if(v > max[i]) max[i] = v;
+				sum[i] += toPower(v);
+			}
+			count++;
+		}
+
+		void merge(Bucket other) {
+			for (int i = 0; i < min.length; i++) {
+				if(other.min[i] < min[i]) min[i] = other.min[i];
+				if(other.max[i] > max[i]) max[i] = other.max[i];
+				sum[i] += other.sum[i];
+			}
+			count += other.count;
+		}
+
+		boolean isCompatible(long timestamp, long duration, long frequency, int sampleRate) {
+			return this.timestamp == timestamp - timestamp % duration
+					&& this.frequency == frequency && this.sampleRate == sampleRate;
+		}
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param directory		directory for the log files (will be created)
+	 * @param channels		number of channels per record (bins are grouped into channels)
+	 */
+	public OccupancyLogger(File directory, int channels) {
+		this.directory = directory;
+		this.channels = channels;
+		this.channelPower = new float[channels];
+		this.emptyQueue = new ArrayBlockingQueue<Bucket>(QUEUE_SIZE);
+		this.fullQueue = new ArrayBlockingQueue<Bucket>(QUEUE_SIZE);
+		for (int i = 0; i < QUEUE_SIZE; i++)
+			emptyQueue.offer(new Bucket(channels));
+		for (int tier = 0; tier < writers.length; tier++) {
+			writers[tier] = new TierWriter(tier);
+			aggregates[tier] = new Bucket(channels);
+		}
+	}
+
+	public int getChannels() {
+		return channels;
+	}
+
+	/**
+	 * @return number of 1 s buckets that were dropped because the writer was too slow
+	 */
+	public long getDroppedBuckets() {
+		return droppedBuckets;
+	}
+
+	@Override
+	public void start() {
+		this.stopRequested = false;
+		super.start();
+	}
+
+	public void stopLogger() {
+		this.stopRequested = true;
+	}
+
+	/**
+	 * @return true if the logger is running; false if not.
+	 */
+	public boolean isRunning() {
+		return !stopRequested;
+	}
+
+	/**
+	 * Will add one spectrum frame to the current 1 s bucket. Must only be called by one thread
+	 * (the processing loop). Does not allocate memory and does no I/O. Synchronized with
+	 * takeCurrentBucket(), which hands the partial bucket to the writer when the logger stops.
+	 *
+	 * @param mag			magnitudes (in dB) of the spectrum (centered)
+	 * @param frequency		center frequency of the spectrum
+	 * @param sampleRate	sample rate of the spectrum
+	 * @param timestamp		current time (ms since epoch)
+	 */
+	public synchronized void addFrame(float[] mag, long frequency, int sampleRate, long timestamp) {
+		if(stopRequested)
+			return;
+
+		// start a new bucket if the second or the tuning changed:
+		if(currentBucket != null && !currentBucket.isCompatible(timestamp, TIER_DURATION[TIER_SECOND], frequency, sampleRate)) {
+			if(!fullQueue.offer(currentBucket)) {
+				droppedBuckets++;
+				emptyQueue.offer(currentBucket);
+			}
+			currentBucket = null;
+		}
+		if(currentBucket == null) {
+			currentBucket = emptyQueue.poll();
+			if(currentBucket == null) {
+				droppedBuckets++;
+				return;		// writer is too slow. drop this frame
+			}
+			currentBucket.reset(timestamp - timestamp % TIER_DURATION[TIER_SECOND], frequency, sampleRate);
+		}
+
+		// reduce the bins to channels (maximum):
+		int bins = mag.length;
+		for (int c = 0; c < channels; c++) {
+			int from = (int) ((long) c * bins / channels);
+			int to = Math.max(from + 1, (int) ((long) (c + 1) * bins / channels));
+			float max = mag[from];
+			for (int i = from + 1; i < to; i++)
+				if(mag[i] > max) max = mag[i];
+			channelPower[c] = max;
+		}
+		currentBucket.add(channelPower);
+	}
+
+	@Override
+	public void run() {
+		DspLog.i(LOGTAG, "Occupancy logger started. (Thread: " + this.getName() + ")");
+		directory.mkdirs();
+		long lastFlush = System.currentTimeMillis();
+
+		while(!stopRequested) {
+			Bucket bucket;
+			try {
+				bucket = fullQueue.poll(1000, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				DspLog.e(LOGTAG, "run: Interrupted while polling from the queue. stop.");
+				break;
+			}
+			if(bucket != null) {
+				writeBucket(bucket);
+				emptyQueue.offer(bucket);
+			}
+
+			if(System.currentTimeMillis() - lastFlush > FLUSH_INTERVAL) {
+				for (TierWriter writer : writers)
+					writer.flush();
+				lastFlush = System.currentTimeMillis();
+			}
+		}
+		this.stopRequested = true;
+
+		// write the remaining buckets and the partial bucket of the last second:
+		Bucket bucket;
+		while((bucket = fullQueue.poll()) != null)
+			writeBucket(bucket);
+		bucket = takeCurrentBucket();
+		if(bucket != null)
+			writeBucket(bucket);
+		for (int tier = TIER_MINUTE; tier <= TIER_HOUR; tier++) {
+			if(aggregates[tier].count > 0) {
+				writers[tier].write(aggregates[tier]);
+				if(tier < TIER_HOUR)
+					aggregate(tier + 1, aggregates[tier]);
+				aggregates[tier].count = 0;
+			}
+		}
+		for (TierWriter writer : writers)
+			writer.close();
+		DspLog.i(LOGTAG, "Occupancy logger stopped. (Thread: " + this.getName() + ")");
+	}
+
+	/**
+	 * Will remove the bucket that is currently filled by addFrame() (writer thread, after the
+	 * logger was stopped; addFrame() does not start a new bucket once stopRequested is set).
+	 *
+	 * @return the partial bucket or null if there is none (or it is empty)
+	 */
+	private synchronized Bucket takeCurrentBucket() {
+		Bucket bucket = currentBucket;
+		currentBucket = null;
+		return bucket != null && bucket.count > 0 ? bucket : null;
+	}
+
+	/**
+	 * Will write a 1 s bucket and aggregate it into the higher tiers (writer thread)
+	 *
+	 * @param bucket	finished 1 s bucket
+	 */
+	private void writeBucket(Bucket bucket) {
+		writers[TIER_SECOND].write(bucket);
+		aggregate(TIER_MINUTE, bucket);
+	}
+
+	/**
+	 * Will add the bucket to the aggregate of the given tier. If the aggregate does not fit
+	 * (new time bucket or different tuning), it is written and passed on to the next tier first.
+	 *
+	 * @param tier		TIER_MINUTE or TIER_HOUR
+	 * @param bucket	bucket of the tier below
+	 */
+	private void aggregate(int tier, Bucket bucket) {
+		Bucket aggregate = aggregates[tier];
+		long duration = TIER_DURATION[tier];
+		if(aggregate.count > 0 && !aggregate.isCompatible(bucket.timestamp, duration, bucket.frequency, bucket.sampleRate)) {
+			writers[tier].write(aggregate);
+			if(tier < TIER_HOUR)
+				aggregate(tier + 1, aggregate);
+			aggregate.count = 0;
+		}
+		if(aggregate.count == 0)
+			aggregate.reset(bucket.timestamp - bucket.timestamp % duration, bucket.frequency, bucket.sampleRate);
+		aggregate.merge(bucket);
+	}
+
+	/**
+	 * Will select the finest tier that has at most maxRecords records in the given time range
+	 *
+	 * @param from			start of the range (ms)
+	 * @param to			end of the range (ms)
+	 * @param maxRecords	maximum number of records (e.g. pixels of the chart)
+	 * @return TIER_SECOND, TIER_MINUTE or TIER_HOUR
+	 */
+	public static int chooseTier(long from, long to, int maxRecords) {
+		for (int tier = TIER_SECOND; tier < TIER_HOUR; tier++) {
+			if((to - from) / TIER_DURATION[tier] <= maxRecords)
+				return tier;
+		}
+		return TIER_HOUR;
+	}
+
+	/**
+	 * Will read all records of the tier whose bucket starts in the given time range. Can be
+	 * called from any thread.
+	 *
+	 * @param tier		TIER_SECOND, TIER_MINUTE or TIER_HOUR
+	 * @param from		start of the range (ms, inclusive)
+	 * @param to		end of the range (ms, exclusive)
+	 * @return records sorted by time
+	 */
+	public List<Record> query(int tier, long from, long to) {
+		TierWriter writer = writers[tier];
+		writer.flush();
+		List<Record> result = new ArrayList<Record>();
+		for (File segment : writer.listSegments()) {
+			if(segmentStart(segment) >= to)
+				break;
+			try {
+				readSegment(segment, tier, from, to, result);
+			} catch (IOException e) {
+				DspLog.e(LOGTAG, "query: Error while reading " + segment.getName() + ": " + e.getMessage());
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Will append all records of the segment in [from, to) to the result list
+	 */
+	private void readSegment(File segment, int tier, long from, long to, List<Record> result) throws IOException {
+		int recordSize = recordSize();
+		RandomAccessFile file = new RandomAccessFile(segment, "r");
+		try {
+			if(file.length() < HEADER_SIZE || file.readInt() != MAGIC)
+				return;
+			file.readInt();		// version
+			if(file.readInt() != channels)
+				return;			// written with a different configuration
+			long records = (file.length() - HEADER_SIZE) / recordSize;
+
+			// binary search for the first record >= from:
+			long low = 0;
+			long high = records;
+			while(low < high) {
+				long mid = (low + high) >>> 1;
+				file.seek(HEADER_SIZE + mid * recordSize);
+				if(file.readLong() < from)
+					low = mid + 1;
+				else
+					high = mid;
+			}
+
+			byte[] data = new byte[recordSize];
+			for (long i = low; i < records; i++) {
+				file.seek(HEADER_SIZE + i * recordSize);
+				file.readFully(data);
+				Record record = decode(data, tier);
+				if(record.timestamp >= to)
+					break;
+				result.add(record);
+			}
+		} finally {
+			file.close();
+		}
+	}
+
+	private int recordSize() {
+		return 8 + 8 + 4 + 4 + 3 * channels;
+	}
+
+	private static long segmentStart(File segment) {
+		String name = segment.getName();
+		try {
+			return Long.parseLong(name.substring(name.indexOf('_') + 1, name.lastIndexOf('.')));
+		} catch (NumberFormatException e) {
+			return Long.MAX_VALUE;
+		}
+	}
+
+	private static int quantize(double dB) {
+		int q = (int) Math.round((dB - DB_MIN) / DB_STEP);
+		return q < 0 ? 0 : (q > 255 ? 255 : q);
+	}
+
+	private static float dequantize(byte q) {
+		return DB_MIN + (q & 0xff) * DB_STEP;
+	}
+
+	/**
+	 * Will convert a magnitude of the analyzer scale (10*log10(sqrt(power)), see
+	 * AnalyzerProcessingLoop) to linear power
+	 */
+	private static double toPower(float dB) {
+		return Math.pow(10, dB / 5);
+	}
+
+	/**
+	 * Will convert linear power back to the analyzer scale (inverse of toPower())
+	 */
+	private static double toDecibel(double power) {
+		return 5 * Math.log10(power);
+	}
+
+	/**
+	 * Will encode the bucket into the given array (record layout)
+	 */
+	private void encode(Bucket bucket, byte[] data) {
+		int pos = 0;
+		pos = putLong(data, pos, bucket.timestamp);
+		pos = putLong(data, pos, bucket.frequency);
+		pos = putInt(data, pos, bucket.sampleRate);
+		pos = putInt(data, pos, bucket.count);
+		for (int i = 0; i < channels; i++)
+			data[pos++] = (byte) quantize(bucket.min[i]);
+		for (int i = 0; i < channels; i++)
+			data[pos++] = (byte) quantize(toDecibel(bucket.sum[i] / bucket.count));
+		for (int i = 0; i < channels; i++)
+			data[pos++] = (byte) quantize(bucket.max[i]);
+	}
+
+	/**
+	 * Will decode a record
+	 */
+	private Record decode(byte[] data, int tier) {
+		Record record = new Record();
+		record.timestamp = getLong(data, 0);
+		record.frequency = getLong(data, 8);
+		record.sampleRate = getInt(data, 16);
+		record.count = getInt(data, 20);
+		record.duration = TIER_DURATION[tier];
+		record.min = new float[channels];
+		record.mean = new float[channels];
+		record.max = new float[channels];
+		int pos = 24;
+		for (int i = 0; i < channels; i++)
+			record.min[i] = dequantize(data[pos++]);
+		for (int i = 0; i < channels; i++)
+			record.mean[i] = dequantize(data[pos++]);
+		for (int i = 0; i < channels; i++)
+			record.max[i] = dequantize(data[pos++]);
+		return record;
+	}
+
+	private static int putLong(byte[] data, int pos, long value) {
+		for (int i = 7; i >= 0; i--)
+			data[pos++] = (byte) (value >>> (i * 8));
+		return pos;
+	}
+
+	private static int putInt(byte[] data, int pos, int value) {
+		for (int i = 3; i >= 0; i--)
+			data[pos++] = (byte) (value >>> (i * 8));
+		return pos;
+	}
+
+	private static int getInt(byte[] data, int pos) {
+		int value = 0;
+		for (int i = 0; i < 4; i++)
+			value = (value << 8) | (data[pos + i] & 0xff);
+		return value;
+	}
+
+	private static long getLong(byte[] data, int pos) {
+		long value = 0;
+		for (int i = 0; i < 8; i++)
+			value = (value << 8) | (data[pos + i] & 0xff);
+		return value;
+	}
+
+	/**
+	 * Appends the records of one tier to its segment files. write() is only called by the
+	 * writer thread; flush() may be called from any thread.
+	 */
+	private class TierWriter {
+		private int tier;
+		private DataOutputStream output = null;		// stream of the current segment (null: no open segment)
+		private int recordsInSegment = 0;			// number of records in the current segment
+		private byte[] data = null;					// encoding buffer
+
+		TierWriter(int tier) {
+			this.tier = tier;
+		}
+
+		/**
+		 * @return all segment files of this tier, sorted by start time
+		 */
+		File[] listSegments() {
+			final String prefix = TIER_NAMES[tier] + "_";
+			File[] files = directory.listFiles();
+			if(files == null)
+				return new File[0];
+			ArrayList<File> segments = new ArrayList<File>();
+			for (File file : files) {
+				if(file.getName().startsWith(prefix) && file.getName().endsWith(".occ"))
+					segments.add(file);
+			}
+			File[] result = segments.toArray(new File[segments.size()]);
+			Arrays.sort(result, new Comparator<File>() {
+				@Override
+				public int compare(File a, File b) {
+					long startA = segmentStart(a);
+					long startB = segmentStart(b);
+					return startA < startB ? -1 : (startA == startB ? 0 : 1);
+				}
+			});
+			return result;
+		}
+
+		synchronized void write(Bucket bucket) {
+			try {
+				if(output == null || recordsInSegment >= RECORDS_PER_SEGMENT[tier])
+					openSegment(bucket.timestamp);
+				if(data == null)
+					data = new byte[recordSize()];
+				encode(bucket, data);
+				output.write(data);
+				recordsInSegment++;
+			} catch (IOException e) {
+				DspLog.e(LOGTAG, "write: Error while writing " + TIER_NAMES[tier] + " record: " + e.getMessage());
+				close();
+			}
+		}
+
+		synchronized void flush() {
+			if(output == null)
+				return;
+			try {
+				output.flush();
+			} catch (IOException e) {
+				DspLog.e(LOGTAG, "flush: Error while flushing " + TIER_NAMES[tier] + ": " + e.getMessage());
+			}
+		}
+
+		synchronized void close() {
+			if(output == null)
+				return;
+			try {
+				output.close();
+			} catch (IOException e) {
+				DspLog.e(LOGTAG, "close: Error while closing " + TIER_NAMES[tier] + ": " + e.getMessage());
+			}
+			output = null;
+		}
+
+		/**
+		 * Will start a new segment file (or continue the latest one if it has space left) and
+		 * delete the oldest segments if there are too many.
+		 *
+		 * @param timestamp		timestamp of the first record
+		 */
+		private void openSegment(long timestamp) throws IOException {
+			close();
+			int recordSize = recordSize();
+			File[] segments = listSegments();
+
+			// continue the latest segment if it is compatible and not full:
+			File file = null;
+			if(segments.length > 0) {
+				File latest = segments[segments.length - 1];
+				long records = (latest.length() - HEADER_SIZE) / recordSize;
+				if(records < RECORDS_PER_SEGMENT[tier] && hasValidHeader(latest)
+						&& (latest.length() - HEADER_SIZE) % recordSize == 0) {
+					file = latest;
+					recordsInSegment = (int) records;
+				}
+			}
+
+			if(file == null) {
+				file = new File(directory, TIER_NAMES[tier] + "_" + timestamp + ".occ");
+				output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+				output.writeInt(MAGIC);
+				output.writeInt(VERSION);
+				output.writeInt(channels);
+				output.writeInt(tier);
+				output.writeInt((int) TIER_DURATION[tier] / 1000);
+				recordsInSegment = 0;
+
+				// bound the storage: delete the oldest segments
+				for (int i = 0; i <= segments.length - MAX_SEGMENTS[tier]; i++) {
+					if(!segments[i].delete())
+						DspLog.w(LOGTAG, "openSegment: Could not delete " + segments[i].getName());
+				}
+			} else
+				output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+		}
+
+		private boolean hasValidHeader(File file) {
+			try {
+				RandomAccessFile raf = new RandomAccessFile(file, "r");
+				try {
+					return raf.length() >= HEADER_SIZE && raf.readInt() == MAGIC && raf.readInt() == VERSION
+							&& raf.readInt() == channels && raf.readInt() == tier;
+				} finally {
+					raf.close();
+				}
+			} catch (IOException e) {
+				return false;
+			}
+		}
+	}
+}
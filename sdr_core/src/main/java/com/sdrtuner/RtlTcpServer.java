@@ -0,0 +1,413 @@
+package com.sdrtuner;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Re-broadcasts the packets of the running IQ source as an rtl_tcp compatible server, so that
+ * other SDR applications can use the device while this app owns it.
+ *
+ * After the connect, the server sends the same 12 byte header as rtl_tcp ("RTL0", tuner type and
+ * gain count as big endian ints; see RtlsdrSource.CommandThread.connect) followed by the stream
+ * of unsigned 8 bit IQ samples.
+ *
+ * The scheduler calls publish() for every packet. The packet is not copied: it is wrapped in a
+ * reference counted SharedPacket and put into the send queue of every client. The last client
+ * (or the scheduler) that releases the packet returns it to the buffer pool of the source.
+ * Each client has a bounded send queue; if it is full, the packet is skipped for this client and
+ * counted as an overrun. The number of packets that are held by the server is limited to
+ * MAX_SHARED_PACKETS in total, so that slow clients can't drain the buffer pool of the source.
+ * If the limit is reached, the client with the longest queue drops its oldest packets.
+ * Clients that block in a write for longer than CLIENT_TIMEOUT ms are dropped.
+ *
+ * The first client that connects is the owner. Only the owner's commands (5 bytes: command
+ * and big endian argument, see rtl_tcp) are passed to the Callback; the commands of all other
+ * clients are discarded. If the owner disconnects, the oldest remaining client becomes the owner.
+ */
+public class RtlTcpServer extends Thread {
+	private static final String LOGTAG = "RtlTcpServer";
+	public static final int DEFAULT_PORT = 1236;
+	public static final int MAX_CLIENTS = 8;
+	public static final int COMMAND_SET_FREQUENCY		= 0x01;
+	public static final int COMMAND_SET_SAMPLERATE		= 0x02;
+	public static final int COMMAND_SET_GAIN_MODE		= 0x03;
+	public static final int COMMAND_SET_GAIN			= 0x04;
+	public static final int COMMAND_SET_FREQ_CORR		= 0x05;
+	public static final int COMMAND_SET_IFGAIN			= 0x06;
+	public static final int COMMAND_SET_AGC_MODE		= 0x08;
+	private static final byte[] MAGIC = {'R', 'T', 'L', '0'};
+	private static final int CLIENT_QUEUE_SIZE = 8;		// max. number of packets in the send queue of a client
+	private static final int MAX_SHARED_PACKETS = 10;	// max. number of packets held by the server (must be smaller than the source's buffer pool)
+	private static final int SEND_BUFFER_SIZE = 1024*1024;	// socket send buffer (absorbs the network jitter)
+	private static final int CLIENT_TIMEOUT = 5000;		// clients that block a write for longer than this (ms) are dropped
+	private static final int ACCEPT_TIMEOUT = 1000;		// the accept loop checks the clients at least this often (ms)
+
+	private int port;
+	private int tunerType;				// tuner type that is reported to the clients (RtlsdrSource.RTLSDR_TUNER_*)
+	private int gainCount;				// number of gain steps that is reported to the clients
+	private boolean signedSamples;		// true if the packets of the source contain signed samples (converted before sending)
+	private Callback callback;
+	private volatile boolean stopRequested = true;
+	private ServerSocket serverSocket = null;
+	private final ArrayList<ClientConnection> clients = new ArrayList<ClientConnection>();	// guarded by itself; oldest first
+	private ArrayBlockingQueue<SharedPacket> sharedPacketPool = null;	// unused wrappers
+
+	/**
+	 * Receives the tuning commands of the owner client
+	 */
+	public interface Callback {
+		/**
+		 * Called by the connection thread of the owner client for every command it sends
+		 *
+		 * @param command		COMMAND_* (other rtl_tcp commands are passed as well)
+		 * @param argument		argument of the command
+		 */
+		void onRtlTcpCommand(int command, int argument);
+	}
+
+	/**
+	 * A packet of the source that is shared by the scheduler and the send queues of the clients
+	 */
+	static class SharedPacket {
+		private IQSourceInterface source;	// the packet is returned to this source
+		private byte[] packet;
+		private final AtomicInteger references = new AtomicInteger();
+		private final ArrayBlockingQueue<SharedPacket> pool;	// the wrapper is returned to this pool
+
+		private SharedPacket(ArrayBlockingQueue<SharedPacket> pool) {
+			this.pool = pool;
+		}
+
+		/**
+		 * Will drop one reference. The last release returns the packet to the source.
+		 */
+		void release() {
+			if(references.decrementAndGet() == 0) {
+				source.returnPacket(packet);
+				source = null;
+				packet = null;
+				pool.offer(this);
+			}
+		}
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param port				TCP port to listen on
+	 * @param tunerType			tuner type that is reported to the clients (RtlsdrSource.RTLSDR_TUNER_*)
+	 * @param gainCount			number of gain steps that is reported to the clients
+	 * @param signedSamples		true if the packets of the source contain signed 8 bit samples
+	 * @param callback			receives the commands of the owner client (may be null)
+	 */
+	public RtlTcpServer(int port, int tunerType, int gainCount, boolean signedSamples, Callback callback) {
+		this.port = port;
+		this.tunerType = tunerType;
+		this.gainCount = gainCount;
+		this.signedSamples = signedSamples;
+		this.callback = callback;
+		this.sharedPacketPool = new ArrayBlockingQueue<SharedPacket>(MAX_SHARED_PACKETS);
+		for (int i = 0; i < MAX_SHARED_PACKETS; i++)
+			sharedPacketPool.offer(new SharedPacket(sharedPacketPool));
+	}
+
+	public int getPort() {
+		return port;
+	}
+
+	/**
+	 * @return number of connected clients
+	 */
+	public int getClientCount() {
+		synchronized (clients) {
+			return clients.size();
+		}
+	}
+
+	/**
+	 * @return number of packets that were skipped for the connected clients (send queue full)
+	 */
+	public long getOverruns() {
+		long overruns = 0;
+		synchronized (clients) {
+			for (ClientConnection client : clients)
+				overruns += client.overruns;
+		}
+		return overruns;
+	}
+
+	/**
+	 * Will open the server socket and start the accept loop
+	 */
+	@Override
+	public synchronized void start() {
+		try {
+			serverSocket = new ServerSocket();
+			serverSocket.setReuseAddress(true);
+			serverSocket.bind(new InetSocketAddress(port));
+			serverSocket.setSoTimeout(ACCEPT_TIMEOUT);
+			port = serverSocket.getLocalPort();		// in case port was 0
+		} catch (IOException e) {
+			DspLog.e(LOGTAG, "start: Could not open port " + port + ": " + e.getMessage());
+			return;
+		}
+		stopRequested = false;
+		super.start();
+	}
+
+	/**
+	 * Will stop the server and disconnect all clients
+	 */
+	public void stopServer() {
+		stopRequested = true;
+		try {
+			if(serverSocket != null)
+				serverSocket.close();
+		} catch (IOException e) {
+			DspLog.e(LOGTAG, "stopServer: Error while closing the server socket: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * @return true if the server is running
+	 */
+	public boolean isRunning() {
+		return !stopRequested;
+	}
+
+	/**
+	 * Will queue a packet of the source for all clients. Called by the scheduler thread; never blocks.
+	 * The caller must not return the packet to the source itself, but call release() on the
+	 * returned SharedPacket when it no longer uses the packet.
+	 *
+	 * @param packet	packet that was returned by source.getPacket()
+	 * @param source	source of the packet
+	 * @return shared packet (holding one reference for the caller) or null if the packet was not
+	 *         shared (the caller has to return it to the source as usual)
+	 */
+	SharedPacket publish(byte[] packet, IQSourceInterface source) {
+		SharedPacket sharedPacket = sharedPacketPool.poll();
+		synchronized (clients) {
+			// If the server already holds MAX_SHARED_PACKETS, the client with the longest queue
+			// drops its oldest packets (so a stuck client can't starve the others):
+			while(sharedPacket == null) {
+				ClientConnection slowest = null;
+				for (ClientConnection client : clients) {
+					if(slowest == null || client.sendQueue.size() > slowest.sendQueue.size())
+						slowest = client;
+				}
+				SharedPacket oldest = slowest != null ? slowest.sendQueue.poll() : null;
+				if(oldest == null) {
+					for (ClientConnection client : clients)
+						client.overruns++;
+					return null;
+				}
+				slowest.overruns++;
+				oldest.release();
+				sharedPacket = sharedPacketPool.poll();
+			}
+			sharedPacket.source = source;
+			sharedPacket.packet = packet;
+			sharedPacket.references.set(1 + clients.size());	// caller + all clients (dropped below if a queue is full)
+			for (ClientConnection client : clients) {
+				if(!client.sendQueue.offer(sharedPacket)) {
+					client.overruns++;
+					sharedPacket.references.decrementAndGet();	// can't reach 0; the caller holds a reference
+				}
+			}
+		}
+		return sharedPacket;
+	}
+
+	@Override
+	public void run() {
+		DspLog.i(LOGTAG, "rtl_tcp server started on port " + port + ". (Thread: " + this.getName() + ")");
+		while(!stopRequested) {
+			// accept new clients:
+			try {
+				Socket socket = serverSocket.accept();
+				synchronized (clients) {
+					if(clients.size() >= MAX_CLIENTS) {
+						DspLog.w(LOGTAG, "run: Too many clients. Refusing " + socket.getRemoteSocketAddress());
+						socket.close();
+					} else {
+						ClientConnection client = new ClientConnection(socket);
+						clients.add(client);
+						client.start();
+						DspLog.i(LOGTAG, "run: Client connected: " + socket.getRemoteSocketAddress()
+								+ (clients.size() == 1 ? " (owner)" : ""));
+					}
+				}
+			} catch (SocketTimeoutException e) {
+				// just check the clients
+			} catch (IOException e) {
+				if(!stopRequested)
+					DspLog.e(LOGTAG, "run: Error while accepting clients: " + e.getMessage());
+				break;
+			}
+
+			// drop clients that are stuck in a write:
+			long now = System.currentTimeMillis();
+			synchronized (clients) {
+				for (ClientConnection client : clients) {
+					long writeStart = client.writeStartTime;
+					if(writeStart > 0 && now - writeStart > CLIENT_TIMEOUT) {
+						DspLog.w(LOGTAG, "run: Dropping slow client " + client.socket.getRemoteSocketAddress());
+						client.close();
+					}
+				}
+			}
+		}
+
+		// disconnect all clients:
+		ArrayList<ClientConnection> remaining;
+		synchronized (clients) {
+			remaining = new ArrayList<ClientConnection>(clients);
+		}
+		for (ClientConnection client : remaining) {
+			client.close();
+			try {
+				client.join();
+			} catch (InterruptedException e) {
+				DspLog.e(LOGTAG, "run: Interrupted while stopping the client threads.");
+			}
+		}
+		this.stopRequested = true;
+		DspLog.i(LOGTAG, "rtl_tcp server stopped. (Thread: " + this.getName() + ")");
+	}
+
+	/**
+	 * Sends the packets of its queue to one client and reads the client's commands
+	 */
+	private class ClientConnection extends Thread {
+		private final Socket socket;
+		private final ArrayBlockingQueue<SharedPacket> sendQueue = new ArrayBlockingQueue<SharedPacket>(CLIENT_QUEUE_SIZE);
+		private volatile boolean stopRequested = false;
+		private volatile long writeStartTime = 0;	// start time of the current write (0 if not writing)
+		private long overruns = 0;					// packets skipped for this client (guarded by clients)
+		private long sentPackets = 0;
+		private byte[] convertBuffer = null;		// unsigned copy of the packet (only for signed sources)
+		private final byte[] command = new byte[5];
+		private int commandIndex = 0;				// number of bytes of the current command that were read
+
+		private ClientConnection(Socket socket) {
+			this.socket = socket;
+		}
+
+		private void close() {
+			stopRequested = true;
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// ignore
+			}
+		}
+
+		/**
+		 * @return true if this client is the owner (the oldest connected client)
+		 */
+		private boolean isOwner() {
+			synchronized (clients) {
+				return !clients.isEmpty() && clients.get(0) == this;
+			}
+		}
+
+		/**
+		 * Will read the available command bytes (without blocking) and execute complete commands
+		 *
+		 * @param in	input stream of the socket
+		 */
+		private void readCommands(InputStream in) throws IOException {
+			while(in.available() > 0) {
+				int read = in.read(command, commandIndex, command.length - commandIndex);
+				if(read < 0)
+					throw new IOException("Connection closed by client");
+				commandIndex += read;
+				if(commandIndex < command.length)
+					continue;
+				commandIndex = 0;
+				int argument = ((command[1] & 0xff) << 24) | ((command[2] & 0xff) << 16)
+						| ((command[3] & 0xff) << 8) | (command[4] & 0xff);
+				if(!isOwner()) {
+					DspLog.d(LOGTAG, "ClientConnection: Ignoring command " + command[0] + " of a client that is not the owner");
+				} else if(callback != null) {
+					callback.onRtlTcpCommand(command[0] & 0xff, argument);
+				}
+			}
+		}
+
+		@Override
+		public void run() {
+			try {
+				socket.setTcpNoDelay(true);
+				socket.setSendBufferSize(SEND_BUFFER_SIZE);
+				OutputStream out = socket.getOutputStream();
+				InputStream in = socket.getInputStream();
+
+				// header:
+				byte[] header = new byte[12];
+				System.arraycopy(MAGIC, 0, header, 0, 4);
+				for (int i = 0; i < 4; i++) {
+					header[4 + i] = (byte) (tunerType >> (24 - 8 * i));
+					header[8 + i] = (byte) (gainCount >> (24 - 8 * i));
+				}
+				out.write(header);
+
+				while(!stopRequested && !RtlTcpServer.this.stopRequested) {
+					readCommands(in);
+					SharedPacket sharedPacket = sendQueue.poll(100, TimeUnit.MILLISECONDS);
+					if(sharedPacket == null)
+						continue;
+					try {
+						byte[] data = sharedPacket.packet;
+						if(signedSamples) {
+							if(convertBuffer == null || convertBuffer.length != data.length)
+								convertBuffer = new byte[data.length];
+							for (int i = 0; i < data.length; i++)
+								convertBuffer[i] = (byte) (data[i] ^ 0x80);
+							sharedPacket.release();		// already copied
+							sharedPacket = null;
+							data = convertBuffer;
+						}
+						writeStartTime = System.currentTimeMillis();
+						out.write(data);
+						writeStartTime = 0;
+						sentPackets++;
+					} finally {
+						if(sharedPacket != null)
+							sharedPacket.release();
+					}
+				}
+			} catch (IOException e) {
+				if(!stopRequested && !RtlTcpServer.this.stopRequested)
+					DspLog.i(LOGTAG, "ClientConnection: Connection to " + socket.getRemoteSocketAddress() + " closed: " + e.getMessage());
+			} catch (InterruptedException e) {
+				DspLog.e(LOGTAG, "ClientConnection: Interrupted while waiting for packets.");
+			}
+
+			// unregister and release the remaining packets:
+			boolean wasOwner;
+			synchronized (clients) {
+				wasOwner = !clients.isEmpty() && clients.get(0) == this;
+				clients.remove(this);
+				if(wasOwner && !clients.isEmpty())
+					DspLog.i(LOGTAG, "ClientConnection: " + clients.get(0).socket.getRemoteSocketAddress() + " is now the owner");
+			}
+			SharedPacket sharedPacket;
+			while((sharedPacket = sendQueue.poll()) != null)
+				sharedPacket.release();
+			close();
+			DspLog.i(LOGTAG, "ClientConnection: Client " + socket.getRemoteSocketAddress() + " disconnected (sent "
+					+ sentPackets + " packets; " + overruns + " overruns)");
+		}
+	}
+}
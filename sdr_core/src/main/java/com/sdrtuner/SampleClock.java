@@ -0,0 +1,104 @@
+package com.sdrtuner;
+
+import java.util.IdentityHashMap;
+
+/**
+ * Counts the samples of a source and stamps its packets with the index of their first sample
+ * and the time at which they were received (see IQSourceInterface.getSampleIndex()).
+ *
+ * The packets of a source are plain byte arrays from a fixed buffer pool, so the stamps are
+ * kept in a map with one entry per buffer (overwritten when the buffer is filled again).
+ * Samples that the source has to drop (e.g. no free buffer) advance the sample index as well,
+ * so the consumer sees the loss as a jump of the index.
+ *
+ * The producer (receiver thread) calls stamp() and drop(); the consumer (scheduler) calls the
+ * getters. All methods are thread safe.
+ */
+public class SampleClock {
+	private final IdentityHashMap<byte[], long[]> stamps = new IdentityHashMap<byte[], long[]>();	// buffer -> {sampleIndex, timestamp}
+	private long nextSampleIndex = 0;		// index of the next sample that the source receives
+	private long droppedSamples = 0;		// samples dropped by the source since reset()
+
+	/**
+	 * Will start counting at sample index 0 (e.g. when the source starts sampling)
+	 */
+	public synchronized void reset() {
+		stamps.clear();
+		nextSampleIndex = 0;
+		droppedSamples = 0;
+	}
+
+	/**
+	 * Will stamp a packet that was received (interleaved 8 bit IQ samples) with the next sample
+	 * index and advance the index by the samples of the packet.
+	 *
+	 * @param packet		received packet (all bytes are samples)
+	 * @param timestamp		System.nanoTime() at which the first sample was received
+	 */
+	public synchronized void stamp(byte[] packet, long timestamp) {
+		stamp(packet, nextSampleIndex, timestamp);
+	}
+
+	/**
+	 * Will stamp a packet with an explicit sample index (for sources that count the samples
+	 * themselves). Samples between the current and the given index are counted as dropped.
+	 *
+	 * @param packet		received packet (all bytes are samples)
+	 * @param sampleIndex	index of the first sample of the packet
+	 * @param timestamp		System.nanoTime() at which the first sample was received
+	 */
+	public synchronized void stamp(byte[] packet, long sampleIndex, long timestamp) {
+		if(sampleIndex > nextSampleIndex)
+			droppedSamples += sampleIndex - nextSampleIndex;
+		long[] stamp = stamps.get(packet);
+		if(stamp == null) {
+			stamp = new long[2];
+			stamps.put(packet, stamp);
+		}
+		stamp[0] = sampleIndex;
+		stamp[1] = timestamp;
+		nextSampleIndex = Math.max(nextSampleIndex, sampleIndex + packet.length / 2);
+	}
+
+	/**
+	 * Will count samples that the source could not deliver (advances the sample index)
+	 *
+	 * @param samples	number of dropped samples
+	 */
+	public synchronized void drop(long samples) {
+		nextSampleIndex += samples;
+		droppedSamples += samples;
+	}
+
+	/**
+	 * @param packet	packet of the source
+	 * @return index of the first sample of the packet or -1 if the packet was not stamped
+	 */
+	public synchronized long getSampleIndex(byte[] packet) {
+		long[] stamp = stamps.get(packet);
+		return stamp != null ? stamp[0] : -1;
+	}
+
+	/**
+	 * @param packet	packet of the source
+	 * @return System.nanoTime() at which the first sample of the packet was received (0 if unknown)
+	 */
+	public synchronized long getTimestamp(byte[] packet) {
+		long[] stamp = stamps.get(packet);
+		return stamp != null ? stamp[1] : 0;
+	}
+
+	/**
+	 * @return index of the next sample that the source will receive
+	 */
+	public synchronized long getNextSampleIndex() {
+		return nextSampleIndex;
+	}
+
+	/**
+	 * @return number of samples that were dropped by the source since reset()
+	 */
+	public synchronized long getDroppedSamples() {
+		return droppedSamples;
+	}
+}
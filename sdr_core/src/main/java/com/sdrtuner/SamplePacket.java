@@ -0,0 +1,259 @@
+package com.sdrtuner;
+
+public class SamplePacket {
+	private float[] re;			// real values
+	private float[] im;			// imag values
+	private long frequency;		// center frequency
+	private int sampleRate;		// sample rate
+	private int size;			// number of samples in this packet
+	private int capacity;		// max. number of samples (may be smaller than the arrays if taken from a SamplePacketPool)
+	private long sampleIndex = -1;	// index of the first sample at the source (see IQSourceInterface.getSampleIndex()); -1 if unknown
+	private long timestamp = 0;		// System.nanoTime() at which the source received the first sample
+	private long sourceSamples = 0;	// number of source samples that went into this packet (size * decimation)
+	private boolean resync = false;	// true if the samples before this packet were skipped on purpose (no loss)
+	private float[] window = null;	// window function that is applied while the packet is filled (see getWindow()); null for none
+	SamplePacketPool pool = null;			// pool that allocated the packet (see SamplePacketPool)
+	SamplePacketPool.Lease lease = null;	// set while the packet is acquired from a pool (see SamplePacketPool)
+	boolean pooled = false;		// true while the packet is in the free list of a pool
+
+	/**
+	 * Constructor. This constructor wraps existing arrays and set the number of
+	 * samples to the length of the arrays
+	 *
+	 * @param re			array of real parts of the sample values
+	 * @param im			array of imaginary parts of the sample values
+	 * @param frequency		center frequency
+	 * @param sampleRate	sample rate
+	 */
+	public SamplePacket(float[] re, float im[], long frequency, int sampleRate) {
+		this(re, im, frequency, sampleRate, re.length);
+	}
+
+	/**
+	 * Constructor. This constructor wraps existing arrays and allows to set the
+	 * number of samples in this packet to something smaller than the array length
+	 *
+	 * @param re			array of real parts of the sample values
+	 * @param im			array of imaginary parts of the sample values
+	 * @param frequency		center frequency
+	 * @param sampleRate	sample rate
+	 * @param size	number of samples in this packet ( <= arrays.length )
+	 */
+	public SamplePacket(float[] re, float im[], long frequency, int sampleRate, int size) {
+		if(re.length != im.length)
+			throw new IllegalArgumentException("Arrays must be of the same length");
+		if(size > re.length)
+			throw new IllegalArgumentException("Size must be of the smaller or equal the array length");
+		this.re = re;
+		this.im = im;
+		this.frequency = frequency;
+		this.sampleRate = sampleRate;
+		this.size = size;
+		this.capacity = re.length;
+	}
+
+	/**
+	 * Constructor. This constructor allocates two fresh arrays
+	 *
+	 * @param size	Number of samples in this packet
+	 */
+	public SamplePacket(int size) {
+		this.re = new float[size];
+		this.im = new float[size];
+		this.frequency = 0;
+		this.sampleRate = 0;
+		this.size = 0;
+		this.capacity = size;
+	}
+
+	/**
+	 * @return the reference to the array of real parts
+	 */
+	public float[] re() {
+		return re;
+	}
+
+	/**
+	 * Returns the real part at the specified index
+	 *
+	 * @param i		index
+	 * @return real part of the sample with the given index
+	 */
+	public float re(int i) {
+		return re[i];
+	}
+
+	/**
+	 * @return the reference to the array of imaginary parts
+	 */
+	public float[] im() {
+		return im;
+	}
+
+	/**
+	 * Returns the imaginary part at the specified index
+	 *
+	 * @param i		index
+	 * @return imaginary part of the sample with the given index
+	 */
+	public float im(int i) {
+		return im[i];
+	}
+
+	/**
+	 * @return max. number of samples in this packet (the arrays may be longer if the packet was
+	 *         acquired from a SamplePacketPool)
+	 */
+	public int capacity() {
+		return capacity;
+	}
+
+	/**
+	 * Will prepare the packet for reuse (used by SamplePacketPool)
+	 *
+	 * @param capacity	new capacity ( <= arrays.length )
+	 */
+	void reset(int capacity) {
+		this.capacity = capacity;
+		this.size = 0;
+		this.frequency = 0;
+		this.sampleRate = 0;
+		this.sampleIndex = -1;
+		this.timestamp = 0;
+		this.sourceSamples = 0;
+		this.resync = false;
+		this.window = null;
+	}
+
+	/**
+	 * @return number of samples in this packet
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Sets a new size (number of samples in this packet)
+	 * @param size	number of (valid) samples in this packet
+	 */
+	public void setSize(int size) {
+		this.size = Math.min(size, capacity);
+	}
+
+	/**
+	 * @return center frequency at which these samples where recorded
+	 */
+	public long getFrequency() {
+		return frequency;
+	}
+
+	/**
+	 * @return sample rate at which these samples were recorded
+	 */
+	public int getSampleRate() {
+		return sampleRate;
+	}
+
+	/**
+	 * Sets the center frequency for this sample packet
+	 * @param frequency		center frequency at which these samples were recorded
+	 */
+	public void setFrequency(long frequency) {
+		this.frequency = frequency;
+	}
+
+	/**
+	 * Sets the sample rate for this sample packet
+	 * @param sampleRate		sample rate at which these samples were recorded
+	 */
+	public void setSampleRate(int sampleRate) {
+		this.sampleRate = sampleRate;
+	}
+
+	/**
+	 * @return index of the first sample of this packet at the source (counted since the source
+	 *         started sampling) or -1 if unknown
+	 */
+	public long getSampleIndex() {
+		return sampleIndex;
+	}
+
+	/**
+	 * @return System.nanoTime() at which the source received the first sample of this packet
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * @return number of source samples this packet was made of. The next packet of a gap free
+	 *         stream starts at getSampleIndex() + getSourceSamples().
+	 */
+	public long getSourceSamples() {
+		return sourceSamples;
+	}
+
+	/**
+	 * @return true if the source samples before this packet were skipped on purpose (e.g. while the
+	 *         squelch was closed), so a jump of the sample index is no loss (see GapDetector)
+	 */
+	public boolean isResync() {
+		return resync;
+	}
+
+	/**
+	 * The consumer of an FFT buffer (e.g. the AnalyzerProcessingLoop) sets the window function
+	 * of its FFT before it returns the empty buffer. The producer (Scheduler) multiplies the
+	 * samples with it while converting them into the buffer, so the consumer can skip the
+	 * windowing of buffers that carry its window.
+	 *
+	 * @return window function that is applied to the samples of this packet or null for none
+	 */
+	public float[] getWindow() {
+		return window;
+	}
+
+	/**
+	 * @param window	window function (at least capacity() values) or null
+	 */
+	public void setWindow(float[] window) {
+		this.window = window;
+	}
+
+	/**
+	 * Will set the position of the packet in the sample stream of the source
+	 *
+	 * @param sampleIndex		index of the first sample at the source (-1 if unknown)
+	 * @param timestamp			System.nanoTime() at which the source received the first sample
+	 * @param sourceSamples		number of source samples in this packet
+	 * @param resync			true if the source samples before this packet were skipped on purpose
+	 */
+	public void setStamp(long sampleIndex, long timestamp, long sourceSamples, boolean resync) {
+		this.sampleIndex = sampleIndex;
+		this.timestamp = timestamp;
+		this.sourceSamples = sourceSamples;
+		this.resync = resync;
+	}
+
+	/**
+	 * Will extend the stamp if source samples are appended to the packet
+	 *
+	 * @param sourceSamples		number of appended source samples
+	 */
+	public void addSourceSamples(long sourceSamples) {
+		this.sourceSamples += sourceSamples;
+	}
+
+	/**
+	 * Will copy the stamp (sample index, timestamp, source samples and resync) of another packet.
+	 * Used by the blocks that turn one input packet into one output packet (filters, demodulation).
+	 *
+	 * @param packet	packet that the samples of this packet were computed from
+	 */
+	public void copyStamp(SamplePacket packet) {
+		this.sampleIndex = packet.sampleIndex;
+		this.timestamp = packet.timestamp;
+		this.sourceSamples = packet.sourceSamples;
+		this.resync = packet.resync;
+	}
+}
@@ -0,0 +1,304 @@
+package com.sdrtuner;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.Set;
+
+/**
+ * Central pool of sample packets. The blocks of the pipeline (Scheduler, Decimator, Demodulator,
+ * AudioSink) acquire their packets here instead of allocating them and release them when they
+ * stop. Restarting the analyzer or changing the fft size then reuses the arrays of the previous
+ * run instead of allocating several MB for the garbage collector.
+ *
+ * The arrays are kept in size classes of powers of 2. A packet that is acquired with capacity n
+ * gets arrays of the next power of 2 >= n (or of up to MAX_OVERSIZE_STEPS classes above if no
+ * packet of the exact class is free), but its capacity() is n. The blocks must therefore use
+ * capacity() and size() instead of the length of the arrays.
+ *
+ * Leak detection (debug builds and HeadlessRunner -v): every acquired packet is tracked by a weak
+ * reference together with the stack trace of acquire(). If a packet is collected by the garbage
+ * collector without being released, the stack trace is logged and counted as leak. A packet that
+ * is released twice is always logged and ignored.
+ *
+ * All methods are thread safe.
+ */
+public class SamplePacketPool {
+	private static final String LOGTAG = "SamplePacketPool";
+	private static final int MIN_SIZE_CLASS = 6;			// smallest arrays: 64 samples
+	private static final int MAX_SIZE_CLASS = 30;
+	private static final int MAX_OVERSIZE_STEPS = 2;		// a packet may have up to 4 times the requested capacity
+	private static final long DEFAULT_MAX_FREE_BYTES = 64 * 1024 * 1024;	// released packets above this are dropped
+	private static SamplePacketPool defaultPool = null;
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private final ArrayDeque<SamplePacket>[] freePackets = new ArrayDeque[MAX_SIZE_CLASS + 1];	// free list per size class
+	private long maxFreeBytes = DEFAULT_MAX_FREE_BYTES;
+	private boolean leakDetection = false;
+	private final ReferenceQueue<SamplePacket> collectedPackets = new ReferenceQueue<SamplePacket>();
+	private final Set<Lease> leases = new HashSet<Lease>();		// outstanding packets (only with leak detection)
+
+	// Statistics:
+	private long allocatedCount = 0;	// packets that were allocated by the pool and not dropped
+	private long allocatedBytes = 0;
+	private long inUseCount = 0;		// acquired and not yet released
+	private long freeCount = 0;			// in the free lists
+	private long freeBytes = 0;
+	private long hitCount = 0;			// acquire() calls that reused a free packet
+	private long missCount = 0;			// acquire() calls that allocated a new packet
+	private long leakCount = 0;			// packets that were collected without release()
+	private long droppedCount = 0;		// released packets that did not fit into maxFreeBytes (or were trimmed)
+
+	/**
+	 * Tracks an acquired packet (leak detection)
+	 */
+	static class Lease extends WeakReference<SamplePacket> {
+		private final Throwable origin;		// stack trace of acquire()
+		private final int sizeClass;
+
+		Lease(SamplePacket packet, int sizeClass, ReferenceQueue<SamplePacket> queue) {
+			super(packet, queue);
+			this.origin = new Throwable("acquired " + packet.capacity() + " samples in thread " + Thread.currentThread().getName());
+			this.sizeClass = sizeClass;
+		}
+	}
+
+	/**
+	 * @return the pool used by the blocks of the pipeline (created on first use)
+	 */
+	public static synchronized SamplePacketPool getDefault() {
+		if(defaultPool == null)
+			defaultPool = new SamplePacketPool();
+		return defaultPool;
+	}
+
+	public SamplePacketPool() {
+		for (int i = 0; i < freePackets.length; i++)
+			freePackets[i] = new ArrayDeque<SamplePacket>();
+	}
+
+	/**
+	 * Will switch the leak detection on or off. Only packets that are acquired afterwards are
+	 * tracked. Costs one stack trace per acquire() (the blocks acquire their packets on start only).
+	 *
+	 * @param enabled	true to track the acquired packets
+	 */
+	public synchronized void setLeakDetection(boolean enabled) {
+		this.leakDetection = enabled;
+		if(!enabled)
+			leases.clear();
+	}
+
+	public synchronized boolean isLeakDetection() {
+		return leakDetection;
+	}
+
+	/**
+	 * @param maxFreeBytes	max. size of the free packets in bytes. Released packets that do not fit
+	 *                      are left to the garbage collector.
+	 */
+	public synchronized void setMaxFreeBytes(long maxFreeBytes) {
+		this.maxFreeBytes = maxFreeBytes;
+	}
+
+	/**
+	 * Will return an empty packet (size 0, no frequency and sample rate)
+	 *
+	 * @param capacity	number of samples the packet must hold
+	 * @return packet with the given capacity (must be passed to release() if not used anymore)
+	 */
+	public synchronized SamplePacket acquire(int capacity) {
+		pollCollectedPackets();
+		int sizeClass = getSizeClass(capacity);
+		SamplePacket packet = null;
+		for (int i = sizeClass; i <= Math.min(MAX_SIZE_CLASS, sizeClass + MAX_OVERSIZE_STEPS) && packet == null; i++)
+			packet = freePackets[i].pollLast();		// (LIFO: the arrays of the last released packet are most likely still cached)
+		if(packet != null) {
+			hitCount++;
+			freeCount--;
+			freeBytes -= getBytes(packet);
+			packet.pooled = false;
+		} else {
+			missCount++;
+			packet = new SamplePacket(1 << sizeClass);
+			packet.pool = this;
+			allocatedCount++;
+			allocatedBytes += getBytes(packet);
+		}
+		packet.reset(capacity);
+		inUseCount++;
+		if(leakDetection) {
+			packet.lease = new Lease(packet, getSizeClass(packet.re().length), collectedPackets);
+			leases.add(packet.lease);
+		}
+		return packet;
+	}
+
+	/**
+	 * Will return a packet to the pool. The packet must not be used afterwards.
+	 *
+	 * @param packet	packet from acquire() (packets that were not allocated by this pool are ignored)
+	 */
+	public synchronized void release(SamplePacket packet) {
+		pollCollectedPackets();
+		if(packet == null)
+			return;
+		if(packet.pooled) {
+			DspLog.e(LOGTAG, "release: Packet was already released!\n" + getStackTrace(new Throwable("released in thread "
+					+ Thread.currentThread().getName())));
+			return;
+		}
+		if(packet.pool != this)
+			return;		// not allocated by this pool
+		int length = packet.re().length;
+		if(packet.lease != null) {
+			leases.remove(packet.lease);
+			packet.lease.clear();
+			packet.lease = null;
+		}
+		inUseCount--;
+		if(freeBytes + getBytes(packet) > maxFreeBytes) {
+			droppedCount++;
+			allocatedCount--;
+			allocatedBytes -= getBytes(packet);
+			packet.pool = null;
+			return;
+		}
+		packet.pooled = true;
+		freePackets[getSizeClass(length)].addLast(packet);
+		freeCount++;
+		freeBytes += getBytes(packet);
+	}
+
+	/**
+	 * Will remove all packets from the queue and release them
+	 *
+	 * @param queue		e.g. a queue of a block that was stopped
+	 */
+	public synchronized void releaseAll(Queue<SamplePacket> queue) {
+		SamplePacket packet;
+		while((packet = queue.poll()) != null)
+			release(packet);
+	}
+
+	/**
+	 * Will drop all free packets (e.g. if the app is moved to the background)
+	 */
+	public synchronized void trim() {
+		for (ArrayDeque<SamplePacket> list : freePackets) {
+			for (SamplePacket packet : list) {
+				packet.pooled = false;
+				packet.pool = null;
+				allocatedBytes -= getBytes(packet);
+			}
+			allocatedCount -= list.size();
+			droppedCount += list.size();
+			list.clear();
+		}
+		freeCount = 0;
+		freeBytes = 0;
+	}
+
+	public synchronized long getAllocatedCount() {
+		return allocatedCount;
+	}
+
+	/**
+	 * @return bytes of all packets of the pool (in use and free)
+	 */
+	public synchronized long getAllocatedBytes() {
+		return allocatedBytes;
+	}
+
+	public synchronized long getInUseCount() {
+		pollCollectedPackets();
+		return inUseCount;
+	}
+
+	public synchronized long getFreeCount() {
+		return freeCount;
+	}
+
+	public synchronized long getFreeBytes() {
+		return freeBytes;
+	}
+
+	public synchronized long getHitCount() {
+		return hitCount;
+	}
+
+	public synchronized long getMissCount() {
+		return missCount;
+	}
+
+	/**
+	 * @return number of packets that were collected by the garbage collector without being
+	 *         released (only counted with leak detection)
+	 */
+	public synchronized long getLeakCount() {
+		pollCollectedPackets();
+		return leakCount;
+	}
+
+	public synchronized long getDroppedCount() {
+		return droppedCount;
+	}
+
+	/**
+	 * @return one line summary of the statistics (for logs)
+	 */
+	@Override
+	public synchronized String toString() {
+		pollCollectedPackets();
+		return String.format(Locale.US, "%d packets (%.1f MB): %d in use, %d free (%.1f MB); %d hits, %d misses, %d dropped, %d leaks",
+				allocatedCount, allocatedBytes / 1048576.0, inUseCount, freeCount, freeBytes / 1048576.0,
+				hitCount, missCount, droppedCount, leakCount);
+	}
+
+	/**
+	 * Will log the packets that were collected without release (leak detection)
+	 */
+	private void pollCollectedPackets() {
+		Lease lease;
+		while((lease = (Lease) collectedPackets.poll()) != null) {
+			if(!leases.remove(lease))
+				continue;	// leak detection was switched off in the meantime
+			leakCount++;
+			inUseCount--;
+			allocatedCount--;
+			allocatedBytes -= 8L << lease.sizeClass;
+			DspLog.e(LOGTAG, "Packet was not released!\n" + getStackTrace(lease.origin));
+		}
+	}
+
+	/**
+	 * @return stack trace of the throwable as string (DspLog only takes messages)
+	 */
+	private static String getStackTrace(Throwable throwable) {
+		StringWriter writer = new StringWriter();
+		throwable.printStackTrace(new PrintWriter(writer));
+		return writer.toString();
+	}
+
+	/**
+	 * @return index of the smallest size class that holds the given number of samples
+	 */
+	private static int getSizeClass(int capacity) {
+		int sizeClass = 32 - Integer.numberOfLeadingZeros(Math.max(1, capacity) - 1);
+		if(sizeClass > MAX_SIZE_CLASS)
+			throw new IllegalArgumentException("Capacity too large: " + capacity);
+		return Math.max(MIN_SIZE_CLASS, sizeClass);
+	}
+
+	/**
+	 * @return size of both arrays of the packet in bytes
+	 */
+	private static long getBytes(SamplePacket packet) {
+		return 8L * packet.re().length;
+	}
+}
@@ -0,0 +1,103 @@
+package com.sdrtuner;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock-free single producer / single consumer ring of sample packets. Connects two threads of
+ * a pipeline; like the queue pairs of the other blocks, one ring forwards the filled packets
+ * and a second ring returns the used packets.
+ *
+ * Only the producer writes writePosition and only the consumer writes readPosition (both are
+ * volatile), so offer() and poll() need no locks. A consumer that waits in poll(timeout) parks
+ * itself and is unparked by the next offer().
+ */
+public class SamplePacketRing {
+	private final SamplePacket[] packets;
+	private final int mask;							// capacity - 1 (capacity is a power of 2)
+	private volatile long writePosition = 0;		// number of packets offered (producer)
+	private volatile long readPosition = 0;			// number of packets polled (consumer)
+	private volatile Thread waitingConsumer = null;	// consumer that is parked in poll(timeout)
+
+	/**
+	 * Constructor.
+	 *
+	 * @param capacity	maximum number of packets in the ring (rounded up to a power of 2)
+	 */
+	public SamplePacketRing(int capacity) {
+		int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+		this.packets = new SamplePacket[size];
+		this.mask = size - 1;
+	}
+
+	public int capacity() {
+		return packets.length;
+	}
+
+	/**
+	 * @return number of packets in the ring
+	 */
+	public int size() {
+		return (int) (writePosition - readPosition);
+	}
+
+	/**
+	 * Will append a packet (producer thread only)
+	 *
+	 * @param packet	packet to append
+	 * @return false if the ring is full
+	 */
+	public boolean offer(SamplePacket packet) {
+		long position = writePosition;
+		if(position - readPosition >= packets.length)
+			return false;
+		packets[(int) (position & mask)] = packet;
+		writePosition = position + 1;	// publish the packet
+		Thread consumer = waitingConsumer;
+		if(consumer != null)
+			LockSupport.unpark(consumer);
+		return true;
+	}
+
+	/**
+	 * Will remove the oldest packet (consumer thread only)
+	 *
+	 * @return packet or null if the ring is empty
+	 */
+	public SamplePacket poll() {
+		long position = readPosition;
+		if(position == writePosition)
+			return null;
+		int index = (int) (position & mask);
+		SamplePacket packet = packets[index];
+		packets[index] = null;
+		readPosition = position + 1;	// release the slot
+		return packet;
+	}
+
+	/**
+	 * Will remove the oldest packet and wait for it if the ring is empty (consumer thread only)
+	 *
+	 * @param timeout	max time to wait in ms
+	 * @return packet or null if no packet arrived within the timeout
+	 */
+	public SamplePacket poll(int timeout) {
+		SamplePacket packet = poll();
+		if(packet != null || timeout <= 0)
+			return packet;
+		long deadline = System.nanoTime() + timeout * 1000000l;
+		waitingConsumer = Thread.currentThread();
+		try {
+			// (waitingConsumer is set before the ring is checked again, so an offer() in between
+			// either is seen by poll() or unparks this thread)
+			while((packet = poll()) == null) {
+				long remaining = deadline - System.nanoTime();
+				if(remaining <= 0 || Thread.currentThread().isInterrupted())
+					break;
+				LockSupport.parkNanos(this, remaining);
+			}
+		} finally {
+			waitingConsumer = null;
+		}
+		return packet;
+	}
+}
@@ -0,0 +1,130 @@
+package com.sdrtuner;
+
+/**
+ * Plain Java implementation of the DspKernels. Used on Android and as fallback on JVMs without
+ * the Vector API.
+ */
+public class ScalarDspKernels extends DspKernels {
+
+	@Override
+	public String getName() {
+		return "scalar";
+	}
+
+	@Override
+	public boolean isVectorized() {
+		return false;
+	}
+
+	@Override
+	public void convertBytes(byte[] in, int inOffset, float[] re, float[] im, int outOffset, int count,
+							 boolean unsigned, float biasI, float biasQ, float scaleI, float scaleQ, float cross,
+							 float[] window) {
+		int mask = unsigned ? 0xff : 0xffffffff;
+		if(window == null) {
+			for (int i = 0; i < count; i++) {
+				float r = ((in[inOffset + 2*i] & mask) - biasI) * scaleI;
+				re[outOffset + i] = r;
+				im[outOffset + i] = ((in[inOffset + 2*i + 1] & mask) - biasQ) * scaleQ + r * cross;
+			}
+		} else {
+			for (int i = 0; i < count; i++) {
+				float r = ((in[inOffset + 2*i] & mask) - biasI) * scaleI;
+				float w = window[outOffset + i];
+				re[outOffset + i] = r * w;
+				im[outOffset + i] = (((in[inOffset + 2*i + 1] & mask) - biasQ) * scaleQ + r * cross) * w;
+			}
+		}
+	}
+
+	@Override
+	public int mix(float[] re, float[] im, int offset, int count, float[] cos, float[] sin, int phase) {
+		for (int i = offset; i < offset + count; i++) {
+			float c = cos[phase];
+			float s = sin[phase];
+			float r = re[i];
+			re[i] = r * c - im[i] * s;
+			im[i] = r * s + im[i] * c;
+			if(++phase == cos.length)
+				phase = 0;
+		}
+		return phase;
+	}
+
+	@Override
+	public float dot(float[] taps, float[] samples, int offset) {
+		float sum = 0;
+		for (int k = 0; k < taps.length; k++)
+			sum += taps[k] * samples[offset + k];
+		return sum;
+	}
+
+	@Override
+	public void dotComplex(float[] taps, float[] re, float[] im, int offset, float[] result) {
+		float sumRe = 0;
+		float sumIm = 0;
+		for (int k = 0; k < taps.length; k++) {
+			sumRe += taps[k] * re[offset + k];
+			sumIm += taps[k] * im[offset + k];
+		}
+		result[0] = sumRe;
+		result[1] = sumIm;
+	}
+
+	@Override
+	public void fftRadix2Pass(float[] x, float[] y, int n, int span, float[] cos, float[] sin) {
+		for (int block = 0; block < n; block += 2 * span) {
+			for (int j = 0; j < span; j++) {
+				int k = block + j;
+				float c = cos[j];
+				float s = sin[j];
+				float t1 = c*x[k+span] - s*y[k+span];
+				float t2 = s*x[k+span] + c*y[k+span];
+				x[k+span] = x[k] - t1;
+				y[k+span] = y[k] - t2;
+				x[k] = x[k] + t1;
+				y[k] = y[k] + t2;
+			}
+		}
+	}
+
+	@Override
+	public void fftRadix4Pass(float[] x, float[] y, int n, int span, float[] cos1, float[] sin1, float[] cos2, float[] sin2) {
+		for (int block = 0; block < n; block += 4 * span) {
+			for (int j = 0; j < span; j++) {
+				int k0 = block + j;
+				int k1 = k0 + span;
+				int k2 = k1 + span;
+				int k3 = k2 + span;
+				float c1 = cos1[j], s1 = sin1[j];
+				float c2 = cos2[j], s2 = sin2[j];
+
+				// first pass: (k0, k1) and (k2, k3)
+				float tr = c1*x[k1] - s1*y[k1];
+				float ti = s1*x[k1] + c1*y[k1];
+				float b0r = x[k0] + tr, b0i = y[k0] + ti;
+				float b1r = x[k0] - tr, b1i = y[k0] - ti;
+				tr = c1*x[k3] - s1*y[k3];
+				ti = s1*x[k3] + c1*y[k3];
+				float b2r = x[k2] + tr, b2i = y[k2] + ti;
+				float b3r = x[k2] - tr, b3i = y[k2] - ti;
+
+				// second pass: (k0, k2) with w2 and (k1, k3) with -j * w2
+				tr = c2*b2r - s2*b2i;
+				ti = s2*b2r + c2*b2i;
+				x[k0] = b0r + tr;	y[k0] = b0i + ti;
+				x[k2] = b0r - tr;	y[k2] = b0i - ti;
+				tr = c2*b3r - s2*b3i;
+				ti = s2*b3r + c2*b3i;
+				x[k1] = b1r + ti;	y[k1] = b1i - tr;
+				x[k3] = b1r - ti;	y[k3] = b1i + tr;
+			}
+		}
+	}
+
+	@Override
+	public void floatToShort(float[] in, short[] out, int count, float scale) {
+		for (int i = 0; i < count; i++)
+			out[i] = (short) Math.max(-32768, Math.min(32767, in[i] * scale));
+	}
+}
@@ -0,0 +1,438 @@
+package com.sdrtuner;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+
+public class Scheduler extends Thread {
+	private IQSourceInterface source = null;	// Reference to the source of the IQ samples
+	private ArrayBlockingQueue<SamplePacket> fftOutputQueue = null;	// Queue that delivers samples to the Processing Loop
+	private ArrayBlockingQueue<SamplePacket> fftInputQueue = null;	// Queue that collects used buffers from the Processing Loop
+	private ArrayBlockingQueue<SamplePacket> demodOutputQueue = null;	// Queue that delivers samples to the Demodulator block
+	private ArrayBlockingQueue<SamplePacket> demodInputQueue = null;	// Queue that collects used buffers from the Demodulator block
+	private long channelFrequency = 0;					// Shift frequency to this value when passing packets to demodulator
+	private boolean demodulationActivated = false;		// Indicates if samples should be forwarded to the demodulator queues or not.
+	private volatile ChannelScanner channelScanner = null;	// if set, the scanner selects the channel and opens the squelch
+	private volatile RtlTcpServer rtlTcpServer = null;	// if set, all packets are re-broadcast to its clients
+	private volatile ZoomFFT zoomFFT = null;			// if set, all packets are mixed and decimated for the zoom fft
+	private boolean stopRequested = true;
+	private BufferedOutputStream bufferedOutputStream = null;	// Used for recording
+	private boolean stopRecording = false;
+	private volatile long packetCount = 0;			// number of packets that were received from the source
+	private volatile long demodFlushCount = 0;		// number of times the demod queue was flushed (demodulator too slow)
+	private volatile long demodLostSamples = 0;		// source samples that were not demodulated because the demodulator was too slow
+	private volatile long fftSkippedSamples = 0;	// source samples that were not used for an fft (no free buffer)
+	private final GapDetector sourceGapDetector = new GapDetector("source");	// checks the packets of the source
+	private volatile int demodPreDecimation = 1;	// decimation of the CIC pre-decimator in front of the demodulator (1 = off)
+	private CicDecimator cicDecimator = null;		// integer pre-decimator (only used if demodPreDecimation > 1)
+	private int[] intSamplesRe = new int[0];		// mixed integer samples for the pre-decimator
+	private int[] intSamplesIm = new int[0];
+
+	// Define the size of the fft output and input Queues. By setting this value to 2 we basically end up
+	// with double buffering. Maybe the two queues are overkill, but it works pretty well like this and
+	// it handles the synchronization between the scheduler thread and the processing loop for us.
+	// Note that setting the size to 1 will not work well and any number higher than 2 will cause
+	// higher delays when switching frequencies.
+	private static final int FFT_QUEUE_SIZE = 2;
+	private static final int DEMOD_QUEUE_SIZE = 20;
+	private static final String LOGTAG = "Scheduler";
+
+	/**
+	 * Constructor. The buffer packets of the queues are acquired from the SamplePacketPool and
+	 * must be returned with releasePackets() after the scheduler and all blocks that use the
+	 * queues were stopped.
+	 *
+	 * @param fftSize	size of the packets for the processing loop
+	 * @param source	source of the IQ samples
+	 */
+	public Scheduler(int fftSize, IQSourceInterface source) {
+		this.source = source;
+		SamplePacketPool pool = SamplePacketPool.getDefault();
+
+		// Create the fft input- and output queues and allocate the buffer packets.
+		this.fftOutputQueue = new ArrayBlockingQueue<SamplePacket>(FFT_QUEUE_SIZE);
+		this.fftInputQueue = new ArrayBlockingQueue<SamplePacket>(FFT_QUEUE_SIZE);
+		for (int i = 0; i < FFT_QUEUE_SIZE; i++)
+			fftInputQueue.offer(pool.acquire(fftSize));
+
+		// Create the demod input- and output queues and allocate the buffer packets.
+		this.demodOutputQueue = new ArrayBlockingQueue<SamplePacket>(DEMOD_QUEUE_SIZE);
+		this.demodInputQueue = new ArrayBlockingQueue<SamplePacket>(DEMOD_QUEUE_SIZE);
+		for (int i = 0; i < DEMOD_QUEUE_SIZE; i++)
+			demodInputQueue.offer(pool.acquire(source.getPacketSize()));
+	}
+
+	/**
+	 * Will return the buffer packets of all queues to the SamplePacketPool. Must be called after
+	 * the scheduler, the processing loop and the demodulator have stopped (joined).
+	 */
+	public void releasePackets() {
+		SamplePacketPool pool = SamplePacketPool.getDefault();
+		pool.releaseAll(fftInputQueue);
+		pool.releaseAll(fftOutputQueue);
+		pool.releaseAll(demodInputQueue);
+		pool.releaseAll(demodOutputQueue);
+	}
+
+	public void stopScheduler() {
+		this.stopRequested = true;
+		this.source.stopSampling();
+	}
+
+	public void start() {
+		this.stopRequested = false;
+		this.source.startSampling();
+		super.start();
+	}
+
+	/**
+	 * @return true if scheduler is running; false if not.
+	 */
+	public boolean isRunning() {
+		return !stopRequested;
+	}
+
+	/**
+	 * @return number of packets that were received from the source since the scheduler was started
+	 */
+	public long getPacketCount() {
+		return packetCount;
+	}
+
+	/**
+	 * @return number of times the demod queue had to be flushed because the demodulator was too slow
+	 */
+	public long getDemodFlushCount() {
+		return demodFlushCount;
+	}
+
+	/**
+	 * @return number of source samples that were lost for the demodulator because it was too slow
+	 *         (flushed packets and packets that found no free buffer)
+	 */
+	public long getDemodLostSamples() {
+		return demodLostSamples;
+	}
+
+	/**
+	 * @return number of source samples that were not passed to the processing loop (the fft only
+	 *         takes a packet if a buffer is free, so this is no loss)
+	 */
+	public long getFftSkippedSamples() {
+		return fftSkippedSamples;
+	}
+
+	/**
+	 * @return gap detector that checks the sample index of the source packets (samples that were
+	 *         dropped by the source or by its queue)
+	 */
+	public GapDetector getSourceGapDetector() {
+		return sourceGapDetector;
+	}
+
+	public ArrayBlockingQueue<SamplePacket> getFftOutputQueue() {
+		return fftOutputQueue;
+	}
+
+	public ArrayBlockingQueue<SamplePacket> getFftInputQueue() {
+		return fftInputQueue;
+	}
+
+	public ArrayBlockingQueue<SamplePacket> getDemodOutputQueue() {
+		return demodOutputQueue;
+	}
+
+	public ArrayBlockingQueue<SamplePacket> getDemodInputQueue() {
+		return demodInputQueue;
+	}
+
+	public boolean isDemodulationActivated() {
+		return demodulationActivated;
+	}
+
+	public void setDemodulationActivated(boolean demodulationActivated) {
+		this.demodulationActivated = demodulationActivated;
+	}
+
+	public long getChannelFrequency() {
+		return channelFrequency;
+	}
+
+	public void setChannelFrequency(long channelFrequency) {
+		this.channelFrequency = channelFrequency;
+	}
+
+	public int getDemodPreDecimation() {
+		return demodPreDecimation;
+	}
+
+	/**
+	 * Will set the ratio of the CIC pre-decimator. If the ratio is greater than 1, the samples
+	 * for the demodulator are mixed to integers and decimated by the CicDecimator directly after
+	 * the conversion, so the demodulator gets sampleRate / ratio (e.g. 10 Msps / 10 = 1 Msps).
+	 * Not used while a channel scanner is set.
+	 *
+	 * @param ratio		decimation factor (1 = off)
+	 */
+	public void setDemodPreDecimation(int ratio) {
+		this.demodPreDecimation = Math.max(1, ratio);
+	}
+
+	public ChannelScanner getChannelScanner() {
+		return channelScanner;
+	}
+
+	/**
+	 * Will set a channel scanner. While a scanner is set, it gets every packet of the source and
+	 * decides which channel is forwarded to the demodulator (channelFrequency is ignored) and when.
+	 *
+	 * @param channelScanner	scanner (already started) or null to stop scanning
+	 */
+	public void setChannelScanner(ChannelScanner channelScanner) {
+		this.channelScanner = channelScanner;
+	}
+
+	public RtlTcpServer getRtlTcpServer() {
+		return rtlTcpServer;
+	}
+
+	/**
+	 * Will set a rtl_tcp server. While a server is set, every packet of the source is passed to
+	 * its clients (without copying; the last user of the packet returns it to the source).
+	 *
+	 * @param rtlTcpServer		server (already started) or null to stop re-broadcasting
+	 */
+	public void setRtlTcpServer(RtlTcpServer rtlTcpServer) {
+		this.rtlTcpServer = rtlTcpServer;
+	}
+
+	public ZoomFFT getZoomFFT() {
+		return zoomFFT;
+	}
+
+	/**
+	 * Will set a zoom fft. While it is set, every packet of the source is mixed to its frequency
+	 * and decimated (on this thread); the fft itself is done by the processing loop.
+	 *
+	 * @param zoomFFT		zoom fft or null to stop zooming
+	 */
+	public void setZoomFFT(ZoomFFT zoomFFT) {
+		this.zoomFFT = zoomFFT;
+	}
+
+	/**
+	 * Will stop writing samples to the bufferedOutputStream and close it.
+	 */
+	public void stopRecording() {
+		this.stopRecording = true;
+	}
+
+	/**
+	 * Will start writing the raw samples to the bufferedOutputStream. Stream will be
+	 * closed on error, on stopRecording() and on stopSampling()
+	 *
+	 * @param bufferedOutputStream		stream to write the samples out.
+	 */
+	public void startRecording(BufferedOutputStream bufferedOutputStream) {
+		this.stopRecording = false;
+		this.bufferedOutputStream = bufferedOutputStream;
+		DspLog.i(LOGTAG, "startRecording: Recording started.");
+	}
+
+	/**
+	 * @return true if currently recording; false if not
+	 */
+	public boolean isRecording() {
+		return bufferedOutputStream != null;
+	}
+
+	@Override
+	public void run() {
+		DspLog.i(LOGTAG,"Scheduler started. (Thread: " + this.getName() + ")");
+		SamplePacket fftBuffer = null;		// reference to a buffer we got from the fft input queue to fill
+		SamplePacket demodBuffer = null;	// reference to a buffer we got from the demod input queue to fill
+		SamplePacket tmpFlushBuffer = null;	// Just a tmp buffer to flush a queue if necessary
+		boolean demodPaused = true;			// true if source packets were not forwarded to the demodulator on purpose
+
+		while(!stopRequested) {
+			// Get a new packet from the source:
+			byte[] packet = source.getPacket(1000);
+			if(packet == null) {
+				DspLog.e(LOGTAG, "run: No more packets from source. Shutting down...");
+				this.stopScheduler();
+				break;
+			}
+			packetCount++;
+
+			// Position of the packet in the sample stream (is passed on with the samples):
+			long sampleIndex = source.getSampleIndex(packet);
+			long timestamp = source.getTimestamp(packet);
+			int sampleCount = packet.length / 2;
+			sourceGapDetector.check(sampleIndex, sampleCount, timestamp, false);
+
+			///// Re-broadcasting //////////////////////////////////////////////////////////////////
+			RtlTcpServer server = rtlTcpServer;
+			RtlTcpServer.SharedPacket sharedPacket = server != null ? server.publish(packet, source) : null;
+
+			///// Recording ////////////////////////////////////////////////////////////////////////
+			if(bufferedOutputStream != null) {
+				try {
+					bufferedOutputStream.write(packet);
+				} catch (IOException e) {
+					DspLog.e(LOGTAG, "run: Error while writing to output stream (recording): " + e.getMessage());
+					this.stopRecording();
+				}
+				if(stopRecording) {
+					try {
+						bufferedOutputStream.close();
+					} catch (IOException e) {
+						DspLog.e(LOGTAG, "run: Error while closing output stream (recording): " + e.getMessage());
+					}
+					bufferedOutputStream = null;
+					DspLog.i(LOGTAG, "run: Recording stopped.");
+				}
+			}
+
+			///// Scanning /////////////////////////////////////////////////////////////////////////
+			ChannelScanner scanner = channelScanner;
+			if(scanner != null)
+				scanner.processPacket(packet);	// may retune the source
+
+			///// Zoom FFT /////////////////////////////////////////////////////////////////////////
+			ZoomFFT zoom = zoomFFT;
+			if(zoom != null)
+				zoom.processPacket(packet, source);
+
+			///// Demodulation /////////////////////////////////////////////////////////////////////
+			int preDecimation = demodPreDecimation;
+			boolean preDecimate = demodulationActivated && scanner == null && preDecimation > 1;
+			if(!preDecimate && demodBuffer != null) {
+				// deliver the remaining pre-decimated samples (demodulation or pre-decimation switched off):
+				demodOutputQueue.offer(demodBuffer);
+				demodBuffer = null;
+			}
+			if(preDecimate) {
+				// Get a buffer from the demodulator inputQueue (it is filled by several packets)
+				boolean newBuffer = demodBuffer == null;
+				if(demodBuffer == null) {
+					demodBuffer = demodInputQueue.poll();
+					if(demodBuffer != null)
+						demodBuffer.setSize(0);    // mark buffer as empty
+				}
+				if (demodBuffer != null) {
+					if(newBuffer)
+						demodBuffer.setStamp(sampleIndex, timestamp, 0, demodPaused);
+					demodBuffer.addSourceSamples(sampleCount);
+					demodPaused = false;
+					// mix the packet to integers and decimate it:
+					if(cicDecimator == null || cicDecimator.getRatio() != preDecimation)
+						cicDecimator = new CicDecimator(preDecimation, IQConverter.INT_SAMPLE_SCALE);
+					if(intSamplesRe.length < packet.length / 2) {
+						intSamplesRe = new int[packet.length / 2];
+						intSamplesIm = new int[packet.length / 2];
+					}
+					int count = source.mixPacketIntoIntSamples(packet, intSamplesRe, intSamplesIm, channelFrequency);
+					cicDecimator.decimate(intSamplesRe, intSamplesIm, count, demodBuffer);
+					demodBuffer.setSampleRate(source.getSampleRate() / preDecimation);
+					demodBuffer.setFrequency(channelFrequency);
+
+					// deliver the buffer if the next packet does not fit:
+					if(demodBuffer.capacity() - demodBuffer.size() < count / preDecimation + 1) {
+						demodOutputQueue.offer(demodBuffer);    // deliver packet
+						demodBuffer = null;
+					}
+				} else {
+					DspLog.d(LOGTAG, "run: Flush the demod queue because demodulator is too slow!");
+					demodFlushCount++;
+					demodLostSamples += sampleCount;
+					while ((tmpFlushBuffer = demodOutputQueue.poll()) != null) {
+						demodLostSamples += tmpFlushBuffer.getSourceSamples();
+						demodInputQueue.offer(tmpFlushBuffer);
+					}
+				}
+			} else if(demodulationActivated && (scanner == null || scanner.isSquelchOpen())) {
+				// (the squelch of the channel is done by the demodulator on the filtered samples)
+				// Get a buffer from the demodulator inputQueue
+				demodBuffer = demodInputQueue.poll();
+				if (demodBuffer != null) {
+					demodBuffer.setSize(0);    // mark buffer as empty
+					demodBuffer.setStamp(sampleIndex, timestamp, sampleCount, demodPaused);
+					demodPaused = false;
+					if(scanner != null) {
+						// the scanner already mixed the packet to the current channel:
+						scanner.copyMixedSamples(demodBuffer);
+					} else {
+						// fill the packet into the buffer and shift its spectrum by mixFrequency:
+						source.mixPacketIntoSamplePacket(packet, demodBuffer, channelFrequency);
+					}
+					demodOutputQueue.offer(demodBuffer);    // deliver packet
+					demodBuffer = null;
+				} else {
+					DspLog.d(LOGTAG, "run: Flush the demod queue because demodulator is too slow!");
+					demodFlushCount++;
+					demodLostSamples += sampleCount;
+					while ((tmpFlushBuffer = demodOutputQueue.poll()) != null) {
+						demodLostSamples += tmpFlushBuffer.getSourceSamples();
+						demodInputQueue.offer(tmpFlushBuffer);
+					}
+				}
+			} else {
+				demodPaused = true;		// demodulation off or squelch of the scanner closed
+			}
+
+			///// FFT //////////////////////////////////////////////////////////////////////////////
+			// If buffer is null we request a new buffer from the fft input queue:
+			if(fftBuffer == null) {
+				fftBuffer = fftInputQueue.poll();
+				if(fftBuffer != null) {
+					fftBuffer.setSize(0);	// mark buffer as empty
+					// (the fft only takes some of the packets, so the gap before a frame is no loss):
+					fftBuffer.setStamp(sampleIndex, timestamp, 0, true);
+				}
+			}
+
+			// If we got a buffer, fill it!
+			if(fftBuffer != null)
+			{
+				// fill the packet into the buffer (and apply the window of the fft on the way):
+				int filled = source.fillPacketIntoSamplePacket(packet, fftBuffer, fftBuffer.getWindow());
+				fftBuffer.addSourceSamples(filled);
+				fftSkippedSamples += sampleCount - filled;
+
+				// check if the buffer is now full and if so: deliver it to the output queue
+				if(fftBuffer.capacity() == fftBuffer.size()) {
+					fftOutputQueue.offer(fftBuffer);
+					fftBuffer = null;
+				}
+				// otherwise we would just go for another round...
+			}
+			// If buffer was null we currently have no buffer available, which means we
+			// simply throw the samples away (this will happen most of the time).
+			else
+				fftSkippedSamples += sampleCount;
+
+			// In both cases: Return the packet back to the source buffer pool (if it is shared,
+			// the last user returns it):
+			if(sharedPacket != null)
+				sharedPacket.release();
+			else
+				source.returnPacket(packet);
+		}
+		this.stopRequested = true;
+
+		// give the partly filled buffers back to the queues (see releasePackets()):
+		if(fftBuffer != null)
+			fftInputQueue.offer(fftBuffer);
+		if(demodBuffer != null)
+			demodInputQueue.offer(demodBuffer);
+		if(bufferedOutputStream != null) {
+			try {
+				bufferedOutputStream.close();
+			} catch (IOException e) {
+				DspLog.e(LOGTAG, "run: Error while closing output stream (cleanup)(recording): " + e.getMessage());
+			}
+			bufferedOutputStream = null;
+		}
+		DspLog.i(LOGTAG,"Scheduler stopped. (Thread: " + this.getName() + ")");
+	}
+}
@@ -0,0 +1,395 @@
+package com.sdrtuner;
+
+/**
+ * Detects signals in (averaged) spectrum frames and keeps a list of the currently active signals.
+ *
+ * The noise floor is estimated with a sliding ordered-statistic CFAR: the reference cells of a
+ * bin are two windows of W bins left and right of it, separated from the bin by G guard cells.
+ * The k-th smallest magnitude of the reference cells (CFAR_ORDER, found by quickselect) is the
+ * base of the local noise level. Because a low order statistic lies below the typical noise
+ * magnitude, it is raised by CFAR_SPREAD_FACTOR times its distance to the CFAR_LOW_ORDER
+ * statistic (which scales with the spread of the noise, i.e. with the averaging), so the noise
+ * level is comparable to the median of pure noise. W is the width of the widest expected signal (maxSignalWidth) and G
+ * is half of it, so at most a quarter of the reference cells of any bin of such a signal lie
+ * inside the signal and the low order statistic still picks the noise. The CFAR is evaluated
+ * every W/CFAR_STEPS_PER_WINDOW bins and interpolated linearly in between. A bin is occupied if
+ * its magnitude exceeds the noise level by more than the threshold. Adjacent occupied bins (gaps
+ * up to mergeGap bins) are merged into one signal with center frequency, bandwidth and SNR.
+ *
+ * Detections are matched against the list of active signals (by frequency overlap). Matched
+ * signals are updated, new ones are added and signals that were not seen for holdTime ms are
+ * removed.
+ *
+ * The cost per frame is O(N * CFAR_STEPS_PER_WINDOW) and process() does not allocate any memory
+ * (unless the fft size, the sample rate or maxSignalWidth change). process() must only be called
+ * by one thread (the processing loop); getActiveSignals() may be called from any thread.
+ *
+ * Note: All dB values use the scale of AnalyzerProcessingLoop (10*log10(sqrt(power))).
+ */
+public class SignalDetector {
+	public static final int MAX_SIGNALS = 64;			// maximum number of active signals
+	private static final int CFAR_MIN_WINDOW = 16;		// minimum number of bins of each reference window
+	private static final int CFAR_STEPS_PER_WINDOW = 8;	// number of CFAR evaluations per reference window length
+	private static final float CFAR_ORDER = 0.2f;		// k / number of reference cells (0.2 = 20th percentile)
+	private static final float CFAR_LOW_ORDER = 0.05f;	// order that measures the spread of the noise below CFAR_ORDER
+	private static final float CFAR_SPREAD_FACTOR = 0.8f;	// (median - p20) / (p20 - p5) of noise (log scale, with or without averaging)
+
+	private float threshold = 6f;		// minimum distance (in dB) to the noise floor
+	private int mergeGap = 2;			// occupied bins with up to this number of free bins in between are merged
+	private int dcGuard = 2;			// number of bins around the center (DC offset peak) that are ignored
+	private long holdTime = 2000;		// active signals are removed if they were not seen for this time (ms)
+	private int maxSignalWidth = 250000;	// bandwidth (Hz) of the widest expected signal (sets the CFAR window)
+
+	// Scratch buffers (allocated on the first frame or if the fft size or the CFAR window change):
+	private float[] noise = null;		// estimated noise floor for each bin (dB)
+	private float[] gridNoise = null;	// estimated noise floor at every cfarStep-th bin (dB)
+	private float[] scratch = null;		// reference cells of one evaluation for quickselect
+	private int cfarWindow = 0;			// number of reference cells on each side (W)
+	private int cfarGuard = 0;			// number of guard cells on each side (G)
+	private int cfarStep = 0;			// distance (in bins) between two CFAR evaluations
+
+	// Active signals (guarded by 'this'):
+	private final Signal[] signals = new Signal[MAX_SIGNALS];
+	private int signalCount = 0;
+
+	/**
+	 * One detected signal
+	 */
+	public static class Signal {
+		public long frequency;		// center frequency in Hz
+		public int bandwidth;		// occupied bandwidth in Hz
+		public float snr;			// peak magnitude above the noise floor in dB
+		public float peak;			// peak magnitude in dB
+		public long firstSeen;		// timestamp (ms) of the first detection
+		public long lastSeen;		// timestamp (ms) of the latest detection
+
+		/**
+		 * Will copy all values from the given signal into this instance
+		 *
+		 * @param other		signal to copy
+		 */
+		public void copyFrom(Signal other) {
+			this.frequency = other.frequency;
+			this.bandwidth = other.bandwidth;
+			this.snr = other.snr;
+			this.peak = other.peak;
+			this.firstSeen = other.firstSeen;
+			this.lastSeen = other.lastSeen;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d Hz (BW %d Hz, SNR %2.1f dB)", frequency, bandwidth, snr);
+		}
+	}
+
+	public SignalDetector() {
+		for (int i = 0; i < signals.length; i++)
+			signals[i] = new Signal();
+	}
+
+	public float getThreshold() {
+		return threshold;
+	}
+
+	/**
+	 * @param threshold		minimum distance (in dB) of a signal to the noise floor
+	 */
+	public void setThreshold(float threshold) {
+		this.threshold = threshold;
+	}
+
+	public int getMergeGap() {
+		return mergeGap;
+	}
+
+	/**
+	 * @param mergeGap		occupied bins with up to this number of free bins in between are merged
+	 */
+	public void setMergeGap(int mergeGap) {
+		this.mergeGap = mergeGap;
+	}
+
+	public int getDcGuard() {
+		return dcGuard;
+	}
+
+	/**
+	 * @param dcGuard		number of bins on each side of the center bin that are ignored (DC offset peak)
+	 */
+	public void setDcGuard(int dcGuard) {
+		this.dcGuard = dcGuard;
+	}
+
+	public long getHoldTime() {
+		return holdTime;
+	}
+
+	/**
+	 * @param holdTime		time (in ms) after which a signal that is no longer detected is removed
+	 */
+	public void setHoldTime(long holdTime) {
+		this.holdTime = holdTime;
+	}
+
+	public int getMaxSignalWidth() {
+		return maxSignalWidth;
+	}
+
+	/**
+	 * @param maxSignalWidth	bandwidth (in Hz) of the widest signal that should be detected as a
+	 *                         	whole. Wider signals raise their own noise estimate.
+	 */
+	public void setMaxSignalWidth(int maxSignalWidth) {
+		this.maxSignalWidth = maxSignalWidth;
+	}
+
+	/**
+	 * @return the noise floor (dB per bin) estimated from the last frame or null if no frame was processed
+	 */
+	public float[] getNoiseFloor() {
+		return noise;
+	}
+
+	/**
+	 * Will run the detection on the given spectrum and update the list of active signals.
+	 *
+	 * @param mag			magnitudes (in dB) of the spectrum (centered)
+	 * @param frequency		center frequency of the spectrum
+	 * @param sampleRate	sample rate of the spectrum
+	 * @param timestamp		current time (ms)
+	 */
+	public void process(float[] mag, long frequency, int sampleRate, long timestamp) {
+		int size = mag.length;
+		// reference window: the widest expected signal, but at most a quarter of the spectrum:
+		int window = (int) Math.ceil(maxSignalWidth * (double) size / sampleRate);
+		window = Math.max(CFAR_MIN_WINDOW, Math.min(window, size / 4));
+		if(noise == null || noise.length != size || window != cfarWindow) {
+			cfarWindow = window;
+			cfarGuard = window / 2;
+			cfarStep = Math.max(1, window / CFAR_STEPS_PER_WINDOW);
+			noise = new float[size];
+			gridNoise = new float[(size - 1) / cfarStep + 2];
+			scratch = new float[2 * window];
+		}
+
+		estimateNoiseFloor(mag);
+
+		// Find connected runs of occupied bins:
+		double hzPerBin = sampleRate / (double) size;
+		long startFrequency = frequency - sampleRate / 2;
+		int runStart = -1;			// first bin of the current run (-1: no run)
+		int runEnd = -1;			// last occupied bin of the current run
+		int peakBin = -1;			// bin with the highest SNR in the current run
+		float peakSnr = 0;
+
+		synchronized (this) {
+			for (int i = 0; i <= size; i++) {
+				boolean occupied = false;
+				float snr = 0;
+				if(i < size && Math.abs(i - size/2) > dcGuard) {
+					snr = mag[i] - noise[i];
+					occupied = snr > threshold;
+				}
+
+				if(occupied) {
+					if(runStart < 0) {
+						runStart = i;
+						peakBin = i;
+						peakSnr = snr;
+					} else if(snr > peakSnr) {
+						peakBin = i;
+						peakSnr = snr;
+					}
+					runEnd = i;
+				} else if(runStart >= 0 && (i - runEnd > mergeGap || i == size)) {
+					// the run ended. report it:
+					long center = startFrequency + (long) ((runStart + runEnd + 1) / 2.0 * hzPerBin);
+					int bandwidth = (int) ((runEnd - runStart + 1) * hzPerBin);
+					updateSignal(center, bandwidth, peakSnr, mag[peakBin], hzPerBin, timestamp);
+					runStart = -1;
+				}
+			}
+
+			// remove signals that were not seen for holdTime:
+			for (int i = 0; i < signalCount; ) {
+				if(timestamp - signals[i].lastSeen > holdTime)
+					removeSignal(i);
+				else
+					i++;
+			}
+		}
+	}
+
+	/**
+	 * Will copy the active signals into the given array (no allocation if the array elements are
+	 * not null).
+	 *
+	 * @param out	output array (should have MAX_SIGNALS elements)
+	 * @return number of signals copied into out
+	 */
+	public synchronized int getActiveSignals(Signal[] out) {
+		int count = Math.min(signalCount, out.length);
+		for (int i = 0; i < count; i++) {
+			if(out[i] == null)
+				out[i] = new Signal();
+			out[i].copyFrom(signals[i]);
+		}
+		return count;
+	}
+
+	/**
+	 * @return number of currently active signals
+	 */
+	public synchronized int getActiveSignalCount() {
+		return signalCount;
+	}
+
+	/**
+	 * Will remove all active signals
+	 */
+	public synchronized void reset() {
+		signalCount = 0;
+	}
+
+	/**
+	 * Sliding ordered-statistic CFAR noise floor estimation. Fills noise[].
+	 *
+	 * @param mag		magnitudes (in dB) of the spectrum
+	 */
+	private void estimateNoiseFloor(float[] mag) {
+		int size = mag.length;
+		int points = (size - 1) / cfarStep + 1;		// evaluations at bin 0, cfarStep, 2*cfarStep, ...
+		for (int p = 0; p < points; p++) {
+			int bin = p * cfarStep;
+			// copy the reference cells (left and right of the guard cells; clipped at the edges):
+			int length = 0;
+			int from = Math.max(0, bin - cfarGuard - cfarWindow);
+			int to = bin - cfarGuard;
+			if(to > from) {
+				System.arraycopy(mag, from, scratch, 0, to - from);
+				length += to - from;
+			}
+			from = bin + cfarGuard + 1;
+			to = Math.min(size, from + cfarWindow);
+			if(to > from) {
+				System.arraycopy(mag, from, scratch, length, to - from);
+				length += to - from;
+			}
+			if(length == 0) {
+				gridNoise[p] = mag[bin];
+				continue;
+			}
+			// the cells below k are left of it after the quickselect:
+			int k = (int) (length * CFAR_ORDER);
+			float level = select(scratch, length, k);
+			float low = k > 0 ? select(scratch, k, (int) (length * CFAR_LOW_ORDER)) : level;
+			gridNoise[p] = level + CFAR_SPREAD_FACTOR * (level - low);
+		}
+		gridNoise[points] = gridNoise[points - 1];		// (for the interpolation of the last bins)
+
+		// interpolate linearly between the evaluated bins:
+		for (int i = 0; i < size; i++) {
+			int p = i / cfarStep;
+			float frac = (i - p * cfarStep) / (float) cfarStep;
+			noise[i] = gridNoise[p] + (gridNoise[p+1] - gridNoise[p]) * frac;
+		}
+	}
+
+	/**
+	 * Quickselect: will return the k-th smallest value of the first length elements of values.
+	 * The array is reordered.
+	 *
+	 * @param values	values (will be reordered)
+	 * @param length	number of valid elements in values
+	 * @param k			order (0 = smallest)
+	 * @return k-th smallest value
+	 */
+	static float select(float[] values, int length, int k) {
+		int left = 0;
+		int right = length - 1;
+		while(left < right) {
+			float pivot = values[(left + right) >>> 1];
+			int i = left;
+			int j = right;
+			while(i <= j) {
+				while(values[i] < pivot) i++;
+				while(values[j] > pivot) j--;
+				if(i <= j) {
+					float tmp = values[i];
+					values[i] = values[j];
+					values[j] = tmp;
+					i++;
+					j--;
+				}
+			}
+			if(k <= j)
+				right = j;
+			else if(k >= i)
+				left = i;
+			else
+				break;
+		}
+		return values[k];
+	}
+
+	/**
+	 * Will update the matching active signal or add a new one. Must be called with the lock held.
+	 *
+	 * @param center		center frequency of the detection
+	 * @param bandwidth		bandwidth of the detection
+	 * @param snr			SNR of the detection (dB)
+	 * @param peak			peak magnitude of the detection (dB)
+	 * @param hzPerBin		frequency resolution of the spectrum
+	 * @param timestamp		current time (ms)
+	 */
+	private void updateSignal(long center, int bandwidth, float snr, float peak, double hzPerBin, long timestamp) {
+		// look for an active signal that overlaps with the detection:
+		for (int i = 0; i < signalCount; i++) {
+			Signal s = signals[i];
+			if(Math.abs(s.frequency - center) <= (s.bandwidth + bandwidth) / 2 + hzPerBin) {
+				if(s.lastSeen == timestamp) {
+					// already updated in this frame (e.g. a wide signal that was split): merge
+					long low = Math.min(s.frequency - s.bandwidth / 2, center - bandwidth / 2);
+					long high = Math.max(s.frequency + s.bandwidth / 2, center + bandwidth / 2);
+					s.frequency = (low + high) / 2;
+					s.bandwidth = (int) (high - low);
+					s.snr = Math.max(s.snr, snr);
+					s.peak = Math.max(s.peak, peak);
+				} else {
+					s.frequency = center;
+					s.bandwidth = bandwidth;
+					s.snr = snr;
+					s.peak = peak;
+					s.lastSeen = timestamp;
+				}
+				return;
+			}
+		}
+
+		// new signal:
+		if(signalCount >= MAX_SIGNALS)
+			return;
+		Signal s = signals[signalCount++];
+		s.frequency = center;
+		s.bandwidth = bandwidth;
+		s.snr = snr;
+		s.peak = peak;
+		s.firstSeen = timestamp;
+		s.lastSeen = timestamp;
+	}
+
+	/**
+	 * Will remove the active signal at the given index (keeps the instances in the pool).
+	 * Must be called with the lock held.
+	 *
+	 * @param index		index in signals
+	 */
+	private void removeSignal(int index) {
+		Signal removed = signals[index];
+		signalCount--;
+		for (int i = index; i < signalCount; i++)
+			signals[i] = signals[i+1];
+		signals[signalCount] = removed;
+	}
+}
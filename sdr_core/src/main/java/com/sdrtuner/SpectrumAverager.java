@@ -0,0 +1,240 @@
+package com.sdrtuner;
+
+/**
+ * Averages consecutive spectrum frames in the linear power domain.
+ *
+ * Two modes are supported:
+ * - MODE_RUNNING_SUM: boxcar average over the last (averageLength + 1) frames. A running sum is
+ *   kept for each bin: the newest frame is added and the oldest frame is subtracted.
+ * - MODE_EXPONENTIAL: exponential moving average with alpha = 2 / (averageLength + 2), which has
+ *   the same effective length as the boxcar average.
+ *
+ * In both modes the cost per frame is O(fftSize) and independent of the average length.
+ * If the center frequency changes (and the sample rate stays the same) the history is shifted
+ * by the corresponding number of bins instead of being discarded. Only the bins that were not
+ * covered by the old spectrum are filled with the current frame.
+ *
+ * Not thread safe. Must only be used by the processing thread.
+ */
+public class SpectrumAverager {
+	public static final int MODE_RUNNING_SUM = 0;
+	public static final int MODE_EXPONENTIAL = 1;
+
+	private static final int RESUM_INTERVAL = 1024;	// recalculate the running sum from the history every x frames (rounding errors)
+
+	private int size;								// number of bins per frame
+	private int mode = MODE_RUNNING_SUM;			// averaging mode (see MODE_*)
+	private int averageLength = 0;					// number of history frames; 0 for no averaging
+	private float[][] history = null;				// last (averageLength + 1) power frames (MODE_RUNNING_SUM)
+	private double[] sum = null;					// running sum of all history rows (MODE_RUNNING_SUM)
+	private float[] ema = null;						// exponential moving average (MODE_EXPONENTIAL)
+	private int oldestIndex = 0;					// index of the oldest row in history
+	private int framesSinceResum = 0;				// frames since the running sum was recalculated
+	private boolean initialized = false;			// false if the next frame must reset the state
+	private long lastFrequency = 0;					// center frequency of the history (moves in whole bins)
+	private int lastSampleRate = 0;					// sample rate of the last frame
+
+	/**
+	 * Constructor.
+	 *
+	 * @param size		number of bins per frame (fft size)
+	 */
+	public SpectrumAverager(int size) {
+		this.size = size;
+	}
+
+	public int getMode() {
+		return mode;
+	}
+
+	/**
+	 * Will change the averaging mode. The state is reset if the mode changes.
+	 *
+	 * @param mode		MODE_RUNNING_SUM or MODE_EXPONENTIAL
+	 */
+	public void setMode(int mode) {
+		if(mode != MODE_RUNNING_SUM && mode != MODE_EXPONENTIAL)
+			throw new IllegalArgumentException("Unknown averaging mode: " + mode);
+		if(this.mode != mode) {
+			this.mode = mode;
+			this.initialized = false;
+		}
+	}
+
+	public int getAverageLength() {
+		return averageLength;
+	}
+
+	/**
+	 * Will change the number of history frames. The state is reset if the length changes.
+	 *
+	 * @param averageLength		number of history frames; 0 for no averaging
+	 */
+	public void setAverageLength(int averageLength) {
+		if(this.averageLength != averageLength) {
+			this.averageLength = Math.max(0, averageLength);
+			this.initialized = false;
+		}
+	}
+
+	/**
+	 * Will add the given power spectrum to the average and write the averaged spectrum
+	 * (in the same dB scale as AnalyzerProcessingLoop: 10*log10(sqrt(power))) to the output array.
+	 *
+	 * @param power			linear power of each bin (re^2 + im^2), centered
+	 * @param frequency		center frequency of the frame
+	 * @param sampleRate	sample rate of the frame
+	 * @param avgMag		output array for the averaged magnitudes (in dB)
+	 */
+	public void process(float[] power, long frequency, int sampleRate, float[] avgMag) {
+		if(averageLength <= 0) {
+			// no averaging. release the buffers:
+			history = null;
+			sum = null;
+			ema = null;
+			initialized = false;
+			toDecibel(power, avgMag);
+		} else {
+			if(!initialized || sampleRate != lastSampleRate) {
+				reset(power);
+				lastFrequency = frequency;
+			} else if(frequency != lastFrequency) {
+				int offset = (int) Math.round((frequency - lastFrequency) * (double) size / sampleRate);
+				if(Math.abs(offset) >= size) {
+					reset(power);
+					lastFrequency = frequency;
+				} else if(offset != 0) {
+					shift(offset, power);
+					// only advance by the applied shift, so that the sub-bin remainder of small
+					// retunes adds up:
+					lastFrequency += Math.round(offset * (double) sampleRate / size);
+				}
+			}
+
+			if(mode == MODE_EXPONENTIAL) {
+				float alpha = 2f / (averageLength + 2);
+				for (int i = 0; i < size; i++) {
+					ema[i] += alpha * (power[i] - ema[i]);
+					avgMag[i] = (float) (5 * Math.log10(ema[i]));
+				}
+			} else {
+				float[] oldest = history[oldestIndex];
+				float rows = history.length;
+				if(++framesSinceResum >= RESUM_INTERVAL) {
+					// recalculate the sums from scratch to get rid of accumulated rounding errors:
+					System.arraycopy(power, 0, oldest, 0, size);
+					resum();
+					for (int i = 0; i < size; i++)
+						avgMag[i] = (float) (5 * Math.log10(sum[i] / rows));
+				} else {
+					for (int i = 0; i < size; i++) {
+						double s = sum[i] + power[i] - oldest[i];
+						if(s < 0)
+							s = 0;		// rounding errors
+						sum[i] = s;
+						oldest[i] = power[i];
+						avgMag[i] = (float) (5 * Math.log10(s / rows));
+					}
+				}
+				oldestIndex = (oldestIndex + 1) % history.length;
+			}
+		}
+
+		this.lastSampleRate = sampleRate;
+	}
+
+	/**
+	 * Will convert linear power values to the dB scale of the analyzer
+	 *
+	 * @param power		linear power values (re^2 + im^2)
+	 * @param mag		output array for the magnitudes in dB
+	 */
+	public static void toDecibel(float[] power, float[] mag) {
+		// 10*log10(sqrt(power)) = 5*log10(power)
+		for (int i = 0; i < power.length; i++)
+			mag[i] = (float) (5 * Math.log10(power[i]));
+	}
+
+	/**
+	 * Will (re-)allocate the buffers if necessary and fill the whole history with the given frame
+	 *
+	 * @param power		current power frame
+	 */
+	private void reset(float[] power) {
+		if(mode == MODE_EXPONENTIAL) {
+			history = null;
+			sum = null;
+			if(ema == null || ema.length != size)
+				ema = new float[size];
+			System.arraycopy(power, 0, ema, 0, size);
+		} else {
+			ema = null;
+			if(history == null || history.length != averageLength + 1 || history[0].length != size)
+				history = new float[averageLength + 1][size];
+			if(sum == null || sum.length != size)
+				sum = new double[size];
+			for (float[] row : history)
+				System.arraycopy(power, 0, row, 0, size);
+			resum();
+			oldestIndex = 0;
+		}
+		initialized = true;
+	}
+
+	/**
+	 * Will shift the averaging state by the given number of bins. Bins that are not covered by
+	 * the old state are filled with the current frame.
+	 *
+	 * @param offset	number of bins the center frequency moved up (negative: down)
+	 * @param power		current power frame
+	 */
+	private void shift(int offset, float[] power) {
+		if(mode == MODE_EXPONENTIAL) {
+			shiftRow(ema, offset, power);
+		} else {
+			for (float[] row : history)
+				shiftRow(row, offset, power);
+			// shift the sums and fill the new bins with (rows * power):
+			int rows = history.length;
+			if(offset > 0) {
+				System.arraycopy(sum, offset, sum, 0, size - offset);
+				for (int i = size - offset; i < size; i++)
+					sum[i] = rows * (double) power[i];
+			} else {
+				System.arraycopy(sum, 0, sum, -offset, size + offset);
+				for (int i = 0; i < -offset; i++)
+					sum[i] = rows * (double) power[i];
+			}
+		}
+	}
+
+	/**
+	 * Bin i of the new spectrum shows the same frequency as bin (i + offset) of the old one.
+	 *
+	 * @param row		row that should be shifted in place
+	 * @param offset	number of bins the center frequency moved up (negative: down)
+	 * @param power		current power frame (used to fill the uncovered bins)
+	 */
+	private void shiftRow(float[] row, int offset, float[] power) {
+		if(offset > 0) {
+			System.arraycopy(row, offset, row, 0, size - offset);
+			System.arraycopy(power, size - offset, row, size - offset, offset);
+		} else {
+			System.arraycopy(row, 0, row, -offset, size + offset);
+			System.arraycopy(power, 0, row, 0, -offset);
+		}
+	}
+
+	/**
+	 * Will recalculate the running sum from the history rows
+	 */
+	private void resum() {
+		for (int i = 0; i < size; i++) {
+			double s = 0;
+			for (float[] row : history)
+				s += row[i];
+			sum[i] = s;
+		}
+		framesSinceResum = 0;
+	}
+}
@@ -0,0 +1,143 @@
+package com.sdrtuner;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+
+/**
+ * Client for the SpectrumServer. Decodes the key and delta frames and reconstructs the magnitudes.
+ * Not thread safe; one thread should call readFrame() in a loop.
+ */
+public class SpectrumClient {
+	private Socket socket = null;
+	private DataInputStream in = null;
+	private OutputStream out = null;
+	private byte[] quantized = null;	// quantized values of the last frame
+	private byte[] payload = null;		// scratch buffer for the encoded payload
+	private float[] mag = null;			// reconstructed magnitudes of the last frame (dB)
+
+	// Header of the last frame:
+	private byte frameType;
+	private int sequence;
+	private long timestamp;
+	private long frequency;
+	private int sampleRate;
+	private float minDB;
+	private float maxDB;
+	private int size = 0;
+
+	/**
+	 * Will connect to a spectrum server and check the stream header
+	 *
+	 * @param host		host name or address of the server
+	 * @param port		port of the server
+	 * @throws IOException if the connection failed or the server does not send a spectrum stream
+	 */
+	public SpectrumClient(String host, int port) throws IOException {
+		socket = new Socket(host, port);
+		socket.setTcpNoDelay(true);
+		in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		out = socket.getOutputStream();
+		if(in.readInt() != SpectrumServer.MAGIC || in.readInt() != SpectrumServer.VERSION) {
+			close();
+			throw new IOException("Not a spectrum stream (or unsupported version)");
+		}
+	}
+
+	/**
+	 * Will ask the server to send at most fps frames per second
+	 *
+	 * @param fps	max. frame rate (0 for no limit)
+	 */
+	public void setFrameRate(float fps) throws IOException {
+		out.write(("fps " + fps + "\n").getBytes("US-ASCII"));
+		out.flush();
+	}
+
+	/**
+	 * Will block until the next frame arrives and decode it.
+	 *
+	 * @return magnitudes (in dB, quantized) of the frame. The array is reused for the next frame.
+	 * @throws IOException on connection errors or invalid data
+	 */
+	public float[] readFrame() throws IOException {
+		frameType = in.readByte();
+		sequence = in.readInt();
+		timestamp = in.readLong();
+		frequency = in.readLong();
+		sampleRate = in.readInt();
+		minDB = in.readFloat();
+		maxDB = in.readFloat();
+		int bins = in.readInt();
+		int length = in.readInt();
+		if(bins < 0 || length < 0 || length > 2 * bins + 2)
+			throw new IOException("Invalid frame header");
+		if(payload == null || payload.length < length)
+			payload = new byte[length];
+		in.readFully(payload, 0, length);
+
+		if(frameType == SpectrumServer.FRAME_KEY) {
+			if(length != bins)
+				throw new IOException("Invalid key frame");
+			if(quantized == null || quantized.length != bins) {
+				quantized = new byte[bins];
+				mag = new float[bins];
+			}
+			System.arraycopy(payload, 0, quantized, 0, bins);
+		} else if(frameType == SpectrumServer.FRAME_DELTA) {
+			if(quantized == null || quantized.length != bins)
+				throw new IOException("Delta frame without key frame");
+			int i = 0;
+			for (int p = 0; p < length && i < bins; p++) {
+				if(payload[p] == 0)
+					i += payload[++p] & 0xff;		// run of unchanged bins
+				else
+					quantized[i++] += payload[p];
+			}
+		} else
+			throw new IOException("Unknown frame type: " + frameType);
+
+		size = bins;
+		float step = (maxDB - minDB) / 255;
+		for (int i = 0; i < bins; i++)
+			mag[i] = minDB + (quantized[i] & 0xff) * step;
+		return mag;
+	}
+
+	public byte getFrameType() {
+		return frameType;
+	}
+
+	public int getSequence() {
+		return sequence;
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public long getFrequency() {
+		return frequency;
+	}
+
+	public int getSampleRate() {
+		return sampleRate;
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Will close the connection
+	 */
+	public void close() {
+		try {
+			socket.close();
+		} catch (IOException e) {
+			// ignore
+		}
+	}
+}
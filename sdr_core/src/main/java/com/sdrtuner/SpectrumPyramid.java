@@ -0,0 +1,126 @@
+package com.sdrtuner;
+
+/**
+ * Multi-resolution representation of one spectrum (mean and max pyramid).
+ *
+ * Level 0 holds the magnitudes of the fft bins. Every following level combines two neighboring
+ * entries of the level below (mean and max), so level k holds groups of 2^k bins. Building all
+ * levels costs O(N) (N + N/2 + N/4 + ... operations).
+ *
+ * To get the value of an arbitrary range of bins (e.g. all bins that fall on one pixel on the
+ * screen), the level whose group size is the largest power of two not exceeding the range length
+ * is used. Only two or three entries of that level have to be combined, so the cost per pixel
+ * is constant and drawing a spectrum depends on the screen width instead of the fft size.
+ *
+ * The max reduction keeps narrowband signals visible even if many bins fall on one pixel.
+ * This class does not use any Android API. It is not thread safe.
+ */
+public class SpectrumPyramid {
+	public static final int REDUCTION_MEAN = 1;		// average of all bins in the range (like the old drawing code)
+	public static final int REDUCTION_MAX = 2;		// maximum of all bins in the range (narrow peaks stay visible)
+
+	private float[][] mean = null;		// mean[k][i] = average of the bins i*2^k ... (i+1)*2^k-1
+	private float[][] max = null;		// max[k][i] = maximum of the bins i*2^k ... (i+1)*2^k-1
+	private int size = 0;				// number of bins on level 0
+
+	/**
+	 * @return number of bins on level 0
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * @return number of levels (level 0 included)
+	 */
+	public int getLevels() {
+		return mean == null ? 0 : mean.length;
+	}
+
+	/**
+	 * Will (re-)build all levels of the pyramid from the given magnitudes. Buffers are only
+	 * reallocated if the length changes.
+	 *
+	 * @param mag	magnitude values of the fft (will be copied)
+	 */
+	public void build(float[] mag) {
+		if(mean == null || size != mag.length)
+			allocate(mag.length);
+
+		System.arraycopy(mag, 0, mean[0], 0, size);
+		System.arraycopy(mag, 0, max[0], 0, size);
+		for (int k = 1; k < mean.length; k++) {
+			float[] lowerMean = mean[k-1];
+			float[] lowerMax = max[k-1];
+			float[] curMean = mean[k];
+			float[] curMax = max[k];
+			int lowerLength = lowerMean.length;
+			for (int i = 0; i < curMean.length; i++) {
+				int a = 2*i;
+				int b = Math.min(a + 1, lowerLength - 1);	// duplicate the last entry on odd lengths
+				curMean[i] = (lowerMean[a] + lowerMean[b]) * 0.5f;
+				curMax[i] = Math.max(lowerMax[a], lowerMax[b]);
+			}
+		}
+	}
+
+	/**
+	 * Will calculate the reduced value of the bins from ... to-1.
+	 * The range is clipped to the bins of the pyramid. Groups on the selected level are aligned to
+	 * powers of two, so up to 2^k-1 bins left and right of the range may contribute as well.
+	 *
+	 * @param reduction		REDUCTION_MEAN or REDUCTION_MAX
+	 * @param from			first bin (inclusive)
+	 * @param to			last bin (exclusive)
+	 * @return reduced value of the range
+	 */
+	public float getValue(int reduction, int from, int to) {
+		if(from < 0)
+			from = 0;
+		if(to > size)
+			to = size;
+		if(to <= from)
+			to = from + 1;
+
+		// the largest group size (2^level) that is not bigger than the range:
+		int level = 31 - Integer.numberOfLeadingZeros(to - from);
+		if(level >= mean.length)
+			level = mean.length - 1;
+		int first = from >> level;
+		int last = (to - 1) >> level;
+
+		if(reduction == REDUCTION_MAX) {
+			float[] values = max[level];
+			float result = values[first];
+			for (int i = first + 1; i <= last; i++)
+				result = Math.max(result, values[i]);
+			return result;
+		} else {
+			float[] values = mean[level];
+			float result = 0;
+			for (int i = first; i <= last; i++)
+				result += values[i];
+			return result / (last - first + 1);
+		}
+	}
+
+	/**
+	 * Will allocate all levels for the given number of bins
+	 *
+	 * @param size	number of bins on level 0
+	 */
+	private void allocate(int size) {
+		int levels = 1;
+		for (int length = size; length > 1; length = (length + 1) / 2)
+			levels++;
+		this.size = size;
+		this.mean = new float[levels][];
+		this.max = new float[levels][];
+		int length = size;
+		for (int k = 0; k < levels; k++) {
+			mean[k] = new float[length];
+			max[k] = new float[length];
+			length = (length + 1) / 2;
+		}
+	}
+}
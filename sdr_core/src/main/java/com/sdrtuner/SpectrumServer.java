@@ -0,0 +1,456 @@
+package com.sdrtuner;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+
+/**
+ * Publishes the spectrum frames of the AnalyzerProcessingLoop to remote viewers over TCP.
+ *
+ * The DSP thread calls publish() for every frame. The magnitudes are quantized to 8 bit over
+ * the configured dB range and copied into the 'latest frame' slot. That is all the work done
+ * on the DSP thread; it never waits for a client.
+ *
+ * Every client has its own sender thread. The sender takes the latest frame whenever it is
+ * ready for the next one (and the client's frame rate limit allows it), so a slow client simply
+ * skips frames (decimation) instead of queueing them. Clients that block in a write for longer
+ * than CLIENT_TIMEOUT ms are dropped. The memory per client is a few frames, independent of the
+ * speed of the client.
+ *
+ * Protocol (big endian): the server sends MAGIC and VERSION (int each) after the connect. Then
+ * each frame is sent as:
+ *   byte type (FRAME_KEY or FRAME_DELTA), int sequence number, long timestamp (ms),
+ *   long frequency, int sampleRate, float minDB, float maxDB, int bins, int payload length, payload
+ * A key frame contains the quantized values (one byte per bin). A delta frame contains the
+ * differences (mod 256) to the previous frame sent to this client, run-length encoded: a zero
+ * byte is followed by the number (1..255) of unchanged bins; every other byte is a difference.
+ * Key frames are sent on the first frame, whenever the frame layout changes, every
+ * KEY_FRAME_INTERVAL frames and whenever the delta frame would not be smaller.
+ * Clients may send text lines to the server; "fps <n>" limits the frame rate of the client.
+ * See SpectrumClient for a decoder.
+ */
+public class SpectrumServer extends Thread {
+	private static final String LOGTAG = "SpectrumServer";
+	public static final int MAGIC = 0x53504543;		// "SPEC"
+	public static final int VERSION = 1;
+	public static final byte FRAME_KEY = 0;
+	public static final byte FRAME_DELTA = 1;
+	public static final int DEFAULT_PORT = 1235;
+	public static final int MAX_CLIENTS = 64;
+	private static final int KEY_FRAME_INTERVAL = 100;	// a key frame is sent at least every n frames
+	private static final int CLIENT_TIMEOUT = 5000;		// clients that block a write for longer than this (ms) are dropped
+	private static final int ACCEPT_TIMEOUT = 1000;		// the accept loop checks the clients at least this often (ms)
+
+	private int port;
+	private volatile boolean stopRequested = true;
+	private ServerSocket serverSocket = null;
+	private final ArrayList<ClientConnection> clients = new ArrayList<ClientConnection>();	// guarded by itself
+	private volatile long droppedClients = 0;	// clients that were dropped because they were too slow
+
+	// Quantization range (set by any thread, read by the DSP thread):
+	private volatile float minDB = -50;
+	private volatile float maxDB = 10;
+
+	// DSP thread side:
+	private byte[] back = null;			// the next frame is quantized into this buffer (outside of the lock)
+
+	// Latest frame (guarded by frameLock):
+	private final Object frameLock = new Object();
+	private byte[] latest = null;		// quantized magnitudes of the latest frame
+	private int latestSize = 0;			// number of valid bins in latest
+	private int sequence = 0;			// sequence number of the latest frame (0 = no frame yet)
+	private long latestTimestamp;
+	private long latestFrequency;
+	private int latestSampleRate;
+	private float latestMinDB;
+	private float latestMaxDB;
+
+	/**
+	 * Constructor
+	 *
+	 * @param port		TCP port to listen on
+	 */
+	public SpectrumServer(int port) {
+		this.port = port;
+	}
+
+	public int getPort() {
+		return port;
+	}
+
+	/**
+	 * Will set the dB range that is mapped to the quantized values 0..255
+	 *
+	 * @param minDB		dB value of the quantized value 0
+	 * @param maxDB		dB value of the quantized value 255
+	 */
+	public void setRange(float minDB, float maxDB) {
+		if(maxDB <= minDB)
+			return;
+		this.minDB = minDB;
+		this.maxDB = maxDB;
+	}
+
+	public float getMinDB() {
+		return minDB;
+	}
+
+	public float getMaxDB() {
+		return maxDB;
+	}
+
+	/**
+	 * @return number of connected clients
+	 */
+	public int getClientCount() {
+		synchronized (clients) {
+			return clients.size();
+		}
+	}
+
+	/**
+	 * @return number of clients that were dropped because they didn't read fast enough
+	 */
+	public long getDroppedClients() {
+		return droppedClients;
+	}
+
+	/**
+	 * Will open the server socket and start the accept loop
+	 */
+	@Override
+	public synchronized void start() {
+		try {
+			serverSocket = new ServerSocket();
+			serverSocket.setReuseAddress(true);
+			serverSocket.bind(new InetSocketAddress(port));
+			serverSocket.setSoTimeout(ACCEPT_TIMEOUT);
+			port = serverSocket.getLocalPort();		// in case port was 0
+		} catch (IOException e) {
+			DspLog.e(LOGTAG, "start: Could not open port " + port + ": " + e.getMessage());
+			return;
+		}
+		stopRequested = false;
+		super.start();
+	}
+
+	/**
+	 * Will stop the server and disconnect all clients
+	 */
+	public void stopServer() {
+		stopRequested = true;
+		try {
+			if(serverSocket != null)
+				serverSocket.close();
+		} catch (IOException e) {
+			DspLog.e(LOGTAG, "stopServer: Error while closing the server socket: " + e.getMessage());
+		}
+		synchronized (frameLock) {
+			frameLock.notifyAll();
+		}
+	}
+
+	/**
+	 * @return true if the server is running
+	 */
+	public boolean isRunning() {
+		return !stopRequested;
+	}
+
+	/**
+	 * Will publish a spectrum frame to all clients. Must only be called by one thread (the DSP thread).
+	 * Never blocks on a client: the lock is only held to swap the buffers.
+	 *
+	 * @param mag			magnitudes (in dB) of the spectrum
+	 * @param frequency		center frequency of the spectrum
+	 * @param sampleRate	sample rate of the spectrum
+	 * @param timestamp		time of the frame (ms)
+	 */
+	public void publish(float[] mag, long frequency, int sampleRate, long timestamp) {
+		float min = minDB;
+		float max = maxDB;
+		float scale = 255 / (max - min);
+		if(back == null || back.length < mag.length)
+			back = new byte[mag.length];
+		for (int i = 0; i < mag.length; i++) {
+			float q = (mag[i] - min) * scale;
+			back[i] = (byte) (q <= 0 ? 0 : (q >= 255 ? 255 : (int) (q + 0.5f)));
+		}
+		synchronized (frameLock) {
+			byte[] tmp = latest;
+			latest = back;
+			back = tmp;
+			latestSize = mag.length;
+			latestTimestamp = timestamp;
+			latestFrequency = frequency;
+			latestSampleRate = sampleRate;
+			latestMinDB = min;
+			latestMaxDB = max;
+			sequence++;
+			frameLock.notifyAll();
+		}
+	}
+
+	@Override
+	public void run() {
+		DspLog.i(LOGTAG, "Spectrum server started on port " + port + ". (Thread: " + this.getName() + ")");
+		while(!stopRequested) {
+			// accept new clients:
+			try {
+				Socket socket = serverSocket.accept();
+				synchronized (clients) {
+					if(clients.size() >= MAX_CLIENTS) {
+						DspLog.w(LOGTAG, "run: Too many clients. Refusing " + socket.getRemoteSocketAddress());
+						socket.close();
+					} else {
+						ClientConnection client = new ClientConnection(socket);
+						clients.add(client);
+						client.start();
+						DspLog.i(LOGTAG, "run: Client connected: " + socket.getRemoteSocketAddress());
+					}
+				}
+			} catch (SocketTimeoutException e) {
+				// just check the clients
+			} catch (IOException e) {
+				if(!stopRequested)
+					DspLog.e(LOGTAG, "run: Error while accepting clients: " + e.getMessage());
+				break;
+			}
+
+			// drop clients that are stuck in a write:
+			long now = System.currentTimeMillis();
+			synchronized (clients) {
+				for (ClientConnection client : clients) {
+					long writeStart = client.writeStart;
+					if(writeStart > 0 && now - writeStart > CLIENT_TIMEOUT) {
+						DspLog.w(LOGTAG, "run: Dropping slow client " + client.socket.getRemoteSocketAddress());
+						droppedClients++;
+						client.close();
+					}
+				}
+			}
+		}
+
+		// disconnect all clients:
+		ArrayList<ClientConnection> remaining;
+		synchronized (clients) {
+			remaining = new ArrayList<ClientConnection>(clients);
+		}
+		for (ClientConnection client : remaining) {
+			client.close();
+			try {
+				client.join();
+			} catch (InterruptedException e) {
+				DspLog.e(LOGTAG, "run: Interrupted while stopping client " + client.getName());
+			}
+		}
+		stopRequested = true;
+		DspLog.i(LOGTAG, "Spectrum server stopped. (Thread: " + this.getName() + ")");
+	}
+
+	/**
+	 * Will encode the differences between current and previous (run-length encoded zeros)
+	 *
+	 * @param current		quantized values of the current frame
+	 * @param previous		quantized values of the previous frame
+	 * @param size			number of bins
+	 * @param output		output buffer (at least 2 * size bytes)
+	 * @param limit			stop encoding if the output gets longer than this
+	 * @return length of the encoded data or -1 if it would be longer than limit
+	 */
+	static int encodeDelta(byte[] current, byte[] previous, int size, byte[] output, int limit) {
+		int length = 0;
+		int i = 0;
+		while(i < size) {
+			if(length >= limit)
+				return -1;
+			if(current[i] == previous[i]) {
+				int run = 1;
+				while(run < 255 && i + run < size && current[i + run] == previous[i + run])
+					run++;
+				output[length++] = 0;
+				output[length++] = (byte) run;
+				i += run;
+			} else {
+				output[length++] = (byte) (current[i] - previous[i]);
+				i++;
+			}
+		}
+		return length <= limit ? length : -1;
+	}
+
+	/**
+	 * Connection to one client. Sends the latest frame whenever the client is ready.
+	 */
+	private class ClientConnection extends Thread {
+		private Socket socket;
+		private volatile long writeStart = 0;	// start time of the current write (0 = not writing)
+		private volatile boolean closed = false;
+		private long minFrameInterval = 0;		// minimum time between two frames (ms) requested by the client
+		private StringBuilder command = new StringBuilder();
+
+		// Per client frame buffers (only used by this thread):
+		private byte[] current = null;			// frame that is sent now
+		private byte[] previous = null;			// frame that was sent before (reference for delta frames)
+		private byte[] encoded = null;			// encoded payload
+		private int previousSize = -1;
+		private long previousFrequency;
+		private int previousSampleRate;
+		private float previousMinDB;
+		private float previousMaxDB;
+		private int framesSinceKeyFrame = 0;
+
+		ClientConnection(Socket socket) {
+			this.socket = socket;
+			setName("SpectrumServer-" + socket.getRemoteSocketAddress());
+		}
+
+		void close() {
+			closed = true;
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// ignore
+			}
+			synchronized (frameLock) {
+				frameLock.notifyAll();
+			}
+		}
+
+		@Override
+		public void run() {
+			int lastSequence = 0;
+			long lastFrameTime = 0;
+			try {
+				socket.setTcpNoDelay(true);
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+				InputStream in = socket.getInputStream();
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.flush();
+
+				while(!stopRequested && !closed) {
+					readCommands(in);
+
+					// respect the frame rate limit of the client:
+					long wait = lastFrameTime + minFrameInterval - System.currentTimeMillis();
+					if(wait > 0) {
+						Thread.sleep(wait);
+						continue;
+					}
+
+					// take the latest frame:
+					int size;
+					long timestamp, frequency;
+					int sampleRate;
+					float min, max;
+					synchronized (frameLock) {
+						while(sequence == lastSequence && !stopRequested && !closed)
+							frameLock.wait(ACCEPT_TIMEOUT);
+						if(sequence == lastSequence)
+							continue;
+						size = latestSize;
+						if(current == null || current.length < size) {
+							current = new byte[size];
+							previous = new byte[size];
+							encoded = new byte[2 * size];
+							previousSize = -1;
+						}
+						System.arraycopy(latest, 0, current, 0, size);
+						lastSequence = sequence;
+						timestamp = latestTimestamp;
+						frequency = latestFrequency;
+						sampleRate = latestSampleRate;
+						min = latestMinDB;
+						max = latestMaxDB;
+					}
+
+					// encode it (outside of the lock):
+					byte type = FRAME_KEY;
+					int length = -1;
+					if(size == previousSize && frequency == previousFrequency && sampleRate == previousSampleRate
+							&& min == previousMinDB && max == previousMaxDB && framesSinceKeyFrame < KEY_FRAME_INTERVAL)
+						length = encodeDelta(current, previous, size, encoded, size - 1);
+					if(length >= 0) {
+						type = FRAME_DELTA;
+						framesSinceKeyFrame++;
+					} else {
+						System.arraycopy(current, 0, encoded, 0, size);
+						length = size;
+						framesSinceKeyFrame = 0;
+					}
+
+					// send it:
+					writeStart = System.currentTimeMillis();
+					out.writeByte(type);
+					out.writeInt(lastSequence);
+					out.writeLong(timestamp);
+					out.writeLong(frequency);
+					out.writeInt(sampleRate);
+					out.writeFloat(min);
+					out.writeFloat(max);
+					out.writeInt(size);
+					out.writeInt(length);
+					out.write(encoded, 0, length);
+					out.flush();
+					writeStart = 0;
+					lastFrameTime = System.currentTimeMillis();
+
+					// the current frame is the reference for the next delta frame:
+					byte[] tmp = previous;
+					previous = current;
+					current = tmp;
+					previousSize = size;
+					previousFrequency = frequency;
+					previousSampleRate = sampleRate;
+					previousMinDB = min;
+					previousMaxDB = max;
+				}
+			} catch (IOException e) {
+				if(!closed && !stopRequested)
+					DspLog.i(LOGTAG, "run: Client " + socket.getRemoteSocketAddress() + " disconnected: " + e.getMessage());
+			} catch (InterruptedException e) {
+				DspLog.e(LOGTAG, "run: Interrupted. Closing client " + socket.getRemoteSocketAddress());
+			}
+			writeStart = 0;
+			close();
+			synchronized (clients) {
+				clients.remove(this);
+			}
+		}
+
+		/**
+		 * Will read the commands the client sent so far (without blocking)
+		 *
+		 * @param in	input stream of the socket
+		 */
+		private void readCommands(InputStream in) throws IOException {
+			while(in.available() > 0) {
+				int c = in.read();
+				if(c < 0)
+					throw new IOException("End of stream");
+				if(c != '\n') {
+					if(command.length() < 64)
+						command.append((char) c);
+					continue;
+				}
+				String[] parts = command.toString().trim().split("\\s+");
+				command.setLength(0);
+				if(parts.length == 2 && parts[0].equals("fps")) {
+					try {
+						float fps = Float.valueOf(parts[1]);
+						minFrameInterval = fps > 0 ? (long) (1000 / fps) : 0;
+					} catch (NumberFormatException e) {
+						DspLog.w(LOGTAG, "readCommands: Invalid frame rate: " + parts[1]);
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,109 @@
+package com.sdrtuner;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lock-free triple buffer to hand spectrum frames from the processing (fft) thread to the
+ * rendering thread.
+ *
+ * The producer always owns the back frame and the consumer always owns the front frame. The third
+ * frame (middle) is exchanged atomically: publish() swaps back and middle, acquireLatest() swaps
+ * middle and front if a new frame was published in the meantime. Neither side ever blocks the
+ * other one. If the consumer is slower than the producer, older frames are simply overwritten and
+ * the consumer always gets the most recent frame.
+ */
+public class SpectrumTripleBuffer {
+	private static final int INDEX_MASK = 0x3;		// lower bits of the middle state hold the frame index
+	private static final int NEW_FRAME = 0x4;		// flag bit: the middle frame was published and not yet consumed
+
+	private final Frame[] frames = new Frame[3];
+	private final AtomicInteger middle;				// index of the middle frame (and NEW_FRAME flag)
+	private int backIndex = 0;						// index of the frame owned by the producer
+	private int frontIndex = 2;						// index of the frame owned by the consumer
+	private volatile long publishedFrames = 0;		// number of frames published by the producer
+	private volatile long droppedFrames = 0;		// number of frames overwritten before the consumer got them
+
+	/**
+	 * One frame of spectrum data that is handed from the producer to the consumer
+	 */
+	public static class Frame {
+		public final float[] mag;				// magnitude values (possibly averaged) in dB
+		public final float[] waterfallMag;		// magnitude values of the latest fft without time averaging
+		public long frequency;					// center frequency of the fft
+		public int sampleRate;					// sample rate of the fft
+
+		public Frame(int size) {
+			this.mag = new float[size];
+			this.waterfallMag = new float[size];
+		}
+	}
+
+	/**
+	 * Constructor. Will allocate the three frames.
+	 *
+	 * @param size		number of magnitude values per frame (fft size)
+	 */
+	public SpectrumTripleBuffer(int size) {
+		for (int i = 0; i < frames.length; i++)
+			frames[i] = new Frame(size);
+		this.middle = new AtomicInteger(1);
+	}
+
+	/**
+	 * Must only be called by the producer.
+	 *
+	 * @return the frame that can be filled by the producer
+	 */
+	public Frame getBackFrame() {
+		return frames[backIndex];
+	}
+
+	/**
+	 * Must only be called by the producer. Will make the back frame available to the consumer and
+	 * hand a new (free) back frame to the producer.
+	 */
+	public void publish() {
+		int old = middle.getAndSet(backIndex | NEW_FRAME);
+		if((old & NEW_FRAME) != 0)
+			droppedFrames++;	// the consumer never saw the old middle frame
+		backIndex = old & INDEX_MASK;
+		publishedFrames++;
+	}
+
+	/**
+	 * Must only be called by the consumer.
+	 *
+	 * @return true if the producer published a frame that was not yet acquired
+	 */
+	public boolean hasNewFrame() {
+		return (middle.get() & NEW_FRAME) != 0;
+	}
+
+	/**
+	 * Must only be called by the consumer. The returned frame is owned by the consumer until the
+	 * next call of acquireLatest().
+	 *
+	 * @return the most recently published frame or null if no new frame was published since the last call
+	 */
+	public Frame acquireLatest() {
+		if(!hasNewFrame())
+			return null;
+		int old = middle.getAndSet(frontIndex);
+		frontIndex = old & INDEX_MASK;
+		return frames[frontIndex];
+	}
+
+	/**
+	 * @return number of frames published by the producer
+	 */
+	public long getPublishedFrames() {
+		return publishedFrames;
+	}
+
+	/**
+	 * @return number of frames that were overwritten by the producer before the consumer acquired them
+	 */
+	public long getDroppedFrames() {
+		return droppedFrames;
+	}
+}
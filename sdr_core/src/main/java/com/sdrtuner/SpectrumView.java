@@ -0,0 +1,21 @@
+package com.sdrtuner;
+
+/**
+ * Receives the results of the AnalyzerProcessingLoop. On Android this is the AnalyzerSurface;
+ * the HeadlessRunner uses an implementation that only counts the frames.
+ */
+public interface SpectrumView {
+
+	/**
+	 * Will (re-)draw the given data set. Called by the render thread of the processing loop.
+	 *
+	 * @param mag			array of magnitude values that represent the fft (time averaged)
+	 * @param waterfallMag	array of magnitude values of the latest fft (not averaged) for the waterfall
+	 * @param frequency		center frequency
+	 * @param sampleRate	sample rate
+	 * @param frameRate 	current frame rate (FPS)
+	 * @param load			current load of the processing thread (percentage [0..1])
+	 * @param renderLoad	current load of the render thread (percentage [0..1])
+	 */
+	public void draw(float[] mag, float[] waterfallMag, long frequency, int sampleRate, int frameRate, double load, double renderLoad);
+}
@@ -0,0 +1,160 @@
+package com.sdrtuner;
+
+import java.util.Locale;
+
+/**
+ * Squelch of the demodulator. It is evaluated on every packet of the filtered channel samples
+ * (at the quadrature rate), so it opens within one packet (a few ms) no matter how slowly the
+ * spectrum is drawn.
+ *
+ * The level of a packet is its mean power (RMS^2). setSpectrumScale() converts it to the dB scale
+ * of the spectrum: the power of white noise in the channel is spread over bandwidth / sampleRate
+ * of the spectrum, and a bin of the (Blackman windowed) fft holds WINDOW_POWER / fftSize of it. The
+ * level of noise is then the magnitude of the noise in the spectrum, so the threshold can be set
+ * with the squelch selector of the AnalyzerSurface (see SquelchThreshold).
+ *
+ * The squelch opens as soon as a packet reaches the threshold. It closes when the level stays
+ * below the threshold minus the hysteresis for longer than the hang time, so short fades and
+ * pauses within a transmission do not cut the audio. Without a threshold (NaN) or if the squelch
+ * is disabled (e.g. while the ChannelScanner selects the channels) it is always open.
+ *
+ * process() is called by the demodulator thread; the other methods may be called from any thread.
+ */
+public class Squelch {
+	private static final String LOGTAG = "Squelch";
+	private static final float WINDOW_POWER = 0.42f*0.42f + 0.5f*0.5f/2 + 0.08f*0.08f/2;	// mean of the squared Blackman window (see FFT)
+
+	private volatile boolean enabled = true;		// false: always open
+	private volatile float threshold = Float.NaN;	// level (dB) at which the squelch opens; NaN: always open
+	private volatile float hysteresis = 3f;			// the squelch closes this many dB below the threshold
+	private volatile int hangTime = 200;			// time (ms) below the closing level before the squelch closes
+	private volatile int fftSize = 0;				// fft size of the spectrum scale (0: level is 5*log10(power))
+	private volatile int spectrumSampleRate = 0;	// sample rate of the spectrum
+
+	private volatile boolean open = true;			// current state
+	private volatile float level = Float.NaN;		// level of the last packet (dB)
+	private volatile long openCount = 0;			// number of times the squelch opened
+	private long hangSamples = 0;					// samples left until the squelch closes (demodulator thread)
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * @param enabled	false to keep the squelch open (e.g. while a channel scanner does the squelch)
+	 */
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public float getThreshold() {
+		return threshold;
+	}
+
+	/**
+	 * @param threshold		level (dB, see setSpectrumScale()) at which the squelch opens; NaN to keep it open
+	 */
+	public void setThreshold(float threshold) {
+		this.threshold = threshold;
+	}
+
+	public float getHysteresis() {
+		return hysteresis;
+	}
+
+	/**
+	 * @param hysteresis	the squelch closes this many dB below the threshold (0 for none)
+	 */
+	public void setHysteresis(float hysteresis) {
+		this.hysteresis = hysteresis;
+	}
+
+	public int getHangTime() {
+		return hangTime;
+	}
+
+	/**
+	 * @param hangTime		time (ms) the level must stay below the closing level before the squelch closes
+	 */
+	public void setHangTime(int hangTime) {
+		this.hangTime = hangTime;
+	}
+
+	/**
+	 * Will set the dB scale of the level to the scale of a spectrum (see AnalyzerProcessingLoop)
+	 *
+	 * @param fftSize		fft size of the spectrum
+	 * @param sampleRate	sample rate of the spectrum
+	 */
+	public void setSpectrumScale(int fftSize, int sampleRate) {
+		this.fftSize = fftSize;
+		this.spectrumSampleRate = sampleRate;
+	}
+
+	/**
+	 * @return true if the squelch is open
+	 */
+	public boolean isOpen() {
+		return open;
+	}
+
+	/**
+	 * @return level (dB) of the last packet (NaN if no packet was processed yet)
+	 */
+	public float getLevel() {
+		return level;
+	}
+
+	/**
+	 * @return number of times the squelch opened
+	 */
+	public long getOpenCount() {
+		return openCount;
+	}
+
+	/**
+	 * Will measure the level of the packet and update the state of the squelch
+	 *
+	 * @param samples		filtered samples of the channel
+	 * @param bandwidth		bandwidth (Hz) of the channel filter (both sides)
+	 * @return true if the squelch is open (the packet should be demodulated)
+	 */
+	public boolean process(SamplePacket samples, int bandwidth) {
+		float[] re = samples.re();
+		float[] im = samples.im();
+		int size = samples.size();
+		if(size == 0)
+			return open;
+		float power = 0;
+		for (int i = 0; i < size; i++)
+			power += re[i] * re[i] + im[i] * im[i];
+		power /= size;
+		int fftSize = this.fftSize;
+		int spectrumSampleRate = this.spectrumSampleRate;
+		if(fftSize > 0 && bandwidth > 0)
+			power *= WINDOW_POWER * spectrumSampleRate / ((float) fftSize * bandwidth);
+		float level = (float) (5 * Math.log10(power));
+		this.level = level;
+
+		float threshold = this.threshold;
+		if(!enabled || Float.isNaN(threshold)) {
+			open = true;
+			return true;
+		}
+		if(level >= threshold - hysteresis) {
+			if(level >= threshold && !open) {
+				open = true;
+				openCount++;
+				DspLog.d(LOGTAG, String.format(Locale.US, "process: open (%.1f dB)", level));
+			}
+			hangSamples = (long) hangTime * samples.getSampleRate() / 1000;
+		} else if(open) {
+			hangSamples -= size;
+			if(hangSamples <= 0) {
+				open = false;
+				DspLog.d(LOGTAG, String.format(Locale.US, "process: closed (%.1f dB)", level));
+			}
+		}
+		return open;
+	}
+}
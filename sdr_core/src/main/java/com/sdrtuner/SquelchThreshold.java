@@ -0,0 +1,114 @@
+package com.sdrtuner;
+
+/**
+ * Threshold of the squelch of the demodulated channel, as set with the squelch selector of the
+ * spectrum. The decision itself is made by the Squelch of the demodulator on every packet; the
+ * threshold is passed to it with every frame of the spectrum.
+ *
+ * Manual mode: the threshold is a fixed dB level (setLevel()).
+ * Adaptive mode: the threshold is set in dB above the local noise floor, which is tracked by a
+ * NoiseFloorEstimator (setNoiseFloorEstimator()). The local noise floor is taken from the bins
+ * within two channel widths around the channel frequency (see NoiseFloorEstimator.getNoiseFloor()),
+ * so a signal that never pauses (and has lifted the estimates of its own bins) still sees the noise
+ * next to it. The threshold then follows changes of the gain, the fft size or the averaging without
+ * being readjusted.
+ *
+ * update() must be called by one thread (e.g. the render thread of the processing loop). The
+ * setters may be called from other threads; they take effect with one of the next frames.
+ *
+ * Note: All dB values use the scale of AnalyzerProcessingLoop (10*log10(sqrt(power))).
+ */
+public class SquelchThreshold {
+	private NoiseFloorEstimator noiseFloorEstimator = null;	// null for manual mode
+	private float level = Float.NaN;		// threshold in manual mode (dB)
+	private float offset = 10f;				// threshold above the noise floor in adaptive mode (dB)
+	private float noiseFloor = Float.NaN;	// local noise floor in the last frame (dB; adaptive mode only)
+
+	/**
+	 * @param noiseFloorEstimator	estimator that tracks the noise floor of the spectrum (adaptive mode)
+	 *                              or null for manual mode
+	 */
+	public void setNoiseFloorEstimator(NoiseFloorEstimator noiseFloorEstimator) {
+		this.noiseFloorEstimator = noiseFloorEstimator;
+		if(noiseFloorEstimator == null)
+			noiseFloor = Float.NaN;
+	}
+
+	public NoiseFloorEstimator getNoiseFloorEstimator() {
+		return noiseFloorEstimator;
+	}
+
+	/**
+	 * @return true if the threshold follows the noise floor
+	 */
+	public boolean isAdaptive() {
+		return noiseFloorEstimator != null;
+	}
+
+	/**
+	 * @param level		threshold (dB) in manual mode
+	 */
+	public void setLevel(float level) {
+		this.level = level;
+	}
+
+	public float getLevel() {
+		return level;
+	}
+
+	/**
+	 * @param offset	threshold in dB above the noise floor (adaptive mode)
+	 */
+	public void setOffset(float offset) {
+		this.offset = offset;
+	}
+
+	public float getOffset() {
+		return offset;
+	}
+
+	/**
+	 * Will set the threshold to an absolute dB level (e.g. if the user drags the squelch selector).
+	 * In adaptive mode the offset to the current noise floor is changed.
+	 *
+	 * @param threshold		new threshold (dB)
+	 */
+	public void setThreshold(float threshold) {
+		if(isAdaptive() && !Float.isNaN(noiseFloor))
+			offset = threshold - noiseFloor;
+		else
+			level = threshold;
+	}
+
+	/**
+	 * @return current threshold (dB) at which the squelch opens. In adaptive mode this is the
+	 *         noise floor of the last frame plus the offset (or the manual level as long as the
+	 *         noise floor is unknown).
+	 */
+	public float getThreshold() {
+		if(isAdaptive() && !Float.isNaN(noiseFloor))
+			return noiseFloor + offset;
+		return level;
+	}
+
+	/**
+	 * @return local noise floor (dB) of the last frame (NaN in manual mode or if not known yet)
+	 */
+	public float getNoiseFloor() {
+		return noiseFloor;
+	}
+
+	/**
+	 * Will update the local noise floor of the channel (adaptive mode)
+	 *
+	 * @param channelFrequency	center frequency of the channel
+	 * @param channelWidth		width of the channel in Hz
+	 * @return current threshold (dB)
+	 */
+	public float update(long channelFrequency, int channelWidth) {
+		NoiseFloorEstimator estimator = noiseFloorEstimator;
+		if(estimator != null)
+			noiseFloor = estimator.getNoiseFloor(channelFrequency - 2L * channelWidth, channelFrequency + 2L * channelWidth);
+		return getThreshold();
+	}
+}
@@ -0,0 +1,378 @@
+package com.sdrtuner;
+
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Wideband sweep: steps the source across a frequency range that is wider than its sample rate
+ * and stitches the fft segments of all hops into one panoramic spectrum.
+ *
+ * The sweep range is clipped to the frequency range of the source. For each hop the source is
+ * retuned, the first settleSamples samples are discarded (tuner settling and samples that were
+ * queued before the retune; DEFAULT_SETTLE_TIME worth of samples unless set explicitly) and
+ * 'averages' fft buffers are captured. The edge bins of each hop (anti-aliasing filter roll-off)
+ * are trimmed; only the center usableFraction of the bins is stitched into the panorama. The hop
+ * step equals the usable bandwidth, so the segments fit together without gaps.
+ *
+ * Hops are pipelined: this thread (acquisition) retunes to hop N+1 as soon as the samples of
+ * hop N are captured, while the SweepProcessor thread calculates and averages the ffts of
+ * hop N. Buffers are handed over by two ArrayBlockingQueues (like Scheduler and
+ * AnalyzerProcessingLoop) and carry the index of the hop they were captured at.
+ *
+ * After each complete sweep the callback receives the panorama (in dB, same scale as the
+ * AnalyzerProcessingLoop). It can be fed into a SpectrumPyramid / WaterfallRenderer to produce
+ * a waterfall row. The sweep must not run at the same time as the Scheduler (both read from the
+ * source).
+ */
+public class SweepEngine extends Thread {
+	private static final String LOGTAG = "SweepEngine";
+	private static final int DC_GUARD = 2;		// bins around DC that are replaced by their neighbors
+	private static final double DEFAULT_SETTLE_TIME = 0.005;	// seconds of samples that are discarded after each retune (if settleSamples is not set)
+
+	private IQSourceInterface source = null;	// Reference to the source of the IQ samples
+	private Callback callback = null;			// receives the results of each sweep
+	private int fftSize;						// size of the fft of each hop
+	private long startFrequency;				// lower end of the sweep range
+	private long endFrequency;					// upper end of the sweep range
+	private int averages = 4;					// number of ffts per hop that are averaged
+	private int settleSamples = -1;				// number of samples to discard after each retune (-1: DEFAULT_SETTLE_TIME)
+	private float usableFraction = 0.75f;		// fraction of the bins (around the center) that is used
+	private volatile boolean stopRequested = true;
+	private volatile double sweepRate = 0;		// sweep rate of the last sweep in MHz/s
+	private volatile long completedSweeps = 0;	// number of completed sweeps
+
+	// Hop plan (calculated in start()):
+	private int sampleRate;						// sample rate of the source during the sweep
+	private int binsPerHop;						// number of bins of each hop that are stitched into the panorama
+	private long hopStep;						// frequency distance between two hops (== usable bandwidth)
+	private long panoramaStart;					// frequency of the first bin of the panorama
+	private long[] hopFrequencies;				// center frequency of each hop
+	private int hopSettleSamples;				// number of samples that are discarded after each retune
+
+	private ArrayBlockingQueue<HopBuffer> fullQueue = null;		// delivers captured buffers to the processor
+	private ArrayBlockingQueue<HopBuffer> emptyQueue = null;		// returns processed buffers
+	private SweepProcessor processor = null;
+
+	/**
+	 * Callback interface for the results of the sweep
+	 */
+	public static interface Callback {
+		/**
+		 * Called by the processing thread after each complete sweep
+		 *
+		 * @param spectrum			panoramic spectrum in dB (new array on every call)
+		 * @param startFrequency	frequency of the first bin
+		 * @param endFrequency		frequency of the end of the last bin
+		 * @param sweepRate			sweep rate in MHz/s
+		 */
+		public void onSweepComplete(float[] spectrum, long startFrequency, long endFrequency, double sweepRate);
+	}
+
+	/**
+	 * Sample buffer of one fft together with the index of the hop it was captured at
+	 */
+	private static class HopBuffer {
+		private final SamplePacket samples;
+		private int hop = -1;					// index in hopFrequencies
+
+		private HopBuffer(SamplePacket samples) {
+			this.samples = samples;
+		}
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param source			IQ source (must be open); its sample rate is used for the sweep
+	 * @param fftSize			fft size of each hop (power of 2)
+	 * @param startFrequency	lower end of the sweep range in Hz
+	 * @param endFrequency		upper end of the sweep range in Hz
+	 * @param callback			receives the panorama after each sweep
+	 */
+	public SweepEngine(IQSourceInterface source, int fftSize, long startFrequency, long endFrequency, Callback callback) {
+		if(endFrequency <= startFrequency)
+			throw new IllegalArgumentException("End frequency must be greater than start frequency");
+		this.source = source;
+		this.fftSize = fftSize;
+		this.startFrequency = startFrequency;
+		this.endFrequency = endFrequency;
+		this.callback = callback;
+	}
+
+	/**
+	 * @param averages		number of ffts per hop that are averaged (at least 1)
+	 */
+	public void setAverages(int averages) {
+		this.averages = Math.max(1, averages);
+	}
+
+	/**
+	 * @param settleSamples		number of samples that are discarded after each retune (-1: DEFAULT_SETTLE_TIME)
+	 */
+	public void setSettleSamples(int settleSamples) {
+		this.settleSamples = settleSamples;
+	}
+
+	/**
+	 * @param usableFraction	fraction of the bins of each hop that is used (0 < x <= 1); the rest is trimmed at the edges
+	 */
+	public void setUsableFraction(float usableFraction) {
+		if(usableFraction <= 0 || usableFraction > 1)
+			throw new IllegalArgumentException("Usable fraction must be in (0,1]");
+		this.usableFraction = usableFraction;
+	}
+
+	/**
+	 * @return sweep rate of the last complete sweep in MHz/s
+	 */
+	public double getSweepRate() {
+		return sweepRate;
+	}
+
+	/**
+	 * @return number of completed sweeps
+	 */
+	public long getCompletedSweeps() {
+		return completedSweeps;
+	}
+
+	/**
+	 * @return number of hops per sweep (valid after start())
+	 */
+	public int getHopCount() {
+		return hopFrequencies == null ? 0 : hopFrequencies.length;
+	}
+
+	public void stopSweep() {
+		this.stopRequested = true;
+	}
+
+	/**
+	 * @return true if the sweep is running; false if not.
+	 */
+	public boolean isRunning() {
+		return !stopRequested;
+	}
+
+	/**
+	 * @return frequency of the first bin of the panorama (valid after start())
+	 */
+	public long getPanoramaStart() {
+		return panoramaStart;
+	}
+
+	/**
+	 * @return frequency of the end of the last bin of the panorama (valid after start())
+	 */
+	public long getPanoramaEnd() {
+		return panoramaStart + hopStep * getHopCount();
+	}
+
+	/**
+	 * Will calculate the hop plan and start the acquisition and processing threads
+	 */
+	@Override
+	public void start() {
+		this.sampleRate = source.getSampleRate();
+		this.binsPerHop = Math.max(2, ((int) (fftSize * usableFraction)) & ~1);	// even number of bins
+		this.hopStep = (long) binsPerHop * sampleRate / fftSize;
+		this.hopSettleSamples = settleSamples >= 0 ? settleSamples : (int) (sampleRate * DEFAULT_SETTLE_TIME);
+
+		// clip the range (not the individual hops) to the source, so that every hop has its own
+		// center frequency:
+		long minFrequency = source.getMinFrequency();
+		long maxFrequency = source.getMaxFrequency();
+		long start = Math.max(startFrequency, minFrequency);
+		long end = Math.min(endFrequency, maxFrequency);
+		if(end <= start)
+			throw new IllegalArgumentException("Sweep range is outside of the frequency range of the source");
+		int hops = (int) Math.max(1, (end - start + hopStep - 1) / hopStep);
+		// the hops cover up to hopStep more than the range. move the plan down if the last
+		// center frequency would be above the source range (the first one stays above minFrequency):
+		this.panoramaStart = Math.min(start, maxFrequency - hopStep * hops + hopStep / 2);
+		this.hopFrequencies = new long[hops];
+		for (int i = 0; i < hops; i++)
+			hopFrequencies[i] = panoramaStart + hopStep * i + hopStep / 2;
+
+		this.processor = new SweepProcessor();
+
+		// two sets of buffers: one is filled while the other one is processed. The samples are
+		// windowed while they are filled (see SamplePacket.getWindow()):
+		this.fullQueue = new ArrayBlockingQueue<HopBuffer>(2 * averages);
+		this.emptyQueue = new ArrayBlockingQueue<HopBuffer>(2 * averages);
+		for (int i = 0; i < 2 * averages; i++) {
+			SamplePacket buffer = new SamplePacket(fftSize);
+			buffer.setWindow(processor.fftBlock.getWindow());
+			emptyQueue.offer(new HopBuffer(buffer));
+		}
+
+		this.stopRequested = false;
+		source.startSampling();
+		this.processor.start();
+		super.start();
+	}
+
+	@Override
+	public void run() {
+		DspLog.i(LOGTAG,"Sweep started: " + hopFrequencies.length + " hops of " + hopStep + " Hz (Thread: " + this.getName() + ")");
+		int hop = 0;
+		source.setFrequency(hopFrequencies[hop]);
+
+		try {
+			while (!stopRequested) {
+				// discard the samples while the tuner settles:
+				int discarded = 0;
+				while (discarded < hopSettleSamples && !stopRequested) {
+					byte[] packet = source.getPacket(1000);
+					if (packet == null) {
+						DspLog.e(LOGTAG, "run: No more packets from source. Stop sweep.");
+						stopRequested = true;
+						break;
+					}
+					discarded += packet.length / 2;
+					source.returnPacket(packet);
+				}
+
+				// capture the buffers of this hop:
+				for (int i = 0; i < averages && !stopRequested; i++) {
+					HopBuffer hopBuffer = emptyQueue.poll(1000, TimeUnit.MILLISECONDS);
+					if (hopBuffer == null) {
+						DspLog.d(LOGTAG, "run: Timeout while waiting for an empty buffer. retry.");
+						i--;
+						continue;
+					}
+					SamplePacket buffer = hopBuffer.samples;
+					buffer.setSize(0);
+					while (buffer.size() < buffer.capacity() && !stopRequested) {
+						byte[] packet = source.getPacket(1000);
+						if (packet == null) {
+							DspLog.e(LOGTAG, "run: No more packets from source. Stop sweep.");
+							stopRequested = true;
+							break;
+						}
+						source.fillPacketIntoSamplePacket(packet, buffer, buffer.getWindow());
+						source.returnPacket(packet);
+					}
+					buffer.setFrequency(hopFrequencies[hop]);
+					buffer.setSampleRate(sampleRate);
+					hopBuffer.hop = hop;		// tag the buffer with the hop it belongs to
+					fullQueue.offer(hopBuffer);
+				}
+
+				// retune immediately (the processor works on this hop in the meantime):
+				hop = (hop + 1) % hopFrequencies.length;
+				source.setFrequency(hopFrequencies[hop]);
+			}
+		} catch (InterruptedException e) {
+			DspLog.e(LOGTAG, "run: Interrupted while waiting for buffers. stop.");
+		}
+		this.stopRequested = true;
+		try {
+			processor.join();
+		} catch (InterruptedException e) {
+			DspLog.e(LOGTAG, "run: Interrupted while joining the processor thread.");
+		}
+		DspLog.i(LOGTAG,"Sweep stopped. (Thread: " + this.getName() + ")");
+	}
+
+	/**
+	 * This thread calculates the ffts of the captured buffers, averages them (linear power) and
+	 * stitches the trimmed segments into the panorama.
+	 */
+	private class SweepProcessor extends Thread {
+		private FFT fftBlock = new FFT(fftSize);
+		private float[] power = new float[fftSize];		// averaged (linear) power of the current hop
+		private float[] panorama = new float[hopFrequencies.length * binsPerHop];
+		private int currentHop = -1;					// hop that is currently averaged
+		private int count = 0;							// number of ffts in power
+		private long sweepStartTime = System.nanoTime();
+
+		@Override
+		public void run() {
+			DspLog.i(LOGTAG,"Sweep processor started. (Thread: " + this.getName() + ")");
+			while(!stopRequested) {
+				HopBuffer hopBuffer;
+				try {
+					hopBuffer = fullQueue.poll(1000, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e) {
+					DspLog.e(LOGTAG, "SweepProcessor: Interrupted while polling from the queue. stop.");
+					break;
+				}
+				if(hopBuffer == null)
+					continue;
+
+				int hop = hopBuffer.hop;
+				if(hop != currentHop) {
+					currentHop = hop;
+					count = 0;
+					Arrays.fill(power, 0);
+				}
+				accumulate(hopBuffer.samples);
+				emptyQueue.offer(hopBuffer);
+
+				if(count == averages) {
+					stitch(hop);
+					count = 0;
+					Arrays.fill(power, 0);
+					if(hop == hopFrequencies.length - 1)
+						sweepComplete();
+				}
+			}
+			DspLog.i(LOGTAG,"Sweep processor stopped. (Thread: " + this.getName() + ")");
+		}
+
+		/**
+		 * Will calculate the fft of the buffer and add its (centered) power to the power array
+		 *
+		 * @param buffer	captured samples
+		 */
+		private void accumulate(SamplePacket buffer) {
+			float[] re = buffer.re(), im = buffer.im();
+			if(buffer.getWindow() == null)
+				fftBlock.applyWindow(re, im);		// (otherwise the window was applied while filling)
+			fftBlock.fft(re, im);
+			for (int i = 0; i < fftSize; i++) {
+				// flip both sides of the fft to get it centered:
+				int targetIndex = (i + fftSize/2) % fftSize;
+				float realPart = re[i] / fftSize;
+				float imagPart = im[i] / fftSize;
+				power[targetIndex] += realPart * realPart + imagPart * imagPart;
+			}
+			count++;
+		}
+
+		/**
+		 * Will copy the usable (center) bins of the averaged power into the panorama
+		 *
+		 * @param hop	index of the hop
+		 */
+		private void stitch(int hop) {
+			// suppress the DC offset peak by interpolating from its neighbors:
+			int center = fftSize / 2;
+			float left = power[center - DC_GUARD - 1];
+			float right = power[center + DC_GUARD + 1];
+			for (int i = -DC_GUARD; i <= DC_GUARD; i++)
+				power[center + i] = left + (right - left) * (i + DC_GUARD + 1) / (2 * DC_GUARD + 2);
+
+			int firstBin = (fftSize - binsPerHop) / 2;
+			int offset = hop * binsPerHop;
+			for (int i = 0; i < binsPerHop; i++)
+				panorama[offset + i] = (float) (5 * Math.log10(power[firstBin + i] / count));	// = 10*log10(sqrt(power))
+		}
+
+		/**
+		 * Will report the panorama and the sweep rate to the callback
+		 */
+		private void sweepComplete() {
+			long now = System.nanoTime();
+			long panoramaEnd = getPanoramaEnd();
+			double seconds = (now - sweepStartTime) / 1000000000.0;
+			sweepStartTime = now;
+			sweepRate = (panoramaEnd - panoramaStart) / 1000000.0 / seconds;
+			completedSweeps++;
+			if(callback != null)
+				callback.onSweepComplete(panorama.clone(), panoramaStart, panoramaEnd, sweepRate);
+		}
+	}
+}
@@ -0,0 +1,123 @@
+package com.sdrtuner;
+
+/**
+ * The rtl_sdr delivers samples in the following format:
+ * The bytes are interleaved, 8-bit, unsigned IQ samples (in-phase
+ *  component first, followed by the quadrature component):
+ *
+ *  [--------- first sample ----------]   [-------- second sample --------]
+ *         I                  Q                  I                Q ...
+ *  receivedBytes[0]   receivedBytes[1]   receivedBytes[2]       ...
+ */
+public class Unsigned8BitIQConverter extends IQConverter {
+
+	public Unsigned8BitIQConverter() {
+		super(true, 127.4f);
+	}
+
+	@Override
+	public int fillPacketIntoSamplePacket(byte[] packet, SamplePacket samplePacket, float[] window) {
+		if(kernels.isVectorized()) {
+			int count = convertPacketWithKernels(packet, samplePacket, false, window);
+			samplePacket.setSampleRate(sampleRate);
+			samplePacket.setFrequency(frequency);
+			return count;
+		}
+
+		int capacity = samplePacket.capacity();
+		int count = 0;
+		int startIndex = samplePacket.size();
+		float[] re = samplePacket.re();
+		float[] im = samplePacket.im();
+		float[] tableI = lookupTableI;
+		float[] tableQ = lookupTableQ;
+		if(window == null) {
+			for (int i = 0; i < packet.length; i+=2) {
+				int indexI = 2 * (packet[i] & 0xff);
+				re[startIndex+count] = tableI[indexI];
+				im[startIndex+count] = tableQ[packet[i+1] & 0xff] + tableI[indexI + 1];
+				count++;
+				if(startIndex+count >= capacity)
+					break;
+			}
+		} else {
+			// multiply with the window while converting (saves the FFT a pass over the samples):
+			for (int i = 0; i < packet.length; i+=2) {
+				int indexI = 2 * (packet[i] & 0xff);
+				float w = window[startIndex+count];
+				re[startIndex+count] = tableI[indexI] * w;
+				im[startIndex+count] = (tableQ[packet[i+1] & 0xff] + tableI[indexI + 1]) * w;
+				count++;
+				if(startIndex+count >= capacity)
+					break;
+			}
+		}
+		samplePacket.setSize(samplePacket.size()+count);	// update the size of the sample packet
+		samplePacket.setSampleRate(sampleRate);				// update the sample rate
+		samplePacket.setFrequency(frequency);				// update the frequency
+		return count;
+	}
+
+	@Override
+	public int mixPacketIntoSamplePacket(byte[] packet, SamplePacket samplePacket, long channelFrequency) {
+		int mixFrequency = (int)(frequency - channelFrequency);
+
+		generateMixerLookupTable(mixFrequency);	// will only generate table if really necessary
+
+		if(kernels.isVectorized()) {
+			int count = convertPacketWithKernels(packet, samplePacket, true, null);
+			samplePacket.setSampleRate(sampleRate);
+			samplePacket.setFrequency(channelFrequency);
+			return count;
+		}
+
+		// Mix the samples from packet and store the results in the samplePacket
+		int capacity = samplePacket.capacity();
+		int count = 0;
+		int startIndex = samplePacket.size();
+		float[] re = samplePacket.re();
+		float[] im = samplePacket.im();
+		for (int i = 0; i < packet.length; i+=2) {
+			float[] rowI = mixerLookupTableI[cosineIndex];
+			float[] rowQ = mixerLookupTableQ[cosineIndex];
+			int indexI = 2 * (packet[i] & 0xff);
+			int indexQ = 2 * (packet[i+1] & 0xff);
+			re[startIndex+count] = rowI[indexI] + rowQ[indexQ];
+			im[startIndex+count] = rowI[indexI + 1] + rowQ[indexQ + 1];
+			cosineIndex = (cosineIndex + 1) % mixerLookupTableI.length;
+			count++;
+			if(startIndex+count >= capacity)
+				break;
+		}
+		samplePacket.setSize(samplePacket.size()+count);	// update the size of the sample packet
+		samplePacket.setSampleRate(sampleRate);				// update the sample rate
+		samplePacket.setFrequency(channelFrequency);		// update the frequency
+		return count;
+	}
+
+	@Override
+	public int mixPacketIntoIntSamples(byte[] packet, int[] re, int[] im, long channelFrequency) {
+		int mixFrequency = (int)(frequency - channelFrequency);
+
+		generateMixerLookupTable(mixFrequency);	// will only generate table if really necessary
+		generateIntMixerLookupTable();
+
+		// Mix the samples from packet and store the results in re and im
+		int capacity = re.length;
+		int count = 0;
+		int[][] tableI = mixerIntLookupTableI;
+		int[][] tableQ = mixerIntLookupTableQ;
+		for (int i = 0; i < packet.length; i+=2) {
+			int indexI = 2 * (packet[i] & 0xff);
+			int indexQ = 2 * (packet[i+1] & 0xff);
+			re[count] = tableI[cosineIndex][indexI] + tableQ[cosineIndex][indexQ];
+			im[count] = tableI[cosineIndex][indexI + 1] + tableQ[cosineIndex][indexQ + 1];
+			if(++cosineIndex == tableI.length)
+				cosineIndex = 0;
+			count++;
+			if(count >= capacity)
+				break;
+		}
+		return count;
+	}
+}
@@ -0,0 +1,174 @@
+package com.sdrtuner;
+
+import java.util.Arrays;
+
+/**
+ * Generates the pixel rows of the waterfall plot.
+ *
+ * Each new fft is mapped to one row of ARGB pixels by reducing the fft bins that fall on the
+ * same pixel (mean or max, see SpectrumPyramid) and looking up the color in the color map.
+ * The rows are stored in a circular int[] pixel buffer (width * rows) so that the surface only
+ * has to copy the newest row into its bitmap and can blit the whole waterfall with two
+ * drawBitmap calls (the part from the newest row to the end of the buffer and the wrapped part
+ * from the start of the buffer).
+ *
+ * This class does not use any Android API and can be used (and benchmarked) on a plain JVM.
+ * It is not thread safe.
+ */
+public class WaterfallRenderer {
+	public static final int BACKGROUND_COLOR = 0xff000000;	// opaque black (same as Color.BLACK)
+
+	private int width = 0;					// width of one row in pixels
+	private int rows = 0;					// number of rows in the circular buffer
+	private int[] pixels = null;			// circular pixel buffer (rows * width ARGB values)
+	private int[] row = null;				// the most recently generated row (width ARGB values)
+	private int topRow = 0;					// index of the row in pixels that holds the newest line
+	private int[] colorMap = null;			// color lookup table. idx 0 -> weak signal   idx max -> strong signal
+
+	/**
+	 * Constructor.
+	 *
+	 * @param width		width of one row in pixels
+	 * @param rows		number of rows (height of the waterfall in lines)
+	 */
+	public WaterfallRenderer(int width, int rows) {
+		resize(width, rows);
+	}
+
+	/**
+	 * Will (re-)allocate the pixel buffer for the given dimensions and clear it.
+	 *
+	 * @param width		width of one row in pixels
+	 * @param rows		number of rows (height of the waterfall in lines)
+	 */
+	public void resize(int width, int rows) {
+		this.width = Math.max(0, width);
+		this.rows = Math.max(1, rows);
+		this.pixels = new int[this.width * this.rows];
+		this.row = new int[this.width];
+		this.topRow = 0;
+		clear();
+	}
+
+	/**
+	 * Will fill the whole pixel buffer with the background color
+	 */
+	public void clear() {
+		Arrays.fill(pixels, BACKGROUND_COLOR);
+		Arrays.fill(row, BACKGROUND_COLOR);
+	}
+
+	/**
+	 * Sets the color lookup table. The array is used directly (not copied).
+	 *
+	 * @param colorMap	ARGB colors. idx 0 -> weak signal   idx max -> strong signal
+	 */
+	public void setColorMap(int[] colorMap) {
+		if(colorMap == null || colorMap.length == 0)
+			throw new IllegalArgumentException("Color map must not be empty");
+		this.colorMap = colorMap;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getRows() {
+		return rows;
+	}
+
+	/**
+	 * @return the circular pixel buffer (rows * width ARGB values). Row getTopRow() is the newest.
+	 */
+	public int[] getPixels() {
+		return pixels;
+	}
+
+	/**
+	 * @return the most recently generated row (width ARGB values)
+	 */
+	public int[] getRow() {
+		return row;
+	}
+
+	/**
+	 * @return index of the row in the pixel buffer that holds the newest line
+	 */
+	public int getTopRow() {
+		return topRow;
+	}
+
+	/**
+	 * Will generate a new row from the given magnitudes and insert it as the newest row into the
+	 * circular pixel buffer. The pixel mapping is the same as in AnalyzerSurface.drawFFT().
+	 * Important: start and end may be out of bounds of the magnitude array. This will cause black
+	 * padding.
+	 *
+	 * @param mag			pyramid of the magnitude values (in dB) of the fft
+	 * @param reduction		SpectrumPyramid.REDUCTION_MEAN or REDUCTION_MAX
+	 * @param start			first index to draw from mag (may be negative)
+	 * @param end			last index to draw from mag (may be > mag.getSize())
+	 * @param minDB			dB value that is mapped to the first color of the color map
+	 * @param maxDB			dB value that is mapped to the last color of the color map
+	 * @return index of the new row in the pixel buffer
+	 */
+	public int addRow(SpectrumPyramid mag, int reduction, int start, int end, float minDB, float maxDB) {
+		// move the index of the newest row (the buffer is filled from bottom to top):
+		topRow--;
+		if(topRow < 0)
+			topRow += rows;
+
+		renderRow(mag, reduction, start, end, minDB, maxDB, row);
+		System.arraycopy(row, 0, pixels, topRow * width, width);
+		return topRow;
+	}
+
+	/**
+	 * Will map the given magnitudes to one row of ARGB pixels.
+	 *
+	 * @param mag			pyramid of the magnitude values (in dB) of the fft
+	 * @param reduction		SpectrumPyramid.REDUCTION_MEAN or REDUCTION_MAX
+	 * @param start			first index to draw from mag (may be negative)
+	 * @param end			last index to draw from mag (may be > mag.getSize())
+	 * @param minDB			dB value that is mapped to the first color of the color map
+	 * @param maxDB			dB value that is mapped to the last color of the color map
+	 * @param out			output array (at least width elements)
+	 */
+	public void renderRow(SpectrumPyramid mag, int reduction, int start, int end, float minDB, float maxDB, int[] out) {
+		int[] colorMap = this.colorMap;
+		int maxColorIndex = colorMap.length - 1;
+		float scale = colorMap.length / (maxDB - minDB);			// scale for the color mapping
+		float samplesPerPx = (float) (end-start) / (float) width;	// number of fft samples per one pixel
+		float avg;
+
+		// The start position to draw is either 0 or greater 0, if start is negative:
+		int firstPixel = start>=0 ? 0 : (int)((start * -1) / samplesPerPx);
+
+		// We will only draw to the end of mag, not beyond:
+		int lastPixel = end>=mag.getSize() ? (int) ((mag.getSize()-start) / samplesPerPx) : (int) ((end-start) / samplesPerPx);
+		lastPixel = Math.min(lastPixel, width);
+
+		// padding on the left side (we start at firstPixel+1 because of integer round off error):
+		int i = 0;
+		for (; i <= firstPixel && i < width; i++)
+			out[i] = BACKGROUND_COLOR;
+
+		for (; i < lastPixel; i++) {
+			// Calculate the reduced value (mean or max) of all bins on this pixel:
+			avg = mag.getValue(reduction, (int)(i*samplesPerPx) + start, (int)Math.ceil((i+1)*samplesPerPx) + start);
+
+			// Look up the color:
+			int colorIndex = (int) ((avg - minDB) * scale);
+			if(colorIndex <= 0 || avg <= minDB)
+				out[i] = colorMap[0];
+			else if(colorIndex >= maxColorIndex)
+				out[i] = colorMap[maxColorIndex];
+			else
+				out[i] = colorMap[colorIndex];
+		}
+
+		// padding on the right side:
+		for (; i < width; i++)
+			out[i] = BACKGROUND_COLOR;
+	}
+}
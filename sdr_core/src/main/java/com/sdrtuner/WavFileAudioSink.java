@@ -0,0 +1,60 @@
+package com.sdrtuner;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Audio sink that writes the samples to a WAV file (16 bit PCM, mono). The sizes in the header
+ * are written when the sink stops.
+ */
+public class WavFileAudioSink extends AudioSink {
+	private static final String LOGTAG = "WavFileAudioSink";
+	private File file = null;
+	private WavWriter wavWriter = null;
+
+	/**
+	 * @param packetSize	size of the incoming packets
+	 * @param sampleRate	sample rate of the audio signal
+	 * @param file			destination file (will be overwritten)
+	 */
+	public WavFileAudioSink(int packetSize, int sampleRate, File file) {
+		super(packetSize, sampleRate);
+		this.file = file;
+	}
+
+	@Override
+	protected void startOutput() {
+		try {
+			wavWriter = new WavWriter(file, getSampleRate(), false);
+		} catch (IOException e) {
+			DspLog.e(LOGTAG, "startOutput: Error while opening " + file.getAbsolutePath() + ": " + e.getMessage());
+			wavWriter = null;
+		}
+	}
+
+	@Override
+	protected boolean writeSamples(short[] samples, int count) {
+		if(wavWriter == null)
+			return false;
+		try {
+			wavWriter.write(samples, count);
+			return true;
+		} catch (IOException e) {
+			DspLog.e(LOGTAG, "writeSamples: Error while writing to " + file.getAbsolutePath() + ": " + e.getMessage());
+			return false;
+		}
+	}
+
+	@Override
+	protected void stopOutput() {
+		if(wavWriter == null)
+			return;
+		try {
+			wavWriter.close();
+			DspLog.i(LOGTAG, "stopOutput: Wrote " + wavWriter.getSampleCount() + " samples to " + file.getAbsolutePath());
+		} catch (IOException e) {
+			DspLog.e(LOGTAG, "stopOutput: Error while closing " + file.getAbsolutePath() + ": " + e.getMessage());
+		}
+		wavWriter = null;
+	}
+}
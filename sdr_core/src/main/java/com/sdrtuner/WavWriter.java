@@ -0,0 +1,212 @@
+package com.sdrtuner;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes mono audio samples to a WAV file (16 bit PCM or 32 bit float).
+ *
+ * The header is written with zero sizes when the file is opened; close() patches the sizes.
+ * Markers (e.g. gaps in the recording) are stored as cue points in a 'cue ' chunk after the
+ * data chunk.
+ */
+public class WavWriter {
+	private static final int PCM_HEADER_SIZE = 44;		// RIFF, fmt (16 bytes), data
+	private static final int FLOAT_HEADER_SIZE = 58;	// RIFF, fmt (18 bytes), fact, data
+	private static final int FORMAT_PCM = 1;
+	private static final int FORMAT_FLOAT = 3;
+	private File file;
+	private int sampleRate;
+	private boolean floatFormat;				// true: 32 bit float; false: 16 bit PCM
+	private BufferedOutputStream outputStream;
+	private byte[] byteBuffer = new byte[0];	// little endian representation of the samples
+	private long sampleCount = 0;				// number of samples in the data chunk
+	private List<Long> markers = new ArrayList<Long>();	// sample positions of the cue points
+
+	/**
+	 * Will create the file and write the header.
+	 *
+	 * @param file			destination file (will be overwritten)
+	 * @param sampleRate	sample rate of the audio signal
+	 * @param floatFormat	true: 32 bit float samples; false: 16 bit PCM
+	 * @throws IOException if the file can not be created
+	 */
+	public WavWriter(File file, int sampleRate, boolean floatFormat) throws IOException {
+		this.file = file;
+		this.sampleRate = sampleRate;
+		this.floatFormat = floatFormat;
+		this.outputStream = new BufferedOutputStream(new FileOutputStream(file));
+		this.outputStream.write(createHeader(0, 0));
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * @return number of samples written to the file
+	 */
+	public long getSampleCount() {
+		return sampleCount;
+	}
+
+	/**
+	 * Will append float samples to the file (converted to 16 bit if the file is not in float format)
+	 *
+	 * @param samples	samples in [-1..1]
+	 * @param offset	index of the first sample
+	 * @param count		number of samples
+	 * @throws IOException on write errors
+	 */
+	public void write(float[] samples, int offset, int count) throws IOException {
+		int bytesPerSample = floatFormat ? 4 : 2;
+		if(byteBuffer.length < count * bytesPerSample)
+			byteBuffer = new byte[count * bytesPerSample];
+		if(floatFormat) {
+			for (int i = 0; i < count; i++)
+				putInt(byteBuffer, 4 * i, Float.floatToRawIntBits(samples[offset + i]));
+		} else {
+			for (int i = 0; i < count; i++)
+				putShort(byteBuffer, 2 * i, (int) Math.max(-32768, Math.min(32767, samples[offset + i] * 32767)));
+		}
+		outputStream.write(byteBuffer, 0, count * bytesPerSample);
+		sampleCount += count;
+	}
+
+	/**
+	 * Will append 16 bit samples to the file (only for files in 16 bit PCM format)
+	 *
+	 * @param samples	16 bit PCM samples
+	 * @param count		number of samples
+	 * @throws IOException on write errors
+	 */
+	public void write(short[] samples, int count) throws IOException {
+		if(floatFormat)
+			throw new IllegalStateException("write: 16 bit samples can not be written to a float file");
+		if(byteBuffer.length < count * 2)
+			byteBuffer = new byte[count * 2];
+		for (int i = 0; i < count; i++)
+			putShort(byteBuffer, 2 * i, samples[i]);
+		outputStream.write(byteBuffer, 0, count * 2);
+		sampleCount += count;
+	}
+
+	/**
+	 * Will append silence to the file
+	 *
+	 * @param count		number of samples
+	 * @throws IOException on write errors
+	 */
+	public void writeSilence(long count) throws IOException {
+		int bytesPerSample = floatFormat ? 4 : 2;
+		byte[] zeros = new byte[(int) Math.min(count, 4096) * bytesPerSample];
+		for (long remaining = count; remaining > 0; remaining -= zeros.length / bytesPerSample)
+			outputStream.write(zeros, 0, (int) Math.min(remaining, zeros.length / bytesPerSample) * bytesPerSample);
+		sampleCount += count;
+	}
+
+	/**
+	 * Will add a cue point at the current position (after the last written sample)
+	 */
+	public void addMarker() {
+		markers.add(sampleCount);
+	}
+
+	/**
+	 * @return number of cue points
+	 */
+	public int getMarkerCount() {
+		return markers.size();
+	}
+
+	/**
+	 * Will write the cue chunk, patch the sizes in the header and close the file
+	 *
+	 * @throws IOException on write errors
+	 */
+	public void close() throws IOException {
+		long cueSize = 0;
+		if(!markers.isEmpty()) {
+			// cue chunk: count followed by 24 bytes per cue point
+			byte[] cue = new byte[12 + 24 * markers.size()];
+			putAscii(cue, 0, "cue ");
+			putInt(cue, 4, cue.length - 8);
+			putInt(cue, 8, markers.size());
+			for (int i = 0; i < markers.size(); i++) {
+				int offset = 12 + 24 * i;
+				putInt(cue, offset, i + 1);								// id
+				putInt(cue, offset + 4, (int) (long) markers.get(i));	// play order position
+				putAscii(cue, offset + 8, "data");
+				putInt(cue, offset + 12, 0);							// chunk start
+				putInt(cue, offset + 16, 0);							// block start
+				putInt(cue, offset + 20, (int) (long) markers.get(i));	// sample offset
+			}
+			outputStream.write(cue);
+			cueSize = cue.length;
+		}
+		outputStream.close();
+
+		// write the final sizes into the header:
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+		try {
+			randomAccessFile.write(createHeader(sampleCount, cueSize));
+		} finally {
+			randomAccessFile.close();
+		}
+	}
+
+	/**
+	 * Will create the header of the WAV file
+	 *
+	 * @param sampleCount	number of samples in the data chunk
+	 * @param trailerSize	number of bytes of the chunks after the data chunk
+	 * @return header
+	 */
+	private byte[] createHeader(long sampleCount, long trailerSize) {
+		int bytesPerSample = floatFormat ? 4 : 2;
+		long dataSize = sampleCount * bytesPerSample;
+		byte[] header = new byte[floatFormat ? FLOAT_HEADER_SIZE : PCM_HEADER_SIZE];
+		putAscii(header, 0, "RIFF");
+		putInt(header, 4, (int) (header.length - 8 + dataSize + trailerSize));
+		putAscii(header, 8, "WAVE");
+		putAscii(header, 12, "fmt ");
+		putInt(header, 16, floatFormat ? 18 : 16);				// size of the fmt chunk
+		putShort(header, 20, floatFormat ? FORMAT_FLOAT : FORMAT_PCM);
+		putShort(header, 22, 1);								// channels
+		putInt(header, 24, sampleRate);
+		putInt(header, 28, sampleRate * bytesPerSample);		// byte rate
+		putShort(header, 32, bytesPerSample);					// block align
+		putShort(header, 34, bytesPerSample * 8);				// bits per sample
+		int offset = 36;
+		if(floatFormat) {
+			putShort(header, offset, 0);						// size of the extension
+			putAscii(header, offset + 2, "fact");				// required for non-PCM formats
+			putInt(header, offset + 6, 4);
+			putInt(header, offset + 10, (int) sampleCount);
+			offset += 14;
+		}
+		putAscii(header, offset, "data");
+		putInt(header, offset + 4, (int) dataSize);
+		return header;
+	}
+
+	private static void putAscii(byte[] buffer, int offset, String value) {
+		for (int i = 0; i < value.length(); i++)
+			buffer[offset + i] = (byte) value.charAt(i);
+	}
+
+	private static void putShort(byte[] buffer, int offset, int value) {
+		buffer[offset] = (byte) value;
+		buffer[offset + 1] = (byte) (value >> 8);
+	}
+
+	private static void putInt(byte[] buffer, int offset, int value) {
+		putShort(buffer, offset, value);
+		putShort(buffer, offset + 2, value >> 16);
+	}
+}
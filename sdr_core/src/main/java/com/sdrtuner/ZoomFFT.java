@@ -0,0 +1,324 @@
+package com.sdrtuner;
+
+import java.util.Locale;
+
+/**
+ * High resolution spectrum of a narrow span around one frequency (zoom FFT).
+ *
+ * The full band fft needs a huge size to resolve signals that are only a few Hz apart, and it
+ * costs that size for the whole band. The zoom fft mixes the region of interest to baseband,
+ * decimates it by 'decimation' and runs a separate fft on the decimated stream. Its bins are
+ * sampleRate / (decimation * fftSize) wide, e.g. 2 Msps / (256 * 4096) = 1.9 Hz.
+ *
+ * The mixing and decimation is done on every packet of the source on the scheduler thread
+ * (processPacket()): the packet is converted, mixed to integers and decimated by a CicDecimator,
+ * like the pre-decimation of the demodulator. The mixer of the source (lookup tables of at most
+ * IQConverter.MAX_COSINE_LENGTH samples) only hits the frequency within a few hundred Hz and it
+ * is used for the channel of the demodulator, so the zoom fft has its own oscillator (a complex
+ * phasor that is rotated by one multiplication per sample). The decimated samples are kept in a history of the last
+ * fftSize samples. The fft is computed by the processing loop once per frame (process()), so it
+ * costs one small fft per frame and nothing if no new samples arrived.
+ *
+ * The CIC lets the band around the output rate fold back onto the spectrum, so the aliases are
+ * strong close to the edges of the decimated band. Only the center half of the fft is used
+ * (span = sampleRate / (2 * decimation)); there the aliases are at least 38 dB down. The droop
+ * of the decimator is removed per bin (see CicDecimator.getResponse()), so a carrier has the
+ * same level as in the full band spectrum (same dB scale as AnalyzerProcessingLoop). The noise
+ * floor is lower by the ratio of the bin widths.
+ *
+ * processPacket() must only be called by the scheduler thread and process() only by the
+ * processing loop; the getters and setters may be called from any thread.
+ */
+public class ZoomFFT {
+	private static final String LOGTAG = "ZoomFFT";
+
+	private final int fftSize;						// size of the zoom fft (the spectrum has fftSize / 2 bins)
+	private volatile long frequency = 0;			// center frequency of the zoomed span (Hz)
+	private volatile int decimation = 64;			// decimation of the mixed samples
+	private volatile int averageLength = 0;			// see SpectrumAverager; 0 for no averaging
+	private volatile int averagingMode = SpectrumAverager.MODE_EXPONENTIAL;
+
+	// Mixing and decimation (scheduler thread):
+	private CicDecimator cicDecimator = null;		// decimates the mixed samples
+	private long mixFrequency = 0;					// frequency the decimator was started for
+	private long sourceFrequency = 0;				// frequency of the source when the decimator was started
+	private int sourceSampleRate = 0;				// sample rate of the source when the decimator was started
+	private double phasorRe = 1;					// oscillator of the mixer (exp(j * phase))
+	private double phasorIm = 0;
+	private double stepRe = 1;						// rotation of the phasor per sample
+	private double stepIm = 0;
+	private SamplePacket converted = null;			// converted samples of the packet
+	private int[] intSamplesRe = new int[0];		// mixed integer samples
+	private int[] intSamplesIm = new int[0];
+	private SamplePacket decimated = null;			// output of the decimator (one packet)
+
+	// History of the decimated samples (guarded by 'this'):
+	private final float[] historyRe;				// circular buffer of the last fftSize samples
+	private final float[] historyIm;
+	private int historyIndex = 0;					// index of the oldest sample in the history
+	private int historyCount = 0;					// number of valid samples in the history
+	private long newSamples = 0;					// samples that arrived since the last fft
+	private long historyFrequency = 0;				// center frequency of the samples in the history
+	private int historySampleRate = 0;				// sample rate of the samples in the history
+	private int historyDecimation = 0;				// decimation of the samples in the history
+
+	// FFT (processing thread):
+	private final FFT fftBlock;
+	private final float[] re;
+	private final float[] im;
+	private final float[] power;					// corrected power of the center half of the fft
+	private final float[] gain;						// inverse of the power response of the decimator for each bin
+	private int gainDecimation = 0;					// decimation that gain was calculated for
+	private final SpectrumAverager averager;
+
+	// Result (guarded by 'this'):
+	private final float[] mag;						// spectrum of the zoomed span (dB)
+	private long spectrumFrequency = 0;				// center frequency of mag
+	private int spectrumSpan = 0;					// span of mag (Hz); 0 if there is no spectrum yet
+	private long spectrumCount = 0;					// number of spectra computed
+
+	/**
+	 * Constructor.
+	 *
+	 * @param fftSize		size of the zoom fft (power of 2); the spectrum has fftSize / 2 bins
+	 */
+	public ZoomFFT(int fftSize) {
+		this.fftSize = fftSize;
+		this.fftBlock = new FFT(fftSize);	// (checks the size)
+		this.re = new float[fftSize];
+		this.im = new float[fftSize];
+		this.historyRe = new float[fftSize];
+		this.historyIm = new float[fftSize];
+		this.power = new float[fftSize / 2];
+		this.gain = new float[fftSize / 2];
+		this.mag = new float[fftSize / 2];
+		this.averager = new SpectrumAverager(fftSize / 2);
+	}
+
+	public int getFftSize() {
+		return fftSize;
+	}
+
+	public long getFrequency() {
+		return frequency;
+	}
+
+	/**
+	 * @param frequency		center frequency of the zoomed span (Hz); should lie inside the band of the source
+	 */
+	public void setFrequency(long frequency) {
+		this.frequency = frequency;
+	}
+
+	public int getDecimation() {
+		return decimation;
+	}
+
+	/**
+	 * @param decimation	decimation of the mixed samples (at least 2). The span is sampleRate / (2 * decimation).
+	 */
+	public void setDecimation(int decimation) {
+		if(decimation < 2)
+			throw new IllegalArgumentException("Decimation must be at least 2: " + decimation);
+		this.decimation = decimation;
+	}
+
+	/**
+	 * @param length	averaging length (see AnalyzerProcessingLoop.setAverageLength()); 0 for no averaging
+	 * @param mode		SpectrumAverager.MODE_*
+	 */
+	public void setAveraging(int length, int mode) {
+		this.averagingMode = mode;
+		this.averageLength = length;
+	}
+
+	/**
+	 * Will mix a packet of the source to the zoom frequency, decimate it and append the decimated
+	 * samples to the history. Called by the scheduler for every packet.
+	 *
+	 * @param packet	packet of the source
+	 * @param source	source of the packet (converts the samples)
+	 */
+	public void processPacket(byte[] packet, IQSourceInterface source) {
+		long frequency = this.frequency;
+		int decimation = this.decimation;
+		if(cicDecimator == null || cicDecimator.getRatio() != decimation || frequency != mixFrequency
+				|| source.getFrequency() != sourceFrequency || source.getSampleRate() != sourceSampleRate) {
+			// (re)start the decimation:
+			cicDecimator = new CicDecimator(decimation, IQConverter.INT_SAMPLE_SCALE);
+			mixFrequency = frequency;
+			sourceFrequency = source.getFrequency();
+			sourceSampleRate = source.getSampleRate();
+			double step = -2 * Math.PI * (frequency - sourceFrequency) / sourceSampleRate;
+			stepRe = Math.cos(step);
+			stepIm = Math.sin(step);
+			phasorRe = 1;
+			phasorIm = 0;
+			synchronized (this) {
+				historyCount = 0;
+				historyFrequency = frequency;
+				historySampleRate = sourceSampleRate / decimation;
+				historyDecimation = decimation;
+			}
+		}
+
+		int sampleCount = packet.length / 2;
+		if(converted == null || converted.capacity() < sampleCount) {
+			converted = new SamplePacket(sampleCount);
+			intSamplesRe = new int[sampleCount];
+			intSamplesIm = new int[sampleCount];
+		}
+		if(decimated == null || decimated.capacity() < sampleCount / decimation + 1)
+			decimated = new SamplePacket(sampleCount / decimation + 1);
+		converted.setSize(0);
+		decimated.setSize(0);
+		int count = source.fillPacketIntoSamplePacket(packet, converted);
+
+		// mix the samples to baseband and scale them to integers:
+		float[] convertedRe = converted.re();
+		float[] convertedIm = converted.im();
+		double pRe = phasorRe;
+		double pIm = phasorIm;
+		for (int i = 0; i < count; i++) {
+			double sampleRe = convertedRe[i];
+			double sampleIm = convertedIm[i];
+			intSamplesRe[i] = (int) ((sampleRe * pRe - sampleIm * pIm) * IQConverter.INT_SAMPLE_SCALE);
+			intSamplesIm[i] = (int) ((sampleRe * pIm + sampleIm * pRe) * IQConverter.INT_SAMPLE_SCALE);
+			double tmp = pRe * stepRe - pIm * stepIm;
+			pIm = pRe * stepIm + pIm * stepRe;
+			pRe = tmp;
+		}
+		// keep the magnitude of the phasor at 1 (rounding errors):
+		double norm = 1 / Math.sqrt(pRe * pRe + pIm * pIm);
+		phasorRe = pRe * norm;
+		phasorIm = pIm * norm;
+		cicDecimator.decimate(intSamplesRe, intSamplesIm, count, decimated);
+
+		// append the decimated samples to the history (overwrites the oldest samples):
+		float[] decimatedRe = decimated.re();
+		float[] decimatedIm = decimated.im();
+		int size = decimated.size();
+		synchronized (this) {
+			for (int i = 0; i < size; i++) {
+				int index = (historyIndex + historyCount) % fftSize;
+				historyRe[index] = decimatedRe[i];
+				historyIm[index] = decimatedIm[i];
+				if(historyCount < fftSize)
+					historyCount++;
+				else
+					historyIndex = (historyIndex + 1) % fftSize;
+			}
+			newSamples += size;
+		}
+	}
+
+	/**
+	 * Will compute the zoomed spectrum from the history if new samples arrived since the last call
+	 * and the history is full. Called by the processing loop once per frame.
+	 *
+	 * @return true if a new spectrum was computed
+	 */
+	public boolean process() {
+		long frequency;
+		int sampleRate;
+		int decimation;
+		synchronized (this) {
+			if(historyCount < fftSize || newSamples == 0)
+				return false;
+			// copy the history in order (oldest sample first):
+			int firstPart = fftSize - historyIndex;
+			System.arraycopy(historyRe, historyIndex, re, 0, firstPart);
+			System.arraycopy(historyIm, historyIndex, im, 0, firstPart);
+			System.arraycopy(historyRe, 0, re, firstPart, historyIndex);
+			System.arraycopy(historyIm, 0, im, firstPart, historyIndex);
+			newSamples = 0;
+			frequency = historyFrequency;
+			sampleRate = historySampleRate;
+			decimation = historyDecimation;
+		}
+
+		if(decimation != gainDecimation)
+			calculateGain(decimation);
+
+		fftBlock.applyWindow(re, im);
+		fftBlock.fft(re, im);
+
+		// power of the center half of the fft (centered like the spectrum of the processing loop):
+		int bins = fftSize / 2;
+		for (int i = 0; i < bins; i++) {
+			int fftIndex = (i - bins / 2 + fftSize) % fftSize;
+			float realPart = re[fftIndex] / fftSize;
+			float imagPart = im[fftIndex] / fftSize;
+			power[i] = (realPart * realPart + imagPart * imagPart) * gain[i];
+		}
+
+		synchronized (this) {
+			averager.setMode(averagingMode);
+			averager.setAverageLength(averageLength);
+			averager.process(power, frequency, sampleRate / 2, mag);	// (the bins cover half of the sample rate)
+			spectrumFrequency = frequency;
+			spectrumSpan = sampleRate / 2;
+			spectrumCount++;
+		}
+		return true;
+	}
+
+	/**
+	 * Will calculate the inverse power response of the decimator for the bins of the spectrum
+	 *
+	 * @param decimation	ratio of the decimator
+	 */
+	private void calculateGain(int decimation) {
+		CicDecimator decimator = new CicDecimator(decimation, IQConverter.INT_SAMPLE_SCALE);
+		int bins = fftSize / 2;
+		for (int i = 0; i < bins; i++) {
+			double response = decimator.getResponse((i - bins / 2) / (double) fftSize);
+			gain[i] = (float) (1 / (response * response));
+		}
+		gainDecimation = decimation;
+		DspLog.d(LOGTAG, "calculateGain: decimation=" + decimation + " edge correction="
+				+ String.format(Locale.US, "%.1f dB", 10 * Math.log10(gain[0])));
+	}
+
+	/**
+	 * Will copy the latest zoomed spectrum into the given array
+	 *
+	 * @param out	output array (should have fftSize / 2 elements)
+	 * @return number of bins copied into out (0 if there is no spectrum yet)
+	 */
+	public synchronized int getSpectrum(float[] out) {
+		if(spectrumSpan == 0)
+			return 0;
+		int count = Math.min(mag.length, out.length);
+		System.arraycopy(mag, 0, out, 0, count);
+		return count;
+	}
+
+	/**
+	 * @return center frequency of the latest spectrum (Hz)
+	 */
+	public synchronized long getSpectrumFrequency() {
+		return spectrumFrequency;
+	}
+
+	/**
+	 * @return span of the latest spectrum (Hz); 0 if there is no spectrum yet
+	 */
+	public synchronized int getSpectrumSpan() {
+		return spectrumSpan;
+	}
+
+	/**
+	 * @return width of one bin of the latest spectrum (Hz)
+	 */
+	public synchronized float getResolution() {
+		return spectrumSpan / (float) mag.length;
+	}
+
+	/**
+	 * @return number of spectra that were computed
+	 */
+	public synchronized long getSpectrumCount() {
+		return spectrumCount;
+	}
+}
@@ -0,0 +1,162 @@
+package com.sdrtuner;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Compares the ScalarDspKernels with the VectorDspKernels. Each kernel is run on the same input
+ * by both implementations; the benchmark prints the time per sample, the speedup against scalar
+ * and the max. difference of the results against scalar. The vector width is fixed per JVM (see
+ * VectorDspKernels), so the widths are compared by running the benchmark once per width.
+ *
+ *   convert:   byte to float conversion of 8 bit IQ samples (HackRF)
+ *   convwin:   same as convert, multiplied with an FFT window (Scheduler --> AnalyzerProcessingLoop)
+ *   mix:       complex mixing with a cosine table (IQConverter.mixPacketIntoSamplePacket())
+ *   dot:       real FIR dot product (FirFilter.filterReal(); 64 taps per output sample)
+ *   cdot:      complex FIR dot product (FirFilter.filter(); 64 taps per output sample)
+ *   fft:       FFT with radix-4 passes (FFT.fft(); 4096 points)
+ *
+ * Widths above the preferred width of the CPU are emulated by the JVM and are marked with '*'.
+ *
+ * Usage (after building the sdr_core and sdr_vector modules):
+ *     for bits in 128 256 512; do
+ *         java --add-modules jdk.incubator.vector -Dsdrtuner.vectorBits=$bits \
+ *              -cp sdr_core/build/classes/java/main:sdr_vector/build/classes/java/main com.sdrtuner.KernelBenchmark
+ *     done
+ */
+public class KernelBenchmark {
+	private static final int SAMPLES = 16384;			// samples per kernel call
+	private static final int TAPS = 64;					// length of the FIR filters (FirFilter pads the taps to a multiple of 16)
+	private static final int FFT_SIZE = 4096;
+	private static final int MIXER_TABLE_LENGTH = 500;	// cosine table (like IQConverter.MAX_COSINE_LENGTH)
+	private static final long MEASURE_TIME = 500000000;	// time per measurement (ns)
+	private static final int WARMUP_CALLS = 2000;		// min. number of calls (the vector code is only fast after JIT compilation)
+	private static final String[] KERNELS = {"convert", "convwin", "mix", "dot", "cdot", "fft"};
+
+	private final byte[] bytes = new byte[2 * SAMPLES];
+	private final float[] re = new float[SAMPLES + TAPS];
+	private final float[] im = new float[SAMPLES + TAPS];
+	private final float[] cos = new float[MIXER_TABLE_LENGTH];
+	private final float[] sin = new float[MIXER_TABLE_LENGTH];
+	private final float[] taps = new float[TAPS];
+	private final float[] window = new float[SAMPLES];
+	private final float[] outRe = new float[SAMPLES + TAPS];
+	private final float[] outIm = new float[SAMPLES + TAPS];
+	private final float[] fftRe = new float[FFT_SIZE];
+	private final float[] fftIm = new float[FFT_SIZE];
+	private final float[] dotResult = new float[2];
+
+	public static void main(String[] args) {
+		new KernelBenchmark().run();
+	}
+
+	private KernelBenchmark() {
+		Random random = new Random(0);
+		random.nextBytes(bytes);
+		for (int i = 0; i < re.length; i++) {
+			re[i] = random.nextFloat() * 2 - 1;
+			im[i] = random.nextFloat() * 2 - 1;
+		}
+		for (int t = 0; t < MIXER_TABLE_LENGTH; t++) {
+			cos[t] = (float) Math.cos(2 * Math.PI * 7 * t / MIXER_TABLE_LENGTH);
+			sin[t] = (float) Math.sin(2 * Math.PI * 7 * t / MIXER_TABLE_LENGTH);
+		}
+		for (int k = 0; k < TAPS; k++)
+			taps[k] = random.nextFloat() / TAPS;
+		for (int i = 0; i < SAMPLES; i++)
+			window[i] = random.nextFloat();
+	}
+
+	private void run() {
+		DspKernels[] implementations = {new ScalarDspKernels(), new VectorDspKernels()};
+		System.out.println("  kernel    implementation   ns/sample   speedup   max. difference");
+		for (String kernel : KERNELS) {
+			double scalarTime = 0;
+			float[] reference = null;
+			for (DspKernels kernels : implementations) {
+				double time = measure(kernel, kernels);
+				float[] result = runOnce(kernel, kernels);
+				if(reference == null) {
+					scalarTime = time;
+					reference = result;
+				}
+				float difference = 0;
+				for (int i = 0; i < result.length; i++)
+					difference = Math.max(difference, Math.abs(result[i] - reference[i]));
+				System.out.println(String.format(Locale.US, "  %-8s  %-13s%s  %9.3f   %6.2fx   %g",
+						kernel, kernels.getName(), kernels.isVectorized() || kernels == implementations[0] ? " " : "*",
+						time, scalarTime / time, difference));
+			}
+		}
+	}
+
+	/**
+	 * @return average time per sample in ns (after a warm up)
+	 */
+	private double measure(String kernel, DspKernels kernels) {
+		FFT fft = new FFT(FFT_SIZE, kernels);
+		long samples = 0;
+		long start = 0;
+		for (int phase = 0; phase < 2; phase++) {	// phase 0 is the warm up
+			samples = 0;
+			start = System.nanoTime();
+			for (int calls = 0; calls < WARMUP_CALLS || System.nanoTime() - start < MEASURE_TIME; calls++)
+				samples += call(kernel, kernels, fft);
+		}
+		return (double) (System.nanoTime() - start) / samples;
+	}
+
+	/**
+	 * @return result of one call (as floats) to compare the implementations
+	 */
+	private float[] runOnce(String kernel, DspKernels kernels) {
+		call(kernel, kernels, new FFT(FFT_SIZE, kernels));
+		float[] result = new float[2 * SAMPLES];
+		System.arraycopy(outRe, 0, result, 0, SAMPLES);
+		System.arraycopy(outIm, 0, result, SAMPLES, SAMPLES);
+		return result;
+	}
+
+	/**
+	 * Will call the kernel on the test data (results in outRe and outIm)
+	 *
+	 * @return number of processed samples
+	 */
+	private int call(String kernel, DspKernels kernels, FFT fft) {
+		switch (kernel) {
+			case "convert":
+				kernels.convertBytes(bytes, 0, outRe, outIm, 0, SAMPLES, true, 127.4f, 127.9f, 1 / 128.0f, 1.02f / 128.0f, 0.01f, null);
+				return SAMPLES;
+			case "convwin":
+				kernels.convertBytes(bytes, 0, outRe, outIm, 0, SAMPLES, true, 127.4f, 127.9f, 1 / 128.0f, 1.02f / 128.0f, 0.01f, window);
+				return SAMPLES;
+			case "mix":
+				System.arraycopy(re, 0, outRe, 0, SAMPLES);
+				System.arraycopy(im, 0, outIm, 0, SAMPLES);
+				kernels.mix(outRe, outIm, 0, SAMPLES, cos, sin, 123);
+				return SAMPLES;
+			case "dot":
+				for (int i = 0; i < SAMPLES; i++)
+					outRe[i] = kernels.dot(taps, re, i);
+				return SAMPLES;
+			case "cdot":
+				for (int i = 0; i < SAMPLES; i++) {
+					kernels.dotComplex(taps, re, im, i, dotResult);
+					outRe[i] = dotResult[0];
+					outIm[i] = dotResult[1];
+				}
+				return SAMPLES;
+			case "fft":
+				for (int i = 0; i < SAMPLES; i += FFT_SIZE) {
+					System.arraycopy(re, i, fftRe, 0, FFT_SIZE);
+					System.arraycopy(im, i, fftIm, 0, FFT_SIZE);
+					fft.fft(fftRe, fftIm);
+					System.arraycopy(fftRe, 0, outRe, i, FFT_SIZE);
+					System.arraycopy(fftIm, 0, outIm, i, FFT_SIZE);
+				}
+				return SAMPLES;
+			default:
+				throw new IllegalArgumentException("unknown kernel: " + kernel);
+		}
+	}
+}
@@ -0,0 +1,212 @@
+package com.sdrtuner;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * DspKernels implemented with the Vector API (jdk.incubator.vector). The vectors have the
+ * preferred width of the CPU unless the system property "sdrtuner.vectorBits" (128, 256 or 512)
+ * is set.
+ *
+ * Conversion, mixing and FFT use the same operations in the same order as ScalarDspKernels (no
+ * fused multiply-add), so their results are identical. Only the dot products differ in the last
+ * bits because the vector lanes are summed in a different order. Loop remainders and FFT passes
+ * with a span shorter than a vector are done by the scalar methods of the super class. The
+ * float to 16 bit conversion of the audio stays scalar: the narrowing conversion (F2S) of the
+ * Vector API was 20 to 50% slower than the scalar loop at all widths (JDK 17).
+ */
+public class VectorDspKernels extends ScalarDspKernels {
+	public static final String VECTOR_BITS_PROPERTY = "sdrtuner.vectorBits";	// vector width (default: preferred width of the CPU)
+	// The species must be static final, otherwise the JIT compiler can not replace the vector
+	// operations with SIMD instructions (the width is therefore fixed per JVM):
+	private static final int BIT_SIZE = Math.max(128, Integer.getInteger(VECTOR_BITS_PROPERTY,
+			FloatVector.SPECIES_PREFERRED.vectorBitSize()));
+	private static final VectorSpecies<Float> SPECIES = VectorSpecies.of(float.class, VectorShape.forBitSize(BIT_SIZE));
+	private static final VectorSpecies<Integer> INT_SPECIES = SPECIES.withLanes(int.class);		// same shape and number of lanes
+	private static final VectorSpecies<Byte> BYTE_SPECIES = VectorSpecies.of(byte.class, VectorShape.forBitSize(BIT_SIZE / 2));	// 2 bytes (I and Q) per float lane
+	private static final int LANES = SPECIES.length();					// floats per vector
+
+	@Override
+	public String getName() {
+		return "vector" + BIT_SIZE;
+	}
+
+	/**
+	 * @return true if the CPU supports vectors of the chosen width (wider vectors are emulated
+	 *         by the JVM and are usually slower than scalar code)
+	 */
+	@Override
+	public boolean isVectorized() {
+		return BIT_SIZE <= FloatVector.SPECIES_PREFERRED.vectorBitSize();
+	}
+
+	@Override
+	public void convertBytes(byte[] in, int inOffset, float[] re, float[] im, int outOffset, int count,
+							 boolean unsigned, float biasI, float biasQ, float scaleI, float scaleQ, float cross,
+							 float[] window) {
+		// The bytes of a sample are loaded as one 16 bit lane (I in the low byte) and split
+		// with shifts, which is cheaper than deinterleaving float vectors:
+		int i = 0;
+		for (; i + LANES <= count; i += LANES) {
+			IntVector iq = (IntVector) ByteVector.fromArray(BYTE_SPECIES, in, inOffset + 2 * i)
+					.reinterpretAsShorts().convertShape(VectorOperators.S2I, INT_SPECIES, 0);
+			IntVector iPart, qPart;
+			if(unsigned) {
+				iPart = iq.and(0xff);
+				qPart = iq.lanewise(VectorOperators.LSHR, 8).and(0xff);
+			} else {
+				iPart = iq.lanewise(VectorOperators.LSHL, 24).lanewise(VectorOperators.ASHR, 24);
+				qPart = iq.lanewise(VectorOperators.LSHL, 16).lanewise(VectorOperators.ASHR, 24);
+			}
+			FloatVector r = ((FloatVector) iPart.convert(VectorOperators.I2F, 0)).sub(biasI).mul(scaleI);
+			FloatVector m = ((FloatVector) qPart.convert(VectorOperators.I2F, 0)).sub(biasQ).mul(scaleQ).add(r.mul(cross));
+			if(window != null) {
+				FloatVector w = FloatVector.fromArray(SPECIES, window, outOffset + i);
+				r.mul(w).intoArray(re, outOffset + i);
+				m.mul(w).intoArray(im, outOffset + i);
+			} else {
+				r.intoArray(re, outOffset + i);
+				m.intoArray(im, outOffset + i);
+			}
+		}
+		super.convertBytes(in, inOffset + 2 * i, re, im, outOffset + i, count - i, unsigned, biasI, biasQ, scaleI, scaleQ, cross, window);
+	}
+
+	@Override
+	public int mix(float[] re, float[] im, int offset, int count, float[] cos, float[] sin, int phase) {
+		// mix in segments that end at the end of the tables:
+		while(count > 0) {
+			int segment = Math.min(count, cos.length - phase);
+			int i = 0;
+			for (; i + LANES <= segment; i += LANES) {
+				FloatVector c = FloatVector.fromArray(SPECIES, cos, phase + i);
+				FloatVector s = FloatVector.fromArray(SPECIES, sin, phase + i);
+				FloatVector r = FloatVector.fromArray(SPECIES, re, offset + i);
+				FloatVector m = FloatVector.fromArray(SPECIES, im, offset + i);
+				r.mul(c).sub(m.mul(s)).intoArray(re, offset + i);
+				r.mul(s).add(m.mul(c)).intoArray(im, offset + i);
+			}
+			super.mix(re, im, offset + i, segment - i, cos, sin, phase + i);
+			offset += segment;
+			count -= segment;
+			phase += segment;
+			if(phase == cos.length)
+				phase = 0;
+		}
+		return phase;
+	}
+
+	@Override
+	public float dot(float[] taps, float[] samples, int offset) {
+		FloatVector sum = FloatVector.zero(SPECIES);
+		int k = 0;
+		for (; k + LANES <= taps.length; k += LANES)
+			sum = FloatVector.fromArray(SPECIES, taps, k).fma(FloatVector.fromArray(SPECIES, samples, offset + k), sum);
+		float result = sum.reduceLanes(VectorOperators.ADD);
+		for (; k < taps.length; k++)
+			result += taps[k] * samples[offset + k];
+		return result;
+	}
+
+	@Override
+	public void dotComplex(float[] taps, float[] re, float[] im, int offset, float[] result) {
+		FloatVector sumRe = FloatVector.zero(SPECIES);
+		FloatVector sumIm = FloatVector.zero(SPECIES);
+		int k = 0;
+		for (; k + LANES <= taps.length; k += LANES) {
+			FloatVector t = FloatVector.fromArray(SPECIES, taps, k);
+			sumRe = t.fma(FloatVector.fromArray(SPECIES, re, offset + k), sumRe);
+			sumIm = t.fma(FloatVector.fromArray(SPECIES, im, offset + k), sumIm);
+		}
+		float resultRe = sumRe.reduceLanes(VectorOperators.ADD);
+		float resultIm = sumIm.reduceLanes(VectorOperators.ADD);
+		for (; k < taps.length; k++) {
+			resultRe += taps[k] * re[offset + k];
+			resultIm += taps[k] * im[offset + k];
+		}
+		result[0] = resultRe;
+		result[1] = resultIm;
+	}
+
+	@Override
+	public void fftRadix2Pass(float[] x, float[] y, int n, int span, float[] cos, float[] sin) {
+		if(span < LANES) {
+			super.fftRadix2Pass(x, y, n, span, cos, sin);
+			return;
+		}
+		for (int block = 0; block < n; block += 2 * span) {
+			for (int j = 0; j < span; j += LANES) {
+				int k0 = block + j;
+				int k1 = k0 + span;
+				FloatVector c = FloatVector.fromArray(SPECIES, cos, j);
+				FloatVector s = FloatVector.fromArray(SPECIES, sin, j);
+				FloatVector x0 = FloatVector.fromArray(SPECIES, x, k0);
+				FloatVector y0 = FloatVector.fromArray(SPECIES, y, k0);
+				FloatVector x1 = FloatVector.fromArray(SPECIES, x, k1);
+				FloatVector y1 = FloatVector.fromArray(SPECIES, y, k1);
+				FloatVector t1 = c.mul(x1).sub(s.mul(y1));
+				FloatVector t2 = s.mul(x1).add(c.mul(y1));
+				x0.sub(t1).intoArray(x, k1);
+				y0.sub(t2).intoArray(y, k1);
+				x0.add(t1).intoArray(x, k0);
+				y0.add(t2).intoArray(y, k0);
+			}
+		}
+	}
+
+	@Override
+	public void fftRadix4Pass(float[] x, float[] y, int n, int span, float[] cos1, float[] sin1, float[] cos2, float[] sin2) {
+		if(span < LANES) {
+			super.fftRadix4Pass(x, y, n, span, cos1, sin1, cos2, sin2);
+			return;
+		}
+		for (int block = 0; block < n; block += 4 * span) {
+			for (int j = 0; j < span; j += LANES) {
+				int k0 = block + j;
+				int k1 = k0 + span;
+				int k2 = k1 + span;
+				int k3 = k2 + span;
+				FloatVector c1 = FloatVector.fromArray(SPECIES, cos1, j);
+				FloatVector s1 = FloatVector.fromArray(SPECIES, sin1, j);
+				FloatVector c2 = FloatVector.fromArray(SPECIES, cos2, j);
+				FloatVector s2 = FloatVector.fromArray(SPECIES, sin2, j);
+
+				// first pass: (k0, k1) and (k2, k3)
+				FloatVector xa = FloatVector.fromArray(SPECIES, x, k1);
+				FloatVector ya = FloatVector.fromArray(SPECIES, y, k1);
+				FloatVector tr = c1.mul(xa).sub(s1.mul(ya));
+				FloatVector ti = s1.mul(xa).add(c1.mul(ya));
+				xa = FloatVector.fromArray(SPECIES, x, k0);
+				ya = FloatVector.fromArray(SPECIES, y, k0);
+				FloatVector b0r = xa.add(tr), b0i = ya.add(ti);
+				FloatVector b1r = xa.sub(tr), b1i = ya.sub(ti);
+				xa = FloatVector.fromArray(SPECIES, x, k3);
+				ya = FloatVector.fromArray(SPECIES, y, k3);
+				tr = c1.mul(xa).sub(s1.mul(ya));
+				ti = s1.mul(xa).add(c1.mul(ya));
+				xa = FloatVector.fromArray(SPECIES, x, k2);
+				ya = FloatVector.fromArray(SPECIES, y, k2);
+				FloatVector b2r = xa.add(tr), b2i = ya.add(ti);
+				FloatVector b3r = xa.sub(tr), b3i = ya.sub(ti);
+
+				// second pass: (k0, k2) with w2 and (k1, k3) with -j * w2
+				tr = c2.mul(b2r).sub(s2.mul(b2i));
+				ti = s2.mul(b2r).add(c2.mul(b2i));
+				b0r.add(tr).intoArray(x, k0);
+				b0i.add(ti).intoArray(y, k0);
+				b0r.sub(tr).intoArray(x, k2);
+				b0i.sub(ti).intoArray(y, k2);
+				tr = c2.mul(b3r).sub(s2.mul(b3i));
+				ti = s2.mul(b3r).add(c2.mul(b3i));
+				b1r.add(ti).intoArray(x, k1);
+				b1i.sub(tr).intoArray(y, k1);
+				b1r.sub(ti).intoArray(x, k3);
+				b1i.add(tr).intoArray(y, k3);
+			}
+		}
+	}
+}